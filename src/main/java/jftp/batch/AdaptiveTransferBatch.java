@@ -0,0 +1,439 @@
+package jftp.batch;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jftp.client.Client;
+import jftp.connection.Connection;
+import jftp.exception.FtpException;
+import jftp.util.BatchCompletion;
+import jftp.util.DaemonThreadFactory;
+
+/**
+ * Transfers many files to or from one host over as many connections as the host handles best,
+ * rather than a number fixed in advance. Connections are opened and closed during a batch to
+ * follow a {@link ConcurrencyLimit} kept per host, so later batches to the same host start
+ * from what earlier ones learned.
+ *
+ * Files refused by the server for want of capacity are tried again, up to three times in all.
+ * Other failures are reported once the rest of the batch is done, as {@link BatchCompletion}
+ * describes.
+ */
+public class AdaptiveTransferBatch {
+
+    private static final String FILE_SEPARATOR = "/";
+
+    private static final int SERVICE_NOT_AVAILABLE = 421;
+    private static final int NOT_LOGGED_IN = 530;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final int DEFAULT_INITIAL_CONCURRENCY = 2;
+    private static final int DEFAULT_MAX_CONCURRENCY = 16;
+
+    /**
+     * Creates clients configured for the host, one for each connection to be opened.
+     */
+    public interface ClientSupplier {
+
+        Client newClient();
+    }
+
+    private final ExecutorService executor;
+    private final Map<String, ConcurrencyLimit> limits = new HashMap<String, ConcurrencyLimit>();
+
+    private int initialConcurrency = DEFAULT_INITIAL_CONCURRENCY;
+    private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+    private TransferJournal journal;
+
+    public AdaptiveTransferBatch() {
+        this(Executors.newCachedThreadPool(new DaemonThreadFactory("jftp-batch-%d")));
+    }
+
+    /**
+     * @param executor
+     * Runs one task per open connection, so should not bound the number of threads below the
+     * maximum concurrency.
+     */
+    public AdaptiveTransferBatch(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Connections opened to a host not seen before. Defaults to 2.
+     */
+    public void setInitialConcurrency(int initialConcurrency) {
+        this.initialConcurrency = initialConcurrency;
+    }
+
+    /**
+     * Connections never to be exceeded for any one host. Defaults to 16.
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Records each transfer in the journal, so that a batch run again after a crash skips the
+     * files completed and resumes downloads left in progress. Uploads in progress are sent
+     * again from the start. A journal should serve only one job, its paths being remote for
+     * downloads and local for uploads.
+     *
+     * Only the start and the end of each transfer are recorded, not the bytes in between. A
+     * download is resumed from the length of its local file, which is where it really stopped.
+     */
+    public void setJournal(TransferJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * The limit learned for the host so far, keyed as host:port.
+     */
+    public synchronized ConcurrencyLimit getLimit(String hostAndPort) {
+
+        ConcurrencyLimit limit = limits.get(hostAndPort);
+
+        if (null == limit) {
+            limit = new ConcurrencyLimit(Math.min(initialConcurrency, maxConcurrency), 1, maxConcurrency);
+            limits.put(hostAndPort, limit);
+        }
+
+        return limit;
+    }
+
+    public void downloadAll(ClientSupplier clients, List<String> remoteFilePaths, final String localDirectory)
+            throws FtpException {
+
+        new Batch("download", clients, remoteFilePaths, new FileOperation() {
+
+            @Override
+            public long run(Connection connection, String remoteFilePath, boolean resume) {
+
+                if (resume)
+                    connection.resumeDownload(remoteFilePath, localDirectory);
+                else
+                    connection.download(remoteFilePath, localDirectory);
+
+                String fileName = remoteFilePath.substring(remoteFilePath.lastIndexOf(FILE_SEPARATOR) + 1);
+
+                return new File(localDirectory, fileName).length();
+            }
+        }).run();
+    }
+
+    public void uploadAll(ClientSupplier clients, List<String> localFilePaths, final String remoteDirectory)
+            throws FtpException {
+
+        new Batch("upload", clients, localFilePaths, new FileOperation() {
+
+            @Override
+            public long run(Connection connection, String localFilePath, boolean resume) {
+
+                connection.upload(localFilePath, remoteDirectory);
+
+                return new File(localFilePath).length();
+            }
+        }).run();
+    }
+
+    private static boolean isRefusal(FtpException exception) {
+
+        int replyCode = exception.getReplyCode();
+
+        return replyCode == SERVICE_NOT_AVAILABLE || replyCode == NOT_LOGGED_IN;
+    }
+
+    private interface FileOperation {
+
+        /**
+         * @param resume
+         * Whether the journal shows the transfer as started before.
+         * @return
+         * The number of bytes transferred.
+         */
+        long run(Connection connection, String path, boolean resume) throws FtpException;
+    }
+
+    /**
+     * The state of one call, shared by its workers. Each worker holds a connection and takes
+     * the next file not yet taken until none are left, or until there are more workers than
+     * the limit now allows.
+     */
+    private class Batch {
+
+        private final String action;
+        private final ClientSupplier clients;
+        private final List<String> paths;
+        private final FileOperation operation;
+        private final ConcurrencyLimit limit;
+        private final TransferJournal journal = AdaptiveTransferBatch.this.journal;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+
+        private final Deque<Integer> pending = new ArrayDeque<Integer>();
+        private final int[] attempts;
+        private final FtpException[] failures;
+
+        private int workers;
+        private int connectedWorkers;
+        private int refusedInARow;
+        private boolean stopped;
+        private FtpException connectFailure;
+
+        Batch(String action, ClientSupplier clients, List<String> paths, FileOperation operation) {
+
+            this.action = action;
+            this.clients = clients;
+            this.paths = paths;
+            this.operation = operation;
+
+            // A client is only needed here to tell which host the batch is for.
+            Client client = clients.newClient();
+            this.limit = getLimit(client.getHost() + ":" + client.getPort());
+
+            for (int i = 0; i < paths.size(); i++) {
+
+                if (null == journal) {
+                    pending.add(i);
+                } else if (journal.getState(paths.get(i)) != TransferJournal.State.COMPLETED) {
+                    journal.queued(paths.get(i));
+                    pending.add(i);
+                }
+            }
+
+            attempts = new int[paths.size()];
+            failures = new FtpException[paths.size()];
+        }
+
+        void run() throws FtpException {
+
+            lock.lock();
+
+            try {
+
+                while (workers > 0 || (!pending.isEmpty() && null == connectFailure)) {
+
+                    while (null == connectFailure && workers < Math.min(limit.getLimit(), pending.size()))
+                        startWorker();
+
+                    changed.await();
+                }
+
+            } catch (InterruptedException e) {
+
+                stopped = true;
+                Thread.currentThread().interrupt();
+
+                throw new FtpException("Interrupted while waiting for the batch to complete.", e);
+
+            } finally {
+                lock.unlock();
+            }
+
+            if (null != journal)
+                journal.sync();
+
+            checkFailures();
+        }
+
+        private void startWorker() {
+
+            workers++;
+
+            try {
+
+                executor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        work();
+                    }
+                });
+
+            } catch (RuntimeException e) {
+
+                workers--;
+                throw e;
+            }
+        }
+
+        private void work() {
+
+            Client client = clients.newClient();
+            Connection connection;
+            long startNanos = System.nanoTime();
+
+            try {
+
+                connection = client.connect();
+                connected();
+
+            } catch (FtpException e) {
+
+                // Taken as a refusal whatever the reason, as SSH servers refuse surplus
+                // connections by simply closing them.
+                limit.onRefused(startNanos);
+                finishWorker(e);
+
+                return;
+            }
+
+            try {
+
+                Integer index;
+
+                while (null != (index = next())) {
+
+                    startNanos = System.nanoTime();
+
+                    try {
+
+                        limit.onSuccess(transfer(connection, paths.get(index)));
+
+                    } catch (FtpException e) {
+
+                        if (fail(index, e, startNanos))
+                            break;
+
+                    } catch (RuntimeException e) {
+
+                        fail(index, new FtpException("The transfer failed unexpectedly.", e), startNanos);
+                    }
+                }
+
+            } finally {
+
+                disconnectQuietly(client);
+                finishWorker(null);
+            }
+        }
+
+        private long transfer(Connection connection, String path) throws FtpException {
+
+            if (null == journal)
+                return operation.run(connection, path, false);
+
+            boolean resume = journal.getState(path) == TransferJournal.State.IN_PROGRESS;
+            journal.progress(path, 0);
+
+            long bytes = operation.run(connection, path, resume);
+            journal.completed(path, bytes);
+
+            return bytes;
+        }
+
+        /**
+         * @return
+         * The next file, or null if this worker should stop.
+         */
+        private Integer next() {
+
+            lock.lock();
+
+            try {
+
+                // Other workers may stop at the same time, leaving too few; any shortfall is
+                // made up for as they finish.
+                if (stopped || workers > limit.getLimit())
+                    return null;
+
+                return pending.poll();
+
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return
+         * Whether the worker should give up its connection, which the server has likely
+         * closed.
+         */
+        private boolean fail(int index, FtpException exception, long startNanos) {
+
+            boolean isRefusal = isRefusal(exception);
+
+            if (isRefusal)
+                limit.onRefused(startNanos);
+
+            lock.lock();
+
+            try {
+
+                if (isRefusal && ++attempts[index] < MAX_ATTEMPTS)
+                    pending.addLast(index);
+                else
+                    failures[index] = exception;
+
+                return isRefusal;
+
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void connected() {
+
+            lock.lock();
+
+            try {
+                connectedWorkers++;
+                refusedInARow = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Connections refused again and again with none left open and files still waiting
+         * mean the host cannot be used at all, so the batch ends rather than trying forever.
+         * Refusals made while another connection was open, or trailing in after the last file
+         * is done, mean nothing: the host can be used, just not as widely.
+         */
+        private void finishWorker(FtpException connectException) {
+
+            lock.lock();
+
+            try {
+
+                workers--;
+
+                if (null == connectException)
+                    connectedWorkers--;
+                else if (connectedWorkers == 0 && ++refusedInARow >= MAX_ATTEMPTS && workers == 0
+                        && !pending.isEmpty())
+                    connectFailure = connectException;
+
+                changed.signalAll();
+
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void disconnectQuietly(Client client) {
+
+            try {
+                client.disconnect();
+            } catch (FtpException e) {
+                // The connection is done with; failing to close it cleanly changes nothing.
+            }
+        }
+
+        private void checkFailures() throws FtpException {
+
+            if (null != connectFailure)
+                throw connectFailure;
+
+            BatchCompletion.checkFailures(action, "files", paths, failures);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package jftp.batch;
+
+/**
+ * Decides how many transfers to a host should run at once, from how the host responds. The
+ * limit is raised one at a time for as long as each extra connection raises throughput, and
+ * lowered again when it does not. A sustained drop in throughput cuts the limit by a quarter;
+ * the server refusing connections halves it, once for all the attempts refused together.
+ * While steady the limit is held, with an occasional probe upwards in case conditions have
+ * improved.
+ *
+ * Throughput is measured over windows of as many completed transfers as the limit allows at
+ * once, so that every connection contributes to each measurement.
+ */
+public class ConcurrencyLimit {
+
+    private static final double SIGNIFICANT_CHANGE = 0.1;
+    private static final double COLLAPSE_BACKOFF = 0.75;
+    private static final double REFUSAL_BACKOFF = 0.5;
+    private static final int WINDOWS_BETWEEN_PROBES = 8;
+
+    private static final long NOT_STARTED = -1;
+    private static final double NOT_MEASURED = -1;
+
+    private final int minimum;
+    private final int maximum;
+
+    private int limit;
+    private boolean probing;
+    private int windowsHeld = WINDOWS_BETWEEN_PROBES - 1;
+    private double baselineThroughput = NOT_MEASURED;
+
+    private long windowStartNanos = NOT_STARTED;
+    private boolean hasBackedOff;
+    private long lastBackOffNanos;
+    private long windowBytes;
+    private int windowCompletions;
+
+    public ConcurrencyLimit(int initial, int minimum, int maximum) {
+
+        if (minimum < 1 || maximum < minimum || initial < minimum || initial > maximum)
+            throw new IllegalArgumentException(String.format("Invalid limits: %d from %d to %d.", initial,
+                    minimum, maximum));
+
+        this.limit = initial;
+        this.minimum = minimum;
+        this.maximum = maximum;
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return
+     * Bytes per second at the current limit, or -1 if not yet measured.
+     */
+    public synchronized double getThroughput() {
+        return baselineThroughput;
+    }
+
+    /**
+     * Records a completed transfer of the given size.
+     */
+    public void onSuccess(long bytes) {
+        onSuccess(bytes, System.nanoTime());
+    }
+
+    /**
+     * Records the server refusing a connection or a transfer for want of capacity, as with FTP
+     * replies 421 and 530.
+     */
+    public void onRefused() {
+        onRefused(System.nanoTime());
+    }
+
+    /**
+     * Records a refusal as {@link #onRefused()} does, unless the refused attempt was started
+     * before the limit was last lowered. Attempts started together are refused together, and
+     * the first of them to be refused has already lowered the limit for that crowding; lowering
+     * it again for each of the rest would take it far below what the server accepts.
+     *
+     * @param startNanos
+     * {@link System#nanoTime()} when the refused connection or transfer was started.
+     */
+    public void onRefused(long startNanos) {
+        onRefused(startNanos, System.nanoTime());
+    }
+
+    synchronized void onRefused(long startNanos, long nowNanos) {
+
+        if (hasBackedOff && startNanos - lastBackOffNanos < 0)
+            return;
+
+        backOff(REFUSAL_BACKOFF);
+
+        hasBackedOff = true;
+        lastBackOffNanos = nowNanos;
+    }
+
+    /**
+     * The first completion only starts the clock, as when the transfers it overlapped with
+     * began is unknown.
+     */
+    synchronized void onSuccess(long bytes, long nowNanos) {
+
+        if (windowStartNanos == NOT_STARTED) {
+            windowStartNanos = nowNanos;
+            return;
+        }
+
+        windowBytes += bytes;
+        windowCompletions++;
+
+        long elapsedNanos = nowNanos - windowStartNanos;
+
+        if (windowCompletions < limit || elapsedNanos <= 0)
+            return;
+
+        adjust(windowBytes * 1e9 / elapsedNanos);
+
+        windowStartNanos = nowNanos;
+        windowBytes = 0;
+        windowCompletions = 0;
+    }
+
+    /**
+     * Compares a probe's throughput with that at the limit before it, and otherwise compares
+     * each window with the last to catch a collapse.
+     */
+    private void adjust(double throughput) {
+
+        if (probing) {
+
+            probing = false;
+
+            if (throughput > baselineThroughput * (1 + SIGNIFICANT_CHANGE)) {
+                baselineThroughput = throughput;
+                probe();
+            } else {
+                limit = Math.max(minimum, limit - 1);
+            }
+
+            return;
+        }
+
+        if (baselineThroughput != NOT_MEASURED && throughput < baselineThroughput * (1 - SIGNIFICANT_CHANGE)) {
+            backOff(COLLAPSE_BACKOFF);
+            return;
+        }
+
+        baselineThroughput = throughput;
+
+        if (++windowsHeld >= WINDOWS_BETWEEN_PROBES)
+            probe();
+    }
+
+    private void probe() {
+
+        windowsHeld = 0;
+
+        if (limit < maximum) {
+            limit++;
+            probing = true;
+        }
+    }
+
+    private void backOff(double factor) {
+
+        limit = Math.max(minimum, (int) (limit * factor));
+
+        probing = false;
+        windowsHeld = 0;
+        baselineThroughput = NOT_MEASURED;
+
+        windowStartNanos = NOT_STARTED;
+        windowBytes = 0;
+        windowCompletions = 0;
+    }
+}
@@ -0,0 +1,51 @@
+package jftp.batch;
+
+/**
+ * How long a plan was expected to take and how long it took, overall and per connection, so
+ * that the planner's assumed throughput can be corrected.
+ */
+public class PlanReport {
+
+    private final long[] estimatedMillis;
+    private final long[] actualMillis;
+    private final long bytes;
+
+    PlanReport(long[] estimatedMillis, long[] actualMillis, long bytes) {
+        this.estimatedMillis = estimatedMillis;
+        this.actualMillis = actualMillis;
+        this.bytes = bytes;
+    }
+
+    public long getEstimatedMillis() {
+        return latest(estimatedMillis);
+    }
+
+    public long getActualMillis() {
+        return latest(actualMillis);
+    }
+
+    public long getEstimatedMillis(int connection) {
+        return estimatedMillis[connection];
+    }
+
+    public long getActualMillis(int connection) {
+        return actualMillis[connection];
+    }
+
+    /**
+     * Bytes downloaded by all connections together.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    private long latest(long[] millis) {
+
+        long latest = 0;
+
+        for (long connectionMillis : millis)
+            latest = Math.max(latest, connectionMillis);
+
+        return latest;
+    }
+}
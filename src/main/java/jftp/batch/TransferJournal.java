@@ -0,0 +1,484 @@
+package jftp.batch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import jftp.exception.FtpException;
+import jftp.util.SharedScheduler;
+
+/**
+ * Records which transfers of a job are queued, in progress and completed, so that a job
+ * restarted after the JVM died can skip what was done and resume what was under way.
+ *
+ * Kept in an append-only binary file. A path is written out once, when queued, and referred to
+ * by number after that, so most records take 17 bytes. Each record carries a CRC32, and a file
+ * cut short by a crash is read up to its last whole record.
+ *
+ * Records are gathered in memory and written out together with a single fsync, every 10
+ * milliseconds by default or whenever {@link #sync()} is called, so that many threads can
+ * record transfers at once without waiting on the disk each time. Records not yet synced when
+ * the JVM dies are lost, which costs only repeating the transfers they described.
+ */
+public class TransferJournal implements Closeable {
+
+    public enum State {
+        QUEUED, IN_PROGRESS, COMPLETED
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] MAGIC = { 'J', 'F', 'T', 'J', 1 };
+
+    private static final byte QUEUED = 1;
+    private static final byte PROGRESS = 2;
+    private static final byte COMPLETED = 3;
+
+    private static final int MAX_PATH_LENGTH = 0xffff;
+    private static final int OFFSET_RECORD_LENGTH = 1 + 4 + 8 + 4;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10;
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final Path file;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private final List<Entry> entriesInOrder = new ArrayList<Entry>();
+
+    private final Object flushLock = new Object();
+    private final CRC32 crc = new CRC32();
+
+    private FileChannel channel;
+    private ScheduledFuture<?> flusher;
+
+    // Records are added to the one buffer while the other is written out; guarded by this.
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ByteBuffer flushing = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    private volatile FtpException flushFailure;
+
+    TransferJournal(Path file) {
+        this.file = file;
+    }
+
+    public static TransferJournal open(Path file) throws FtpException {
+        return open(file, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Reads the journal, or starts an empty one if the file does not exist. The file is then
+     * rewritten with just the latest state of each transfer, so that it does not grow without
+     * bound over many restarts.
+     * 
+     * @param flushIntervalMillis
+     * How often records are written out without being asked for.
+     */
+    public static TransferJournal open(Path file, long flushIntervalMillis) throws FtpException {
+
+        final TransferJournal journal = new TransferJournal(file);
+
+        try {
+
+            journal.read();
+            journal.compact();
+
+        } catch (IOException e) {
+
+            throw new FtpException("Unable to open transfer journal " + file, e);
+        }
+
+        journal.flusher = SharedScheduler.getInstance().scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                journal.flushInBackground();
+            }
+
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+
+        return journal;
+    }
+
+    /**
+     * Adds the transfer to the journal unless it is there already.
+     */
+    public synchronized void queued(String path) throws FtpException {
+
+        if (!entries.containsKey(path))
+            add(path);
+    }
+
+    /**
+     * Marks the transfer as started, or as having got further if called again with a larger
+     * offset.
+     * 
+     * @param offset
+     * How many bytes are known to have been transferred, 0 when only just started or when the
+     * caller does not count them.
+     */
+    public synchronized void progress(String path, long offset) throws FtpException {
+
+        Entry entry = entryFor(path);
+
+        entry.state = State.IN_PROGRESS;
+        entry.offset = offset;
+
+        append(PROGRESS, entry.id, offset);
+    }
+
+    /**
+     * @param size
+     * The number of bytes transferred in all.
+     */
+    public synchronized void completed(String path, long size) throws FtpException {
+
+        Entry entry = entryFor(path);
+
+        entry.state = State.COMPLETED;
+        entry.offset = size;
+
+        append(COMPLETED, entry.id, size);
+    }
+
+    /**
+     * @return
+     * null if the transfer was never queued.
+     */
+    public synchronized State getState(String path) {
+
+        Entry entry = entries.get(path);
+
+        return null == entry ? null : entry.state;
+    }
+
+    /**
+     * @return
+     * The bytes last recorded as transferred, 0 for a transfer not yet started.
+     */
+    public synchronized long getOffset(String path) {
+
+        Entry entry = entries.get(path);
+
+        return null == entry ? 0 : entry.offset;
+    }
+
+    /**
+     * The transfers queued or in progress, in the order they were queued.
+     */
+    public synchronized List<String> getUnfinished() {
+
+        List<String> unfinished = new ArrayList<String>();
+
+        for (Entry entry : entriesInOrder) {
+
+            if (entry.state != State.COMPLETED)
+                unfinished.add(entry.path);
+        }
+
+        return unfinished;
+    }
+
+    /**
+     * Writes out and fsyncs everything recorded so far. Threads syncing at the same time share
+     * a single write: whichever gets there first writes out the records of them all.
+     */
+    public void sync() throws FtpException {
+
+        checkFlushFailure();
+
+        try {
+            flush();
+        } catch (IOException e) {
+            throw new FtpException("Unable to write to transfer journal " + file, e);
+        }
+    }
+
+    @Override
+    public void close() throws FtpException {
+
+        flusher.cancel(false);
+
+        try {
+
+            sync();
+
+        } finally {
+
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Everything has been synced; the file has nothing left to lose.
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+
+        synchronized (flushLock) {
+
+            synchronized (this) {
+
+                if (pending.position() == 0)
+                    return;
+
+                ByteBuffer full = pending;
+                pending = flushing;
+                flushing = full;
+            }
+
+            flushing.flip();
+
+            while (flushing.hasRemaining())
+                channel.write(flushing);
+
+            channel.force(false);
+            flushing.clear();
+        }
+    }
+
+    /**
+     * A failure here is kept and reported to the next caller, there being no one to tell now.
+     */
+    private void flushInBackground() {
+
+        try {
+            flush();
+        } catch (IOException | RuntimeException e) {
+            flushFailure = new FtpException("Unable to write to transfer journal " + file, e);
+        }
+    }
+
+    private void checkFlushFailure() throws FtpException {
+
+        FtpException failure = flushFailure;
+
+        if (null != failure)
+            throw failure;
+    }
+
+    private Entry entryFor(String path) throws FtpException {
+
+        Entry entry = entries.get(path);
+
+        return null != entry ? entry : add(path);
+    }
+
+    private Entry add(String path) throws FtpException {
+
+        byte[] encodedPath = path.getBytes(UTF_8);
+
+        if (encodedPath.length > MAX_PATH_LENGTH)
+            throw new FtpException("Path too long for the transfer journal: " + path);
+
+        checkFlushFailure();
+
+        Entry entry = new Entry(entriesInOrder.size(), path);
+
+        entries.put(path, entry);
+        entriesInOrder.add(entry);
+
+        ByteBuffer buffer = reserve(1 + 4 + 2 + encodedPath.length + 4);
+        int start = buffer.position();
+
+        buffer.put(QUEUED).putInt(entry.id).putShort((short) encodedPath.length).put(encodedPath);
+        putCrc(buffer, start);
+
+        return entry;
+    }
+
+    private void append(byte type, int id, long offset) throws FtpException {
+
+        checkFlushFailure();
+
+        ByteBuffer buffer = reserve(OFFSET_RECORD_LENGTH);
+        int start = buffer.position();
+
+        buffer.put(type).putInt(id).putLong(offset);
+        putCrc(buffer, start);
+    }
+
+    /**
+     * Grows the pending buffer if the record will not fit, as happens when records are added
+     * faster than they can be written out.
+     */
+    private ByteBuffer reserve(int length) {
+
+        if (pending.remaining() < length) {
+
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + length));
+
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+
+        return pending;
+    }
+
+    private void putCrc(ByteBuffer buffer, int start) {
+
+        crc.reset();
+        crc.update(buffer.array(), start, buffer.position() - start);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    /**
+     * Stops at the first record that is incomplete or fails its check, which can only be the
+     * last one written before a crash.
+     */
+    private void read() throws IOException {
+
+        byte[] content;
+
+        try {
+            content = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+
+        if (content.length < MAGIC.length || !Arrays.equals(Arrays.copyOf(content, MAGIC.length), MAGIC))
+            throw new IOException("Not a transfer journal: " + file);
+
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        buffer.position(MAGIC.length);
+
+        try {
+
+            while (buffer.hasRemaining() && readRecord(buffer))
+                ;
+
+        } catch (BufferUnderflowException e) {
+            // The last record was cut short.
+        }
+    }
+
+    private boolean readRecord(ByteBuffer buffer) {
+
+        int start = buffer.position();
+        byte type = buffer.get();
+        int id = buffer.getInt();
+
+        String path = null;
+        long offset = 0;
+
+        if (type == QUEUED) {
+
+            byte[] encodedPath = new byte[buffer.getShort() & MAX_PATH_LENGTH];
+            buffer.get(encodedPath);
+            path = new String(encodedPath, UTF_8);
+
+        } else if (type == PROGRESS || type == COMPLETED) {
+
+            offset = buffer.getLong();
+
+        } else {
+
+            return false;
+        }
+
+        crc.reset();
+        crc.update(buffer.array(), start, buffer.position() - start);
+
+        if (buffer.getInt() != (int) crc.getValue())
+            return false;
+
+        if (type == QUEUED) {
+
+            if (id != entriesInOrder.size())
+                return false;
+
+            Entry entry = new Entry(id, path);
+
+            entries.put(path, entry);
+            entriesInOrder.add(entry);
+
+            return true;
+        }
+
+        if (id < 0 || id >= entriesInOrder.size())
+            return false;
+
+        Entry entry = entriesInOrder.get(id);
+
+        entry.state = type == COMPLETED ? State.COMPLETED : State.IN_PROGRESS;
+        entry.offset = offset;
+
+        return true;
+    }
+
+    /**
+     * Writes the current state to a new file which then replaces the old one, so a crash
+     * part way through leaves the old file as it was.
+     */
+    private void compact() throws IOException {
+
+        for (Entry entry : entriesInOrder) {
+
+            byte[] encodedPath = entry.path.getBytes(UTF_8);
+            ByteBuffer buffer = reserve(1 + 4 + 2 + encodedPath.length + 4 + OFFSET_RECORD_LENGTH);
+            int start = buffer.position();
+
+            buffer.put(QUEUED).putInt(entry.id).putShort((short) encodedPath.length).put(encodedPath);
+            putCrc(buffer, start);
+
+            if (entry.state != State.QUEUED) {
+
+                start = buffer.position();
+
+                buffer.put(entry.state == State.COMPLETED ? COMPLETED : PROGRESS).putInt(entry.id).putLong(entry.offset);
+                putCrc(buffer, start);
+            }
+        }
+
+        Path temporaryFile = file.resolveSibling(file.getFileName() + TEMPORARY_SUFFIX);
+
+        try (FileChannel temporary = FileChannel.open(temporaryFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            ByteBuffer header = ByteBuffer.wrap(MAGIC);
+
+            while (header.hasRemaining())
+                temporary.write(header);
+
+            pending.flip();
+
+            while (pending.hasRemaining())
+                temporary.write(pending);
+
+            pending.clear();
+            temporary.force(false);
+        }
+
+        Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static class Entry {
+
+        private final int id;
+        private final String path;
+
+        private State state = State.QUEUED;
+        private long offset;
+
+        Entry(int id, String path) {
+            this.id = id;
+            this.path = path;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package jftp.batch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Which files, or segments of files, each connection is to download and in what order, with
+ * when each connection is expected to finish.
+ */
+public class TransferPlan {
+
+    private final List<List<Part>> assignments;
+    private final long[] estimatedMillis;
+
+    TransferPlan(List<List<Part>> assignments, long[] estimatedMillis) {
+        this.assignments = assignments;
+        this.estimatedMillis = estimatedMillis;
+    }
+
+    public int getConnectionCount() {
+        return assignments.size();
+    }
+
+    public List<Part> getParts(int connection) {
+        return Collections.unmodifiableList(assignments.get(connection));
+    }
+
+    /**
+     * When the last connection is expected to finish, measured from the start.
+     */
+    public long getEstimatedMillis() {
+
+        long latest = 0;
+
+        for (long millis : estimatedMillis)
+            latest = Math.max(latest, millis);
+
+        return latest;
+    }
+
+    public long getEstimatedMillis(int connection) {
+        return estimatedMillis[connection];
+    }
+
+    boolean hasSegments() {
+
+        for (List<Part> parts : assignments) {
+
+            for (Part part : parts) {
+
+                if (part.isSegment())
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    List<Part> getSegments() {
+
+        List<Part> segments = new ArrayList<Part>();
+
+        for (List<Part> parts : assignments) {
+
+            for (Part part : parts) {
+
+                if (part.isSegment())
+                    segments.add(part);
+            }
+        }
+
+        return segments;
+    }
+
+    /**
+     * A whole file, or a range of bytes of one split across connections.
+     */
+    public static class Part {
+
+        private final String remoteFilePath;
+        private final long offset;
+        private final long length;
+        private final boolean segment;
+        private final long estimatedMillis;
+
+        Part(String remoteFilePath, long offset, long length, boolean segment, long estimatedMillis) {
+            this.remoteFilePath = remoteFilePath;
+            this.offset = offset;
+            this.length = length;
+            this.segment = segment;
+            this.estimatedMillis = estimatedMillis;
+        }
+
+        public String getRemoteFilePath() {
+            return remoteFilePath;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public boolean isSegment() {
+            return segment;
+        }
+
+        public long getEstimatedMillis() {
+            return estimatedMillis;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package jftp.batch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jftp.batch.TransferPlan.Part;
+import jftp.connection.Connection;
+import jftp.connection.FtpFile;
+import jftp.connection.RangedDownload;
+import jftp.exception.FtpException;
+import jftp.util.BatchCompletion;
+import jftp.util.DaemonThreadFactory;
+
+/**
+ * Spreads the download of many files over several connections so that all finish at about the
+ * same time, rather than one being left with a huge file once the rest are done. Files are
+ * handed out largest first, each to the connection expected to be free soonest.
+ *
+ * With a minimum segment size set, a file too large for any one connection to finish in time
+ * is split into segments downloaded over several connections at once, as long as the
+ * connections implement {@link RangedDownload}.
+ *
+ * How long each transfer takes is estimated from an assumed throughput per connection and a
+ * fixed cost per transfer, which dominates for small files.
+ */
+public class TransferPlanner {
+
+    private static final long DEFAULT_BYTES_PER_SECOND = 10L * 1024 * 1024;
+    private static final long DEFAULT_MILLIS_PER_TRANSFER = 50;
+
+    private static final String FILE_SEPARATOR = "/";
+
+    private final ExecutorService executor;
+
+    private long bytesPerSecond = DEFAULT_BYTES_PER_SECOND;
+    private long millisPerTransfer = DEFAULT_MILLIS_PER_TRANSFER;
+    private long minimumSegmentSize;
+
+    public TransferPlanner() {
+        this(Executors.newCachedThreadPool(new DaemonThreadFactory("jftp-planner-%d")));
+    }
+
+    /**
+     * @param executor
+     * Runs the work of each connection, so needs as many threads as there are connections.
+     */
+    public TransferPlanner(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Throughput assumed for each connection. Defaults to 10MB a second.
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Time assumed for starting and finishing each transfer, whatever its size. Defaults to
+     * 50 milliseconds.
+     */
+    public void setMillisPerTransfer(long millisPerTransfer) {
+        this.millisPerTransfer = millisPerTransfer;
+    }
+
+    /**
+     * The smallest segment a file may be split into. Defaults to 0, never splitting files.
+     */
+    public void setMinimumSegmentSize(long minimumSegmentSize) {
+        this.minimumSegmentSize = minimumSegmentSize;
+    }
+
+    /**
+     * Plans downloading the files, as listed, over the given number of connections.
+     * Directories are left out.
+     */
+    public TransferPlan plan(List<FtpFile> files, int connections) {
+
+        if (connections < 1)
+            throw new FtpException("At least one connection must be given.");
+
+        List<Part> parts = split(files, connections);
+
+        Collections.sort(parts, new Comparator<Part>() {
+
+            @Override
+            public int compare(Part first, Part second) {
+                return Long.compare(second.getEstimatedMillis(), first.getEstimatedMillis());
+            }
+        });
+
+        List<List<Part>> assignments = new ArrayList<List<Part>>();
+        final long[] estimatedMillis = new long[connections];
+
+        PriorityQueue<Integer> soonestFree = new PriorityQueue<Integer>(connections, new Comparator<Integer>() {
+
+            @Override
+            public int compare(Integer first, Integer second) {
+
+                int byLoad = Long.compare(estimatedMillis[first], estimatedMillis[second]);
+
+                return byLoad != 0 ? byLoad : Integer.compare(first, second);
+            }
+        });
+
+        for (int i = 0; i < connections; i++) {
+            assignments.add(new ArrayList<Part>());
+            soonestFree.add(i);
+        }
+
+        for (Part part : parts) {
+
+            int connection = soonestFree.poll();
+
+            assignments.get(connection).add(part);
+            estimatedMillis[connection] += part.getEstimatedMillis();
+
+            soonestFree.add(connection);
+        }
+
+        return new TransferPlan(assignments, estimatedMillis);
+    }
+
+    /**
+     * Runs the plan, each connection working through its own parts in turn, and reports how
+     * long it took against the estimate. Parts that fail leave the rest of the plan running.
+     */
+    public PlanReport download(TransferPlan plan, List<? extends Connection> connections,
+            final String localDirectory) throws FtpException {
+
+        if (connections.size() != plan.getConnectionCount())
+            throw new FtpException(String.format("The plan is for %d connections, not %d.", plan.getConnectionCount(),
+                    connections.size()));
+
+        if (plan.hasSegments())
+            prepareSegmentedFiles(plan, connections, localDirectory);
+
+        final long startNanos = System.nanoTime();
+        final long[] actualMillis = new long[connections.size()];
+        final AtomicLong bytes = new AtomicLong();
+        final List<String> partPaths = new ArrayList<String>();
+        final FtpException[] failures = new FtpException[partCount(plan)];
+
+        List<Future<Void>> workers = new ArrayList<Future<Void>>();
+
+        for (int i = 0; i < connections.size(); i++) {
+
+            final int index = i;
+            final Connection connection = connections.get(i);
+            final List<Part> parts = plan.getParts(i);
+            final int firstPart = partPaths.size();
+
+            for (Part part : parts)
+                partPaths.add(part.getRemoteFilePath());
+
+            workers.add(executor.submit(new Callable<Void>() {
+
+                @Override
+                public Void call() {
+
+                    for (int j = 0; j < parts.size(); j++) {
+
+                        try {
+                            bytes.addAndGet(download(connection, parts.get(j), localDirectory));
+                        } catch (FtpException e) {
+                            failures[firstPart + j] = e;
+                        }
+                    }
+
+                    actualMillis[index] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+                    return null;
+                }
+            }));
+        }
+
+        BatchCompletion.awaitAll(workers);
+        BatchCompletion.checkFailures("download", "parts", partPaths, failures);
+
+        long[] estimatedMillis = new long[connections.size()];
+
+        for (int i = 0; i < estimatedMillis.length; i++)
+            estimatedMillis[i] = plan.getEstimatedMillis(i);
+
+        return new PlanReport(estimatedMillis, actualMillis, bytes.get());
+    }
+
+    /**
+     * A file is split when it would take longer than an even share of all the work, into as
+     * many segments as it takes to bring each within that share.
+     */
+    private List<Part> split(List<FtpFile> files, int connections) {
+
+        long totalMillis = 0;
+
+        for (FtpFile file : files) {
+
+            if (!file.isDirectory())
+                totalMillis += estimateMillis(file.getSize());
+        }
+
+        long shareMillis = totalMillis / connections;
+        List<Part> parts = new ArrayList<Part>();
+
+        for (FtpFile file : files) {
+
+            if (file.isDirectory())
+                continue;
+
+            long size = file.getSize();
+            int segments = segmentCount(size, estimateMillis(size), shareMillis, connections);
+
+            if (segments < 2) {
+                parts.add(new Part(file.getFullPath(), 0, size, false, estimateMillis(size)));
+                continue;
+            }
+
+            long segmentSize = (size + segments - 1) / segments;
+
+            for (long offset = 0; offset < size; offset += segmentSize) {
+
+                long length = Math.min(segmentSize, size - offset);
+
+                parts.add(new Part(file.getFullPath(), offset, length, true, estimateMillis(length)));
+            }
+        }
+
+        return parts;
+    }
+
+    private int segmentCount(long size, long millis, long shareMillis, int connections) {
+
+        if (minimumSegmentSize <= 0 || millis <= shareMillis || shareMillis <= 0)
+            return 1;
+
+        long wanted = (millis + shareMillis - 1) / shareMillis;
+
+        return (int) Math.min(Math.min(wanted, connections), size / minimumSegmentSize);
+    }
+
+    private long estimateMillis(long bytes) {
+        return millisPerTransfer + bytes * 1000 / bytesPerSecond;
+    }
+
+    /**
+     * Segments are written into place in the local file, so each file being split is emptied
+     * first in case an older, longer copy is there.
+     */
+    private void prepareSegmentedFiles(TransferPlan plan, List<? extends Connection> connections,
+            String localDirectory) throws FtpException {
+
+        for (Connection connection : connections) {
+
+            if (!(connection instanceof RangedDownload))
+                throw new FtpException("Files can only be split over connections able to download part of a file.");
+        }
+
+        for (Part segment : plan.getSegments()) {
+
+            if (segment.getOffset() != 0)
+                continue;
+
+            Path localFile = localFile(localDirectory, segment.getRemoteFilePath());
+
+            try {
+                FileChannel.open(localFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING).close();
+            } catch (IOException e) {
+                throw new FtpException("Unable to create " + localFile, e);
+            }
+        }
+    }
+
+    /**
+     * @return
+     * The number of bytes downloaded.
+     */
+    private long download(Connection connection, Part part, String localDirectory) throws FtpException {
+
+        if (!part.isSegment()) {
+            connection.download(part.getRemoteFilePath(), localDirectory);
+            return part.getLength();
+        }
+
+        Path localFile = localFile(localDirectory, part.getRemoteFilePath());
+
+        try (FileChannel channel = FileChannel.open(localFile, StandardOpenOption.WRITE)) {
+
+            OutputStream outputStream = Channels.newOutputStream(channel.position(part.getOffset()));
+
+            long downloaded = ((RangedDownload) connection).downloadRange(part.getRemoteFilePath(), part.getOffset(),
+                    part.getLength(), outputStream);
+
+            if (downloaded < part.getLength())
+                throw new FtpException(String.format("%s ended %d bytes short of its listed size",
+                        part.getRemoteFilePath(), part.getLength() - downloaded));
+
+            return downloaded;
+
+        } catch (IOException e) {
+            throw new FtpException("Unable to write to " + localFile, e);
+        }
+    }
+
+    private Path localFile(String localDirectory, String remoteFilePath) {
+        return Paths.get(localDirectory, remoteFilePath.substring(remoteFilePath.lastIndexOf(FILE_SEPARATOR) + 1));
+    }
+
+    private int partCount(TransferPlan plan) {
+
+        int count = 0;
+
+        for (int i = 0; i < plan.getConnectionCount(); i++)
+            count += plan.getParts(i).size();
+
+        return count;
+    }
+}
@@ -0,0 +1,92 @@
+package jftp.cache;
+
+import java.io.OutputStream;
+import java.nio.file.Paths;
+
+import jftp.connection.Connection;
+import jftp.connection.ForwardingConnection;
+import jftp.connection.FtpFile;
+import jftp.exception.FtpException;
+
+/**
+ * Serves downloads from a disk cache, downloading only what is not cached. Entries are keyed
+ * by host, path, size and modification time, so each download costs one stat to find whether
+ * the cached copy is still current, and a changed file is simply cached again.
+ *
+ * A download to a directory leaves a copy of the cached file there, which may be changed or
+ * resumed into like any other download, unless the cache is set to give out hard links, which
+ * are read-only.
+ */
+public class CachingConnection extends ForwardingConnection {
+
+    private static final String FILE_SEPARATOR = "/";
+
+    private final DiskCache cache;
+    private final String host;
+
+    /**
+     * @param host
+     * The server the connection is to, which keeps its entries apart from other servers'.
+     */
+    public CachingConnection(Connection delegate, DiskCache cache, String host) {
+
+        super(delegate);
+
+        this.cache = cache;
+        this.host = host;
+    }
+
+    @Override
+    public void download(String remoteFilePath, String localDirectory) throws FtpException {
+
+        String path = absolute(remoteFilePath);
+        FtpFile remoteFile = delegate.stat(path);
+
+        if (null == remoteFile || remoteFile.isDirectory()) {
+            delegate.download(remoteFilePath, localDirectory);
+            return;
+        }
+
+        cache.get(key(path, remoteFile), Paths.get(localDirectory, remoteFile.getName()), loader(path));
+    }
+
+    @Override
+    public void download(String remoteFilePath, OutputStream outputStream) throws FtpException {
+
+        String path = absolute(remoteFilePath);
+        FtpFile remoteFile = delegate.stat(path);
+
+        if (null == remoteFile || remoteFile.isDirectory()) {
+            delegate.download(remoteFilePath, outputStream);
+            return;
+        }
+
+        cache.get(key(path, remoteFile), outputStream, loader(path));
+    }
+
+    private DiskCache.Loader loader(final String path) {
+
+        return new DiskCache.Loader() {
+
+            @Override
+            public void load(OutputStream outputStream) {
+                delegate.download(path, outputStream);
+            }
+        };
+    }
+
+    private String key(String path, FtpFile remoteFile) {
+        return host + "\n" + path + "\n" + remoteFile.getSize() + "\n" + remoteFile.getLastModifiedMillis();
+    }
+
+    private String absolute(String remoteFilePath) {
+
+        if (remoteFilePath.startsWith(FILE_SEPARATOR))
+            return remoteFilePath;
+
+        String workingDirectory = delegate.printWorkingDirectory();
+
+        return (workingDirectory.endsWith(FILE_SEPARATOR) ? workingDirectory : workingDirectory + FILE_SEPARATOR)
+                + remoteFilePath;
+    }
+}
@@ -0,0 +1,383 @@
+package jftp.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jftp.exception.FtpException;
+import jftp.util.BufferPool;
+
+/**
+ * A directory of cached file contents, bounded in total size, which any number of threads and
+ * processes on the same host may share.
+ *
+ * Each entry is written to a temporary file and moved into place once complete, so an entry
+ * is never seen half written, and is read-only from then on. Loading an entry is guarded by a
+ * lock file of its own, so callers after the same entry wait for one of them to load it rather
+ * than all loading it. Entries are evicted least recently used first, an entry's modification
+ * time being set each time it is used. Lock files are never removed, as another process may
+ * hold or be about to take the lock; they are empty, and one is left per key ever loaded.
+ *
+ * Entries are given out as copies, which the caller may change or resume downloads into.
+ * Hard links, which cost nothing however large the entry, may be given out instead where the
+ * caller only reads what it is given; see {@link #setHardLinks(boolean)}.
+ */
+public class DiskCache {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final String PART_SUFFIX = ".part";
+    private static final String EVICTION_LOCK_FILE = "eviction.lock";
+    private static final int ENTRY_NAME_LENGTH = 64;
+    private static final long STALE_PART_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final int LOCK_STRIPES = 64;
+    private static final int ATTEMPTS = 2;
+
+    private final Path directory;
+    private final long maxBytes;
+
+    // A process may hold only one lock on a file, so threads queue here before taking it.
+    private final ReentrantLock[] entryLocks = new ReentrantLock[LOCK_STRIPES];
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private volatile boolean hardLinks;
+
+    /**
+     * @param maxBytes
+     * The total size of the entries above which the least recently used are evicted.
+     */
+    public DiskCache(Path directory, long maxBytes) throws FtpException {
+
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+
+        for (int i = 0; i < LOCK_STRIPES; i++)
+            entryLocks[i] = new ReentrantLock();
+
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new FtpException("Unable to create cache directory " + directory, e);
+        }
+    }
+
+    /**
+     * Gives out entries as hard links to the cached file where the file system allows, rather
+     * than copies. A hard link shares the entry's file, so is read-only and has its modification
+     * time moved on by later uses of the entry, and a download or resumed download into it
+     * fails; it has to be copied before being changed. Defaults to false.
+     */
+    public void setHardLinks(boolean hardLinks) {
+        this.hardLinks = hardLinks;
+    }
+
+    /**
+     * Puts the cached content at the target path, loading it first if it is not cached.
+     */
+    public void get(String key, Path target, Loader loader) throws FtpException {
+
+        for (int attempt = 1;; attempt++) {
+
+            Path entry = lookup(key, loader);
+
+            try {
+
+                Files.deleteIfExists(target);
+
+                if (hardLinks)
+                    linkOrCopy(entry, target);
+                else
+                    copy(entry, target);
+
+                return;
+
+            } catch (NoSuchFileException e) {
+
+                // Evicted by another process in the meantime.
+                if (attempt == ATTEMPTS)
+                    throw new FtpException("Unable to serve " + key + " from the cache.", e);
+
+            } catch (IOException e) {
+
+                throw new FtpException("Unable to serve " + key + " from the cache.", e);
+            }
+        }
+    }
+
+    /**
+     * Writes the cached content to the stream, which is left open, loading it first if it is
+     * not cached.
+     */
+    public void get(String key, OutputStream outputStream, Loader loader) throws FtpException {
+
+        for (int attempt = 1;; attempt++) {
+
+            Path entry = lookup(key, loader);
+
+            try {
+
+                try (InputStream inputStream = Files.newInputStream(entry)) {
+                    BufferPool.getDefault().copy(inputStream, outputStream);
+                }
+
+                return;
+
+            } catch (NoSuchFileException e) {
+
+                if (attempt == ATTEMPTS)
+                    throw new FtpException("Unable to serve " + key + " from the cache.", e);
+
+            } catch (IOException e) {
+
+                throw new FtpException("Unable to serve " + key + " from the cache.", e);
+            }
+        }
+    }
+
+    boolean contains(String key) {
+        return Files.exists(entryPath(key));
+    }
+
+    /**
+     * Finds the entry, marking it as just used, or has the loader write it.
+     */
+    private Path lookup(String key, Loader loader) throws FtpException {
+
+        Path entry = entryPath(key);
+
+        if (touch(entry))
+            return entry;
+
+        ReentrantLock lock = entryLocks[(entry.getFileName().hashCode() & 0x7fffffff) % LOCK_STRIPES];
+        lock.lock();
+
+        try (FileChannel lockChannel = FileChannel.open(lockPath(entry), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+
+            // Released as the channel closes.
+            lockChannel.lock();
+
+            // Whoever held the lock before may have loaded it.
+            if (touch(entry))
+                return entry;
+
+            load(entry, loader);
+
+        } catch (IOException e) {
+
+            throw new FtpException("Unable to lock cache entry for " + key, e);
+
+        } finally {
+            lock.unlock();
+        }
+
+        // Only loading adds to the total, so only then can it need bringing down.
+        evict(entry);
+
+        return entry;
+    }
+
+    private void load(Path entry, Loader loader) throws IOException, FtpException {
+
+        Path part = Files.createTempFile(directory, entry.getFileName().toString(), PART_SUFFIX);
+
+        try {
+
+            try (OutputStream outputStream = Files.newOutputStream(part)) {
+                loader.load(outputStream);
+            }
+
+            part.toFile().setReadOnly();
+            Files.move(part, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } finally {
+            Files.deleteIfExists(part);
+        }
+    }
+
+    private boolean touch(Path entry) {
+
+        try {
+
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+
+        } catch (IOException e) {
+
+            return false;
+        }
+    }
+
+    private void linkOrCopy(Path entry, Path target) throws IOException {
+
+        try {
+
+            Files.createLink(target, entry);
+
+        } catch (NoSuchFileException e) {
+
+            throw e;
+
+        } catch (FileSystemException | UnsupportedOperationException e) {
+
+            // On another file system, or one without hard links.
+            copy(entry, target);
+        }
+    }
+
+    /**
+     * Copies the content alone, as Files.copy would also copy the entry's read-only permissions.
+     */
+    private void copy(Path entry, Path target) throws IOException {
+
+        try (InputStream inputStream = Files.newInputStream(entry);
+                OutputStream outputStream = Files.newOutputStream(target)) {
+
+            BufferPool.getDefault().copy(inputStream, outputStream);
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the rest fit, sparing the one just used. A
+     * process finding another already evicting leaves it to that one.
+     */
+    private void evict(Path justUsed) throws FtpException {
+
+        if (!evictionLock.tryLock())
+            return;
+
+        try (FileChannel lockChannel = FileChannel.open(directory.resolve(EVICTION_LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+
+            if (null == lockChannel.tryLock())
+                return;
+
+            List<Entry> entries = new ArrayList<Entry>();
+            long totalBytes = 0;
+
+            try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+
+                for (Path path : paths) {
+
+                    BasicFileAttributes attributes;
+
+                    try {
+                        attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    } catch (NoSuchFileException e) {
+                        continue;
+                    }
+
+                    String name = path.getFileName().toString();
+
+                    if (name.endsWith(PART_SUFFIX)) {
+
+                        // Left by a process that died while loading.
+                        if (attributes.lastModifiedTime().toMillis() < System.currentTimeMillis() - STALE_PART_MILLIS)
+                            Files.deleteIfExists(path);
+
+                    } else if (name.length() == ENTRY_NAME_LENGTH) {
+
+                        entries.add(new Entry(path, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                        totalBytes += attributes.size();
+                    }
+                }
+            }
+
+            Collections.sort(entries, LEAST_RECENTLY_USED_FIRST);
+
+            for (Entry entry : entries) {
+
+                if (totalBytes <= maxBytes)
+                    break;
+
+                if (entry.path.equals(justUsed))
+                    continue;
+
+                Files.deleteIfExists(entry.path);
+                totalBytes -= entry.size;
+            }
+
+        } catch (IOException e) {
+
+            throw new FtpException("Unable to evict from cache directory " + directory, e);
+
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private Path entryPath(String key) {
+
+        try {
+            return directory.resolve(hex(MessageDigest.getInstance(DIGEST_ALGORITHM).digest(key.getBytes(UTF_8))));
+        } catch (NoSuchAlgorithmException e) {
+            throw new FtpException("Unable to name cache entry for " + key, e);
+        }
+    }
+
+    private Path lockPath(Path entry) {
+        return entry.resolveSibling(entry.getFileName() + LOCK_SUFFIX);
+    }
+
+    private static String hex(byte[] bytes) {
+
+        char[] hex = new char[bytes.length * 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+
+        return new String(hex);
+    }
+
+    private static final Comparator<Entry> LEAST_RECENTLY_USED_FIRST = new Comparator<Entry>() {
+
+        @Override
+        public int compare(Entry first, Entry second) {
+            return Long.compare(first.lastUsedMillis, second.lastUsedMillis);
+        }
+    };
+
+    /**
+     * Writes the content of an entry not yet cached.
+     */
+    public interface Loader {
+
+        void load(OutputStream outputStream) throws FtpException;
+    }
+
+    private static class Entry {
+
+        private final Path path;
+        private final long size;
+        private final long lastUsedMillis;
+
+        Entry(Path path, long size, long lastUsedMillis) {
+            this.path = path;
+            this.size = size;
+            this.lastUsedMillis = lastUsedMillis;
+        }
+    }
+}
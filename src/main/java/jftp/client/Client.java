@@ -2,11 +2,18 @@ package jftp.client;
 
 import jftp.client.auth.UserCredentials;
 import jftp.connection.Connection;
+import jftp.exception.FtpException;
 
 public abstract class Client {
 
+	private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 30000;
+	private static final int DEFAULT_READ_TIMEOUT_MILLIS = 60000;
+
 	protected String host;
 	protected int port;
+
+	protected int connectTimeout = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+	protected int readTimeout = DEFAULT_READ_TIMEOUT_MILLIS;
 	
 	protected UserCredentials userCredentials = UserCredentials.ANONYMOUS;
 	
@@ -21,6 +28,29 @@ public abstract class Client {
 	public void setPort(int port) {
 		this.port = port;
 	}
+
+	/**
+	 * Sets how long to wait for the server to accept a connection. Defaults to 30 seconds.
+	 */
+	public void setConnectTimeout(int connectTimeoutMillis) {
+		this.connectTimeout = connectTimeoutMillis;
+	}
+
+	/**
+	 * Sets how long a read may block waiting for the server before the connection is treated
+	 * as stalled. Defaults to 60 seconds; zero waits forever.
+	 */
+	public void setReadTimeout(int readTimeoutMillis) {
+		this.readTimeout = readTimeoutMillis;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getPort() {
+		return port;
+	}
 	
 	/**
 	 * Opens a connection to the given host and port.
@@ -35,4 +65,35 @@ public abstract class Client {
 	public abstract Connection connect();
 	
 	public abstract void disconnect();
+
+	/**
+	 * @return
+	 * Whether the underlying connection is still believed to be open.
+	 */
+	public abstract boolean isConnected();
+
+	/**
+	 * Probes the server if the connection has been idle for at least the given time, keeping
+	 * it from being dropped by intermediate firewalls and NAT devices.
+	 * 
+	 * @return
+	 * false if the connection was found to be dead.
+	 */
+	public abstract boolean keepAlive(long idleMillis);
+
+	/**
+	 * Drops the current connection, if any, and connects again. The connection handed out by
+	 * {@link #connect()} is reused, so callers holding on to it carry on transparently, though
+	 * the working directory is reset to the login directory.
+	 */
+	public Connection reconnect() {
+
+		try {
+			disconnect();
+		} catch (FtpException e) {
+			// The old connection is being discarded; failing to close it cleanly is expected.
+		}
+
+		return connect();
+	}
 }
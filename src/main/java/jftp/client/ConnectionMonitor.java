@@ -0,0 +1,86 @@
+package jftp.client;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import jftp.util.SharedScheduler;
+
+/**
+ * Keeps idle clients alive in the background and transparently reconnects any that are found
+ * to be dead, so the first operation after a quiet period doesn't stall on a connection that
+ * was silently dropped. All monitored clients are checked from one periodic task on the
+ * shared scheduler.
+ */
+public class ConnectionMonitor {
+
+    private static final long DEFAULT_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    private final Set<Client> clients = Collections.newSetFromMap(new ConcurrentHashMap<Client, Boolean>());
+
+    private final long intervalMillis;
+    private final ScheduledExecutorService scheduler;
+
+    private ScheduledFuture<?> task;
+
+    public ConnectionMonitor() {
+        this(DEFAULT_INTERVAL_MILLIS);
+    }
+
+    public ConnectionMonitor(long intervalMillis) {
+        this(intervalMillis, SharedScheduler.getInstance());
+    }
+
+    ConnectionMonitor(long intervalMillis, ScheduledExecutorService scheduler) {
+        this.intervalMillis = intervalMillis;
+        this.scheduler = scheduler;
+    }
+
+    public synchronized void monitor(Client client) {
+
+        clients.add(client);
+
+        if (null == task)
+            task = scheduler.scheduleWithFixedDelay(new Runnable() {
+
+                @Override
+                public void run() {
+                    checkClients();
+                }
+
+            }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopMonitoring(Client client) {
+
+        clients.remove(client);
+
+        if (clients.isEmpty() && null != task) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    void checkClients() {
+
+        for (Client client : clients)
+            check(client);
+    }
+
+    private void check(Client client) {
+
+        try {
+
+            if (client.isConnected() && client.keepAlive(intervalMillis))
+                return;
+
+            client.reconnect();
+
+        } catch (RuntimeException e) {
+            // The host is unreachable for now; the client is tried again on the next pass.
+        }
+    }
+}
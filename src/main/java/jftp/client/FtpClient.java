@@ -5,9 +5,11 @@ import java.net.SocketException;
 
 import jftp.connection.Connection;
 import jftp.connection.ConnectionFactory;
+import jftp.connection.FtpConnection;
 import jftp.exception.FtpException;
 
 import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPConnectionClosedException;
 import org.apache.commons.net.ftp.FTPReply;
 
 public class FtpClient extends Client {
@@ -21,6 +23,8 @@ public class FtpClient extends Client {
 
     protected FTPClient ftpClient;
 
+    private FtpConnection connection;
+
     public FtpClient() {
         
         ftpClient = new FTPClient();
@@ -33,12 +37,21 @@ public class FtpClient extends Client {
             connectClientAndCheckStatus();
             setSpecificModesOnClient();
             login();
+            configureDataChannel();
+
+        } catch (FTPConnectionClosedException e) {
+
+            // Sent a 421 reply, typically because the server has too many connections.
+            throw new FtpException(String.format(CONNECTION_ERROR_MESSAGE, host, port), ftpClient.getReplyCode(), e);
 
         } catch (IOException e) {
             throw new FtpException(String.format(CONNECTION_ERROR_MESSAGE, host, port), e);
         }
 
-        return connectionFactory.createFtpConnection(ftpClient);
+        if (null == connection)
+            connection = connectionFactory.createFtpConnection(ftpClient);
+
+        return connection;
     }
     
     public void disconnect() {
@@ -56,12 +69,32 @@ public class FtpClient extends Client {
         }
     }
 
+    public boolean isConnected() {
+
+        return null != ftpClient && ftpClient.isConnected();
+    }
+
+    public boolean keepAlive(long idleMillis) {
+
+        if (null == connection || !isConnected())
+            return false;
+
+        return connection.keepAlive(idleMillis);
+    }
+
+    protected void configureDataChannel() throws IOException {
+    }
+
     private void connectClientAndCheckStatus() throws SocketException, IOException, FtpException {
 
+        ftpClient.setConnectTimeout(connectTimeout);
+        ftpClient.setDefaultTimeout(readTimeout);
+        ftpClient.setDataTimeout(readTimeout);
+
         ftpClient.connect(host, port);
 
         if (!FTPReply.isPositiveCompletion(ftpClient.getReplyCode()))
-            throw new FtpException(String.format(STATUS_ERROR_MESSAGE, host, port));
+            throw new FtpException(String.format(STATUS_ERROR_MESSAGE, host, port), ftpClient.getReplyCode());
     }
 
     private void login() throws IOException, FtpException {
@@ -69,7 +102,8 @@ public class FtpClient extends Client {
         boolean hasLoggedIn = ftpClient.login(userCredentials.getUsername(), userCredentials.getPassword());
 
         if (!hasLoggedIn)
-            throw new FtpException(String.format(UNABLE_TO_LOGIN_MESSAGE, userCredentials.getUsername()));
+            throw new FtpException(String.format(UNABLE_TO_LOGIN_MESSAGE, userCredentials.getUsername()),
+                    ftpClient.getReplyCode());
         
         ftpClient.setFileType(FTPClient.BINARY_FILE_TYPE);
     }
@@ -1,13 +1,70 @@
 package jftp.client;
 
+import java.io.IOException;
+
 import org.apache.commons.net.ftp.FTPSClient;
 
 public class FtpsClient extends FtpClient {
 
-    private static final String SSL = "SSL";
+    private static final String TLS = "TLS";
+    private static final String PRIVATE_DATA_CHANNEL = "P";
+
+    /**
+     * TLS 1.3 is left out by default: servers requiring the data connection to reuse the
+     * control connection's session refuse it under 1.3, where sessions are resumed by ticket
+     * and cannot be shared as {@link SessionReusingFtpsClient} does.
+     */
+    static final String[] DEFAULT_PROTOCOLS = { "TLSv1.2" };
+
+    private boolean protectDataChannel = true;
 
     public FtpsClient() {
-        
-        ftpClient = new FTPSClient(SSL, true);
+        this(true);
+    }
+
+    public FtpsClient(boolean isImplicit) {
+
+        FTPSClient ftpsClient = new SessionReusingFtpsClient(isImplicit, SslContextCache.getInstance().getContext(TLS));
+        ftpsClient.setEnabledProtocols(DEFAULT_PROTOCOLS);
+
+        ftpClient = ftpsClient;
+    }
+
+    /**
+     * The TLS protocol versions that may be negotiated, "TLSv1.2" alone by default. "TLSv1.3"
+     * may be added for servers not requiring session reuse, on a JVM supporting it.
+     */
+    public void setProtocols(String... protocols) {
+        ((FTPSClient) ftpClient).setEnabledProtocols(protocols);
+    }
+
+    /**
+     * Whether data connections resume the control connection's TLS session, as servers
+     * enforcing session reuse require. This needs the JVM started with
+     * --add-opens java.base/sun.security.ssl=ALL-UNNAMED on Java 9 and later; without it every
+     * data connection negotiates a session of its own.
+     */
+    public boolean isSessionReuseActive() {
+        return ftpClient instanceof SessionReusingFtpsClient
+                && ((SessionReusingFtpsClient) ftpClient).isReusingSessions();
+    }
+
+    /**
+     * Whether data connections should be encrypted (PROT P). Enabled by default.
+     */
+    public void setProtectDataChannel(boolean protectDataChannel) {
+        this.protectDataChannel = protectDataChannel;
+    }
+
+    @Override
+    protected void configureDataChannel() throws IOException {
+
+        if (!protectDataChannel)
+            return;
+
+        FTPSClient ftpsClient = (FTPSClient) ftpClient;
+
+        ftpsClient.execPBSZ(0);
+        ftpsClient.execPROT(PRIVATE_DATA_CHANNEL);
     }
 }
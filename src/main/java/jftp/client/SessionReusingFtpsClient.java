@@ -0,0 +1,100 @@
+package jftp.client;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.util.Locale;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.commons.net.ftp.FTPSClient;
+
+/**
+ * FTPSClient that offers the control connection's TLS session to every data connection, so
+ * servers enforcing session reuse (and those that merely allow it) resume rather than
+ * renegotiate on each LIST, RETR and STOR.
+ * 
+ * The JSSE has no public API for seeding its client session cache, so the session is placed
+ * there reflectively. Where that is not permitted (Java 9+ without
+ * --add-opens java.base/sun.security.ssl=ALL-UNNAMED) data connections fall back to a full
+ * handshake, which servers enforcing reuse refuse. Whether reuse is possible is checked as the
+ * client is created, and reported by {@link #isReusingSessions()}. Resumption in this way only
+ * applies to TLS 1.2 sessions.
+ */
+class SessionReusingFtpsClient extends FTPSClient {
+
+    private static final String SESSION_HOST_PORT_CACHE = "sessionHostPortCache";
+
+    private volatile boolean sessionCacheAccessible;
+
+    SessionReusingFtpsClient(boolean isImplicit, SSLContext context) {
+
+        super(isImplicit, context);
+
+        sessionCacheAccessible = isSessionCacheAccessible(context.getClientSessionContext());
+    }
+
+    /**
+     * @return
+     * false if the session cache cannot be reached, in which case every data connection
+     * negotiates a session of its own.
+     */
+    boolean isReusingSessions() {
+        return sessionCacheAccessible;
+    }
+
+    @Override
+    protected void _prepareDataSocket_(Socket socket) throws IOException {
+
+        if (!sessionCacheAccessible || !(socket instanceof SSLSocket) || !(_socket_ instanceof SSLSocket))
+            return;
+
+        SSLSession controlSession = ((SSLSocket) _socket_).getSession();
+
+        if (!controlSession.isValid())
+            return;
+
+        try {
+
+            cacheSessionFor(socket, controlSession);
+
+        } catch (Exception e) {
+
+            sessionCacheAccessible = false;
+        }
+    }
+
+    private static boolean isSessionCacheAccessible(SSLSessionContext sessionContext) {
+
+        try {
+
+            sessionContext.getClass().getDeclaredField(SESSION_HOST_PORT_CACHE).setAccessible(true);
+            return true;
+
+        } catch (Exception e) {
+
+            return false;
+        }
+    }
+
+    private void cacheSessionFor(Socket dataSocket, SSLSession controlSession) throws Exception {
+
+        SSLSessionContext sessionContext = controlSession.getSessionContext();
+
+        Field cacheField = sessionContext.getClass().getDeclaredField(SESSION_HOST_PORT_CACHE);
+        cacheField.setAccessible(true);
+
+        Object cache = cacheField.get(sessionContext);
+
+        Method put = cache.getClass().getDeclaredMethod("put", Object.class, Object.class);
+        put.setAccessible(true);
+
+        String key = String.format("%s:%d", dataSocket.getInetAddress().getHostAddress(), dataSocket.getPort());
+
+        put.invoke(cache, key.toLowerCase(Locale.ENGLISH), controlSession);
+    }
+}
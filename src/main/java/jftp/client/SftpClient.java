@@ -1,10 +1,16 @@
 package jftp.client;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import jftp.connection.Connection;
 import jftp.connection.ConnectionFactory;
+import jftp.connection.SftpConnection;
+import jftp.connection.SharedConnection;
 import jftp.exception.FtpException;
 
 import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
@@ -13,18 +19,72 @@ public class SftpClient extends Client {
 
 	private static final String SFTP = "sftp";
 	private static final String CONNECTION_ERROR_MESSAGE = "Unable to connect to host %s on port %d";
+	private static final String ALGORITHM_SEPARATOR = ",";
+	private static final int DEFAULT_SERVER_ALIVE_COUNT_MAX = 3;
+
+	/**
+	 * Counter mode AES first as it is hardware accelerated by the JCE on most hosts and
+	 * can be pipelined, unlike the CBC variants which are kept only as a fallback.
+	 */
+	static final String DEFAULT_CIPHERS = "aes128-ctr,aes192-ctr,aes256-ctr,aes128-cbc,aes192-cbc,aes256-cbc,3des-ctr,3des-cbc";
+	static final String DEFAULT_MACS = "hmac-sha2-256,hmac-sha1,hmac-sha1-96,hmac-md5,hmac-md5-96";
 
 	private JSch jsch;
 	private ConnectionFactory connectionFactory;
 
 	private Session session;
 	private Channel channel;
+	private SftpConnection connection;
+
+	private String ciphers = DEFAULT_CIPHERS;
+	private String macs = DEFAULT_MACS;
+	private String keyExchanges;
+
+	private int serverAliveInterval;
+	private int serverAliveCountMax = DEFAULT_SERVER_ALIVE_COUNT_MAX;
 	
 	public SftpClient() {
 		this.jsch = new JSch();
 		this.connectionFactory = new ConnectionFactory();
 	}
 
+	/**
+	 * Sets the ciphers offered to the server, most preferred first. Any cipher the local
+	 * JCE cannot provide is dropped during negotiation.
+	 */
+	public void setCiphers(String... ciphers) {
+		this.ciphers = joinAlgorithms(ciphers);
+	}
+
+	/**
+	 * Sets the MACs offered to the server, most preferred first.
+	 */
+	public void setMacs(String... macs) {
+		this.macs = joinAlgorithms(macs);
+	}
+
+	/**
+	 * Sets the key exchange algorithms offered to the server, most preferred first. When
+	 * not set, the JSch defaults are used.
+	 */
+	public void setKeyExchanges(String... keyExchanges) {
+		this.keyExchanges = joinAlgorithms(keyExchanges);
+	}
+
+	/**
+	 * When set, the session sends a keepalive request whenever nothing has been received from
+	 * the server for the given interval, and drops the session after
+	 * {@link #setServerAliveCountMax(int)} requests go unanswered. This takes the place of the
+	 * read timeout. Disabled by default.
+	 */
+	public void setServerAliveInterval(int serverAliveIntervalMillis) {
+		this.serverAliveInterval = serverAliveIntervalMillis;
+	}
+
+	public void setServerAliveCountMax(int serverAliveCountMax) {
+		this.serverAliveCountMax = serverAliveCountMax;
+	}
+
 	public Connection connect() {
 
 		session = null;
@@ -39,7 +99,42 @@ public class SftpClient extends Client {
 			throw new FtpException(String.format(CONNECTION_ERROR_MESSAGE, host, port), e);
 		}
 
-		return connectionFactory.createSftpConnection(channel);
+		if (null == connection)
+			connection = connectionFactory.createSftpConnection(channel);
+		else
+			connection.setChannel((ChannelSftp) channel);
+
+		return connection;
+	}
+	
+	/**
+	 * Connects as {@link #connect()} does, then opens further SFTP channels on the same
+	 * session, so that one SSH login serves a number of threads at once. Disconnecting the
+	 * client closes them all.
+	 * 
+	 * @param channels
+	 * The total number of channels, including the one connect opens.
+	 */
+	public SharedConnection connectShared(int channels) {
+
+		List<Connection> connections = new ArrayList<Connection>();
+		connections.add(connect());
+
+		try {
+
+			for (int i = 1; i < channels; i++) {
+
+				Channel sharedChannel = session.openChannel(SFTP);
+				sharedChannel.connect();
+
+				connections.add(connectionFactory.createSftpConnection(sharedChannel));
+			}
+
+		} catch (JSchException e) {
+			throw new FtpException(String.format(CONNECTION_ERROR_MESSAGE, host, port), e);
+		}
+
+		return new SharedConnection(connections);
 	}
 	
 	public void disconnect() {
@@ -51,13 +146,53 @@ public class SftpClient extends Client {
 	    session.disconnect();
 	}
 
+	public boolean isConnected() {
+
+		return null != session && null != channel && session.isConnected() && channel.isConnected();
+	}
+
+	public boolean keepAlive(long idleMillis) {
+
+		if (null == connection || !isConnected())
+			return false;
+
+		return connection.keepAlive(idleMillis);
+	}
+
     private void configureSessionAndConnect() throws JSchException {
         
         session = jsch.getSession(userCredentials.getUsername(), host, port);
         session.setConfig("StrictHostKeyChecking", "no");
+        configureAlgorithms();
         session.setPassword(userCredentials.getPassword());
+        session.setTimeout(connectTimeout);
 
         session.connect();
+
+        configureReadTimeout();
+    }
+
+    private void configureReadTimeout() throws JSchException {
+
+        if (serverAliveInterval > 0) {
+            session.setServerAliveInterval(serverAliveInterval);
+            session.setServerAliveCountMax(serverAliveCountMax);
+        } else {
+            session.setTimeout(readTimeout);
+        }
+    }
+
+    private void configureAlgorithms() {
+
+        session.setConfig("cipher.c2s", ciphers);
+        session.setConfig("cipher.s2c", ciphers);
+        session.setConfig("CheckCiphers", ciphers);
+
+        session.setConfig("mac.c2s", macs);
+        session.setConfig("mac.s2c", macs);
+
+        if (null != keyExchanges)
+            session.setConfig("kex", keyExchanges);
     }
 
     private void openChannelFromSession() throws JSchException {
@@ -65,4 +200,22 @@ public class SftpClient extends Client {
         channel = session.openChannel(SFTP);
         channel.connect();
     }
+
+    private String joinAlgorithms(String... algorithms) {
+
+        if (null == algorithms || algorithms.length == 0)
+            throw new FtpException("At least one algorithm must be given.");
+
+        StringBuilder joined = new StringBuilder();
+
+        for (String algorithm : algorithms) {
+
+            if (joined.length() > 0)
+                joined.append(ALGORITHM_SEPARATOR);
+
+            joined.append(algorithm.trim());
+        }
+
+        return joined.toString();
+    }
 }
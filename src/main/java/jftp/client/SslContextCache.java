@@ -0,0 +1,55 @@
+package jftp.client;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.net.ssl.SSLContext;
+
+import jftp.exception.FtpException;
+
+/**
+ * Hands out one initialised SSLContext per protocol. The JSSE client session cache lives on
+ * the context, so sharing it lets repeat connections to the same host resume their TLS
+ * session instead of performing a full handshake.
+ */
+public class SslContextCache {
+
+    private static final String CONTEXT_CREATION_ERROR_MESSAGE = "Unable to create an SSL context for protocol %s";
+
+    private static final SslContextCache INSTANCE = new SslContextCache();
+
+    private final ConcurrentMap<String, SSLContext> contexts = new ConcurrentHashMap<String, SSLContext>();
+
+    public static SslContextCache getInstance() {
+        return INSTANCE;
+    }
+
+    public SSLContext getContext(String protocol) {
+
+        SSLContext context = contexts.get(protocol);
+
+        if (null != context)
+            return context;
+
+        SSLContext created = createContext(protocol);
+        SSLContext existing = contexts.putIfAbsent(protocol, created);
+
+        return null == existing ? created : existing;
+    }
+
+    private SSLContext createContext(String protocol) {
+
+        try {
+
+            SSLContext context = SSLContext.getInstance(protocol);
+            context.init(null, null, null);
+
+            return context;
+
+        } catch (GeneralSecurityException e) {
+
+            throw new FtpException(String.format(CONTEXT_CREATION_ERROR_MESSAGE, protocol), e);
+        }
+    }
+}
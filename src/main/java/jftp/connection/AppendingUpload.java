@@ -0,0 +1,18 @@
+package jftp.connection;
+
+import java.io.InputStream;
+
+import jftp.exception.FtpException;
+
+/**
+ * A connection able to add to the end of a remote file, so that a file which only grows can be
+ * kept up to date by sending what is new.
+ */
+public interface AppendingUpload {
+
+    /**
+     * Adds everything read from the stream to the end of the remote file, creating it if it
+     * does not exist. Should the transfer fail, whatever reached the server is left in place.
+     */
+    void append(InputStream inputStream, String remoteFilePath) throws FtpException;
+}
@@ -0,0 +1,222 @@
+package jftp.connection;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+
+import jftp.exception.FtpException;
+import jftp.util.DaemonThreadFactory;
+
+/**
+ * Publishes what a blocking producer reads, one producer per subscriber, each run on a thread
+ * of the executor. The producer waits for demand before handing over each item, and reads
+ * nothing more while it waits, so a slow subscriber holds back the server rather than filling
+ * the heap.
+ */
+abstract class BlockingPublisher<T> implements Flow.Publisher<T> {
+
+    static final Executor DEFAULT_EXECUTOR = Executors.newCachedThreadPool(new DaemonThreadFactory(
+            "jftp-publisher-%d"));
+
+    static final long DEFAULT_DEMAND_TIMEOUT_MILLIS = 60 * 1000;
+
+    private final Executor executor;
+    private final long demandTimeoutMillis;
+
+    BlockingPublisher(Executor executor) {
+        this(executor, 0);
+    }
+
+    /**
+     * @param demandTimeoutMillis
+     * How long the producer waits for the subscriber to ask for another item before giving up
+     * and failing the subscription, or 0 to wait as long as it takes.
+     */
+    BlockingPublisher(Executor executor, long demandTimeoutMillis) {
+
+        this.executor = executor;
+        this.demandTimeoutMillis = demandTimeoutMillis;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+
+        if (null == subscriber)
+            throw new NullPointerException("A subscriber must be given.");
+
+        Subscription subscription = new Subscription(subscriber);
+
+        subscriber.onSubscribe(subscription);
+
+        try {
+            executor.execute(subscription);
+        } catch (RejectedExecutionException e) {
+            subscription.finish(new FtpException("Unable to start publishing.", e));
+        }
+    }
+
+    /**
+     * Reads everything there is to publish, handing each item to the emitter, and returns
+     * early once the emitter refuses one.
+     */
+    abstract void produce(Emitter<T> emitter) throws FtpException;
+
+    /**
+     * Called on the subscriber's thread when it cancels before production has finished, to
+     * interrupt a read that may be blocked, and on the producer's thread when the subscriber
+     * asks for nothing more in time. Does nothing unless overridden.
+     */
+    void cancelled() {
+    }
+
+    interface Emitter<T> {
+
+        /**
+         * Waits until the subscriber wants another item, then passes it on.
+         * 
+         * @return
+         * false if the subscriber cancelled instead, or asked for nothing more in time, in
+         * which case the item is dropped.
+         */
+        boolean emit(T item);
+    }
+
+    private class Subscription implements Flow.Subscription, Emitter<T>, Runnable {
+
+        private final Flow.Subscriber<? super T> subscriber;
+
+        private long demand;
+        private boolean cancelled;
+        private boolean finished;
+        private Throwable invalidRequest;
+        private Throwable stalled;
+
+        Subscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public synchronized void request(long n) {
+
+            if (cancelled)
+                return;
+
+            if (n <= 0) {
+
+                // Reported from the producer's thread once it stops, so signals never overlap.
+                invalidRequest = new IllegalArgumentException("Requested " + n + " items; at least one must be.");
+                cancel();
+
+                return;
+            }
+
+            demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel() {
+
+            if (cancelled)
+                return;
+
+            cancelled = true;
+            notifyAll();
+
+            if (!finished)
+                cancelled();
+        }
+
+        @Override
+        public boolean emit(T item) {
+
+            boolean hasStalled = false;
+            boolean refused;
+
+            synchronized (this) {
+
+                try {
+
+                    long deadline = System.currentTimeMillis() + demandTimeoutMillis;
+
+                    while (demand == 0 && !cancelled) {
+
+                        if (demandTimeoutMillis == 0) {
+                            wait();
+                            continue;
+                        }
+
+                        long remaining = deadline - System.currentTimeMillis();
+
+                        if (remaining <= 0) {
+                            stalled = new FtpException(String.format(
+                                    "The subscriber asked for nothing more within %d ms.", demandTimeoutMillis));
+                            cancelled = true;
+                            hasStalled = true;
+                            break;
+                        }
+
+                        wait(remaining);
+                    }
+
+                } catch (InterruptedException e) {
+
+                    Thread.currentThread().interrupt();
+                    cancelled = true;
+                }
+
+                refused = cancelled;
+
+                if (!refused && demand != Long.MAX_VALUE)
+                    demand--;
+            }
+
+            // Stops the producer's read as a cancel would, the subscriber being failed instead.
+            if (hasStalled)
+                cancelled();
+
+            if (refused)
+                return false;
+
+            subscriber.onNext(item);
+
+            return true;
+        }
+
+        @Override
+        public void run() {
+
+            RuntimeException failure = null;
+
+            try {
+                produce(this);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+
+            finish(failure);
+        }
+
+        private void finish(RuntimeException failure) {
+
+            boolean wasCancelled;
+            Throwable error;
+
+            synchronized (this) {
+                finished = true;
+                wasCancelled = cancelled;
+                error = null != invalidRequest ? invalidRequest : stalled;
+            }
+
+            if (null != error)
+                subscriber.onError(error);
+            else if (wasCancelled)
+                return;
+            else if (null != failure)
+                subscriber.onError(failure);
+            else
+                subscriber.onComplete();
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package jftp.connection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jftp.exception.FtpException;
+import jftp.util.BufferPool;
+import jftp.util.SingleFlight;
+
+/**
+ * Lets threads asking for the same file or listing at the same time share one request to the
+ * server. Each waiter is given the result when it arrives, or the same exception if it fails.
+ * Only requests overlapping in time are shared; nothing is kept once they finish.
+ *
+ * Meant to sit in front of a connection that may be used from many threads at once, such as a
+ * {@link SharedConnection}.
+ */
+public class CoalescingConnection extends ForwardingConnection {
+
+    private static final String FILE_SEPARATOR = "/";
+    private static final String SPOOL_PREFIX = "jftp-";
+    private static final String SPOOL_SUFFIX = ".spool";
+    private static final int DEFAULT_MEMORY_BYTES = 1024 * 1024;
+
+    private final SingleFlight<String, List<FtpFile>> listings = new SingleFlight<String, List<FtpFile>>();
+    private final int memoryBytes;
+
+    private final SingleFlight<String, Path> fileDownloads = new SingleFlight<String, Path>();
+    private final SingleFlight<String, Spool> streamDownloads = new SingleFlight<String, Spool>() {
+
+        @Override
+        protected void shared(Spool spool, int followers) {
+            spool.share(followers);
+        }
+    };
+
+    public CoalescingConnection(Connection delegate) {
+        this(delegate, DEFAULT_MEMORY_BYTES);
+    }
+
+    CoalescingConnection(Connection delegate, int memoryBytes) {
+
+        super(delegate);
+
+        this.memoryBytes = memoryBytes;
+    }
+
+    /**
+     * Callers sharing a download into a different directory are given a copy of the file.
+     */
+    @Override
+    public void download(String remoteFilePath, final String localDirectory) throws FtpException {
+
+        final String path = absolute(remoteFilePath);
+        final Path localFile = Paths.get(localDirectory, Paths.get(path).getFileName().toString());
+
+        Path downloadedFile = fileDownloads.execute(path, new SingleFlight.Operation<Path>() {
+
+            @Override
+            public Path run() {
+
+                delegate.download(path, localDirectory);
+
+                return localFile;
+            }
+        });
+
+        if (downloadedFile.equals(localFile))
+            return;
+
+        try {
+            Files.copy(downloadedFile, localFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new FtpException("Unable to write to local directory " + localDirectory, e);
+        }
+    }
+
+    /**
+     * The first caller's stream is written to as the download arrives, with a copy kept for
+     * the callers joining it, who are served from the copy once it completes. The first 1MB is
+     * kept in memory. Beyond that the copy goes to a temporary file if anyone has joined by
+     * then, and is otherwise no longer kept, those joining later downloading the file again.
+     */
+    @Override
+    public void download(String remoteFilePath, final OutputStream outputStream) throws FtpException {
+
+        final String path = absolute(remoteFilePath);
+        final Spool[] created = new Spool[1];
+
+        Spool spool = streamDownloads.execute(path, new SingleFlight.Operation<Spool>() {
+
+            @Override
+            public Spool run() {
+
+                created[0] = new Spool(path);
+                created[0].download(outputStream);
+
+                return created[0];
+            }
+        });
+
+        if (spool != created[0] && !spool.copyTo(outputStream))
+            download(path, outputStream);
+    }
+
+    @Override
+    public List<FtpFile> listFiles() throws FtpException {
+        return listFiles(printWorkingDirectory());
+    }
+
+    /**
+     * Each caller is given a copy of the shared listing, as callers may change the lists they
+     * are given.
+     */
+    @Override
+    public List<FtpFile> listFiles(String path) throws FtpException {
+
+        final String absolutePath = absolute(path);
+
+        List<FtpFile> listing = listings.execute(absolutePath, new SingleFlight.Operation<List<FtpFile>>() {
+
+            @Override
+            public List<FtpFile> run() {
+                return delegate.listFiles(absolutePath);
+            }
+        });
+
+        return new ArrayList<FtpFile>(listing);
+    }
+
+    /**
+     * Relative paths are resolved before being handed on, as the same relative path means
+     * different files to threads in different working directories.
+     */
+    private String absolute(String path) {
+
+        if (path.startsWith(FILE_SEPARATOR))
+            return path;
+
+        String workingDirectory = printWorkingDirectory();
+
+        return (workingDirectory.endsWith(FILE_SEPARATOR) ? workingDirectory : workingDirectory + FILE_SEPARATOR)
+                + path;
+    }
+
+    /**
+     * A copy of a download kept for the callers joining it, in memory up to a limit and then
+     * in a temporary file, which is deleted once every caller sharing it has been served. A
+     * copy that cannot be kept is abandoned rather than failing the download.
+     */
+    private class Spool extends OutputStream {
+
+        private final String remoteFilePath;
+        private final AtomicInteger readers = new AtomicInteger();
+
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private Path file;
+        private OutputStream fileOutputStream;
+        private boolean abandoned;
+
+        Spool(String remoteFilePath) {
+            this.remoteFilePath = remoteFilePath;
+        }
+
+        void download(OutputStream outputStream) throws FtpException {
+
+            try {
+
+                delegate.download(remoteFilePath, new TeeOutputStream(outputStream, this));
+
+            } catch (RuntimeException e) {
+
+                abandon();
+                throw e;
+
+            } finally {
+
+                closeFile();
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+
+            if (null != memory && memory.size() + length > memoryBytes)
+                overflow();
+
+            if (abandoned)
+                return;
+
+            try {
+
+                if (null != memory)
+                    memory.write(buffer, offset, length);
+                else
+                    fileOutputStream.write(buffer, offset, length);
+
+            } catch (IOException e) {
+
+                abandon();
+            }
+        }
+
+        void share(int followers) {
+
+            if (followers == 0)
+                abandon();
+            else
+                readers.set(followers);
+        }
+
+        /**
+         * @return
+         * false if the copy was abandoned, leaving the caller to download the file itself.
+         */
+        boolean copyTo(OutputStream outputStream) throws FtpException {
+
+            try {
+
+                if (abandoned)
+                    return false;
+
+                if (null != memory) {
+                    memory.writeTo(outputStream);
+                    return true;
+                }
+
+                try (InputStream inputStream = Files.newInputStream(file)) {
+                    BufferPool.getDefault().copy(inputStream, outputStream);
+                }
+
+                return true;
+
+            } catch (IOException e) {
+
+                throw new FtpException("Unable to copy the shared download.", e);
+
+            } finally {
+
+                if (readers.decrementAndGet() == 0)
+                    abandon();
+            }
+        }
+
+        /**
+         * Moves the copy to a temporary file if anyone has joined so far, and otherwise stops
+         * keeping it.
+         */
+        private void overflow() {
+
+            if (streamDownloads.followers(remoteFilePath) == 0) {
+                abandon();
+                return;
+            }
+
+            try {
+
+                file = Files.createTempFile(SPOOL_PREFIX, SPOOL_SUFFIX);
+                fileOutputStream = Files.newOutputStream(file);
+
+                memory.writeTo(fileOutputStream);
+                memory = null;
+
+            } catch (IOException e) {
+
+                abandon();
+            }
+        }
+
+        private void abandon() {
+
+            abandoned = true;
+            memory = null;
+
+            closeFile();
+
+            if (null == file)
+                return;
+
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                file.toFile().deleteOnExit();
+            }
+        }
+
+        private void closeFile() {
+
+            OutputStream closing = fileOutputStream;
+
+            if (null == closing)
+                return;
+
+            fileOutputStream = null;
+
+            try {
+                closing.close();
+            } catch (IOException e) {
+                abandon();
+            }
+        }
+    }
+
+    private static class TeeOutputStream extends OutputStream {
+
+        private final OutputStream first;
+        private final OutputStream second;
+
+        TeeOutputStream(OutputStream first, OutputStream second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            first.write(b);
+            second.write(b);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            first.write(buffer, offset, length);
+            second.write(buffer, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            first.flush();
+            second.flush();
+        }
+    }
+}
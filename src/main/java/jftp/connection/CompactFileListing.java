@@ -0,0 +1,275 @@
+package jftp.connection;
+
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A directory listing stored column by column: every name in one shared byte pool, sizes and
+ * modification times in primitive arrays and the directory flags in a bit set, with the parent
+ * path held once. An entry costs around 20 bytes plus its name, however large the listing.
+ *
+ * Entries are exposed as FtpFile objects built on access. Code walking very large listings can
+ * avoid even those by reading the columns directly through the indexed getters.
+ *
+ * The listing may be modified and sorted like any other list. The first change expands it
+ * into ordinary FtpFile objects, so only listings left as they are stay compact.
+ */
+public class CompactFileListing extends AbstractList<FtpFile> implements RandomAccess {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String FILE_SEPARATOR = "/";
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int INITIAL_POOL_SIZE = 256;
+
+    private final String parentPath;
+
+    private byte[] namePool = new byte[INITIAL_POOL_SIZE];
+    private int[] nameOffsets = new int[INITIAL_CAPACITY + 1];
+    private long[] sizes = new long[INITIAL_CAPACITY];
+    private long[] lastModifiedMillis = new long[INITIAL_CAPACITY];
+    private final BitSet directories = new BitSet();
+
+    private int count;
+    private List<FtpFile> expanded;
+
+    /**
+     * @param parentPath
+     * The directory listed, which every entry's full path starts with.
+     */
+    public CompactFileListing(String parentPath) {
+        this.parentPath = parentPath;
+    }
+
+    public String getParentPath() {
+        return parentPath;
+    }
+
+    @Override
+    public FtpFile get(int index) {
+
+        if (null != expanded)
+            return expanded.get(index);
+
+        String name = getName(index);
+
+        return new FtpFile(name, sizes[checkIndex(index)], fullPathOf(name), lastModifiedMillis[index],
+                directories.get(index));
+    }
+
+    @Override
+    public int size() {
+        return null != expanded ? expanded.size() : count;
+    }
+
+    @Override
+    public FtpFile set(int index, FtpFile file) {
+        return expand().set(index, file);
+    }
+
+    @Override
+    public void add(int index, FtpFile file) {
+
+        expand().add(index, file);
+        modCount++;
+    }
+
+    @Override
+    public FtpFile remove(int index) {
+
+        FtpFile removed = expand().remove(index);
+        modCount++;
+
+        return removed;
+    }
+
+    public String getName(int index) {
+
+        if (null != expanded)
+            return expanded.get(index).getName();
+
+        checkIndex(index);
+
+        int start = nameOffsets[index];
+
+        return new String(namePool, start, nameOffsets[index + 1] - start, UTF_8);
+    }
+
+    public long getSize(int index) {
+
+        if (null != expanded)
+            return expanded.get(index).getSize();
+
+        return sizes[checkIndex(index)];
+    }
+
+    public long getLastModifiedMillis(int index) {
+
+        if (null != expanded)
+            return expanded.get(index).getLastModifiedMillis();
+
+        return lastModifiedMillis[checkIndex(index)];
+    }
+
+    public boolean isDirectory(int index) {
+
+        if (null != expanded)
+            return expanded.get(index).isDirectory();
+
+        return directories.get(checkIndex(index));
+    }
+
+    /**
+     * @return
+     * A 64-bit FNV-1a hash of the entry's encoded name, for comparing listings by name without
+     * decoding every name into a String.
+     */
+    public long getNameHash(int index) {
+
+        if (null != expanded) {
+            byte[] name = expanded.get(index).getName().getBytes(UTF_8);
+            return hash(name, 0, name.length);
+        }
+
+        checkIndex(index);
+
+        return hash(namePool, nameOffsets[index], nameOffsets[index + 1]);
+    }
+
+    /**
+     * Appends an entry whose name is already UTF-8 encoded, copying the bytes straight into the
+     * pool.
+     */
+    void add(byte[] name, int offset, int length, long size, long mTime, boolean isDirectory) {
+
+        ensurePoolCapacity(length);
+        System.arraycopy(name, offset, namePool, nameOffsets[count], length);
+
+        addColumns(length, size, mTime, isDirectory);
+    }
+
+    void add(String name, long size, long mTime, boolean isDirectory) {
+
+        int length = encodedLength(name);
+
+        ensurePoolCapacity(length);
+
+        int position = nameOffsets[count];
+
+        if (length == name.length()) {
+
+            for (int i = 0; i < length; i++)
+                namePool[position + i] = (byte) name.charAt(i);
+
+        } else {
+
+            System.arraycopy(name.getBytes(UTF_8), 0, namePool, position, length);
+        }
+
+        addColumns(length, size, mTime, isDirectory);
+    }
+
+    /**
+     * Releases the spare capacity left over from filling the listing.
+     */
+    void trimToSize() {
+
+        namePool = Arrays.copyOf(namePool, nameOffsets[count]);
+        nameOffsets = Arrays.copyOf(nameOffsets, count + 1);
+        sizes = Arrays.copyOf(sizes, count);
+        lastModifiedMillis = Arrays.copyOf(lastModifiedMillis, count);
+    }
+
+    /**
+     * Turns the columns into FtpFile objects ahead of the first change, releasing the columns.
+     */
+    private List<FtpFile> expand() {
+
+        if (null == expanded) {
+
+            List<FtpFile> files = new ArrayList<FtpFile>(count);
+
+            for (int i = 0; i < count; i++)
+                files.add(get(i));
+
+            expanded = files;
+
+            namePool = new byte[0];
+            nameOffsets = new int[1];
+            sizes = new long[0];
+            lastModifiedMillis = new long[0];
+            directories.clear();
+            count = 0;
+        }
+
+        return expanded;
+    }
+
+    private long hash(byte[] bytes, int start, int end) {
+
+        long hash = FNV_OFFSET_BASIS;
+
+        for (int i = start; i < end; i++)
+            hash = (hash ^ (bytes[i] & 0xff)) * FNV_PRIME;
+
+        return hash;
+    }
+
+    private void addColumns(int nameLength, long size, long mTime, boolean isDirectory) {
+
+        if (count == sizes.length) {
+
+            int capacity = Math.max(INITIAL_CAPACITY, sizes.length * 2);
+
+            nameOffsets = Arrays.copyOf(nameOffsets, capacity + 1);
+            sizes = Arrays.copyOf(sizes, capacity);
+            lastModifiedMillis = Arrays.copyOf(lastModifiedMillis, capacity);
+        }
+
+        sizes[count] = size;
+        lastModifiedMillis[count] = mTime;
+
+        if (isDirectory)
+            directories.set(count);
+
+        nameOffsets[count + 1] = nameOffsets[count] + nameLength;
+        count++;
+    }
+
+    private void ensurePoolCapacity(int additional) {
+
+        int required = nameOffsets[count] + additional;
+
+        if (required > namePool.length)
+            namePool = Arrays.copyOf(namePool, Math.max(required, namePool.length * 2));
+    }
+
+    private int encodedLength(String name) {
+
+        for (int i = 0; i < name.length(); i++)
+            if (name.charAt(i) >= 0x80)
+                return name.getBytes(UTF_8).length;
+
+        return name.length();
+    }
+
+    private String fullPathOf(String name) {
+        return parentPath + FILE_SEPARATOR + name;
+    }
+
+    private int checkIndex(int index) {
+
+        if (index < 0 || index >= count)
+            throw new IndexOutOfBoundsException(String.format("Index %d, size %d", index, count));
+
+        return index;
+    }
+}
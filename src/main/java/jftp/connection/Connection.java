@@ -1,5 +1,7 @@
 package jftp.connection;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 
 import jftp.exception.FtpException;
@@ -10,12 +12,80 @@ public interface Connection {
 	void changeDirectory(String directory) throws FtpException;
 
 	void download(String remoteFilePath, String localDirectory) throws FtpException;
+
+	/**
+	 * Writes the content of the remote file to the given stream, which is left open.
+	 */
+	void download(String remoteFilePath, OutputStream outputStream) throws FtpException;
+
+	/**
+	 * Continues a download that was interrupted, appending to the partially downloaded local
+	 * file rather than starting over. Behaves as {@link #download(String, String)} when there
+	 * is nothing to resume.
+	 */
+	void resumeDownload(String remoteFilePath, String localDirectory) throws FtpException;
 	
+	/**
+	 * The list returned belongs to the caller, who may sort or change it.
+	 */
 	List<FtpFile> listFiles() throws FtpException;
 
+	/**
+	 * The list returned belongs to the caller, who may sort or change it.
+	 */
 	List<FtpFile> listFiles(String path) throws FtpException;
+
+	/**
+	 * Lists everything beneath the given directory, the listing of each directory following
+	 * the previous. Where the server can walk the tree itself this takes a single request,
+	 * otherwise each directory is listed in turn.
+	 */
+	List<FtpFile> listFilesRecursively(String path) throws FtpException;
 	
 	String printWorkingDirectory() throws FtpException;
 
+	/**
+	 * Looks up a single file or directory without listing its parent.
+	 * 
+	 * @return
+	 * null if nothing exists at the path.
+	 */
+	FtpFile stat(String remotePath) throws FtpException;
+
+	boolean exists(String remotePath) throws FtpException;
+
+	/**
+	 * Creates a directory whose parent already exists.
+	 */
+	void createDirectory(String remotePath) throws FtpException;
+
+	/**
+	 * Creates a directory along with any missing parents, doing nothing if it exists already.
+	 * Directories known to exist are remembered, so creating the same tree again costs no
+	 * requests.
+	 */
+	void createDirectories(String remotePath) throws FtpException;
+
+	/**
+	 * Deletes a file.
+	 */
+	void delete(String remoteFilePath) throws FtpException;
+
+	void rename(String fromRemotePath, String toRemotePath) throws FtpException;
+
 	void upload(String localFilePath, String remoteDirectory) throws FtpException;
+
+	/**
+	 * Stores everything read from the given stream, which is left open, as the remote file.
+	 * If reading the stream fails, the partially written remote file is removed.
+	 */
+	void upload(InputStream inputStream, String remoteFilePath) throws FtpException;
+
+	/**
+	 * Aborts the transfer currently in progress on this connection, typically called from
+	 * another thread. The interrupted operation fails with an FtpException. FTP connections
+	 * remain usable afterwards; SFTP connections close their channel and need the client to
+	 * reconnect.
+	 */
+	void abort() throws FtpException;
 }
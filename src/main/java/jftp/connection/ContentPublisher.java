@@ -0,0 +1,136 @@
+package jftp.connection;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+import jftp.exception.FtpException;
+
+/**
+ * Publishes the content of a remote file as chunks, downloading each only once the subscriber
+ * has asked for it. No more than the subscriber's outstanding demand is ever held in memory.
+ *
+ * A subscriber cancelling part way aborts the download, as {@link Connection#abort()} does,
+ * with the same consequences for the connection. The connection is held for the whole
+ * download, so a subscriber that stops asking for chunks is failed after a while and the
+ * download aborted likewise.
+ */
+public class ContentPublisher extends BlockingPublisher<ByteBuffer> {
+
+    private static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final Connection connection;
+    private final String remoteFilePath;
+    private final int chunkSize;
+
+    public ContentPublisher(Connection connection, String remoteFilePath) {
+        this(connection, remoteFilePath, DEFAULT_CHUNK_SIZE, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * @param chunkSize
+     * The size of every chunk but the last.
+     * @param executor
+     * Runs the download for each subscriber, holding a thread until the download is done.
+     */
+    public ContentPublisher(Connection connection, String remoteFilePath, int chunkSize, Executor executor) {
+        this(connection, remoteFilePath, chunkSize, executor, DEFAULT_DEMAND_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param demandTimeoutMillis
+     * How long to wait for the subscriber to ask for another chunk before aborting the
+     * download and failing the subscription, or 0 to wait as long as it takes.
+     */
+    public ContentPublisher(Connection connection, String remoteFilePath, int chunkSize, Executor executor,
+            long demandTimeoutMillis) {
+
+        super(executor, demandTimeoutMillis);
+
+        if (chunkSize <= 0)
+            throw new FtpException("The chunk size must be positive.");
+
+        this.connection = connection;
+        this.remoteFilePath = remoteFilePath;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    void produce(Emitter<ByteBuffer> emitter) throws FtpException {
+
+        ChunkingOutputStream chunks = new ChunkingOutputStream(emitter);
+
+        try {
+
+            connection.download(remoteFilePath, chunks);
+
+        } catch (FtpException e) {
+
+            if (chunks.stopped)
+                return;
+
+            throw e;
+        }
+
+        chunks.emitChunk();
+    }
+
+    @Override
+    void cancelled() {
+        connection.abort();
+    }
+
+    /**
+     * Cuts what is downloaded into chunks, blocking the download until each is taken.
+     */
+    private class ChunkingOutputStream extends OutputStream {
+
+        private final Emitter<ByteBuffer> emitter;
+
+        private ByteBuffer chunk = ByteBuffer.allocate(chunkSize);
+        private boolean stopped;
+
+        ChunkingOutputStream(Emitter<ByteBuffer> emitter) {
+            this.emitter = emitter;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+
+            while (length > 0) {
+
+                int count = Math.min(length, chunk.remaining());
+
+                chunk.put(buffer, offset, count);
+                offset += count;
+                length -= count;
+
+                if (!chunk.hasRemaining() && !emitChunk())
+                    throw new IOException("The subscriber cancelled the download.");
+            }
+        }
+
+        /**
+         * @return
+         * false if the subscriber cancelled instead of taking the chunk.
+         */
+        boolean emitChunk() {
+
+            if (stopped || chunk.position() == 0)
+                return !stopped;
+
+            chunk.flip();
+
+            stopped = !emitter.emit(chunk);
+            chunk = ByteBuffer.allocate(chunkSize);
+
+            return !stopped;
+        }
+    }
+}
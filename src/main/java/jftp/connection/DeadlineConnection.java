@@ -0,0 +1,291 @@
+package jftp.connection;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import jftp.exception.FtpException;
+import jftp.util.SharedScheduler;
+
+/**
+ * Gives every operation a deadline. Operations still running when their deadline passes are
+ * aborted through {@link Connection#abort()} and fail with an FtpException, so a stalled
+ * server can never pin the calling thread indefinitely.
+ */
+public class DeadlineConnection extends ForwardingConnection {
+
+    private static final String DEADLINE_EXCEEDED_MESSAGE = "Operation did not complete within %d ms.";
+
+    private final long timeoutMillis;
+    private final ScheduledExecutorService scheduler;
+
+    public DeadlineConnection(Connection delegate, long timeoutMillis) {
+        this(delegate, timeoutMillis, SharedScheduler.getInstance());
+    }
+
+    DeadlineConnection(Connection delegate, long timeoutMillis, ScheduledExecutorService scheduler) {
+
+        super(delegate);
+
+        this.timeoutMillis = timeoutMillis;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public void changeDirectory(final String directory) throws FtpException {
+
+        new TimedOperation<Void>() {
+
+            @Override
+            Void invoke() {
+                delegate.changeDirectory(directory);
+                return null;
+            }
+        }.execute();
+    }
+
+    @Override
+    public void download(final String remoteFilePath, final String localDirectory) throws FtpException {
+
+        new TimedOperation<Void>() {
+
+            @Override
+            Void invoke() {
+                delegate.download(remoteFilePath, localDirectory);
+                return null;
+            }
+        }.execute();
+    }
+
+    @Override
+    public void download(final String remoteFilePath, final OutputStream outputStream) throws FtpException {
+
+        new TimedOperation<Void>() {
+
+            @Override
+            Void invoke() {
+                delegate.download(remoteFilePath, outputStream);
+                return null;
+            }
+        }.execute();
+    }
+
+    @Override
+    public void resumeDownload(final String remoteFilePath, final String localDirectory) throws FtpException {
+
+        new TimedOperation<Void>() {
+
+            @Override
+            Void invoke() {
+                delegate.resumeDownload(remoteFilePath, localDirectory);
+                return null;
+            }
+        }.execute();
+    }
+
+    @Override
+    public List<FtpFile> listFiles() throws FtpException {
+
+        return new TimedOperation<List<FtpFile>>() {
+
+            @Override
+            List<FtpFile> invoke() {
+                return delegate.listFiles();
+            }
+        }.execute();
+    }
+
+    @Override
+    public List<FtpFile> listFiles(final String path) throws FtpException {
+
+        return new TimedOperation<List<FtpFile>>() {
+
+            @Override
+            List<FtpFile> invoke() {
+                return delegate.listFiles(path);
+            }
+        }.execute();
+    }
+
+    @Override
+    public List<FtpFile> listFilesRecursively(final String path) throws FtpException {
+
+        return new TimedOperation<List<FtpFile>>() {
+
+            @Override
+            List<FtpFile> invoke() {
+                return delegate.listFilesRecursively(path);
+            }
+        }.execute();
+    }
+
+    @Override
+    public String printWorkingDirectory() throws FtpException {
+
+        return new TimedOperation<String>() {
+
+            @Override
+            String invoke() {
+                return delegate.printWorkingDirectory();
+            }
+        }.execute();
+    }
+
+    @Override
+    public FtpFile stat(final String remotePath) throws FtpException {
+
+        return new TimedOperation<FtpFile>() {
+
+            @Override
+            FtpFile invoke() {
+                return delegate.stat(remotePath);
+            }
+        }.execute();
+    }
+
+    @Override
+    public boolean exists(final String remotePath) throws FtpException {
+
+        return new TimedOperation<Boolean>() {
+
+            @Override
+            Boolean invoke() {
+                return delegate.exists(remotePath);
+            }
+        }.execute();
+    }
+
+    @Override
+    public void createDirectory(final String remotePath) throws FtpException {
+
+        new TimedOperation<Void>() {
+
+            @Override
+            Void invoke() {
+                delegate.createDirectory(remotePath);
+                return null;
+            }
+        }.execute();
+    }
+
+    @Override
+    public void createDirectories(final String remotePath) throws FtpException {
+
+        new TimedOperation<Void>() {
+
+            @Override
+            Void invoke() {
+                delegate.createDirectories(remotePath);
+                return null;
+            }
+        }.execute();
+    }
+
+    @Override
+    public void delete(final String remoteFilePath) throws FtpException {
+
+        new TimedOperation<Void>() {
+
+            @Override
+            Void invoke() {
+                delegate.delete(remoteFilePath);
+                return null;
+            }
+        }.execute();
+    }
+
+    @Override
+    public void rename(final String fromRemotePath, final String toRemotePath) throws FtpException {
+
+        new TimedOperation<Void>() {
+
+            @Override
+            Void invoke() {
+                delegate.rename(fromRemotePath, toRemotePath);
+                return null;
+            }
+        }.execute();
+    }
+
+    @Override
+    public void upload(final String localFilePath, final String remoteDirectory) throws FtpException {
+
+        new TimedOperation<Void>() {
+
+            @Override
+            Void invoke() {
+                delegate.upload(localFilePath, remoteDirectory);
+                return null;
+            }
+        }.execute();
+    }
+
+    @Override
+    public void upload(final InputStream inputStream, final String remoteFilePath) throws FtpException {
+
+        new TimedOperation<Void>() {
+
+            @Override
+            Void invoke() {
+                delegate.upload(inputStream, remoteFilePath);
+                return null;
+            }
+        }.execute();
+    }
+
+    /**
+     * The deadline and the operation finishing are decided under the operation's lock, so a
+     * deadline firing just as the operation returns never aborts whatever the connection does
+     * next. An SFTP abort drops the whole channel.
+     */
+    private abstract class TimedOperation<T> implements Runnable {
+
+        private boolean finished;
+        private boolean expired;
+
+        abstract T invoke() throws FtpException;
+
+        T execute() throws FtpException {
+
+            ScheduledFuture<?> deadline = scheduler.schedule(this, timeoutMillis, TimeUnit.MILLISECONDS);
+
+            try {
+
+                return invoke();
+
+            } catch (FtpException e) {
+
+                if (hasExpired())
+                    throw new FtpException(String.format(DEADLINE_EXCEEDED_MESSAGE, timeoutMillis), e);
+
+                throw e;
+
+            } finally {
+                finish(deadline);
+            }
+        }
+
+        @Override
+        public synchronized void run() {
+
+            if (finished)
+                return;
+
+            expired = true;
+            delegate.abort();
+        }
+
+        private synchronized boolean hasExpired() {
+            return expired;
+        }
+
+        private synchronized void finish(ScheduledFuture<?> deadline) {
+
+            finished = true;
+            deadline.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package jftp.connection;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jftp.exception.FtpException;
+
+/**
+ * Remembers directories known to exist, so that creating the same tree again and again, as
+ * repeated uploads into it do, costs no requests after the first time. Holds a bounded number
+ * of paths, forgetting the least recently used.
+ */
+public class DirectoryCache {
+
+    private static final int DEFAULT_CAPACITY = 4096;
+    private static final String FILE_SEPARATOR = "/";
+
+    private final Map<String, Boolean> directories;
+
+    public DirectoryCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public DirectoryCache(final int capacity) {
+
+        directories = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Creates the directory and any missing parents through the given connection. The
+     * directory itself is tried first, as usually only it is missing; failing that, parents
+     * are created from the deepest one known to exist.
+     */
+    public void createDirectories(Connection connection, String remotePath) throws FtpException {
+
+        String path = absolute(connection, remotePath);
+
+        if (contains(path))
+            return;
+
+        try {
+
+            create(connection, path);
+            return;
+
+        } catch (FtpException e) {
+            // Fall through to creating the parents.
+        }
+
+        int start = path.length();
+
+        while ((start = path.lastIndexOf(FILE_SEPARATOR, start - 1)) > 0 && !contains(path.substring(0, start)))
+            ;
+
+        for (int end = path.indexOf(FILE_SEPARATOR, start + 1); end != -1; end = path.indexOf(FILE_SEPARATOR, end + 1))
+            create(connection, path.substring(0, end));
+
+        create(connection, path);
+    }
+
+    /**
+     * Forgets the path and everything beneath it, after it has been renamed or removed.
+     */
+    public synchronized void forget(String remotePath) {
+
+        String prefix = trimTrailingSeparator(remotePath) + FILE_SEPARATOR;
+        Iterator<String> paths = directories.keySet().iterator();
+
+        while (paths.hasNext()) {
+
+            String path = paths.next();
+
+            if (path.equals(trimTrailingSeparator(remotePath)) || path.startsWith(prefix))
+                paths.remove();
+        }
+    }
+
+    synchronized boolean contains(String path) {
+        return directories.containsKey(path);
+    }
+
+    private synchronized void add(String path) {
+        directories.put(path, Boolean.TRUE);
+    }
+
+    /**
+     * A directory that cannot be created may already exist, possibly made by someone else in
+     * the meantime; only if it does not is the failure reported.
+     */
+    private void create(Connection connection, String path) throws FtpException {
+
+        try {
+
+            connection.createDirectory(path);
+
+        } catch (FtpException e) {
+
+            FtpFile existing = connection.stat(path);
+
+            if (null == existing || !existing.isDirectory())
+                throw e;
+        }
+
+        add(path);
+    }
+
+    /**
+     * Relative paths are resolved so that the same directory is remembered under one name,
+     * whatever the working directory.
+     */
+    private String absolute(Connection connection, String remotePath) {
+
+        String path = trimTrailingSeparator(remotePath);
+
+        if (path.startsWith(FILE_SEPARATOR))
+            return path;
+
+        return trimTrailingSeparator(connection.printWorkingDirectory()) + FILE_SEPARATOR + path;
+    }
+
+    private String trimTrailingSeparator(String path) {
+
+        if (path.length() > 1 && path.endsWith(FILE_SEPARATOR))
+            return path.substring(0, path.length() - 1);
+
+        return path;
+    }
+}
@@ -0,0 +1,152 @@
+package jftp.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the output of find run with -printf '%y %s %T@ %p\0': the type, size, modification
+ * time in seconds and path of every file beneath a directory, separated by NUL so that any name
+ * is safe. Entries are grouped into one listing per directory.
+ */
+class FindOutputParser {
+
+    static final String FORMAT = "%y %s %T@ %p\\0";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte FILE_SEPARATOR = '/';
+
+    private final String basePath;
+    private final Map<String, CompactFileListing> directories = new LinkedHashMap<String, CompactFileListing>();
+
+    FindOutputParser(String basePath) {
+
+        this.basePath = basePath;
+
+        directories.put(basePath, new CompactFileListing(basePath));
+    }
+
+    TreeListing parse(InputStream inputStream) throws IOException {
+
+        RecordReader.read(inputStream, (byte) 0, new RecordReader.RecordHandler() {
+
+            @Override
+            public void record(byte[] record, int start, int end) {
+                parseRecord(record, start, end);
+            }
+        });
+
+        List<List<FtpFile>> listings = new ArrayList<List<FtpFile>>();
+
+        for (CompactFileListing listing : directories.values()) {
+            listing.trimToSize();
+            listings.add(listing);
+        }
+
+        return new TreeListing(listings);
+    }
+
+    private void parseRecord(byte[] record, int start, int end) {
+
+        int sizeStart = start + 2;
+        int timeStart = indexOf(record, sizeStart, end, (byte) ' ') + 1;
+        int pathStart = timeStart == 0 ? 0 : indexOf(record, timeStart, end, (byte) ' ') + 1;
+
+        if (end - start < 2 || record[start + 1] != ' ' || timeStart == 0 || pathStart == 0)
+            return;
+
+        int separator = lastIndexOf(record, pathStart, end, FILE_SEPARATOR);
+
+        if (separator == -1)
+            return;
+
+        long size = parseNumber(record, sizeStart, timeStart - 1);
+        long mTime = parseSeconds(record, timeStart, pathStart - 1);
+        boolean isDirectory = record[start] == 'd';
+
+        String parent = separator == pathStart ? "/" : new String(record, pathStart, separator - pathStart, UTF_8);
+
+        CompactFileListing listing = listingFor(parent);
+        listing.add(record, separator + 1, end - separator - 1, Math.max(0, size), mTime, isDirectory);
+
+        if (isDirectory)
+            listingFor(new String(record, pathStart, end - pathStart, UTF_8));
+    }
+
+    private CompactFileListing listingFor(String path) {
+
+        if (path.equals(basePath))
+            return directories.get(basePath);
+
+        CompactFileListing listing = directories.get(path);
+
+        if (null == listing) {
+            listing = new CompactFileListing(path);
+            directories.put(path, listing);
+        }
+
+        return listing;
+    }
+
+    /**
+     * Seconds with an optional fraction, such as "1394525265.5230000000", as milliseconds.
+     */
+    private long parseSeconds(byte[] record, int start, int end) {
+
+        int point = indexOf(record, start, end, (byte) '.');
+        long seconds = parseNumber(record, start, point == -1 ? end : point);
+
+        if (seconds == -1)
+            return 0;
+
+        long millis = 0;
+
+        if (point != -1) {
+
+            for (int i = point + 1; i < point + 4; i++)
+                millis = millis * 10 + (i < end && record[i] >= '0' && record[i] <= '9' ? record[i] - '0' : 0);
+        }
+
+        return seconds * 1000 + millis;
+    }
+
+    private static long parseNumber(byte[] record, int start, int end) {
+
+        if (end <= start)
+            return -1;
+
+        long value = 0;
+
+        for (int i = start; i < end; i++) {
+
+            if (record[i] < '0' || record[i] > '9')
+                return -1;
+
+            value = value * 10 + (record[i] - '0');
+        }
+
+        return value;
+    }
+
+    private static int indexOf(byte[] record, int start, int end, byte value) {
+
+        for (int i = start; i < end; i++)
+            if (record[i] == value)
+                return i;
+
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] record, int start, int end, byte value) {
+
+        for (int i = end - 1; i >= start; i--)
+            if (record[i] == value)
+                return i;
+
+        return -1;
+    }
+}
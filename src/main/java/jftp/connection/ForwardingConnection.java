@@ -0,0 +1,105 @@
+package jftp.connection;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import jftp.exception.FtpException;
+
+/**
+ * Passes every call through to another connection. Decorators extend this and override only
+ * the operations they change.
+ */
+public abstract class ForwardingConnection implements Connection {
+
+    protected final Connection delegate;
+
+    protected ForwardingConnection(Connection delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void changeDirectory(String directory) throws FtpException {
+        delegate.changeDirectory(directory);
+    }
+
+    @Override
+    public void download(String remoteFilePath, String localDirectory) throws FtpException {
+        delegate.download(remoteFilePath, localDirectory);
+    }
+
+    @Override
+    public void download(String remoteFilePath, OutputStream outputStream) throws FtpException {
+        delegate.download(remoteFilePath, outputStream);
+    }
+
+    @Override
+    public void resumeDownload(String remoteFilePath, String localDirectory) throws FtpException {
+        delegate.resumeDownload(remoteFilePath, localDirectory);
+    }
+
+    @Override
+    public List<FtpFile> listFiles() throws FtpException {
+        return delegate.listFiles();
+    }
+
+    @Override
+    public List<FtpFile> listFiles(String path) throws FtpException {
+        return delegate.listFiles(path);
+    }
+
+    @Override
+    public List<FtpFile> listFilesRecursively(String path) throws FtpException {
+        return delegate.listFilesRecursively(path);
+    }
+
+    @Override
+    public String printWorkingDirectory() throws FtpException {
+        return delegate.printWorkingDirectory();
+    }
+
+    @Override
+    public FtpFile stat(String remotePath) throws FtpException {
+        return delegate.stat(remotePath);
+    }
+
+    @Override
+    public boolean exists(String remotePath) throws FtpException {
+        return delegate.exists(remotePath);
+    }
+
+    @Override
+    public void createDirectory(String remotePath) throws FtpException {
+        delegate.createDirectory(remotePath);
+    }
+
+    @Override
+    public void createDirectories(String remotePath) throws FtpException {
+        delegate.createDirectories(remotePath);
+    }
+
+    @Override
+    public void delete(String remoteFilePath) throws FtpException {
+        delegate.delete(remoteFilePath);
+    }
+
+    @Override
+    public void rename(String fromRemotePath, String toRemotePath) throws FtpException {
+        delegate.rename(fromRemotePath, toRemotePath);
+    }
+
+    @Override
+    public void upload(String localFilePath, String remoteDirectory) throws FtpException {
+        delegate.upload(localFilePath, remoteDirectory);
+    }
+
+    @Override
+    public void upload(InputStream inputStream, String remoteFilePath) throws FtpException {
+        delegate.upload(inputStream, remoteFilePath);
+    }
+
+    @Override
+    public void abort() throws FtpException {
+        delegate.abort();
+    }
+}
@@ -1,21 +1,32 @@
 package jftp.connection;
 
+import java.io.Closeable;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.locks.ReentrantLock;
 
 import jftp.exception.FtpException;
+import jftp.util.BufferPool;
 import jftp.util.FileStreamFactory;
 
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPReply;
 
-public class FtpConnection implements Connection {
+public class FtpConnection implements Connection, ListingSource, RemoteHashing, RangedDownload, AppendingUpload {
 
     private static final String COULD_NOT_FIND_FILE_MESSAGE = "Could not find file: %s";
     private static final String FILE_DOWNLOAD_FAILURE_MESSAGE = "Unable to download file %s";
@@ -23,12 +34,41 @@ public class FtpConnection implements Connection {
     private static final String FILE_LISTING_ERROR_MESSAGE = "Unable to list files in directory %s";
     private static final String NO_SUCH_DIRECTORY_MESSAGE = "The directory %s doesn't exist on the remote server.";
     private static final String UNABLE_TO_CD_MESSAGE = "Remote server was unable to change directory.";
+    private static final String TRANSFER_ABORTED_MESSAGE = "Transfer of %s was aborted.";
+    private static final String SERVER_TO_SERVER_FAILURE_MESSAGE = "Server to server transfer of %s failed.";
+    private static final String STAT_FAILURE_MESSAGE = "Unable to look up %s";
+    private static final String CREATE_DIRECTORY_FAILURE_MESSAGE = "Unable to create directory %s";
+    private static final String DELETE_FAILURE_MESSAGE = "Unable to delete %s";
+    private static final String RENAME_FAILURE_MESSAGE = "Unable to rename %s to %s";
 
     private static final String FILE_SEPARATOR = "/";
+    private static final String MLST_FEATURE = "MLST";
+    private static final String HASH_FEATURE = "HASH";
+    private static final String HASH_COMMAND = "HASH";
+    private static final String SELECT_SHA_256_COMMAND = "HASH SHA-256";
+    private static final String HASH_FAILURE_MESSAGE = "Unable to hash %s";
+    private static final String RECURSIVE_OPTION = "-R ";
+    private static final String SIZE_COMMAND = "SIZE";
+    private static final int REPLY_CODE_LENGTH = 4;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * commons-net only hands out the data connection of a listing wrapped in its own parser, so
+     * the raw socket is opened through its protected hook. Null where that is not permitted.
+     */
+    private static final Method OPEN_DATA_CONNECTION = findOpenDataConnection();
 
     private FTPClient client;
     private FileStreamFactory fileStreamFactory = new FileStreamFactory();
 
+    private final ReentrantLock controlChannelLock = new ReentrantLock();
+    private volatile long lastActivity = System.currentTimeMillis();
+    private volatile boolean abortRequested;
+    private volatile Closeable dataStream;
+    private Boolean mlsdSupported;
+    private Boolean sha256Supported;
+    private final DirectoryCache directoryCache = new DirectoryCache();
+
     public FtpConnection(FTPClient client) {
         this.client = client;
     }
@@ -36,44 +76,119 @@ public class FtpConnection implements Connection {
     @Override
     public void changeDirectory(String directory) throws FtpException {
 
+        controlChannelLock.lock();
+
         try {
 
             boolean success = client.changeWorkingDirectory(directory);
 
             if (!success)
-                throw new FtpException(String.format(NO_SUCH_DIRECTORY_MESSAGE, directory));
+                throw new FtpException(String.format(NO_SUCH_DIRECTORY_MESSAGE, directory), client.getReplyCode());
 
         } catch (IOException e) {
 
             throw new FtpException(UNABLE_TO_CD_MESSAGE, e);
+
+        } finally {
+            release();
         }
     }
 
     @Override
     public void download(String remoteFilePath, String localDirectory) throws FtpException {
 
-        String localDestination = determinePath(remoteFilePath, localDirectory);
+        retrieve(remoteFilePath, determinePath(remoteFilePath, localDirectory), 0);
+    }
 
-        try {
+    @Override
+    public void download(String remoteFilePath, OutputStream outputStream) throws FtpException {
 
-            OutputStream outputStream = fileStreamFactory.createOutputStream(localDestination);
+        controlChannelLock.lock();
+        beginTransfer();
 
-            boolean hasDownloaded = client.retrieveFile(remoteFilePath, outputStream);
+        try {
 
-            outputStream.close();
+            boolean hasDownloaded = retrieveFile(remoteFilePath, outputStream);
 
             ensureFileHasSuccessfullyDownloaded(hasDownloaded);
 
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
 
-            throw new FtpException(String.format(FILE_STREAM_OPEN_FAIL_MESSAGE, localDestination), e);
+            if (abortRequested)
+                throw abortedTransfer(remoteFilePath);
+
+            throw new FtpException(String.format(FILE_DOWNLOAD_FAILURE_MESSAGE, remoteFilePath), e);
+
+        } catch (TransferAbortedException e) {
+
+            throw abortedTransfer(remoteFilePath);
+
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Starts the transfer at the offset with REST and closes the data connection once enough
+     * has been read. The server may then report the transfer as failed, which is ignored.
+     */
+    @Override
+    public long downloadRange(String remoteFilePath, long offset, long length, OutputStream outputStream)
+            throws FtpException {
+
+        controlChannelLock.lock();
+        beginTransfer();
+
+        try {
+
+            client.setRestartOffset(offset);
+
+            InputStream inputStream = client.retrieveFileStream(remoteFilePath);
+
+            if (null == inputStream)
+                throw new FtpException(String.format(FILE_DOWNLOAD_FAILURE_MESSAGE, remoteFilePath),
+                        client.getReplyCode());
+
+            dataStream = inputStream;
+
+            long copied;
+
+            try {
+                copied = BufferPool.getDefault().copy(abortable(inputStream), outputStream, length);
+            } finally {
+                closeDataStream(inputStream);
+            }
+
+            if (!client.completePendingCommand() && copied < length)
+                throw new FtpException(String.format(FILE_DOWNLOAD_FAILURE_MESSAGE, remoteFilePath),
+                        client.getReplyCode());
+
+            return copied;
 
         } catch (IOException e) {
 
+            if (abortRequested)
+                throw abortedTransfer(remoteFilePath);
+
             throw new FtpException(String.format(FILE_DOWNLOAD_FAILURE_MESSAGE, remoteFilePath), e);
+
+        } catch (TransferAbortedException e) {
+
+            throw abortedTransfer(remoteFilePath);
+
+        } finally {
+            release();
         }
     }
 
+    @Override
+    public void resumeDownload(String remoteFilePath, String localDirectory) throws FtpException {
+
+        String localDestination = determinePath(remoteFilePath, localDirectory);
+
+        retrieve(remoteFilePath, localDestination, fileStreamFactory.length(localDestination));
+    }
+
     @Override
     public List<FtpFile> listFiles() throws FtpException {
 
@@ -83,7 +198,9 @@ public class FtpConnection implements Connection {
     @Override
     public List<FtpFile> listFiles(String remotePath) throws FtpException {
 
-        List<FtpFile> files = new ArrayList<FtpFile>();
+        CompactFileListing files;
+
+        controlChannelLock.lock();
 
         try {
 
@@ -93,24 +210,112 @@ public class FtpConnection implements Connection {
 
             String newWorkingDirectory = printWorkingDirectory();
 
-            FTPFile[] ftpFiles = client.listFiles(newWorkingDirectory);
+            files = new CompactFileListing(newWorkingDirectory);
 
-            for (FTPFile file : ftpFiles)
-                files.add(toFtpFile(file, newWorkingDirectory));
+            if (!readListing(newWorkingDirectory, files)) {
+
+                for (FTPFile file : client.listFiles(newWorkingDirectory))
+                    files.add(file.getName(), file.getSize(), file.getTimestamp().getTimeInMillis(),
+                            file.isDirectory());
+            }
+
+            files.trimToSize();
 
             changeDirectory(originalWorkingDirectory);
 
         } catch (IOException e) {
 
             throw new FtpException(String.format(FILE_LISTING_ERROR_MESSAGE, remotePath), e);
+
+        } finally {
+            release();
         }
 
         return files;
     }
 
+    /**
+     * Reads the listing off the data connection as the handler takes it, so a slow handler
+     * leaves the rest waiting on the server rather than in memory. Stopping early drops the
+     * data connection.
+     *
+     * The connection is held until the listing is done, as the control connection cannot be
+     * used while the data connection is open. Other commands wait meanwhile, and
+     * {@link #keepAlive(long)} treats the connection as busy and sends nothing.
+     */
+    @Override
+    public void listFiles(String remotePath, EntryHandler handler) throws FtpException {
+
+        controlChannelLock.lock();
+
+        try {
+
+            String originalWorkingDirectory = printWorkingDirectory();
+
+            changeDirectory(remotePath);
+
+            String newWorkingDirectory = printWorkingDirectory();
+
+            if (!streamListing(newWorkingDirectory, handler)) {
+
+                for (FTPFile file : client.listFiles(newWorkingDirectory)) {
+
+                    FtpFile entry = new FtpFile(file.getName(), file.getSize(),
+                            newWorkingDirectory + FILE_SEPARATOR + file.getName(),
+                            file.getTimestamp().getTimeInMillis(), file.isDirectory());
+
+                    if (!handler.entry(entry))
+                        break;
+                }
+            }
+
+            changeDirectory(originalWorkingDirectory);
+
+        } catch (IOException e) {
+
+            throw new FtpException(String.format(FILE_LISTING_ERROR_MESSAGE, remotePath), e);
+
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public List<FtpFile> listFilesRecursively(String remotePath) throws FtpException {
+
+        controlChannelLock.lock();
+
+        try {
+
+            String originalWorkingDirectory = printWorkingDirectory();
+
+            changeDirectory(remotePath);
+
+            String newWorkingDirectory = printWorkingDirectory();
+
+            TreeListing tree = readRecursiveListing(newWorkingDirectory);
+
+            if (null == tree)
+                tree = TreeListing.walk(this, newWorkingDirectory);
+
+            changeDirectory(originalWorkingDirectory);
+
+            return tree;
+
+        } catch (IOException e) {
+
+            throw new FtpException(String.format(FILE_LISTING_ERROR_MESSAGE, remotePath), e);
+
+        } finally {
+            release();
+        }
+    }
+
     @Override
     public String printWorkingDirectory() throws FtpException {
 
+        controlChannelLock.lock();
+
         try {
 
             return client.printWorkingDirectory();
@@ -118,19 +323,127 @@ public class FtpConnection implements Connection {
         } catch (IOException e) {
 
             throw new FtpException("Unable to print the working directory", e);
+
+        } finally {
+            release();
         }
     }
 
+    /**
+     * Uses MLST where the server supports it. Otherwise SIZE and MDTM are tried, which most
+     * servers refuse for directories, and failing those a change into the path tells whether
+     * it is a directory.
+     */
     @Override
-    public void upload(String localFilePath, String remoteDirectory) throws FtpException {
+    public FtpFile stat(String remotePath) throws FtpException {
+
+        controlChannelLock.lock();
 
         try {
 
-            InputStream localFileInputStream = fileStreamFactory.createInputStream(localFilePath);
+            if (supportsMlsd()) {
 
-            boolean hasUploaded = client.storeFile(determinePath(localFilePath, remoteDirectory), localFileInputStream);
+                FTPFile file = client.mlistFile(remotePath);
 
-            localFileInputStream.close();
+                if (null != file)
+                    return new FtpFile(determineFileName(remotePath), file.getSize(), remotePath,
+                            null == file.getTimestamp() ? 0 : file.getTimestamp().getTimeInMillis(), file.isDirectory());
+
+                if (client.getReplyCode() == FTPReply.FILE_UNAVAILABLE)
+                    return null;
+            }
+
+            return statWithoutMlst(remotePath);
+
+        } catch (IOException e) {
+
+            throw new FtpException(String.format(STAT_FAILURE_MESSAGE, remotePath), e);
+
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public boolean exists(String remotePath) throws FtpException {
+        return null != stat(remotePath);
+    }
+
+    @Override
+    public void createDirectory(String remotePath) throws FtpException {
+
+        controlChannelLock.lock();
+
+        try {
+
+            if (!client.makeDirectory(remotePath))
+                throw new FtpException(String.format(CREATE_DIRECTORY_FAILURE_MESSAGE, remotePath),
+                        client.getReplyCode());
+
+        } catch (IOException e) {
+
+            throw new FtpException(String.format(CREATE_DIRECTORY_FAILURE_MESSAGE, remotePath), e);
+
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public void createDirectories(String remotePath) throws FtpException {
+        directoryCache.createDirectories(this, remotePath);
+    }
+
+    @Override
+    public void delete(String remoteFilePath) throws FtpException {
+
+        controlChannelLock.lock();
+
+        try {
+
+            if (!client.deleteFile(remoteFilePath))
+                throw new FtpException(String.format(DELETE_FAILURE_MESSAGE, remoteFilePath), client.getReplyCode());
+
+        } catch (IOException e) {
+
+            throw new FtpException(String.format(DELETE_FAILURE_MESSAGE, remoteFilePath), e);
+
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public void rename(String fromRemotePath, String toRemotePath) throws FtpException {
+
+        controlChannelLock.lock();
+
+        try {
+
+            if (!client.rename(fromRemotePath, toRemotePath))
+                throw new FtpException(String.format(RENAME_FAILURE_MESSAGE, fromRemotePath, toRemotePath),
+                        client.getReplyCode());
+
+            directoryCache.forget(fromRemotePath);
+
+        } catch (IOException e) {
+
+            throw new FtpException(String.format(RENAME_FAILURE_MESSAGE, fromRemotePath, toRemotePath), e);
+
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public void upload(String localFilePath, String remoteDirectory) throws FtpException {
+
+        controlChannelLock.lock();
+        beginTransfer();
+
+        try (InputStream localFileInputStream = fileStreamFactory.createInputStream(localFilePath)) {
+
+            boolean hasUploaded = storeFile(determinePath(localFilePath, remoteDirectory), localFileInputStream, false);
 
             ensureFileHasSuccessfullyUploaded(hasUploaded);
 
@@ -139,7 +452,612 @@ public class FtpConnection implements Connection {
             throw new FtpException(String.format(COULD_NOT_FIND_FILE_MESSAGE, localFilePath), e);
         } catch (IOException e) {
 
+            if (abortRequested)
+                throw abortedTransfer(localFilePath);
+
+            throw new FtpException("Upload may not have completed.", e);
+
+        } catch (TransferAbortedException e) {
+
+            throw abortedTransfer(localFilePath);
+
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public void upload(InputStream inputStream, String remoteFilePath) throws FtpException {
+
+        controlChannelLock.lock();
+        beginTransfer();
+
+        try {
+
+            boolean hasUploaded = storeFile(remoteFilePath, inputStream, false);
+
+            ensureFileHasSuccessfullyUploaded(hasUploaded);
+
+        } catch (IOException e) {
+
+            if (abortRequested)
+                sendAbortQuietly();
+
+            discardPartialUpload(remoteFilePath);
+
+            if (abortRequested)
+                throw new FtpException(String.format(TRANSFER_ABORTED_MESSAGE, remoteFilePath));
+
+            throw new FtpException("Upload may not have completed.", e);
+
+        } catch (TransferAbortedException e) {
+
+            sendAbortQuietly();
+            discardPartialUpload(remoteFilePath);
+
+            throw new FtpException(String.format(TRANSFER_ABORTED_MESSAGE, remoteFilePath));
+
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Sends APPE, which creates the file if it is missing.
+     */
+    @Override
+    public void append(InputStream inputStream, String remoteFilePath) throws FtpException {
+
+        controlChannelLock.lock();
+        beginTransfer();
+
+        try {
+
+            boolean hasAppended = storeFile(remoteFilePath, inputStream, true);
+
+            ensureFileHasSuccessfullyUploaded(hasAppended);
+
+        } catch (IOException e) {
+
+            if (abortRequested)
+                throw abortedTransfer(remoteFilePath);
+
+            completePendingCommandQuietly();
+
             throw new FtpException("Upload may not have completed.", e);
+
+        } catch (TransferAbortedException e) {
+
+            throw abortedTransfer(remoteFilePath);
+
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Sends a NOOP over the control connection if it has been idle for at least the given
+     * time. A connection that is in use by another thread is not idle and is left alone.
+     * 
+     * @return
+     * false if the server could not be reached.
+     */
+    public boolean keepAlive(long idleMillis) {
+
+        if (System.currentTimeMillis() - lastActivity < idleMillis || !controlChannelLock.tryLock())
+            return true;
+
+        try {
+
+            return client.sendNoOp();
+
+        } catch (IOException e) {
+
+            return false;
+
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Stops the running transfer by closing its data connection, which also frees a transfer
+     * stalled on a read or write. The transfer then sends ABOR and consumes the server's
+     * replies to both, leaving the control connection ready for the next command. A transfer
+     * still waiting for the server to open the data connection stops once it has.
+     */
+    @Override
+    public void abort() throws FtpException {
+
+        abortRequested = true;
+
+        Closeable stream = dataStream;
+
+        if (null == stream)
+            return;
+
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // The transfer fails on its next read or write all the same.
+        }
+    }
+
+    /**
+     * Uses the HASH command of draft-bryan-ftpext-hash, having selected SHA-256 with OPTS the
+     * first time. A file the server will not hash, or a server without SHA-256, gives null.
+     */
+    @Override
+    public String sha256(String remoteFilePath) throws FtpException {
+
+        controlChannelLock.lock();
+
+        try {
+
+            if (!supportsSha256() || !FTPReply.isPositiveCompletion(client.sendCommand(HASH_COMMAND, remoteFilePath)))
+                return null;
+
+            // "213 SHA-256 0-49 169cd22282da7f147cb491e559e9dd0a2d6ff6b9 name"
+            String[] fields = client.getReplyString().substring(REPLY_CODE_LENGTH).trim().split(" ", 4);
+
+            return fields.length < 3 ? null : fields[2].toLowerCase(Locale.ROOT);
+
+        } catch (IOException e) {
+
+            throw new FtpException(String.format(HASH_FAILURE_MESSAGE, remoteFilePath), e);
+
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Moves a file directly between this server and the target's (FXP): the target listens
+     * in passive mode and this server connects to it, so the data never passes through this
+     * machine.
+     * 
+     * @return
+     * false if either server refused to set up the direct connection, in which case nothing
+     * has been transferred and the caller should fall back to relaying the data itself.
+     */
+    boolean transferTo(FtpConnection target, String sourcePath, String targetPath) throws FtpException {
+
+        boolean lockThisFirst = System.identityHashCode(this) <= System.identityHashCode(target);
+        FtpConnection first = lockThisFirst ? this : target;
+        FtpConnection second = lockThisFirst ? target : this;
+
+        first.controlChannelLock.lock();
+        second.controlChannelLock.lock();
+
+        FTPClient targetClient = target.client;
+
+        try {
+
+            if (!targetClient.enterRemotePassiveMode())
+                return false;
+
+            InetAddress targetHost = InetAddress.getByName(targetClient.getPassiveHost());
+
+            if (!client.enterRemoteActiveMode(targetHost, targetClient.getPassivePort()))
+                return false;
+
+            if (!targetClient.remoteStore(targetPath))
+                return false;
+
+            if (!client.remoteRetrieve(sourcePath)) {
+
+                int replyCode = client.getReplyCode();
+                target.abortRemoteStore();
+
+                throw new FtpException(String.format(FILE_DOWNLOAD_FAILURE_MESSAGE, sourcePath), replyCode);
+            }
+
+            boolean hasRetrieved = client.completePendingCommand();
+            boolean hasStored = targetClient.completePendingCommand();
+
+            if (!hasRetrieved)
+                throw new FtpException(String.format(SERVER_TO_SERVER_FAILURE_MESSAGE, sourcePath), client.getReplyCode());
+
+            if (!hasStored)
+                throw new FtpException(String.format(SERVER_TO_SERVER_FAILURE_MESSAGE, sourcePath),
+                        targetClient.getReplyCode());
+
+            return true;
+
+        } catch (IOException e) {
+
+            throw new FtpException(String.format(SERVER_TO_SERVER_FAILURE_MESSAGE, sourcePath), e);
+
+        } finally {
+
+            client.enterLocalPassiveMode();
+            targetClient.enterLocalPassiveMode();
+
+            second.release();
+            first.release();
+        }
+    }
+
+    /**
+     * Reads a listing straight off the data connection with ListingParser, using MLSD where the
+     * server supports it.
+     * 
+     * @return
+     * false if the data connection is out of reach or the server refused the command, in which
+     * case the listing is left to commons-net.
+     */
+    private boolean readListing(String path, CompactFileListing files) throws IOException {
+
+        if (null == OPEN_DATA_CONNECTION)
+            return false;
+
+        boolean isMlsd = supportsMlsd();
+        Socket dataConnection = openDataConnection(isMlsd ? "MLSD" : "LIST", path);
+
+        if (null == dataConnection)
+            return false;
+
+        try {
+            createListingParser().parse(dataConnection.getInputStream(), files, isMlsd);
+        } finally {
+            dataConnection.close();
+        }
+
+        if (!client.completePendingCommand())
+            throw new FtpException(String.format(FILE_LISTING_ERROR_MESSAGE, path), client.getReplyCode());
+
+        return true;
+    }
+
+    /**
+     * @return
+     * false if no data connection could be opened, leaving the listing to commons-net.
+     */
+    private boolean streamListing(String path, EntryHandler handler) throws IOException {
+
+        if (null == OPEN_DATA_CONNECTION)
+            return false;
+
+        boolean isMlsd = supportsMlsd();
+        Socket dataConnection = openDataConnection(isMlsd ? "MLSD" : "LIST", path);
+
+        if (null == dataConnection)
+            return false;
+
+        boolean isComplete;
+
+        try {
+            isComplete = createListingParser().parse(dataConnection.getInputStream(), path, isMlsd, handler);
+        } finally {
+            dataConnection.close();
+        }
+
+        // Having been cut off, the server may well report the listing as failed.
+        if (!client.completePendingCommand() && isComplete)
+            throw new FtpException(String.format(FILE_LISTING_ERROR_MESSAGE, path), client.getReplyCode());
+
+        return true;
+    }
+
+    /**
+     * Asks the server to walk the tree itself with "LIST -R".
+     * 
+     * @return
+     * null if the server refused or ignored the option, leaving the tree to be walked here.
+     */
+    private TreeListing readRecursiveListing(String path) throws IOException {
+
+        if (null == OPEN_DATA_CONNECTION)
+            return null;
+
+        Socket dataConnection = openDataConnection("LIST", RECURSIVE_OPTION + path);
+
+        if (null == dataConnection)
+            return null;
+
+        TreeListing tree;
+
+        try {
+            tree = createListingParser().parseRecursive(dataConnection.getInputStream(), path);
+        } finally {
+            dataConnection.close();
+        }
+
+        if (!client.completePendingCommand() || !tree.isComplete())
+            return null;
+
+        return tree;
+    }
+
+    private ListingParser createListingParser() {
+
+        return new ListingParser(Charset.forName(client.getControlEncoding()), TimeZone.getDefault(),
+                System.currentTimeMillis());
+    }
+
+    private boolean supportsMlsd() {
+
+        if (null == mlsdSupported) {
+
+            try {
+                mlsdSupported = client.hasFeature(MLST_FEATURE);
+            } catch (IOException e) {
+                mlsdSupported = false;
+            }
+        }
+
+        return mlsdSupported;
+    }
+
+    private boolean supportsSha256() throws IOException {
+
+        if (null == sha256Supported) {
+
+            sha256Supported = client.hasFeature(HASH_FEATURE)
+                    && FTPReply.isPositiveCompletion(client.sendCommand("OPTS", SELECT_SHA_256_COMMAND));
+        }
+
+        return sha256Supported;
+    }
+
+    private Socket openDataConnection(String command, String argument) throws IOException {
+
+        try {
+
+            return (Socket) OPEN_DATA_CONNECTION.invoke(client, command, argument);
+
+        } catch (IllegalAccessException e) {
+
+            return null;
+
+        } catch (InvocationTargetException e) {
+
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+
+            throw new FtpException("Unable to open a data connection.", (Exception) e.getCause());
+        }
+    }
+
+    private static Method findOpenDataConnection() {
+
+        try {
+
+            Method method = FTPClient.class.getDeclaredMethod("_openDataConnection_", String.class, String.class);
+            method.setAccessible(true);
+
+            return method;
+
+        } catch (NoSuchMethodException | RuntimeException e) {
+
+            return null;
+        }
+    }
+
+    private void abortRemoteStore() {
+
+        try {
+            client.abort();
+        } catch (IOException e) {
+            // The target gives up on the pending transfer when its data connection times out.
+        }
+    }
+
+    private void discardPartialUpload(String remoteFilePath) {
+
+        try {
+
+            client.completePendingCommand();
+            client.deleteFile(remoteFilePath);
+
+        } catch (IOException e) {
+            // The connection is gone; the partial file has to be cleaned up by the caller.
+        }
+    }
+
+    private void beginTransfer() {
+
+        abortRequested = false;
+    }
+
+    private FtpFile statWithoutMlst(String remotePath) throws IOException {
+
+        String name = determineFileName(remotePath);
+
+        if (FTPReply.isPositiveCompletion(client.sendCommand(SIZE_COMMAND, remotePath))) {
+
+            long size = Long.parseLong(client.getReplyString().substring(REPLY_CODE_LENGTH).trim());
+
+            return new FtpFile(name, size, remotePath, modificationTime(remotePath), false);
+        }
+
+        String workingDirectory = client.printWorkingDirectory();
+
+        if (client.changeWorkingDirectory(remotePath)) {
+
+            client.changeWorkingDirectory(workingDirectory);
+
+            return new FtpFile(name, 0, remotePath, modificationTime(remotePath), true);
+        }
+
+        // A file whose size the server will not give, as some do in ASCII mode.
+        long modificationTime = modificationTime(remotePath);
+
+        return modificationTime == -1 ? null : new FtpFile(name, 0, remotePath, modificationTime, false);
+    }
+
+    /**
+     * @return
+     * -1 if the server gives no modification time.
+     */
+    private long modificationTime(String remotePath) throws IOException {
+
+        String reply = client.getModificationTime(remotePath);
+
+        if (null == reply)
+            return -1;
+
+        byte[] time = reply.substring(REPLY_CODE_LENGTH).trim().getBytes(ASCII);
+
+        return ListingParser.parseMlsdTime(time, 0, time.length);
+    }
+
+    private String determineFileName(String remotePath) {
+
+        String path = remotePath.endsWith(FILE_SEPARATOR) && remotePath.length() > 1
+                ? remotePath.substring(0, remotePath.length() - 1) : remotePath;
+
+        return path.substring(path.lastIndexOf(FILE_SEPARATOR) + 1);
+    }
+
+    private void release() {
+
+        lastActivity = System.currentTimeMillis();
+        controlChannelLock.unlock();
+    }
+
+    private void retrieve(String remoteFilePath, String localDestination, long restartOffset) throws FtpException {
+
+        controlChannelLock.lock();
+        beginTransfer();
+
+        // The local file is closed however the transfer ends, aborts included.
+        try (OutputStream outputStream = restartOffset > 0
+                ? fileStreamFactory.createOutputStream(localDestination, true)
+                : fileStreamFactory.createOutputStream(localDestination)) {
+
+            client.setRestartOffset(restartOffset);
+
+            boolean hasDownloaded = retrieveFile(remoteFilePath, outputStream);
+
+            ensureFileHasSuccessfullyDownloaded(hasDownloaded);
+
+        } catch (FileNotFoundException e) {
+
+            throw new FtpException(String.format(FILE_STREAM_OPEN_FAIL_MESSAGE, localDestination), e);
+
+        } catch (IOException e) {
+
+            if (abortRequested)
+                throw abortedTransfer(remoteFilePath);
+
+            throw new FtpException(String.format(FILE_DOWNLOAD_FAILURE_MESSAGE, remoteFilePath), e);
+
+        } catch (TransferAbortedException e) {
+
+            throw abortedTransfer(remoteFilePath);
+
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Reads the file off the data connection through a pooled buffer. The retrieveFile of
+     * commons-net buffers the data connection and copies through a second buffer, allocating
+     * both for every transfer, while its stream is the bare socket stream in binary mode.
+     * 
+     * @return
+     * false if the server refused or failed the transfer.
+     */
+    private boolean retrieveFile(String remoteFilePath, OutputStream outputStream) throws IOException {
+
+        InputStream inputStream = client.retrieveFileStream(remoteFilePath);
+
+        if (null == inputStream)
+            return false;
+
+        dataStream = inputStream;
+
+        try {
+            BufferPool.getDefault().copy(abortable(inputStream), outputStream);
+        } finally {
+            closeDataStream(inputStream);
+        }
+
+        return client.completePendingCommand();
+    }
+
+    /**
+     * Writes the stream to the data connection through a pooled buffer, with STOR or, to
+     * append, APPE.
+     * 
+     * @return
+     * false if the server refused or failed the transfer.
+     */
+    private boolean storeFile(String remoteFilePath, InputStream inputStream, boolean append) throws IOException {
+
+        OutputStream outputStream = append ? client.appendFileStream(remoteFilePath)
+                : client.storeFileStream(remoteFilePath);
+
+        if (null == outputStream)
+            return false;
+
+        dataStream = outputStream;
+
+        try {
+            BufferPool.getDefault().copy(abortable(inputStream), outputStream);
+        } finally {
+            closeDataStream(outputStream);
+        }
+
+        return client.completePendingCommand();
+    }
+
+    /**
+     * Stops a transfer at the next read once aborted.
+     */
+    private InputStream abortable(InputStream inputStream) {
+
+        return new FilterInputStream(inputStream) {
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+
+                if (abortRequested)
+                    throw new TransferAbortedException();
+
+                return super.read(buffer, offset, length);
+            }
+        };
+    }
+
+    /**
+     * Sends ABOR for the broken transfer and reads the replies to the transfer and to the
+     * ABOR, which a server sends whether or not the transfer had already ended.
+     */
+    private FtpException abortedTransfer(String path) {
+
+        sendAbortQuietly();
+        completePendingCommandQuietly();
+
+        return new FtpException(String.format(TRANSFER_ABORTED_MESSAGE, path));
+    }
+
+    private void sendAbortQuietly() {
+
+        try {
+            client.abort();
+        } catch (IOException e) {
+            // The connection is gone; there is no reply left to read either.
+        }
+    }
+
+    /**
+     * Closes the transfer's data connection, which an abort no longer needs to close.
+     */
+    private void closeDataStream(Closeable stream) throws IOException {
+
+        dataStream = null;
+        stream.close();
+    }
+
+    private void completePendingCommandQuietly() {
+
+        try {
+            client.completePendingCommand();
+        } catch (IOException e) {
+            // The server may already have dropped the transfer; there is nothing left to read.
         }
     }
 
@@ -156,23 +1074,16 @@ public class FtpConnection implements Connection {
     private void ensureFileHasSuccessfullyDownloaded(boolean hasDownloaded) {
 
         if (!hasDownloaded)
-            throw new FtpException("Server returned failure while downloading.");
+            throw new FtpException("Server returned failure while downloading.", client.getReplyCode());
     }
 
     private void ensureFileHasSuccessfullyUploaded(boolean hasUploaded) {
 
         if (!hasUploaded)
-            throw new FtpException("Upload failed.");
+            throw new FtpException("Upload failed.", client.getReplyCode());
     }
 
-    private FtpFile toFtpFile(FTPFile ftpFile, String filePath) throws IOException {
-
-        String name = ftpFile.getName();
-        long fileSize = ftpFile.getSize();
-        String fullPath = filePath + FILE_SEPARATOR + ftpFile.getName();
-        long mTime = ftpFile.getTimestamp().getTime().getTime();
-        boolean isDirectory = ftpFile.isDirectory();
-
-        return new FtpFile(name, fileSize, fullPath, mTime, isDirectory);
+    @SuppressWarnings("serial")
+    private static class TransferAbortedException extends RuntimeException {
     }
 }
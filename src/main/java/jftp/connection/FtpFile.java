@@ -7,7 +7,7 @@ public class FtpFile {
 	private String name;
 	private long size;
 	private String fullPath;
-	private DateTime lastModified;
+	private long lastModifiedMillis;
 	private boolean directory;
 	
 	public FtpFile(String name, long size, String fullPath, long mTime, boolean isDirectory) {
@@ -15,7 +15,7 @@ public class FtpFile {
 		this.name = name;
 		this.size = size;
 		this.fullPath = fullPath;
-		this.lastModified = new DateTime(mTime);
+		this.lastModifiedMillis = mTime;
 		this.directory = isDirectory;
 	}
 
@@ -32,10 +32,22 @@ public class FtpFile {
 	}
 
 	public DateTime getLastModified() {
-		return lastModified;
+		return new DateTime(lastModifiedMillis);
+	}
+
+	public long getLastModifiedMillis() {
+		return lastModifiedMillis;
 	}
 
 	public boolean isDirectory() {
 		return directory;
 	}
+
+	/**
+	 * Whether this is the "." or ".." entry some servers list in every directory, which
+	 * anything walking a tree must not descend into.
+	 */
+	public boolean isDotEntry() {
+		return name.equals(".") || name.equals("..");
+	}
 }
@@ -0,0 +1,132 @@
+package jftp.connection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import jftp.exception.FtpException;
+
+/**
+ * Keeps remote copies of files that only ever grow, such as logs, up to date by sending just
+ * what has been added since the last upload. The remote file's size says how much of the local
+ * file it already holds; the rest is appended to it.
+ *
+ * A remote file larger than the local one means the local file was truncated or replaced, and
+ * it is uploaded again in full. Replacement by a file at least as long goes unnoticed by size
+ * alone, so by default the last 64KB the remote file holds are also read back and compared with
+ * the same bytes of the local file, a mismatch again meaning a full upload.
+ *
+ * Appending needs a connection implementing {@link AppendingUpload}, and comparing the tail
+ * one implementing {@link RangedDownload}; without them every upload is in full.
+ */
+public class IncrementalUploader {
+
+    private static final int DEFAULT_TAIL_VERIFICATION_BYTES = 64 * 1024;
+    private static final String FILE_SEPARATOR = "/";
+
+    public enum Outcome {
+
+        /** The remote file was already up to date. */
+        UNCHANGED,
+
+        /** What was new in the local file was appended to the remote one. */
+        APPENDED,
+
+        /** The file was uploaded in full. */
+        UPLOADED
+    }
+
+    private final Connection connection;
+
+    private int tailVerificationBytes = DEFAULT_TAIL_VERIFICATION_BYTES;
+
+    public IncrementalUploader(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * How many bytes at the end of the remote file are compared with the local file before
+     * appending. Defaults to 64KB; 0 trusts the remote file's size alone.
+     */
+    public void setTailVerificationBytes(int tailVerificationBytes) {
+        this.tailVerificationBytes = tailVerificationBytes;
+    }
+
+    /**
+     * Brings the remote copy in the directory, under the local file's name, up to date.
+     */
+    public Outcome upload(String localFilePath, String remoteDirectory) throws FtpException {
+
+        File localFile = new File(localFilePath);
+        long localSize = localFile.length();
+
+        String remoteFilePath = (remoteDirectory.endsWith(FILE_SEPARATOR) ? remoteDirectory : remoteDirectory
+                + FILE_SEPARATOR) + localFile.getName();
+
+        FtpFile remoteFile = connection.stat(remoteFilePath);
+
+        if (null == remoteFile || remoteFile.isDirectory() || !(connection instanceof AppendingUpload)
+                || remoteFile.getSize() > localSize || !hasSameTail(localFilePath, remoteFilePath, remoteFile.getSize())) {
+
+            connection.upload(localFilePath, remoteDirectory);
+            return Outcome.UPLOADED;
+        }
+
+        if (remoteFile.getSize() == localSize)
+            return Outcome.UNCHANGED;
+
+        try (FileChannel channel = FileChannel.open(Paths.get(localFilePath), StandardOpenOption.READ)) {
+
+            InputStream newContent = Channels.newInputStream(channel.position(remoteFile.getSize()));
+
+            ((AppendingUpload) connection).append(newContent, remoteFilePath);
+
+        } catch (IOException e) {
+
+            throw new FtpException("Unable to read " + localFilePath, e);
+        }
+
+        return Outcome.APPENDED;
+    }
+
+    /**
+     * @return
+     * Whether the remote file ends with the same bytes the local file has at that point, or
+     * true if not checking.
+     */
+    private boolean hasSameTail(String localFilePath, String remoteFilePath, long remoteSize) throws FtpException {
+
+        if (tailVerificationBytes <= 0 || remoteSize == 0)
+            return true;
+
+        if (!(connection instanceof RangedDownload))
+            return false;
+
+        int length = (int) Math.min(tailVerificationBytes, remoteSize);
+        long offset = remoteSize - length;
+
+        ByteArrayOutputStream remoteTail = new ByteArrayOutputStream(length);
+        ((RangedDownload) connection).downloadRange(remoteFilePath, offset, length, remoteTail);
+
+        ByteBuffer localTail = ByteBuffer.allocate(length);
+
+        try (FileChannel channel = FileChannel.open(Paths.get(localFilePath), StandardOpenOption.READ)) {
+
+            while (localTail.hasRemaining() && channel.read(localTail, offset + localTail.position()) != -1)
+                ;
+
+        } catch (IOException e) {
+
+            throw new FtpException("Unable to read " + localFilePath, e);
+        }
+
+        return Arrays.equals(remoteTail.toByteArray(), localTail.array());
+    }
+}
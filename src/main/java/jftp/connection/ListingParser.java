@@ -0,0 +1,632 @@
+package jftp.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Parses MLSD responses and UNIX or Windows style LIST responses straight from the bytes of the
+ * data connection into a CompactFileListing. Fields are located by scanning for separators and
+ * numbers and dates are decoded arithmetically, so a line costs no allocation unless its name
+ * needs decoding from a non UTF-8 control encoding.
+ *
+ * Lines in neither format, such as the "total" line of a UNIX listing, are skipped as
+ * commons-net does.
+ */
+class ListingParser {
+
+    private static final int MAX_TOKENS = 9;
+    private static final int PAGE_SIZE = 64;
+
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+    private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+
+    private static final byte[] MONTHS = "janfebmaraprmayjunjulaugsepoctnovdec".getBytes();
+    private static final byte[] SYMBOLIC_LINK_ARROW = " -> ".getBytes();
+    private static final byte[] DIRECTORY_MARKER = "<DIR>".getBytes();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Charset encoding;
+    private final TimeZone serverTimeZone;
+    private final long nowMillis;
+    private final int currentYear;
+
+    private final int[] tokenStarts = new int[MAX_TOKENS];
+    private final int[] tokenEnds = new int[MAX_TOKENS];
+
+    /**
+     * @param encoding
+     * The control encoding, in which the server sends file names.
+     * @param serverTimeZone
+     * Zone of the times in LIST responses. MLSD times are always UTC.
+     * @param nowMillis
+     * The current time, to tell which year a recent UNIX listing date belongs to.
+     */
+    ListingParser(Charset encoding, TimeZone serverTimeZone, long nowMillis) {
+
+        this.encoding = encoding;
+        this.serverTimeZone = serverTimeZone;
+        this.nowMillis = nowMillis;
+
+        Calendar now = Calendar.getInstance(serverTimeZone);
+        now.setTimeInMillis(nowMillis);
+        this.currentYear = now.get(Calendar.YEAR);
+    }
+
+    void parse(InputStream inputStream, final CompactFileListing listing, final boolean isMlsd) throws IOException {
+
+        RecordReader.read(inputStream, (byte) '\n', new RecordReader.RecordHandler() {
+
+            @Override
+            public void record(byte[] line, int start, int end) {
+                parseLine(line, start, end, listing, isMlsd);
+            }
+        });
+    }
+
+    /**
+     * Parses a page of entries at a time, handing each to the handler before reading on.
+     *
+     * @return
+     * false if the handler stopped the listing before its end.
+     */
+    boolean parse(InputStream inputStream, String parentPath, boolean isMlsd, ListingSource.EntryHandler handler)
+            throws IOException {
+
+        PagingHandler pages = new PagingHandler(parentPath, isMlsd, handler);
+
+        try {
+            RecordReader.read(inputStream, (byte) '\n', pages);
+        } catch (ListingStoppedException e) {
+            return false;
+        }
+
+        return pages.handOver();
+    }
+
+    /**
+     * Parses the output of "LIST -R": UNIX style listings, each after the first preceded by a
+     * line naming its directory, such as "./reports:" or "/data/reports:".
+     */
+    TreeListing parseRecursive(InputStream inputStream, String basePath) throws IOException {
+
+        RecursiveListingHandler handler = new RecursiveListingHandler(basePath);
+
+        RecordReader.read(inputStream, (byte) '\n', handler);
+
+        for (List<FtpFile> directory : handler.directories)
+            ((CompactFileListing) directory).trimToSize();
+
+        return new TreeListing(handler.directories);
+    }
+
+    void parseLine(byte[] line, int start, int end, CompactFileListing listing, boolean isMlsd) {
+
+        if (end > start && line[end - 1] == '\r')
+            end--;
+
+        if (end <= start)
+            return;
+
+        if (isMlsd)
+            parseMlsdLine(line, start, end, listing);
+        else if (isDigit(line[start]))
+            parseWindowsLine(line, start, end, listing);
+        else
+            parseUnixLine(line, start, end, listing);
+    }
+
+    /**
+     * RFC 3659 entries: "fact=value;fact=value; name". Listing entries for the directory itself
+     * and its parent are dropped, matching LIST.
+     */
+    private void parseMlsdLine(byte[] line, int start, int end, CompactFileListing listing) {
+
+        int nameStart = indexOf(line, start, end, (byte) ' ');
+
+        if (nameStart == -1)
+            return;
+
+        long size = 0;
+        long mTime = 0;
+        boolean isDirectory = false;
+
+        int factStart = start;
+
+        while (factStart < nameStart) {
+
+            int factEnd = indexOf(line, factStart, nameStart, (byte) ';');
+
+            if (factEnd == -1)
+                factEnd = nameStart;
+
+            int equals = indexOf(line, factStart, factEnd, (byte) '=');
+
+            if (equals != -1) {
+
+                int valueStart = equals + 1;
+
+                if (equalsIgnoreCase(line, factStart, equals, "type")) {
+
+                    if (equalsIgnoreCase(line, valueStart, factEnd, "cdir")
+                            || equalsIgnoreCase(line, valueStart, factEnd, "pdir"))
+                        return;
+
+                    isDirectory = equalsIgnoreCase(line, valueStart, factEnd, "dir");
+
+                } else if (equalsIgnoreCase(line, factStart, equals, "size")) {
+
+                    size = Math.max(0, parseNumber(line, valueStart, factEnd));
+
+                } else if (equalsIgnoreCase(line, factStart, equals, "modify")) {
+
+                    mTime = parseMlsdTime(line, valueStart, factEnd);
+                }
+            }
+
+            factStart = factEnd + 1;
+        }
+
+        addEntry(listing, line, nameStart + 1, end, size, mTime, isDirectory);
+    }
+
+    /**
+     * "drwxr-xr-x 2 owner group 4096 Mar 11 08:07 name". The group column is optional, so the
+     * size is located as the number preceding the month.
+     */
+    private void parseUnixLine(byte[] line, int start, int end, CompactFileListing listing) {
+
+        byte type = line[start];
+
+        if (type != '-' && type != 'd' && type != 'l' && type != 'b' && type != 'c' && type != 'p' && type != 's')
+            return;
+
+        int tokens = tokenize(line, start, end);
+
+        for (int month = 2; month + 2 < tokens; month++) {
+
+            int monthNumber = parseMonth(line, tokenStarts[month], tokenEnds[month]);
+            long size = parseNumber(line, tokenStarts[month - 1], tokenEnds[month - 1]);
+
+            if (monthNumber == -1 || size == -1)
+                continue;
+
+            int day = (int) parseNumber(line, tokenStarts[month + 1], tokenEnds[month + 1]);
+            long mTime = parseUnixTime(line, tokenStarts[month + 2], tokenEnds[month + 2], monthNumber, day);
+
+            int nameStart = tokenEnds[month + 2] + 1;
+
+            if (day == -1 || mTime == -1 || nameStart >= end)
+                return;
+
+            int nameEnd = end;
+
+            if (type == 'l') {
+
+                int arrow = indexOf(line, nameStart, end, SYMBOLIC_LINK_ARROW);
+
+                if (arrow != -1)
+                    nameEnd = arrow;
+            }
+
+            addEntry(listing, line, nameStart, nameEnd, size, mTime, type == 'd');
+
+            return;
+        }
+    }
+
+    /**
+     * "03-11-14  08:07AM       <DIR>          name", with a size in place of the directory marker
+     * for files.
+     */
+    private void parseWindowsLine(byte[] line, int start, int end, CompactFileListing listing) {
+
+        if (tokenize(line, start, end) < 4 || tokenEnds[0] - tokenStarts[0] < 8)
+            return;
+
+        int dateStart = tokenStarts[0];
+
+        if (line[dateStart + 2] != '-' || line[dateStart + 5] != '-')
+            return;
+
+        int month = (int) parseNumber(line, dateStart, dateStart + 2);
+        int day = (int) parseNumber(line, dateStart + 3, dateStart + 5);
+        int year = (int) parseNumber(line, dateStart + 6, tokenEnds[0]);
+
+        if (month == -1 || day == -1 || year == -1)
+            return;
+
+        if (tokenEnds[0] - dateStart == 8)
+            year = expandTwoDigitYear(year);
+
+        int timeStart = tokenStarts[1];
+        int timeEnd = tokenEnds[1];
+
+        if (timeEnd - timeStart != 7 || line[timeStart + 2] != ':')
+            return;
+
+        int hour = (int) parseNumber(line, timeStart, timeStart + 2);
+        int minute = (int) parseNumber(line, timeStart + 3, timeStart + 5);
+
+        if (hour == -1 || minute == -1)
+            return;
+
+        boolean isPm = line[timeStart + 5] == 'P' || line[timeStart + 5] == 'p';
+        hour = hour % 12 + (isPm ? 12 : 0);
+
+        boolean isDirectory = equalsIgnoreCase(line, tokenStarts[2], tokenEnds[2], DIRECTORY_MARKER);
+        long size = isDirectory ? 0 : parseNumber(line, tokenStarts[2], tokenEnds[2]);
+
+        if (size == -1)
+            return;
+
+        long mTime = toServerMillis(year, month, day, hour, minute);
+
+        addEntry(listing, line, tokenStarts[3], end, size, mTime, isDirectory);
+    }
+
+    private void addEntry(CompactFileListing listing, byte[] line, int nameStart, int nameEnd, long size,
+            long mTime, boolean isDirectory) {
+
+        if (nameEnd <= nameStart || isDotEntry(line, nameStart, nameEnd))
+            return;
+
+        if (UTF_8.equals(encoding) || isAscii(line, nameStart, nameEnd))
+            listing.add(line, nameStart, nameEnd - nameStart, size, mTime, isDirectory);
+        else
+            listing.add(new String(line, nameStart, nameEnd - nameStart, encoding), size, mTime, isDirectory);
+    }
+
+    /**
+     * Splits on spaces into at most MAX_TOKENS tokens, the last ending at the next space rather
+     * than the end of the line.
+     */
+    private int tokenize(byte[] line, int start, int end) {
+
+        int count = 0;
+        int position = start;
+
+        while (count < MAX_TOKENS) {
+
+            while (position < end && line[position] == ' ')
+                position++;
+
+            if (position == end)
+                break;
+
+            tokenStarts[count] = position;
+
+            while (position < end && line[position] != ' ')
+                position++;
+
+            tokenEnds[count++] = position;
+        }
+
+        return count;
+    }
+
+    /**
+     * "HH:MM" for dates within the last six months, in which case the year is the latest for
+     * which the date is not in the future, otherwise "YYYY".
+     */
+    private long parseUnixTime(byte[] line, int start, int end, int month, int day) {
+
+        if (end - start == 5 && line[start + 2] == ':') {
+
+            int hour = (int) parseNumber(line, start, start + 2);
+            int minute = (int) parseNumber(line, start + 3, end);
+
+            if (hour == -1 || minute == -1)
+                return -1;
+
+            long mTime = toServerMillis(currentYear, month, day, hour, minute);
+
+            if (mTime > nowMillis + MILLIS_PER_DAY)
+                mTime = toServerMillis(currentYear - 1, month, day, hour, minute);
+
+            return mTime;
+        }
+
+        int year = (int) parseNumber(line, start, end);
+
+        if (year == -1)
+            return -1;
+
+        return toServerMillis(year, month, day, 0, 0);
+    }
+
+    /**
+     * "YYYYMMDDHHMMSS" optionally followed by fractional seconds, always UTC.
+     */
+    static long parseMlsdTime(byte[] line, int start, int end) {
+
+        if (end - start < 14)
+            return 0;
+
+        long year = parseNumber(line, start, start + 4);
+        long month = parseNumber(line, start + 4, start + 6);
+        long day = parseNumber(line, start + 6, start + 8);
+        long hour = parseNumber(line, start + 8, start + 10);
+        long minute = parseNumber(line, start + 10, start + 12);
+        long second = parseNumber(line, start + 12, start + 14);
+
+        if (year == -1 || month == -1 || day == -1 || hour == -1 || minute == -1 || second == -1)
+            return 0;
+
+        long millis = 0;
+
+        if (end - start > 15 && line[start + 14] == '.') {
+
+            int fractionEnd = Math.min(end, start + 18);
+            millis = parseNumber(line, start + 15, fractionEnd);
+
+            for (int digits = fractionEnd - start - 15; digits < 3; digits++)
+                millis *= 10;
+        }
+
+        return epochDay((int) year, (int) month, (int) day) * MILLIS_PER_DAY
+                + (hour * 60 + minute) * MILLIS_PER_MINUTE + second * 1000 + Math.max(0, millis);
+    }
+
+    private long toServerMillis(int year, int month, int day, int hour, int minute) {
+
+        long localMillis = epochDay(year, month, day) * MILLIS_PER_DAY + (hour * 60 + minute) * MILLIS_PER_MINUTE;
+
+        return localMillis - serverTimeZone.getOffset(localMillis - serverTimeZone.getRawOffset());
+    }
+
+    private int expandTwoDigitYear(int year) {
+
+        int century = currentYear / 100 * 100;
+        int expanded = century + year;
+
+        return expanded > currentYear + 20 ? expanded - 100 : expanded;
+    }
+
+    /**
+     * Days since 1970-01-01 of a date in the proleptic Gregorian calendar.
+     */
+    static long epochDay(int year, int month, int day) {
+
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int parseMonth(byte[] line, int start, int end) {
+
+        if (end - start != 3)
+            return -1;
+
+        for (int month = 0; month < 12; month++) {
+
+            int offset = month * 3;
+
+            if (toLower(line[start]) == MONTHS[offset] && toLower(line[start + 1]) == MONTHS[offset + 1]
+                    && toLower(line[start + 2]) == MONTHS[offset + 2])
+                return month + 1;
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return
+     * The non-negative number spelled by the digits in the range, or -1 if there are none or
+     * anything else is there.
+     */
+    private static long parseNumber(byte[] line, int start, int end) {
+
+        if (end <= start)
+            return -1;
+
+        long value = 0;
+
+        for (int i = start; i < end; i++) {
+
+            if (!isDigit(line[i]))
+                return -1;
+
+            value = value * 10 + (line[i] - '0');
+        }
+
+        return value;
+    }
+
+    private static int indexOf(byte[] line, int start, int end, byte value) {
+
+        for (int i = start; i < end; i++)
+            if (line[i] == value)
+                return i;
+
+        return -1;
+    }
+
+    private static int indexOf(byte[] line, int start, int end, byte[] value) {
+
+        for (int i = start; i <= end - value.length; i++)
+            if (equalsIgnoreCase(line, i, i + value.length, value))
+                return i;
+
+        return -1;
+    }
+
+    private static boolean equalsIgnoreCase(byte[] line, int start, int end, String value) {
+
+        if (end - start != value.length())
+            return false;
+
+        for (int i = 0; i < value.length(); i++)
+            if (toLower(line[start + i]) != toLower((byte) value.charAt(i)))
+                return false;
+
+        return true;
+    }
+
+    private static boolean equalsIgnoreCase(byte[] line, int start, int end, byte[] value) {
+
+        if (end - start != value.length)
+            return false;
+
+        for (int i = 0; i < value.length; i++)
+            if (toLower(line[start + i]) != toLower(value[i]))
+                return false;
+
+        return true;
+    }
+
+    private static boolean isDotEntry(byte[] line, int start, int end) {
+
+        int length = end - start;
+
+        return line[start] == '.' && (length == 1 || length == 2 && line[start + 1] == '.');
+    }
+
+    /**
+     * Whether the line starts with a UNIX file type and permissions, which a directory header
+     * line would not.
+     */
+    private static boolean isUnixEntry(byte[] line, int start, int end) {
+
+        if (end - start < 10 || "-dlbcps".indexOf(line[start]) == -1)
+            return false;
+
+        for (int i = start + 1; i < start + 10; i++)
+            if ("rwxsStTlL-".indexOf(line[i]) == -1)
+                return false;
+
+        return true;
+    }
+
+    private static boolean isAscii(byte[] line, int start, int end) {
+
+        for (int i = start; i < end; i++)
+            if (line[i] < 0)
+                return false;
+
+        return true;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static byte toLower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private class RecursiveListingHandler implements RecordReader.RecordHandler {
+
+        private static final String CURRENT_DIRECTORY = ".";
+        private static final String RELATIVE_PREFIX = "./";
+        private static final String FILE_SEPARATOR = "/";
+
+        private final String basePath;
+        private final List<List<FtpFile>> directories = new ArrayList<List<FtpFile>>();
+
+        private CompactFileListing current;
+
+        RecursiveListingHandler(String basePath) {
+
+            this.basePath = basePath;
+
+            current = new CompactFileListing(basePath);
+            directories.add(current);
+        }
+
+        @Override
+        public void record(byte[] line, int start, int end) {
+
+            if (end > start && line[end - 1] == '\r')
+                end--;
+
+            if (end > start && line[end - 1] == ':' && !isUnixEntry(line, start, end)) {
+
+                String path = resolve(new String(line, start, end - start - 1, encoding));
+
+                // The top directory may have a header of its own, before anything else.
+                if (!(path.equals(basePath) && directories.size() == 1 && current.isEmpty())) {
+                    current = new CompactFileListing(path);
+                    directories.add(current);
+                }
+
+                return;
+            }
+
+            parseLine(line, start, end, current, false);
+        }
+
+        private String resolve(String header) {
+
+            if (header.equals(CURRENT_DIRECTORY))
+                return basePath;
+
+            if (header.startsWith(RELATIVE_PREFIX))
+                return basePath + FILE_SEPARATOR + header.substring(RELATIVE_PREFIX.length());
+
+            if (header.startsWith(FILE_SEPARATOR))
+                return header;
+
+            return basePath + FILE_SEPARATOR + header;
+        }
+    }
+
+    private class PagingHandler implements RecordReader.RecordHandler {
+
+        private final String parentPath;
+        private final boolean isMlsd;
+        private final ListingSource.EntryHandler handler;
+
+        private CompactFileListing page;
+
+        PagingHandler(String parentPath, boolean isMlsd, ListingSource.EntryHandler handler) {
+
+            this.parentPath = parentPath;
+            this.isMlsd = isMlsd;
+            this.handler = handler;
+
+            page = new CompactFileListing(parentPath);
+        }
+
+        @Override
+        public void record(byte[] line, int start, int end) throws IOException {
+
+            parseLine(line, start, end, page, isMlsd);
+
+            if (page.size() == PAGE_SIZE && !handOver())
+                throw new ListingStoppedException();
+        }
+
+        /**
+         * @return
+         * false if the handler asked to stop.
+         */
+        boolean handOver() {
+
+            CompactFileListing entries = page;
+            page = new CompactFileListing(parentPath);
+
+            for (FtpFile file : entries) {
+
+                if (!handler.entry(file))
+                    return false;
+            }
+
+            return true;
+        }
+    }
+
+    private static class ListingStoppedException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,57 @@
+package jftp.connection;
+
+import java.util.concurrent.Executor;
+
+import jftp.exception.FtpException;
+
+/**
+ * Publishes the entries of a remote directory as the subscriber asks for them. The listing is
+ * read from the server only as fast as the entries are taken, and stops being read once the
+ * subscriber cancels.
+ *
+ * Each subscriber lists the directory afresh, through the same connection, so subscribers are
+ * served one after another. The connection is held for the whole listing, so a subscriber
+ * that stops asking for entries is failed after a while rather than keeping it forever.
+ */
+public class ListingPublisher extends BlockingPublisher<FtpFile> {
+
+    private final ListingSource source;
+    private final String remotePath;
+
+    public ListingPublisher(ListingSource source, String remotePath) {
+        this(source, remotePath, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * @param executor
+     * Runs the listing for each subscriber, holding a thread until the listing is done.
+     */
+    public ListingPublisher(ListingSource source, String remotePath, Executor executor) {
+        this(source, remotePath, executor, DEFAULT_DEMAND_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param demandTimeoutMillis
+     * How long to wait for the subscriber to ask for another entry before abandoning the
+     * listing and failing the subscription, or 0 to wait as long as it takes.
+     */
+    public ListingPublisher(ListingSource source, String remotePath, Executor executor, long demandTimeoutMillis) {
+
+        super(executor, demandTimeoutMillis);
+
+        this.source = source;
+        this.remotePath = remotePath;
+    }
+
+    @Override
+    void produce(final Emitter<FtpFile> emitter) throws FtpException {
+
+        source.listFiles(remotePath, new ListingSource.EntryHandler() {
+
+            @Override
+            public boolean entry(FtpFile file) {
+                return emitter.emit(file);
+            }
+        });
+    }
+}
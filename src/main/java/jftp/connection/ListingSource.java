@@ -0,0 +1,26 @@
+package jftp.connection;
+
+import jftp.exception.FtpException;
+
+/**
+ * A connection able to hand over the entries of a directory listing as they arrive, rather
+ * than once the whole listing has been read.
+ */
+public interface ListingSource {
+
+    /**
+     * Hands each entry of the directory to the handler as it is read. The handler may block,
+     * holding back the rest of the listing until it returns. The connection serves nothing
+     * else until the listing is done, so a handler should not block for long.
+     */
+    void listFiles(String remotePath, EntryHandler handler) throws FtpException;
+
+    interface EntryHandler {
+
+        /**
+         * @return
+         * false to stop reading the listing.
+         */
+        boolean entry(FtpFile file);
+    }
+}
@@ -0,0 +1,165 @@
+package jftp.connection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jftp.exception.FtpException;
+import jftp.util.BatchCompletion;
+import jftp.util.DaemonThreadFactory;
+
+/**
+ * Runs metadata operations over many paths in parallel across a pool of connections to the
+ * same server, each connection working through the paths one request at a time. With n
+ * connections a batch takes around 1/n of the round trips it would on one.
+ *
+ * A path that fails does not stop the others, as {@link BatchCompletion} describes. The
+ * connections should not be used for anything else while a batch runs.
+ */
+public class MetadataBatch {
+
+    private final List<Connection> connections;
+    private final ExecutorService executor;
+    private final DirectoryCache directoryCache = new DirectoryCache();
+
+    public MetadataBatch(List<? extends Connection> connections) {
+        this(connections, Executors.newCachedThreadPool(new DaemonThreadFactory("jftp-metadata-%d")));
+    }
+
+    /**
+     * @param executor
+     * Runs the work of each connection, so needs as many threads as there are connections.
+     */
+    public MetadataBatch(List<? extends Connection> connections, ExecutorService executor) {
+
+        if (connections.isEmpty())
+            throw new FtpException("At least one connection must be given.");
+
+        this.connections = new ArrayList<Connection>(connections);
+        this.executor = executor;
+    }
+
+    /**
+     * @return
+     * One file per path, in the same order, or null for a path that does not exist.
+     */
+    public List<FtpFile> statAll(final List<String> remotePaths) throws FtpException {
+
+        return run("look up", remotePaths, new PathOperation<FtpFile>() {
+
+            @Override
+            public FtpFile run(Connection connection, int index) {
+                return connection.stat(remotePaths.get(index));
+            }
+        });
+    }
+
+    /**
+     * Creates every directory along with any missing parents. Directories created or found
+     * to exist are remembered across batches and connections, so parents shared by many paths
+     * are only created once.
+     */
+    public void createDirectories(final List<String> remotePaths) throws FtpException {
+
+        run("create", remotePaths, new PathOperation<Void>() {
+
+            @Override
+            public Void run(Connection connection, int index) {
+                directoryCache.createDirectories(connection, remotePaths.get(index));
+                return null;
+            }
+        });
+    }
+
+    public void deleteAll(final List<String> remoteFilePaths) throws FtpException {
+
+        run("delete", remoteFilePaths, new PathOperation<Void>() {
+
+            @Override
+            public Void run(Connection connection, int index) {
+                connection.delete(remoteFilePaths.get(index));
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Renames are independent of each other and run in no particular order, so no path
+     * should be both renamed and renamed to.
+     */
+    public void renameAll(Map<String, String> remotePaths) throws FtpException {
+
+        final List<String> fromPaths = new ArrayList<String>(remotePaths.keySet());
+        final List<String> toPaths = new ArrayList<String>(remotePaths.values());
+
+        run("rename", fromPaths, new PathOperation<Void>() {
+
+            @Override
+            public Void run(Connection connection, int index) {
+
+                connection.rename(fromPaths.get(index), toPaths.get(index));
+                directoryCache.forget(fromPaths.get(index));
+
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Gives each connection a worker which takes the next path not yet taken until none are
+     * left, so a slow connection simply handles fewer paths.
+     */
+    private <T> List<T> run(String action, final List<String> paths, final PathOperation<T> operation)
+            throws FtpException {
+
+        final Object[] results = new Object[paths.size()];
+        final FtpException[] failures = new FtpException[paths.size()];
+        final AtomicInteger next = new AtomicInteger();
+
+        List<Future<Void>> workers = new ArrayList<Future<Void>>();
+
+        for (int i = 0; i < Math.min(connections.size(), paths.size()); i++) {
+
+            final Connection connection = connections.get(i);
+
+            workers.add(executor.submit(new Callable<Void>() {
+
+                @Override
+                public Void call() {
+
+                    int index;
+
+                    while ((index = next.getAndIncrement()) < paths.size()) {
+
+                        try {
+                            results[index] = operation.run(connection, index);
+                        } catch (FtpException e) {
+                            failures[index] = e;
+                        }
+                    }
+
+                    return null;
+                }
+            }));
+        }
+
+        BatchCompletion.awaitAll(workers);
+        BatchCompletion.checkFailures(action, "paths", paths, failures);
+
+        @SuppressWarnings("unchecked")
+        List<T> typedResults = (List<T>) Arrays.asList(results);
+
+        return typedResults;
+    }
+
+    private interface PathOperation<T> {
+
+        T run(Connection connection, int index) throws FtpException;
+    }
+}
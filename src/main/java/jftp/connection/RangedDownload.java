@@ -0,0 +1,21 @@
+package jftp.connection;
+
+import java.io.OutputStream;
+
+import jftp.exception.FtpException;
+
+/**
+ * A connection able to download part of a file, so that a large file can be fetched in
+ * segments over several connections at once.
+ */
+public interface RangedDownload {
+
+    /**
+     * Writes up to the given number of bytes of the file, starting at the offset.
+     * 
+     * @return
+     * The number of bytes written, fewer than asked for only if the file ends first.
+     */
+    long downloadRange(String remoteFilePath, long offset, long length, OutputStream outputStream)
+            throws FtpException;
+}
@@ -0,0 +1,78 @@
+package jftp.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import jftp.util.BufferPool;
+
+/**
+ * Splits a stream into delimited records handed out as ranges of a reused buffer, which grows
+ * only if a single record outgrows it. Buffers come from the shared pool.
+ */
+class RecordReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    interface RecordHandler {
+
+        void record(byte[] buffer, int start, int end) throws IOException;
+    }
+
+    private RecordReader() {
+    }
+
+    /**
+     * Hands every record to the handler without its delimiter, including a final record with
+     * no delimiter after it.
+     */
+    static void read(InputStream inputStream, byte delimiter, RecordHandler handler) throws IOException {
+
+        BufferPool pool = BufferPool.getDefault();
+        byte[] buffer = pool.acquire(BUFFER_SIZE);
+
+        try {
+
+            int end = 0;
+            int read;
+
+            while ((read = inputStream.read(buffer, end, buffer.length - end)) != -1) {
+
+                int scanFrom = end;
+                int recordStart = 0;
+
+                end += read;
+
+                for (int i = scanFrom; i < end; i++) {
+
+                    if (buffer[i] == delimiter) {
+
+                        handler.record(buffer, recordStart, i);
+                        recordStart = i + 1;
+                    }
+                }
+
+                end -= recordStart;
+                System.arraycopy(buffer, recordStart, buffer, 0, end);
+
+                if (end == buffer.length)
+                    buffer = grow(pool, buffer);
+            }
+
+            if (end > 0)
+                handler.record(buffer, 0, end);
+
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    private static byte[] grow(BufferPool pool, byte[] buffer) {
+
+        byte[] grown = pool.acquireWithoutWaiting(buffer.length * 2);
+
+        System.arraycopy(buffer, 0, grown, 0, buffer.length);
+        pool.release(buffer);
+
+        return grown;
+    }
+}
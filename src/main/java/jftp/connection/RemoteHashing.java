@@ -0,0 +1,16 @@
+package jftp.connection;
+
+import jftp.exception.FtpException;
+
+/**
+ * A connection able to have the server hash a file, so its content can be compared without
+ * downloading it.
+ */
+public interface RemoteHashing {
+
+    /**
+     * @return
+     * The file's SHA-256 digest in lower case hex, or null if the server cannot provide one.
+     */
+    String sha256(String remoteFilePath) throws FtpException;
+}
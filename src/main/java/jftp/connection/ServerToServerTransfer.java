@@ -0,0 +1,211 @@
+package jftp.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import jftp.exception.FtpException;
+import jftp.util.BufferPool;
+import jftp.util.DaemonThreadFactory;
+import jftp.util.RingBuffer;
+
+/**
+ * Moves files between two remote servers without staging them on local disk. Two FTP
+ * connections transfer directly between the servers (FXP); any other combination, or FTP
+ * servers refusing FXP, streams the file from the source into the target through a bounded
+ * in-memory buffer.
+ */
+public class ServerToServerTransfer {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    private static final String FILE_SEPARATOR = "/";
+
+    private final ExecutorService executor;
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private BufferPool bufferPool = BufferPool.getDefault();
+
+    public ServerToServerTransfer() {
+        this(Executors.newCachedThreadPool(new DaemonThreadFactory("jftp-transfer-%d")));
+    }
+
+    /**
+     * @param executor
+     * Runs the download side of relayed transfers, one task per transfer in progress.
+     */
+    public ServerToServerTransfer(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Size in bytes of the buffer between source and target when a transfer is relayed.
+     * Defaults to 1MB, and is rounded up to a power of two.
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * The pool relay buffers are taken from, by default the one shared by all transfers.
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Copies a file from one connection to another.
+     *
+     * @param sourcePath
+     * Path of the file on the source server.
+     * @param targetDirectory
+     * Directory on the target server, which receives a file of the same name.
+     */
+    public void transfer(Connection source, String sourcePath, Connection target, String targetDirectory)
+            throws FtpException {
+
+        String targetPath = determineTargetPath(sourcePath, targetDirectory);
+
+        if (source instanceof FtpConnection && target instanceof FtpConnection
+                && ((FtpConnection) source).transferTo((FtpConnection) target, sourcePath, targetPath))
+            return;
+
+        relay(source, sourcePath, target, targetPath);
+    }
+
+    /**
+     * The buffer goes back to the pool once both sides are done with it, which if the wait for
+     * the download is interrupted may be after this returns.
+     */
+    private void relay(final Connection source, final String sourcePath, Connection target, String targetPath)
+            throws FtpException {
+
+        final byte[] array = bufferPool.acquire(bufferSize);
+        final AtomicInteger users = new AtomicInteger(2);
+
+        final RingBuffer buffer = new RingBuffer(array);
+        final AtomicReference<Exception> sourceFailure = new AtomicReference<Exception>();
+
+        try {
+
+            Future<?> download;
+
+            try {
+
+                download = executor.submit(new Runnable() {
+
+                    @Override
+                    public void run() {
+
+                        OutputStream outputStream = buffer.getOutputStream();
+
+                        try {
+
+                            source.download(sourcePath, outputStream);
+                            outputStream.close();
+
+                        } catch (IOException | RuntimeException e) {
+
+                            sourceFailure.set(e);
+                            buffer.fail(e);
+
+                        } finally {
+                            releaseIfUnused(array, users);
+                        }
+                    }
+                });
+
+            } catch (RuntimeException e) {
+
+                // The download never runs, so never releases the buffer itself.
+                users.decrementAndGet();
+                throw e;
+            }
+
+            InputStream inputStream = buffer.getInputStream();
+
+            try {
+
+                target.upload(inputStream, targetPath);
+
+            } catch (FtpException e) {
+
+                // The upload fails whenever the download does, in which case the download's
+                // exception names the actual cause. Otherwise the download is aborted by us and
+                // its failure is of no interest.
+                boolean sourceFailedFirst = null != sourceFailure.get();
+
+                if (!sourceFailedFirst)
+                    source.abort();
+
+                closeQuietly(inputStream);
+                awaitQuietly(download);
+
+                throw sourceFailedFirst ? asFtpException(sourceFailure.get()) : e;
+            }
+
+            awaitQuietly(download);
+
+            if (null != sourceFailure.get())
+                throw asFtpException(sourceFailure.get());
+
+        } finally {
+            releaseIfUnused(array, users);
+        }
+    }
+
+    private void releaseIfUnused(byte[] array, AtomicInteger users) {
+
+        if (users.decrementAndGet() == 0)
+            bufferPool.release(array);
+    }
+
+    private FtpException asFtpException(Exception failure) {
+
+        if (failure instanceof FtpException)
+            return (FtpException) failure;
+
+        return new FtpException("Server to server transfer failed.", failure);
+    }
+
+    private void awaitQuietly(Future<?> download) throws FtpException {
+
+        try {
+
+            download.get();
+
+        } catch (ExecutionException e) {
+            // The download task records its own failures.
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            download.cancel(true);
+
+            throw new FtpException("Interrupted while waiting for the transfer to complete.", e);
+        }
+    }
+
+    private void closeQuietly(InputStream inputStream) {
+
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            // The buffer holds no resources beyond memory.
+        }
+    }
+
+    private String determineTargetPath(String sourcePath, String targetDirectory) {
+
+        String fileName = sourcePath.substring(sourcePath.lastIndexOf(FILE_SEPARATOR) + 1);
+
+        if (targetDirectory.endsWith(FILE_SEPARATOR))
+            return targetDirectory + fileName;
+
+        return targetDirectory + FILE_SEPARATOR + fileName;
+    }
+}
@@ -1,44 +1,111 @@
 package jftp.connection;
 
+import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Vector;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import jftp.exception.FtpException;
+import jftp.util.BufferPool;
+import jftp.util.DaemonThreadFactory;
 import jftp.util.FileStreamFactory;
 
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.ChannelSftp.LsEntrySelector;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpATTRS;
 import com.jcraft.jsch.SftpException;
 
-public class SftpConnection implements Connection {
+public class SftpConnection implements Connection, ListingSource, RemoteHashing, RangedDownload, AppendingUpload {
 
     private static final String COULD_NOT_FIND_FILE_MESSAGE = "Could not find file: %s";
     private static final String DIRECTORY_DOES_NOT_EXIST_MESSAGE = "Directory %s does not exist.";
     private static final String FILE_LISTING_ERROR_MESSAGE = "Unable to list files in directory %s";
+    private static final String TRANSFER_ABORTED_MESSAGE = "Transfer of %s was aborted.";
     private static final String FILE_SEPARATOR = "/";
 
     private static final int MILLIS = 1000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
 
-    private ChannelSftp channel;
+    private static final String EXEC_CHANNEL = "exec";
+    private static final String SFTP_CHANNEL = "sftp";
+    private static final String FIND_COMMAND = "find %s -mindepth 1 -printf '%s'";
+    private static final int EXIT_STATUS_TIMEOUT_MILLIS = 5000;
+    private static final int EXIT_STATUS_POLL_MILLIS = 10;
+    private static final int KEEP_ALIVE_TIMEOUT_MILLIS = 30 * MILLIS;
+
+    private static final String SHA_256_COMMAND = "sha256sum -b -- %s";
+    private static final int SHA_256_HEX_LENGTH = 64;
+
+    private static final String TAR_EXTRACT_COMMAND = "tar -x -f - -C %s";
+    private static final String TAR_CREATE_COMMAND = "tar -c -f - --null -T -";
+    private static final String BULK_TRANSFER_FAILED_MESSAGE = "Bulk transfer failed with exit status %d: %s";
+    private static final String STAT_FAILURE_MESSAGE = "Unable to look up %s";
+    private static final String CREATE_DIRECTORY_FAILURE_MESSAGE = "Unable to create directory %s";
+    private static final String DELETE_FAILURE_MESSAGE = "Unable to delete %s";
+    private static final String RENAME_FAILURE_MESSAGE = "Unable to rename %s to %s";
+
+    private static final int DEFAULT_PIPELINE_WINDOW = 64;
+    private static final String BATCH_FAILURE_MESSAGE = "Unable to %s %d of %d paths, the first being %s: %s";
+
+    private static final DaemonThreadFactory NAME_WRITER_THREADS = new DaemonThreadFactory("jftp-tar-names-%d");
+
+    private volatile ChannelSftp channel;
+    private volatile boolean channelClosed;
+    private volatile boolean abortRequested;
+    private volatile long lastActivity = System.currentTimeMillis();
 
     private FileStreamFactory fileStreamFactory = new FileStreamFactory();
 
+    private SftpPipeline pipeline;
+    private int pipelineWindow = DEFAULT_PIPELINE_WINDOW;
+
+    private final DirectoryCache directoryCache = new DirectoryCache();
+
     public SftpConnection(ChannelSftp channel) {
         this.channel = channel;
     }
 
+    /**
+     * Points this connection at a freshly opened channel, used when the client reconnects so
+     * that callers can keep using the same connection.
+     */
+    public synchronized void setChannel(ChannelSftp channel) {
+        this.channel = channel;
+        this.channelClosed = false;
+        closePipeline();
+    }
+
+    /**
+     * The most requests the batch methods keep in flight at once. Defaults to 64.
+     */
+    public void setPipelineWindow(int pipelineWindow) {
+        this.pipelineWindow = pipelineWindow;
+    }
+
     @Override
     public void changeDirectory(String directory) throws FtpException {
 
         try {
 
-            channel.cd(directory);
+            channel().cd(directory);
 
         } catch (SftpException e) {
 
@@ -49,16 +116,75 @@ public class SftpConnection implements Connection {
     @Override
     public void download(String remoteFilePath, String localDirectory)  throws FtpException {
 
+        abortRequested = false;
+
         try {
 
-            channel.get(remoteFilePath, localDirectory);
+            channel().get(remoteFilePath, localDirectory);
 
         } catch (SftpException e) {
 
-            throw new FtpException("Unable to download file " + remoteFilePath, e);
+            throw failedTransfer("Unable to download file " + remoteFilePath, remoteFilePath, e);
         }
     }
     
+    @Override
+    public void download(String remoteFilePath, OutputStream outputStream) throws FtpException {
+
+        abortRequested = false;
+
+        try {
+
+            channel().get(remoteFilePath, outputStream);
+
+        } catch (SftpException e) {
+
+            throw failedTransfer("Unable to download file " + remoteFilePath, remoteFilePath, e);
+        }
+    }
+
+    /**
+     * Reads from the offset with the file open on the server, closing it once enough has been
+     * read.
+     */
+    @Override
+    public long downloadRange(String remoteFilePath, long offset, long length, OutputStream outputStream)
+            throws FtpException {
+
+        abortRequested = false;
+
+        try (InputStream inputStream = channel().get(remoteFilePath, null, offset)) {
+
+            return BufferPool.getDefault().copy(inputStream, outputStream, length);
+
+        } catch (SftpException e) {
+
+            throw failedTransfer("Unable to download file " + remoteFilePath, remoteFilePath, e);
+
+        } catch (IOException e) {
+
+            if (abortRequested)
+                throw new FtpException(String.format(TRANSFER_ABORTED_MESSAGE, remoteFilePath));
+
+            throw new FtpException("Unable to download file " + remoteFilePath, e);
+        }
+    }
+
+    @Override
+    public void resumeDownload(String remoteFilePath, String localDirectory) throws FtpException {
+
+        abortRequested = false;
+
+        try {
+
+            channel().get(remoteFilePath, localDirectory, null, ChannelSftp.RESUME);
+
+        } catch (SftpException e) {
+
+            throw failedTransfer("Unable to download file " + remoteFilePath, remoteFilePath, e);
+        }
+    }
+
     @Override
     public List<FtpFile> listFiles() throws FtpException {
 
@@ -66,40 +192,120 @@ public class SftpConnection implements Connection {
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public List<FtpFile> listFiles(String remotePath) throws FtpException {
 
         try {
-            
-            List<FtpFile> files = new ArrayList<FtpFile>();
 
             String originalWorkingDirectory = printWorkingDirectory();
-            
+
             changeDirectory(remotePath);
 
             String newWorkingDirectory = printWorkingDirectory();
 
-            Vector<LsEntry> lsEntries = channel.ls(newWorkingDirectory);
-            
-            for (LsEntry entry : lsEntries)
-                files.add(toFtpFile(entry, newWorkingDirectory));
+            final CompactFileListing files = new CompactFileListing(newWorkingDirectory);
+
+            channel().ls(newWorkingDirectory, new LsEntrySelector() {
+
+                @Override
+                public int select(LsEntry entry) {
+
+                    if (isDotEntry(entry))
+                        return CONTINUE;
+
+                    SftpATTRS attributes = entry.getAttrs();
+                    files.add(entry.getFilename(), attributes.getSize(), (long) attributes.getMTime() * MILLIS,
+                            attributes.isDir());
+
+                    return CONTINUE;
+                }
+            });
+
+            files.trimToSize();
 
             changeDirectory(originalWorkingDirectory);
-            
+
             return files;
-            
+
         } catch (SftpException e) {
 
             throw new FtpException(String.format(FILE_LISTING_ERROR_MESSAGE, remotePath), e);
         }
     }
 
+    /**
+     * SFTP servers list the directory itself and its parent as "." and "..", which FTP servers
+     * leave out. Dropping them keeps the listings of both protocols alike.
+     */
+    private static boolean isDotEntry(LsEntry entry) {
+
+        return ".".equals(entry.getFilename()) || "..".equals(entry.getFilename());
+    }
+
+    /**
+     * Each batch of entries is handed over before the next is asked for, so a slow handler
+     * holds back the server.
+     */
+    @Override
+    public void listFiles(String remotePath, final EntryHandler handler) throws FtpException {
+
+        try {
+
+            String originalWorkingDirectory = printWorkingDirectory();
+
+            changeDirectory(remotePath);
+
+            final String newWorkingDirectory = printWorkingDirectory();
+
+            channel().ls(newWorkingDirectory, new LsEntrySelector() {
+
+                @Override
+                public int select(LsEntry entry) {
+
+                    if (isDotEntry(entry))
+                        return CONTINUE;
+
+                    SftpATTRS attributes = entry.getAttrs();
+                    FtpFile file = new FtpFile(entry.getFilename(), attributes.getSize(),
+                            newWorkingDirectory + FILE_SEPARATOR + entry.getFilename(),
+                            (long) attributes.getMTime() * MILLIS, attributes.isDir());
+
+                    return handler.entry(file) ? CONTINUE : BREAK;
+                }
+            });
+
+            changeDirectory(originalWorkingDirectory);
+
+        } catch (SftpException e) {
+
+            throw new FtpException(String.format(FILE_LISTING_ERROR_MESSAGE, remotePath), e);
+        }
+    }
+
+    @Override
+    public List<FtpFile> listFilesRecursively(String remotePath) throws FtpException {
+
+        String originalWorkingDirectory = printWorkingDirectory();
+
+        changeDirectory(remotePath);
+
+        String newWorkingDirectory = printWorkingDirectory();
+
+        changeDirectory(originalWorkingDirectory);
+
+        TreeListing tree = findRecursively(newWorkingDirectory);
+
+        if (null == tree)
+            tree = TreeListing.walk(this, newWorkingDirectory);
+
+        return tree;
+    }
+
     @Override
     public String printWorkingDirectory() throws FtpException {
         
         try {
             
-            return channel.pwd();
+            return channel().pwd();
             
         } catch (SftpException e) {
 
@@ -107,14 +313,85 @@ public class SftpConnection implements Connection {
         }
     }
 
+    @Override
+    public FtpFile stat(String remotePath) throws FtpException {
+
+        try {
+
+            SftpATTRS attributes = channel().stat(remotePath);
+
+            return new FtpFile(determineFileName(remotePath), attributes.getSize(), remotePath,
+                    (long) attributes.getMTime() * MILLIS, attributes.isDir());
+
+        } catch (SftpException e) {
+
+            if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE)
+                return null;
+
+            throw new FtpException(String.format(STAT_FAILURE_MESSAGE, remotePath), e);
+        }
+    }
+
+    @Override
+    public boolean exists(String remotePath) throws FtpException {
+        return null != stat(remotePath);
+    }
+
+    @Override
+    public void createDirectory(String remotePath) throws FtpException {
+
+        try {
+
+            channel().mkdir(remotePath);
+
+        } catch (SftpException e) {
+
+            throw new FtpException(String.format(CREATE_DIRECTORY_FAILURE_MESSAGE, remotePath), e);
+        }
+    }
+
+    @Override
+    public void createDirectories(String remotePath) throws FtpException {
+        directoryCache.createDirectories(this, remotePath);
+    }
+
+    @Override
+    public void delete(String remoteFilePath) throws FtpException {
+
+        try {
+
+            channel().rm(remoteFilePath);
+
+        } catch (SftpException e) {
+
+            throw new FtpException(String.format(DELETE_FAILURE_MESSAGE, remoteFilePath), e);
+        }
+    }
+
+    @Override
+    public void rename(String fromRemotePath, String toRemotePath) throws FtpException {
+
+        try {
+
+            channel().rename(fromRemotePath, toRemotePath);
+            directoryCache.forget(fromRemotePath);
+
+        } catch (SftpException e) {
+
+            throw new FtpException(String.format(RENAME_FAILURE_MESSAGE, fromRemotePath, toRemotePath), e);
+        }
+    }
+
     @Override
     public void upload(String localFilePath, String remoteDirectory) throws FtpException {
 
+        abortRequested = false;
+
         try {
 
             FileInputStream localFileInputStream = fileStreamFactory.createInputStream(localFilePath);
 
-            channel.put(localFileInputStream, determineRemotePath(localFilePath, remoteDirectory));
+            channel().put(localFileInputStream, determineRemotePath(localFilePath, remoteDirectory));
 
             localFileInputStream.close();
 
@@ -123,13 +400,615 @@ public class SftpConnection implements Connection {
             throw new FtpException(String.format(COULD_NOT_FIND_FILE_MESSAGE, localFilePath), e);
         } catch (SftpException e) {
 
-            throw new FtpException("Upload failed to complete.", e);
+            throw failedTransfer("Upload failed to complete.", localFilePath, e);
         } catch (IOException e) {
 
             throw new FtpException("Upload may not have completed.", e);
         }
     }
 
+    @Override
+    public void upload(InputStream inputStream, String remoteFilePath) throws FtpException {
+
+        abortRequested = false;
+
+        try {
+
+            channel().put(inputStream, remoteFilePath);
+
+        } catch (SftpException e) {
+
+            discardPartialUpload(remoteFilePath);
+
+            throw failedTransfer("Upload failed to complete.", remoteFilePath, e);
+        }
+    }
+
+    @Override
+    public void append(InputStream inputStream, String remoteFilePath) throws FtpException {
+
+        abortRequested = false;
+
+        try {
+
+            channel().put(inputStream, remoteFilePath, ChannelSftp.APPEND);
+
+        } catch (SftpException e) {
+
+            throw failedTransfer("Upload failed to complete.", remoteFilePath, e);
+        }
+    }
+
+    /**
+     * Uploads many files in one stream by piping a tar archive of them into tar on the server,
+     * over an exec channel on the same session. Each file then costs a header block rather than
+     * the round trips of opening, writing and closing it over SFTP, which dominate for small
+     * files. Files land in the remote directory under their own names, as with upload.
+     *
+     * The server must allow commands to be run and have tar installed.
+     */
+    public void uploadAll(List<String> localFilePaths, String remoteDirectory) throws FtpException {
+
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        ChannelExec exec = null;
+
+        try {
+
+            exec = openExec(String.format(TAR_EXTRACT_COMMAND, quote(resolve(remoteDirectory))), errors);
+
+            OutputStream archive = exec.getOutputStream();
+            exec.connect();
+
+            TarWriter writer = new TarWriter(archive);
+
+            for (String localFilePath : localFilePaths) {
+
+                try (InputStream localFileInputStream = openLocalFile(localFilePath)) {
+
+                    writer.writeFile(Paths.get(localFilePath).getFileName().toString(),
+                            fileStreamFactory.length(localFilePath), fileStreamFactory.lastModified(localFilePath),
+                            localFileInputStream);
+                }
+            }
+
+            writer.finish();
+            archive.close();
+
+            checkExitStatus(exec, errors);
+
+        } catch (JSchException | IOException e) {
+
+            throw new FtpException("Unable to upload files to " + remoteDirectory, e);
+
+        } finally {
+
+            if (null != exec)
+                exec.disconnect();
+        }
+    }
+
+    /**
+     * Downloads many files in one stream by having tar on the server archive them over an
+     * exec channel on the same session, extracting them as they arrive. Files land in the local
+     * directory under their own names, as with download.
+     *
+     * The server must allow commands to be run and have a tar which reads NUL separated names.
+     * Files extracted before a failure are left in place.
+     */
+    public void downloadAll(List<String> remoteFilePaths, String localDirectory) throws FtpException {
+
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        ChannelExec exec = null;
+
+        try {
+
+            exec = openExec(TAR_CREATE_COMMAND, errors);
+
+            InputStream archive = exec.getInputStream();
+            OutputStream names = exec.getOutputStream();
+            exec.connect();
+
+            // tar reads names as it goes, so they are fed in alongside reading the archive.
+            FutureTask<Void> nameWriter = new FutureTask<Void>(writeNames(remoteFilePaths, names));
+            NAME_WRITER_THREADS.newThread(nameWriter).start();
+
+            TarReader reader = new TarReader(archive);
+
+            while (reader.next()) {
+
+                if (!reader.isFile())
+                    continue;
+
+                String localFilePath = localDirectory + FILE_SEPARATOR
+                        + Paths.get(reader.getName()).getFileName().toString();
+
+                try (OutputStream localFileOutputStream = fileStreamFactory.createOutputStream(localFilePath)) {
+                    reader.copyTo(localFileOutputStream);
+                }
+            }
+
+            nameWriter.get();
+            checkExitStatus(exec, errors);
+
+        } catch (ExecutionException e) {
+
+            throw new FtpException("Unable to send the names of the files to download", e);
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw new FtpException("Interrupted while downloading files to " + localDirectory, e);
+
+        } catch (JSchException | IOException e) {
+
+            throw new FtpException("Unable to download files to " + localDirectory, e);
+
+        } finally {
+
+            if (null != exec)
+                exec.disconnect();
+        }
+    }
+
+    /**
+     * Looks up every path in one pipelined batch.
+     *
+     * @return
+     * One file per path, in the same order, or null for a path that does not exist.
+     */
+    public List<FtpFile> statAll(List<String> remotePaths) throws FtpException {
+
+        List<String> resolvedPaths = resolveAll(remotePaths);
+        List<SftpPipeline.Request> requests = new ArrayList<SftpPipeline.Request>();
+
+        for (String path : resolvedPaths)
+            requests.add(SftpPipeline.stat(path));
+
+        List<SftpPipeline.Response> responses = executeBatch(requests);
+        List<FtpFile> files = new ArrayList<FtpFile>();
+        List<SftpPipeline.Response> failures = new ArrayList<SftpPipeline.Response>(responses);
+
+        for (int i = 0; i < responses.size(); i++) {
+
+            SftpPipeline.Response response = responses.get(i);
+
+            if (response.isOk()) {
+
+                String path = resolvedPaths.get(i);
+
+                files.add(new FtpFile(determineFileName(path), response.getSize(), path,
+                        response.getLastModifiedMillis(), response.isDirectory()));
+
+            } else {
+
+                files.add(null);
+
+                if (response.getStatus() == SftpPipeline.SSH_FX_NO_SUCH_FILE)
+                    failures.set(i, null);
+            }
+        }
+
+        checkBatch("look up", remotePaths, failures);
+
+        return files;
+    }
+
+    /**
+     * Creates every directory in one pipelined batch. A parent created in the same batch must
+     * come before its children; servers such as OpenSSH handle requests in the order sent,
+     * though the protocol does not promise it.
+     */
+    public void makeDirectories(List<String> remotePaths) throws FtpException {
+
+        List<SftpPipeline.Request> requests = new ArrayList<SftpPipeline.Request>();
+
+        for (String path : resolveAll(remotePaths))
+            requests.add(SftpPipeline.makeDirectory(path));
+
+        checkBatch("create", remotePaths, executeBatch(requests));
+    }
+
+    /**
+     * Deletes every file in one pipelined batch. All are attempted even if some fail.
+     */
+    public void deleteAll(List<String> remoteFilePaths) throws FtpException {
+
+        List<SftpPipeline.Request> requests = new ArrayList<SftpPipeline.Request>();
+
+        for (String path : resolveAll(remoteFilePaths))
+            requests.add(SftpPipeline.remove(path));
+
+        checkBatch("delete", remoteFilePaths, executeBatch(requests));
+    }
+
+    /**
+     * Renames every file in one pipelined batch, in the map's iteration order.
+     */
+    public void renameAll(Map<String, String> remotePaths) throws FtpException {
+
+        List<String> fromPaths = new ArrayList<String>(remotePaths.keySet());
+        List<SftpPipeline.Request> requests = new ArrayList<SftpPipeline.Request>();
+
+        for (Map.Entry<String, String> paths : remotePaths.entrySet())
+            requests.add(SftpPipeline.rename(resolve(paths.getKey()), resolve(paths.getValue())));
+
+        checkBatch("rename", fromPaths, executeBatch(requests));
+    }
+
+    /**
+     * Creates every file empty, or truncates it if it exists, in two pipelined batches: one
+     * opening all the files and one closing them again. Useful for marker files.
+     */
+    public void createEmptyFiles(List<String> remoteFilePaths) throws FtpException {
+
+        List<SftpPipeline.Request> opens = new ArrayList<SftpPipeline.Request>();
+
+        for (String path : resolveAll(remoteFilePaths))
+            opens.add(SftpPipeline.open(path, SftpPipeline.SSH_FXF_WRITE | SftpPipeline.SSH_FXF_CREAT
+                    | SftpPipeline.SSH_FXF_TRUNC));
+
+        List<SftpPipeline.Response> opened = executeBatch(opens);
+
+        List<String> closedPaths = new ArrayList<String>();
+        List<SftpPipeline.Request> closes = new ArrayList<SftpPipeline.Request>();
+
+        for (int i = 0; i < opened.size(); i++) {
+
+            if (opened.get(i).isOk()) {
+                closedPaths.add(remoteFilePaths.get(i));
+                closes.add(SftpPipeline.close(opened.get(i).getHandle()));
+            }
+        }
+
+        List<SftpPipeline.Response> closed = executeBatch(closes);
+
+        checkBatch("create", remoteFilePaths, opened);
+        checkBatch("close", closedPaths, closed);
+    }
+
+    /**
+     * SFTP offers no way to interrupt a request in flight, so the channel is closed, failing
+     * the running transfer. The next operation opens a fresh channel on the same session, in
+     * the same working directory, so the connection stays usable.
+     */
+    @Override
+    public void abort() throws FtpException {
+
+        abortRequested = true;
+        channelClosed = true;
+        channel.disconnect();
+    }
+
+    /**
+     * Checks the session is still answering if the connection has been idle for at least the
+     * given time, by opening an SFTP channel and closing it again, which the server has to
+     * confirm. The channel in use is left alone, as a request on it could interleave with one
+     * from another thread.
+     * 
+     * @return
+     * false if the server could not be reached.
+     */
+    public boolean keepAlive(long idleMillis) {
+
+        if (System.currentTimeMillis() - lastActivity < idleMillis)
+            return true;
+
+        try {
+
+            Channel probe = channel.getSession().openChannel(SFTP_CHANNEL);
+
+            try {
+                probe.connect(KEEP_ALIVE_TIMEOUT_MILLIS);
+            } finally {
+                probe.disconnect();
+            }
+
+            lastActivity = System.currentTimeMillis();
+
+            return true;
+
+        } catch (JSchException e) {
+
+            return false;
+        }
+    }
+
+    /**
+     * The channel, reopened if an abort has closed it.
+     */
+    private synchronized ChannelSftp channel() throws FtpException {
+
+        lastActivity = System.currentTimeMillis();
+
+        if (!channelClosed)
+            return channel;
+
+        ChannelSftp closedChannel = channel;
+
+        try {
+
+            ChannelSftp freshChannel = (ChannelSftp) closedChannel.getSession().openChannel(SFTP_CHANNEL);
+            freshChannel.connect();
+
+            // The closed channel still knows its working directory without asking the server.
+            freshChannel.cd(closedChannel.pwd());
+
+            channel = freshChannel;
+            channelClosed = false;
+
+            return freshChannel;
+
+        } catch (JSchException | SftpException e) {
+
+            throw new FtpException("Unable to reopen the SFTP channel after an abort.", e);
+        }
+    }
+
+    /**
+     * Runs sha256sum on the server over an exec channel on the same session.
+     * 
+     * @return
+     * null if commands cannot be run, or sha256sum is missing or cannot read the file.
+     */
+    @Override
+    public String sha256(String remoteFilePath) throws FtpException {
+
+        ChannelExec exec = null;
+
+        try {
+
+            exec = (ChannelExec) channel().getSession().openChannel(EXEC_CHANNEL);
+            exec.setCommand(String.format(SHA_256_COMMAND, quote(resolve(remoteFilePath))));
+
+            InputStream output = exec.getInputStream();
+            exec.connect();
+
+            String line = new BufferedReader(new InputStreamReader(output, UTF_8)).readLine();
+
+            if (awaitExitStatus(exec) != 0 || null == line)
+                return null;
+
+            // Names needing escapes are flagged by a backslash before the digest.
+            int start = line.startsWith("\\") ? 1 : 0;
+
+            if (line.length() < start + SHA_256_HEX_LENGTH)
+                return null;
+
+            return line.substring(start, start + SHA_256_HEX_LENGTH);
+
+        } catch (JSchException | IOException e) {
+
+            return null;
+
+        } finally {
+
+            if (null != exec)
+                exec.disconnect();
+        }
+    }
+
+    /**
+     * Runs find on the server over an exec channel on the same session, which lists the whole
+     * tree in one stream.
+     * 
+     * @return
+     * null if commands cannot be run or the server's find does not support -printf, leaving the
+     * tree to be walked over SFTP.
+     */
+    private TreeListing findRecursively(String path) {
+
+        ChannelExec exec = null;
+
+        try {
+
+            exec = (ChannelExec) channel().getSession().openChannel(EXEC_CHANNEL);
+            exec.setCommand(String.format(FIND_COMMAND, quote(path), FindOutputParser.FORMAT));
+
+            InputStream output = exec.getInputStream();
+            exec.connect();
+
+            TreeListing tree = new FindOutputParser(path).parse(output);
+
+            return awaitExitStatus(exec) == 0 ? tree : null;
+
+        } catch (JSchException | IOException e) {
+
+            return null;
+
+        } finally {
+
+            if (null != exec)
+                exec.disconnect();
+        }
+    }
+
+    /**
+     * The exit status arrives just after the end of the output.
+     */
+    private int awaitExitStatus(ChannelExec exec) {
+
+        for (int waited = 0; !exec.isClosed() && waited < EXIT_STATUS_TIMEOUT_MILLIS; waited += EXIT_STATUS_POLL_MILLIS) {
+
+            try {
+
+                Thread.sleep(EXIT_STATUS_POLL_MILLIS);
+
+            } catch (InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        return exec.getExitStatus();
+    }
+
+    private List<SftpPipeline.Response> executeBatch(List<SftpPipeline.Request> requests) throws FtpException {
+
+        if (requests.isEmpty())
+            return new ArrayList<SftpPipeline.Response>();
+
+        try {
+
+            return openPipeline().execute(requests, pipelineWindow);
+
+        } catch (JSchException | IOException e) {
+
+            // A failure part way through leaves replies unread, so the pipeline cannot be reused.
+            closePipeline();
+
+            throw new FtpException("Unable to complete a batch of SFTP requests", e);
+        }
+    }
+
+    /**
+     * @param responses
+     * May contain nulls for replies which are not failures.
+     */
+    private void checkBatch(String action, List<String> paths, List<SftpPipeline.Response> responses)
+            throws FtpException {
+
+        int failures = 0;
+        int firstFailure = -1;
+
+        for (int i = 0; i < responses.size(); i++) {
+
+            SftpPipeline.Response response = responses.get(i);
+
+            if (null != response && !response.isOk()) {
+
+                failures++;
+
+                if (firstFailure == -1)
+                    firstFailure = i;
+            }
+        }
+
+        if (failures > 0)
+            throw new FtpException(String.format(BATCH_FAILURE_MESSAGE, action, failures, paths.size(),
+                    paths.get(firstFailure), responses.get(firstFailure).getMessage()));
+    }
+
+    private synchronized SftpPipeline openPipeline() throws JSchException, IOException {
+
+        if (null == pipeline)
+            pipeline = SftpPipeline.open(channel().getSession());
+
+        return pipeline;
+    }
+
+    private synchronized void closePipeline() {
+
+        if (null == pipeline)
+            return;
+
+        try {
+            pipeline.close();
+        } catch (IOException e) {
+            // The channel is being dropped either way.
+        }
+
+        pipeline = null;
+    }
+
+    private List<String> resolveAll(List<String> paths) {
+
+        List<String> resolvedPaths = new ArrayList<String>();
+
+        for (String path : paths)
+            resolvedPaths.add(resolve(path));
+
+        return resolvedPaths;
+    }
+
+    private ChannelExec openExec(String command, OutputStream errors) throws JSchException {
+
+        ChannelExec exec = (ChannelExec) channel().getSession().openChannel(EXEC_CHANNEL);
+        exec.setCommand(command);
+        exec.setErrStream(errors);
+
+        return exec;
+    }
+
+    private void checkExitStatus(ChannelExec exec, ByteArrayOutputStream errors) throws FtpException {
+
+        int exitStatus = awaitExitStatus(exec);
+
+        if (exitStatus != 0)
+            throw new FtpException(String.format(BULK_TRANSFER_FAILED_MESSAGE, exitStatus,
+                    new String(errors.toByteArray(), UTF_8).trim()));
+    }
+
+    private Callable<Void> writeNames(final List<String> remoteFilePaths, final OutputStream names) {
+
+        return new Callable<Void>() {
+
+            @Override
+            public Void call() throws IOException {
+
+                try (OutputStream namesOutputStream = new BufferedOutputStream(names)) {
+
+                    for (String remoteFilePath : remoteFilePaths) {
+                        namesOutputStream.write(resolve(remoteFilePath).getBytes(UTF_8));
+                        namesOutputStream.write(0);
+                    }
+                }
+
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Commands and requests sent outside ChannelSftp start from the home directory, not the
+     * working directory it keeps.
+     */
+    private String resolve(String path) {
+
+        if (path.startsWith(FILE_SEPARATOR))
+            return path;
+
+        return printWorkingDirectory() + FILE_SEPARATOR + path;
+    }
+
+    private InputStream openLocalFile(String localFilePath) throws FtpException {
+
+        try {
+            return fileStreamFactory.createInputStream(localFilePath);
+        } catch (FileNotFoundException e) {
+            throw new FtpException(String.format(COULD_NOT_FIND_FILE_MESSAGE, localFilePath), e);
+        }
+    }
+
+    private String quote(String path) {
+        return "'" + path.replace("'", "'\\''") + "'";
+    }
+
+    private void discardPartialUpload(String remoteFilePath) {
+
+        try {
+            channel().rm(remoteFilePath);
+        } catch (SftpException e) {
+            // Either nothing was written or the channel is gone; there is nothing more to do.
+        }
+    }
+
+    private FtpException failedTransfer(String message, String path, SftpException cause) {
+
+        if (abortRequested)
+            return new FtpException(String.format(TRANSFER_ABORTED_MESSAGE, path));
+
+        return new FtpException(message, cause);
+    }
+
+    private String determineFileName(String remotePath) {
+
+        String path = remotePath.endsWith(FILE_SEPARATOR) && remotePath.length() > 1
+                ? remotePath.substring(0, remotePath.length() - 1) : remotePath;
+
+        return path.substring(path.lastIndexOf(FILE_SEPARATOR) + 1);
+    }
+
     private String determineRemotePath(String localFilePath, String remoteDirectory) {
         
         Path remotePath = Paths.get(remoteDirectory);
@@ -139,15 +1018,4 @@ public class SftpConnection implements Connection {
 
         return safeRemotePath + FILE_SEPARATOR + uploadAs;
     }
-
-    private FtpFile toFtpFile(LsEntry lsEntry, String filePath) throws SftpException {
-
-        String name = lsEntry.getFilename();
-        long fileSize = lsEntry.getAttrs().getSize();
-        String fullPath = String.format("%s%s%s", filePath, FILE_SEPARATOR, lsEntry.getFilename());
-        int mTime = lsEntry.getAttrs().getMTime();
-        boolean directory = lsEntry.getAttrs().isDir();
-
-        return new FtpFile(name, fileSize, fullPath, (long) mTime * MILLIS, directory);
-    }
 }
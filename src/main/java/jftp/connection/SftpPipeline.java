@@ -0,0 +1,355 @@
+package jftp.connection;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.jcraft.jsch.ChannelSubsystem;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+/**
+ * Speaks SFTP version 3 on a channel of its own, sending a batch of independent requests
+ * without waiting for each reply. Up to a window of requests is kept in flight, so a batch
+ * costs roughly one round trip per window rather than one per request.
+ *
+ * ChannelSftp sends a request and waits for its reply before the next, and offers no way to
+ * do otherwise, hence the separate channel.
+ */
+class SftpPipeline implements Closeable {
+
+    static final byte SSH_FXP_OPEN = 3;
+    static final byte SSH_FXP_CLOSE = 4;
+    static final byte SSH_FXP_REMOVE = 13;
+    static final byte SSH_FXP_MKDIR = 14;
+    static final byte SSH_FXP_STAT = 17;
+    static final byte SSH_FXP_RENAME = 18;
+
+    static final byte SSH_FXP_STATUS = 101;
+    static final byte SSH_FXP_HANDLE = 102;
+    static final byte SSH_FXP_ATTRS = 105;
+
+    static final int SSH_FX_OK = 0;
+    static final int SSH_FX_NO_SUCH_FILE = 2;
+
+    static final int SSH_FXF_WRITE = 0x02;
+    static final int SSH_FXF_CREAT = 0x08;
+    static final int SSH_FXF_TRUNC = 0x10;
+
+    private static final byte SSH_FXP_INIT = 1;
+    private static final byte SSH_FXP_VERSION = 2;
+    private static final int SFTP_VERSION = 3;
+
+    private static final int SSH_FILEXFER_ATTR_SIZE = 0x01;
+    private static final int SSH_FILEXFER_ATTR_UIDGID = 0x02;
+    private static final int SSH_FILEXFER_ATTR_PERMISSIONS = 0x04;
+    private static final int SSH_FILEXFER_ATTR_ACMODTIME = 0x08;
+    private static final int SSH_FILEXFER_ATTR_EXTENDED = 0x80000000;
+
+    private static final int FILE_TYPE_MASK = 0170000;
+    private static final int DIRECTORY_TYPE = 0040000;
+
+    private static final String SUBSYSTEM_CHANNEL = "subsystem";
+    private static final String SFTP_SUBSYSTEM = "sftp";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private final DataInputStream inputStream;
+    private final DataOutputStream outputStream;
+    private final Closeable channel;
+
+    SftpPipeline(InputStream inputStream, OutputStream outputStream, Closeable channel) {
+        this.inputStream = new DataInputStream(new BufferedInputStream(inputStream, BUFFER_SIZE));
+        this.outputStream = new DataOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+        this.channel = channel;
+    }
+
+    /**
+     * Opens an SFTP subsystem channel on the session and negotiates version 3.
+     */
+    static SftpPipeline open(Session session) throws JSchException, IOException {
+
+        final ChannelSubsystem subsystem = (ChannelSubsystem) session.openChannel(SUBSYSTEM_CHANNEL);
+        subsystem.setSubsystem(SFTP_SUBSYSTEM);
+
+        InputStream inputStream = subsystem.getInputStream();
+        OutputStream outputStream = subsystem.getOutputStream();
+        subsystem.connect();
+
+        SftpPipeline pipeline = new SftpPipeline(inputStream, outputStream, new Closeable() {
+
+            @Override
+            public void close() {
+                subsystem.disconnect();
+            }
+        });
+
+        pipeline.initialise();
+
+        return pipeline;
+    }
+
+    void initialise() throws IOException {
+
+        outputStream.writeInt(5);
+        outputStream.writeByte(SSH_FXP_INIT);
+        outputStream.writeInt(SFTP_VERSION);
+        outputStream.flush();
+
+        int length = inputStream.readInt();
+        byte type = inputStream.readByte();
+
+        // The server's version and any extensions it lists are of no interest.
+        inputStream.skipBytes(length - 1);
+
+        if (type != SSH_FXP_VERSION)
+            throw new IOException("Unexpected reply to SFTP initialisation: " + type);
+    }
+
+    /**
+     * Sends every request, keeping no more than the window in flight.
+     *
+     * @return
+     * The replies, in the same order as the requests.
+     */
+    synchronized List<Response> execute(List<Request> requests, int window) throws IOException {
+
+        Response[] responses = new Response[requests.size()];
+
+        int sent = 0;
+        int received = 0;
+
+        while (received < requests.size()) {
+
+            while (sent < requests.size() && sent - received < window) {
+                requests.get(sent).writeTo(outputStream, sent);
+                sent++;
+            }
+
+            outputStream.flush();
+
+            Response response = readResponse();
+
+            if (response.id < 0 || response.id >= sent || null != responses[response.id])
+                throw new IOException("Unexpected SFTP reply for request " + response.id);
+
+            responses[response.id] = response;
+            received++;
+        }
+
+        return Arrays.asList(responses);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private Response readResponse() throws IOException {
+
+        int length = inputStream.readInt();
+
+        if (length < 5)
+            throw new EOFException("Truncated SFTP reply");
+
+        byte[] packet = new byte[length];
+        inputStream.readFully(packet);
+
+        return new Response(packet);
+    }
+
+    static Request stat(String path) {
+        return new Request(SSH_FXP_STAT).string(path);
+    }
+
+    static Request makeDirectory(String path) {
+        return new Request(SSH_FXP_MKDIR).string(path).integer(0);
+    }
+
+    static Request remove(String path) {
+        return new Request(SSH_FXP_REMOVE).string(path);
+    }
+
+    static Request rename(String fromPath, String toPath) {
+        return new Request(SSH_FXP_RENAME).string(fromPath).string(toPath);
+    }
+
+    static Request open(String path, int flags) {
+        return new Request(SSH_FXP_OPEN).string(path).integer(flags).integer(0);
+    }
+
+    static Request close(byte[] handle) {
+        return new Request(SSH_FXP_CLOSE).bytes(handle);
+    }
+
+    /**
+     * One request, less the id it is given when sent.
+     */
+    static class Request {
+
+        private final byte type;
+        private final List<byte[]> fields = new ArrayList<byte[]>();
+
+        private int length;
+
+        Request(byte type) {
+            this.type = type;
+        }
+
+        Request string(String value) {
+            return bytes(value.getBytes(UTF_8));
+        }
+
+        Request bytes(byte[] value) {
+
+            integer(value.length);
+            fields.add(value);
+            length += value.length;
+
+            return this;
+        }
+
+        Request integer(int value) {
+
+            fields.add(new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value });
+            length += 4;
+
+            return this;
+        }
+
+        void writeTo(DataOutputStream outputStream, int id) throws IOException {
+
+            outputStream.writeInt(length + 5);
+            outputStream.writeByte(type);
+            outputStream.writeInt(id);
+
+            for (byte[] field : fields)
+                outputStream.write(field);
+        }
+    }
+
+    /**
+     * A status, handle or attributes reply.
+     */
+    static class Response {
+
+        private final byte type;
+        private final int id;
+
+        private int status = SSH_FX_OK;
+        private String message = "";
+        private byte[] handle;
+
+        private long size;
+        private long lastModifiedMillis;
+        private boolean directory;
+
+        private final byte[] packet;
+        private int position;
+
+        Response(byte[] packet) {
+
+            this.packet = packet;
+
+            type = packet[position++];
+            id = readInt();
+
+            if (type == SSH_FXP_STATUS) {
+
+                status = readInt();
+
+                // Version 3 servers may leave out the message.
+                if (position < packet.length)
+                    message = new String(readBytes(), UTF_8);
+
+            } else if (type == SSH_FXP_HANDLE) {
+
+                handle = readBytes();
+
+            } else if (type == SSH_FXP_ATTRS) {
+
+                readAttributes();
+            }
+        }
+
+        boolean isOk() {
+            return type != SSH_FXP_STATUS || status == SSH_FX_OK;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        String getMessage() {
+            return message;
+        }
+
+        byte[] getHandle() {
+            return handle;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        long getLastModifiedMillis() {
+            return lastModifiedMillis;
+        }
+
+        boolean isDirectory() {
+            return directory;
+        }
+
+        private void readAttributes() {
+
+            int flags = readInt();
+
+            if ((flags & SSH_FILEXFER_ATTR_SIZE) != 0)
+                size = ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+
+            if ((flags & SSH_FILEXFER_ATTR_UIDGID) != 0)
+                position += 8;
+
+            if ((flags & SSH_FILEXFER_ATTR_PERMISSIONS) != 0)
+                directory = (readInt() & FILE_TYPE_MASK) == DIRECTORY_TYPE;
+
+            if ((flags & SSH_FILEXFER_ATTR_ACMODTIME) != 0) {
+                position += 4;
+                lastModifiedMillis = (readInt() & 0xffffffffL) * 1000;
+            }
+
+            // Extended attributes come last and are not needed.
+            if ((flags & SSH_FILEXFER_ATTR_EXTENDED) != 0)
+                position = packet.length;
+        }
+
+        private int readInt() {
+
+            int value = ((packet[position] & 0xff) << 24) | ((packet[position + 1] & 0xff) << 16)
+                    | ((packet[position + 2] & 0xff) << 8) | (packet[position + 3] & 0xff);
+            position += 4;
+
+            return value;
+        }
+
+        private byte[] readBytes() {
+
+            int length = readInt();
+            byte[] value = Arrays.copyOfRange(packet, position, position + length);
+            position += length;
+
+            return value;
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package jftp.connection;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jftp.exception.FtpException;
+
+/**
+ * A Connection safe to share between threads, handing each call to whichever of a set of
+ * underlying connections is free. A caller finding them all busy waits for the first to come
+ * free; nothing else is locked.
+ *
+ * Each thread has a working directory of its own, starting from the directory the underlying
+ * connections start in. Relative paths are resolved against it before a call is handed on, so
+ * the underlying connections are never asked to change directory and any one of them can serve
+ * any thread.
+ *
+ * The underlying connections should all be to the same server as the same user, and not be
+ * used directly while shared.
+ */
+public class SharedConnection implements Connection {
+
+    private static final String NO_SUCH_DIRECTORY_MESSAGE = "Directory %s does not exist.";
+    private static final String FILE_SEPARATOR = "/";
+    private static final String CURRENT_DIRECTORY = ".";
+    private static final String PARENT_DIRECTORY = "..";
+
+    private final BlockingQueue<Connection> idle;
+    private final Set<Connection> busy = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<String> workingDirectory = new ThreadLocal<String>();
+
+    private volatile String initialDirectory;
+
+    public SharedConnection(List<? extends Connection> connections) {
+
+        if (connections.isEmpty())
+            throw new FtpException("At least one connection must be given.");
+
+        idle = new ArrayBlockingQueue<Connection>(connections.size(), false, connections);
+    }
+
+    /**
+     * Changes the calling thread's working directory only, once the server has confirmed it
+     * exists.
+     */
+    @Override
+    public void changeDirectory(String directory) throws FtpException {
+
+        String resolvedDirectory = resolve(directory);
+        FtpFile file = stat(resolvedDirectory);
+
+        if (null == file || !file.isDirectory())
+            throw new FtpException(String.format(NO_SUCH_DIRECTORY_MESSAGE, directory));
+
+        workingDirectory.set(resolvedDirectory);
+    }
+
+    @Override
+    public void download(String remoteFilePath, final String localDirectory) throws FtpException {
+
+        final String resolvedRemoteFilePath = resolve(remoteFilePath);
+
+        execute(new Call<Void>() {
+
+            @Override
+            public Void run(Connection connection) {
+                connection.download(resolvedRemoteFilePath, localDirectory);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void download(String remoteFilePath, final OutputStream outputStream) throws FtpException {
+
+        final String resolvedRemoteFilePath = resolve(remoteFilePath);
+
+        execute(new Call<Void>() {
+
+            @Override
+            public Void run(Connection connection) {
+                connection.download(resolvedRemoteFilePath, outputStream);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void resumeDownload(String remoteFilePath, final String localDirectory) throws FtpException {
+
+        final String resolvedRemoteFilePath = resolve(remoteFilePath);
+
+        execute(new Call<Void>() {
+
+            @Override
+            public Void run(Connection connection) {
+                connection.resumeDownload(resolvedRemoteFilePath, localDirectory);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public List<FtpFile> listFiles() throws FtpException {
+        return listFiles(printWorkingDirectory());
+    }
+
+    @Override
+    public List<FtpFile> listFiles(String path) throws FtpException {
+
+        final String resolvedPath = resolve(path);
+
+        return execute(new Call<List<FtpFile>>() {
+
+            @Override
+            public List<FtpFile> run(Connection connection) {
+                return connection.listFiles(resolvedPath);
+            }
+        });
+    }
+
+    @Override
+    public List<FtpFile> listFilesRecursively(String path) throws FtpException {
+
+        final String resolvedPath = resolve(path);
+
+        return execute(new Call<List<FtpFile>>() {
+
+            @Override
+            public List<FtpFile> run(Connection connection) {
+                return connection.listFilesRecursively(resolvedPath);
+            }
+        });
+    }
+
+    /**
+     * The calling thread's working directory.
+     */
+    @Override
+    public String printWorkingDirectory() throws FtpException {
+
+        String directory = workingDirectory.get();
+
+        return null != directory ? directory : initialDirectory();
+    }
+
+    @Override
+    public FtpFile stat(String remotePath) throws FtpException {
+
+        final String resolvedRemotePath = resolve(remotePath);
+
+        return execute(new Call<FtpFile>() {
+
+            @Override
+            public FtpFile run(Connection connection) {
+                return connection.stat(resolvedRemotePath);
+            }
+        });
+    }
+
+    @Override
+    public boolean exists(String remotePath) throws FtpException {
+
+        final String resolvedRemotePath = resolve(remotePath);
+
+        return execute(new Call<Boolean>() {
+
+            @Override
+            public Boolean run(Connection connection) {
+                return connection.exists(resolvedRemotePath);
+            }
+        });
+    }
+
+    @Override
+    public void createDirectory(String remotePath) throws FtpException {
+
+        final String resolvedRemotePath = resolve(remotePath);
+
+        execute(new Call<Void>() {
+
+            @Override
+            public Void run(Connection connection) {
+                connection.createDirectory(resolvedRemotePath);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Each underlying connection remembers the directories it has created, so a tree may be
+     * checked once per underlying connection before it is known to all.
+     */
+    @Override
+    public void createDirectories(String remotePath) throws FtpException {
+
+        final String resolvedRemotePath = resolve(remotePath);
+
+        execute(new Call<Void>() {
+
+            @Override
+            public Void run(Connection connection) {
+                connection.createDirectories(resolvedRemotePath);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void delete(String remoteFilePath) throws FtpException {
+
+        final String resolvedRemoteFilePath = resolve(remoteFilePath);
+
+        execute(new Call<Void>() {
+
+            @Override
+            public Void run(Connection connection) {
+                connection.delete(resolvedRemoteFilePath);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void rename(String fromRemotePath, String toRemotePath) throws FtpException {
+
+        final String resolvedFromRemotePath = resolve(fromRemotePath);
+        final String resolvedToRemotePath = resolve(toRemotePath);
+
+        execute(new Call<Void>() {
+
+            @Override
+            public Void run(Connection connection) {
+                connection.rename(resolvedFromRemotePath, resolvedToRemotePath);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void upload(final String localFilePath, String remoteDirectory) throws FtpException {
+
+        final String resolvedRemoteDirectory = resolve(remoteDirectory);
+
+        execute(new Call<Void>() {
+
+            @Override
+            public Void run(Connection connection) {
+                connection.upload(localFilePath, resolvedRemoteDirectory);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void upload(final InputStream inputStream, String remoteFilePath) throws FtpException {
+
+        final String resolvedRemoteFilePath = resolve(remoteFilePath);
+
+        execute(new Call<Void>() {
+
+            @Override
+            public Void run(Connection connection) {
+                connection.upload(inputStream, resolvedRemoteFilePath);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Aborts every transfer in progress, whichever thread started it, as there is no telling
+     * which the caller meant.
+     */
+    @Override
+    public void abort() throws FtpException {
+
+        for (Connection connection : busy)
+            connection.abort();
+    }
+
+    private <T> T execute(Call<T> call) throws FtpException {
+
+        Connection connection = borrow();
+
+        try {
+            return call.run(connection);
+        } finally {
+            busy.remove(connection);
+            idle.add(connection);
+        }
+    }
+
+    private Connection borrow() throws FtpException {
+
+        try {
+
+            Connection connection = idle.take();
+            busy.add(connection);
+
+            return connection;
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw new FtpException("Interrupted while waiting for a free connection.", e);
+        }
+    }
+
+    private String resolve(String path) {
+
+        String absolutePath = path.startsWith(FILE_SEPARATOR) ? path : printWorkingDirectory() + FILE_SEPARATOR + path;
+
+        return normalise(absolutePath);
+    }
+
+    /**
+     * Removes "." and ".." segments and doubled or trailing separators, so that each thread's
+     * working directory reads as the server would report it.
+     */
+    private String normalise(String absolutePath) {
+
+        Deque<String> segments = new ArrayDeque<String>();
+
+        for (String segment : absolutePath.split(FILE_SEPARATOR)) {
+
+            if (segment.isEmpty() || segment.equals(CURRENT_DIRECTORY))
+                continue;
+
+            if (segment.equals(PARENT_DIRECTORY))
+                segments.pollLast();
+            else
+                segments.addLast(segment);
+        }
+
+        StringBuilder normalised = new StringBuilder();
+
+        for (String segment : segments)
+            normalised.append(FILE_SEPARATOR).append(segment);
+
+        return normalised.length() == 0 ? FILE_SEPARATOR : normalised.toString();
+    }
+
+    /**
+     * Asked of the server once; the underlying connections never change directory, so it
+     * stays the same.
+     */
+    private String initialDirectory() throws FtpException {
+
+        if (null == initialDirectory) {
+
+            initialDirectory = execute(new Call<String>() {
+
+                @Override
+                public String run(Connection connection) {
+                    return connection.printWorkingDirectory();
+                }
+            });
+        }
+
+        return initialDirectory;
+    }
+
+    private interface Call<T> {
+
+        T run(Connection connection) throws FtpException;
+    }
+}
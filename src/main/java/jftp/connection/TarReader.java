@@ -0,0 +1,304 @@
+package jftp.connection;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import jftp.util.BufferPool;
+
+/**
+ * Reads a tar archive entry by entry as it streams in. Understands ustar headers with their
+ * name prefix, GNU long names and the path of pax extended headers, which covers what GNU tar
+ * and bsdtar write by default.
+ */
+class TarReader {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BLOCK_SIZE = TarWriter.BLOCK_SIZE;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte OLD_REGULAR_FILE = 0;
+    private static final byte CONTIGUOUS_FILE = '7';
+    private static final byte PAX_HEADER = 'x';
+    private static final String PAX_PATH = "path";
+
+    private final InputStream inputStream;
+    private final byte[] header = new byte[BLOCK_SIZE];
+
+    private String name;
+    private long size;
+    private long lastModifiedMillis;
+    private byte type;
+
+    private long unread;
+    private boolean finished;
+
+    TarReader(InputStream inputStream) {
+        this.inputStream = new BufferedInputStream(inputStream, BUFFER_SIZE);
+    }
+
+    /**
+     * Moves to the next entry, skipping whatever was left unread of the current one.
+     *
+     * @return
+     * false at the end of the archive.
+     */
+    boolean next() throws IOException {
+
+        if (finished)
+            return false;
+
+        skip(unread + padding(size));
+
+        String longName = null;
+
+        while (true) {
+
+            if (!readBlock(header) || isEmpty(header)) {
+                finished = true;
+                return false;
+            }
+
+            name = null != longName ? longName : headerName();
+            size = readNumber(124, 12);
+            lastModifiedMillis = readNumber(136, 12) * 1000;
+            type = header[156];
+            unread = size;
+
+            if (type == TarWriter.GNU_LONG_NAME) {
+
+                longName = trimNul(new String(readContent(), UTF_8));
+
+            } else if (type == PAX_HEADER) {
+
+                String path = paxPath(readContent());
+
+                if (null != path)
+                    longName = path;
+
+            } else {
+
+                return true;
+            }
+        }
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    long getLastModifiedMillis() {
+        return lastModifiedMillis;
+    }
+
+    boolean isFile() {
+        return type == TarWriter.REGULAR_FILE || type == OLD_REGULAR_FILE || type == CONTIGUOUS_FILE;
+    }
+
+    /**
+     * Copies the current entry's content.
+     */
+    void copyTo(OutputStream outputStream) throws IOException {
+
+        BufferPool pool = BufferPool.getDefault();
+        byte[] buffer = pool.acquireWithoutWaiting(BUFFER_SIZE);
+
+        try {
+
+            while (unread > 0) {
+
+                int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, unread));
+
+                if (read == -1)
+                    throw new EOFException(String.format("Archive ended within %s", name));
+
+                outputStream.write(buffer, 0, read);
+                unread -= read;
+            }
+
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    private byte[] readContent() throws IOException {
+
+        byte[] content = new byte[(int) size];
+        int offset = 0;
+
+        while (offset < content.length) {
+
+            int read = inputStream.read(content, offset, content.length - offset);
+
+            if (read == -1)
+                throw new EOFException("Archive ended within an extended header");
+
+            offset += read;
+        }
+
+        unread = 0;
+        skip(padding(size));
+        size = 0;
+
+        return content;
+    }
+
+    /**
+     * Pax records read "length key=value\n", the length counting the whole record.
+     */
+    private String paxPath(byte[] content) {
+
+        int position = 0;
+
+        while (position < content.length) {
+
+            int space = indexOf(content, (byte) ' ', position);
+
+            if (space == -1)
+                break;
+
+            int length = Integer.parseInt(new String(content, position, space - position, UTF_8));
+            String record = new String(content, space + 1, length - (space + 1 - position) - 1, UTF_8);
+
+            if (record.startsWith(PAX_PATH + "="))
+                return record.substring(PAX_PATH.length() + 1);
+
+            position += length;
+        }
+
+        return null;
+    }
+
+    private String headerName() {
+
+        String entryName = field(0, 100);
+        String prefix = field(345, 155);
+
+        return prefix.isEmpty() ? entryName : prefix + "/" + entryName;
+    }
+
+    private String field(int offset, int length) {
+
+        int end = offset;
+
+        while (end < offset + length && header[end] != 0)
+            end++;
+
+        return new String(header, offset, end - offset, UTF_8);
+    }
+
+    /**
+     * Octal digits, or the base-256 form flagged by the top bit of the first byte.
+     */
+    private long readNumber(int offset, int length) {
+
+        long value = 0;
+
+        if ((header[offset] & 0x80) != 0) {
+
+            for (int i = offset + 1; i < offset + length; i++)
+                value = (value << 8) | (header[i] & 0xff);
+
+            return value;
+        }
+
+        boolean digits = false;
+
+        for (int i = offset; i < offset + length; i++) {
+
+            byte digit = header[i];
+
+            if (digit >= '0' && digit <= '7') {
+                value = (value << 3) + (digit - '0');
+                digits = true;
+            } else if (digits) {
+                break;
+            }
+        }
+
+        return value;
+    }
+
+    private boolean readBlock(byte[] block) throws IOException {
+
+        int offset = 0;
+
+        while (offset < block.length) {
+
+            int read = inputStream.read(block, offset, block.length - offset);
+
+            if (read == -1) {
+
+                if (offset == 0)
+                    return false;
+
+                throw new EOFException("Archive ended within a header");
+            }
+
+            offset += read;
+        }
+
+        return true;
+    }
+
+    private void skip(long count) throws IOException {
+
+        long remaining = count;
+
+        while (remaining > 0) {
+
+            long skipped = inputStream.skip(remaining);
+
+            if (skipped <= 0) {
+
+                if (inputStream.read() == -1)
+                    throw new EOFException(String.format("Archive ended within %s", name));
+
+                skipped = 1;
+            }
+
+            remaining -= skipped;
+        }
+
+        unread = 0;
+    }
+
+    private long padding(long length) {
+
+        int remainder = (int) (length % BLOCK_SIZE);
+
+        return remainder == 0 ? 0 : BLOCK_SIZE - remainder;
+    }
+
+    private boolean isEmpty(byte[] block) {
+
+        for (byte b : block)
+            if (b != 0)
+                return false;
+
+        return true;
+    }
+
+    private int indexOf(byte[] content, byte value, int from) {
+
+        for (int i = from; i < content.length; i++)
+            if (content[i] == value)
+                return i;
+
+        return -1;
+    }
+
+    private String trimNul(String value) {
+
+        int nul = value.indexOf('\0');
+
+        return nul == -1 ? value : value.substring(0, nul);
+    }
+}
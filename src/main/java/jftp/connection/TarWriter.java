@@ -0,0 +1,165 @@
+package jftp.connection;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import jftp.util.BufferPool;
+
+/**
+ * Writes regular files into a ustar archive as they are read, without staging the archive
+ * anywhere. Names too long for the header go in a preceding GNU long name entry, which both
+ * GNU tar and bsdtar understand.
+ */
+class TarWriter {
+
+    static final int BLOCK_SIZE = 512;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int NAME_LENGTH = 100;
+    private static final long MAXIMUM_OCTAL_SIZE = 077777777777L;
+    private static final int FILE_MODE = 0644;
+    private static final String LONG_NAME = "././@LongLink";
+
+    static final byte REGULAR_FILE = '0';
+    static final byte GNU_LONG_NAME = 'L';
+
+    private final OutputStream outputStream;
+
+    TarWriter(OutputStream outputStream) {
+        this.outputStream = new BufferedOutputStream(outputStream, BUFFER_SIZE);
+    }
+
+    /**
+     * Adds a file of the given size, copying exactly that many bytes from the stream.
+     *
+     * @throws IOException
+     * If the stream ends early, as when the file shrinks while being archived. The archive
+     * cannot be continued after this.
+     */
+    void writeFile(String name, long size, long lastModifiedMillis, InputStream content) throws IOException {
+
+        byte[] encodedName = name.getBytes(UTF_8);
+
+        if (encodedName.length > NAME_LENGTH) {
+
+            writeHeader(LONG_NAME.getBytes(UTF_8), encodedName.length + 1, 0, GNU_LONG_NAME);
+            outputStream.write(encodedName);
+            pad(encodedName.length);
+        }
+
+        writeHeader(encodedName, size, lastModifiedMillis, REGULAR_FILE);
+
+        BufferPool pool = BufferPool.getDefault();
+        byte[] buffer = pool.acquireWithoutWaiting(BUFFER_SIZE);
+
+        try {
+
+            long remaining = size;
+
+            while (remaining > 0) {
+
+                int read = content.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+
+                if (read == -1)
+                    throw new IOException(String.format("%s ended %d bytes short of its size", name, remaining));
+
+                outputStream.write(buffer, 0, read);
+                remaining -= read;
+            }
+
+        } finally {
+            pool.release(buffer);
+        }
+
+        pad(size);
+    }
+
+    /**
+     * Writes the two empty blocks marking the end of the archive and flushes it, leaving the
+     * underlying stream open.
+     */
+    void finish() throws IOException {
+
+        outputStream.write(new byte[BLOCK_SIZE * 2]);
+        outputStream.flush();
+    }
+
+    private void writeHeader(byte[] name, long size, long lastModifiedMillis, byte type) throws IOException {
+
+        byte[] header = new byte[BLOCK_SIZE];
+
+        System.arraycopy(name, 0, header, 0, Math.min(name.length, NAME_LENGTH));
+
+        writeOctal(header, 100, 8, FILE_MODE);
+        writeOctal(header, 108, 8, 0);
+        writeOctal(header, 116, 8, 0);
+        writeSize(header, size);
+        writeOctal(header, 136, 12, lastModifiedMillis / 1000);
+        header[156] = type;
+        System.arraycopy("ustar\0".getBytes(UTF_8), 0, header, 257, 6);
+        header[263] = '0';
+        header[264] = '0';
+
+        // The checksum is taken with its own field as spaces.
+        for (int i = 148; i < 156; i++)
+            header[i] = ' ';
+
+        long checksum = 0;
+
+        for (byte b : header)
+            checksum += b & 0xff;
+
+        writeOctal(header, 148, 7, checksum);
+
+        outputStream.write(header);
+    }
+
+    /**
+     * Sizes beyond the 11 octal digits of the field are written in the base-256 form both GNU
+     * tar and bsdtar accept.
+     */
+    private void writeSize(byte[] header, long size) {
+
+        if (size <= MAXIMUM_OCTAL_SIZE) {
+            writeOctal(header, 124, 12, size);
+            return;
+        }
+
+        long value = size;
+
+        for (int i = 135; i > 124; i--) {
+            header[i] = (byte) value;
+            value >>>= 8;
+        }
+
+        header[124] = (byte) 0x80;
+    }
+
+    /**
+     * Zero padded octal digits followed by a NUL.
+     */
+    private void writeOctal(byte[] header, int offset, int length, long value) {
+
+        long remaining = value;
+
+        for (int i = offset + length - 2; i >= offset; i--) {
+            header[i] = (byte) ('0' + (remaining & 7));
+            remaining >>>= 3;
+        }
+
+        header[offset + length - 1] = 0;
+    }
+
+    private void pad(long written) throws IOException {
+
+        int remainder = (int) (written % BLOCK_SIZE);
+
+        if (remainder > 0)
+            outputStream.write(new byte[BLOCK_SIZE - remainder]);
+    }
+}
@@ -0,0 +1,119 @@
+package jftp.connection;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.RandomAccess;
+
+import jftp.exception.FtpException;
+
+/**
+ * The listings of a directory and everything beneath it, presented as one list. The listing of
+ * each directory is kept as it came, so the per directory listings stay compact.
+ */
+public class TreeListing extends AbstractList<FtpFile> implements RandomAccess {
+
+    private final List<List<FtpFile>> directories;
+    private final int[] starts;
+    private final int size;
+
+    /**
+     * @param directories
+     * One listing per directory, the listing of the top directory first.
+     */
+    TreeListing(List<List<FtpFile>> directories) {
+
+        this.directories = Collections.unmodifiableList(new ArrayList<List<FtpFile>>(directories));
+        this.starts = new int[directories.size()];
+
+        int total = 0;
+
+        for (int i = 0; i < directories.size(); i++) {
+            starts[i] = total;
+            total += directories.get(i).size();
+        }
+
+        this.size = total;
+    }
+
+    /**
+     * Lists a tree one directory at a time, for servers which cannot list it in one go.
+     */
+    static TreeListing walk(Connection connection, String path) throws FtpException {
+
+        List<List<FtpFile>> directories = new ArrayList<List<FtpFile>>();
+        Deque<String> pending = new ArrayDeque<String>();
+        pending.add(path);
+
+        while (!pending.isEmpty()) {
+
+            List<FtpFile> files = connection.listFiles(pending.poll());
+            directories.add(files);
+
+            for (FtpFile file : files)
+                if (file.isDirectory() && !file.isDotEntry())
+                    pending.add(file.getFullPath());
+        }
+
+        return new TreeListing(directories);
+    }
+
+    /**
+     * @return
+     * The listing of each directory in the tree, the top directory first.
+     */
+    public List<List<FtpFile>> getDirectories() {
+        return directories;
+    }
+
+    @Override
+    public FtpFile get(int index) {
+
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException(String.format("Index %d, size %d", index, size));
+
+        int directory = Arrays.binarySearch(starts, index);
+
+        if (directory < 0)
+            directory = -directory - 2;
+
+        // Empty directories share their start with the next one.
+        while (directories.get(directory).size() <= index - starts[directory])
+            directory++;
+
+        return directories.get(directory).get(index - starts[directory]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * A listing is complete when it holds a section for every directory listed in it. Servers
+     * ignoring a request to recurse return the top directory alone.
+     */
+    boolean isComplete() {
+
+        int subdirectories = 0;
+
+        for (List<FtpFile> directory : directories)
+            for (int i = 0; i < directory.size(); i++)
+                if (isDirectory(directory, i))
+                    subdirectories++;
+
+        return subdirectories == directories.size() - 1;
+    }
+
+    private boolean isDirectory(List<FtpFile> directory, int index) {
+
+        if (directory instanceof CompactFileListing)
+            return ((CompactFileListing) directory).isDirectory(index);
+
+        return directory.get(index).isDirectory();
+    }
+}
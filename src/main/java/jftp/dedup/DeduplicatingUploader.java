@@ -0,0 +1,285 @@
+package jftp.dedup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import jftp.connection.Connection;
+import jftp.connection.FtpFile;
+import jftp.connection.RemoteHashing;
+import jftp.exception.FtpException;
+import jftp.util.BufferPool;
+import jftp.util.DaemonThreadFactory;
+import jftp.util.FileStreamFactory;
+
+/**
+ * Uploads files unless the same content is already on the server. An index is kept for each
+ * remote directory, recording what was uploaded to it and the digests of the local files.
+ *
+ * A file is skipped when the remote file has the same size and is exactly as an upload of the
+ * same content left it, going by its modification time. Failing that, the server is asked to
+ * hash it, where the connection can. Anything else is uploaded.
+ *
+ * Local files are hashed in parallel, ahead of the uploads. A file is hashed again only once
+ * its size or modification time changes.
+ */
+public class DeduplicatingUploader {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final String INDEX_FILE_SUFFIX = ".index";
+    private static final String FILE_SEPARATOR = "/";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int HASHING_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final long HASHING_THREAD_IDLE_SECONDS = 60;
+
+    // Shared by every uploader not given an executor, so that the files read at once stay
+    // bounded however many there are; its threads go once idle.
+    private static final ExecutorService DEFAULT_HASHING_EXECUTOR = defaultHashingExecutor();
+
+    private final Connection connection;
+    private final Path indexDirectory;
+    private final ExecutorService hashingExecutor;
+
+    private FileStreamFactory fileStreamFactory = new FileStreamFactory();
+
+    public DeduplicatingUploader(Connection connection, Path indexDirectory) {
+        this(connection, indexDirectory, DEFAULT_HASHING_EXECUTOR);
+    }
+
+    /**
+     * @param hashingExecutor
+     * Hashes the local files; its number of threads bounds how many are read at once. Left
+     * running, for the caller to shut down.
+     */
+    public DeduplicatingUploader(Connection connection, Path indexDirectory, ExecutorService hashingExecutor) {
+
+        this.connection = connection;
+        this.indexDirectory = indexDirectory;
+        this.hashingExecutor = hashingExecutor;
+    }
+
+    private static ExecutorService defaultHashingExecutor() {
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(HASHING_THREADS, HASHING_THREADS,
+                HASHING_THREAD_IDLE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new DaemonThreadFactory("jftp-hash-%d"));
+
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
+    /**
+     * Uploads each file into the remote directory, unless its content is already there. The
+     * index is saved even if an upload fails, keeping what was learnt up to then.
+     */
+    public UploadReport upload(List<String> localFilePaths, String remoteDirectory) throws FtpException {
+
+        String directory = absolute(remoteDirectory);
+        UploadIndex index = UploadIndex.load(indexDirectory.resolve(indexFileName(directory)));
+
+        List<Future<LocalFile>> localFiles = new ArrayList<Future<LocalFile>>();
+
+        for (String localFilePath : localFilePaths)
+            localFiles.add(hashingExecutor.submit(hash(new File(localFilePath).getAbsolutePath(), index)));
+
+        UploadReport report = new UploadReport();
+
+        try {
+
+            for (Future<LocalFile> future : localFiles) {
+
+                LocalFile localFile = await(future);
+                String remoteFilePath = child(directory, new File(localFile.path).getName());
+
+                if (isAlreadyUploaded(localFile, remoteFilePath, index)) {
+                    report.skipped(localFile.path, localFile.size);
+                    continue;
+                }
+
+                connection.upload(localFile.path, directory);
+                remember(localFile, remoteFilePath, index);
+
+                report.uploaded(localFile.path, localFile.size);
+            }
+
+        } finally {
+
+            for (Future<LocalFile> future : localFiles)
+                future.cancel(true);
+
+            index.save();
+        }
+
+        return report;
+    }
+
+    private boolean isAlreadyUploaded(LocalFile localFile, String remoteFilePath, UploadIndex index)
+            throws FtpException {
+
+        FtpFile remoteFile = connection.stat(remoteFilePath);
+
+        if (null == remoteFile || remoteFile.isDirectory() || remoteFile.getSize() != localFile.size)
+            return false;
+
+        if (index.isUnchangedSince(remoteFilePath, remoteFile.getSize(), remoteFile.getLastModifiedMillis(),
+                localFile.digest))
+            return true;
+
+        if (!(connection instanceof RemoteHashing)
+                || !localFile.digest.equals(((RemoteHashing) connection).sha256(remoteFilePath)))
+            return false;
+
+        index.putRemote(remoteFilePath, remoteFile.getSize(), remoteFile.getLastModifiedMillis(), localFile.digest);
+
+        return true;
+    }
+
+    /**
+     * The server sets the modification time of what it receives, so it is looked up once the
+     * upload has finished.
+     */
+    private void remember(LocalFile localFile, String remoteFilePath, UploadIndex index) throws FtpException {
+
+        FtpFile remoteFile = connection.stat(remoteFilePath);
+
+        if (null != remoteFile)
+            index.putRemote(remoteFilePath, remoteFile.getSize(), remoteFile.getLastModifiedMillis(), localFile.digest);
+    }
+
+    private Callable<LocalFile> hash(final String localFilePath, final UploadIndex index) {
+
+        return new Callable<LocalFile>() {
+
+            @Override
+            public LocalFile call() throws IOException, NoSuchAlgorithmException {
+
+                long size = fileStreamFactory.length(localFilePath);
+                long lastModifiedMillis = fileStreamFactory.lastModified(localFilePath);
+
+                String digest = index.localDigest(localFilePath, size, lastModifiedMillis);
+
+                if (null == digest) {
+
+                    try (InputStream inputStream = fileStreamFactory.createInputStream(localFilePath)) {
+                        digest = digest(inputStream);
+                    }
+
+                    index.putLocal(localFilePath, size, lastModifiedMillis, digest);
+                }
+
+                return new LocalFile(localFilePath, size, digest);
+            }
+        };
+    }
+
+    private LocalFile await(Future<LocalFile> future) throws FtpException {
+
+        try {
+
+            return future.get();
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw new FtpException("Interrupted while hashing local files.", e);
+
+        } catch (ExecutionException e) {
+
+            throw new FtpException("Unable to hash local file.", e);
+        }
+    }
+
+    /**
+     * Relative directories are resolved so that one directory always has the same index.
+     */
+    private String absolute(String remoteDirectory) {
+
+        String directory = remoteDirectory.length() > 1 && remoteDirectory.endsWith(FILE_SEPARATOR)
+                ? remoteDirectory.substring(0, remoteDirectory.length() - 1)
+                : remoteDirectory;
+
+        if (directory.startsWith(FILE_SEPARATOR))
+            return directory;
+
+        return child(connection.printWorkingDirectory(), directory);
+    }
+
+    private String child(String directory, String name) {
+        return (directory.endsWith(FILE_SEPARATOR) ? directory : directory + FILE_SEPARATOR) + name;
+    }
+
+    /**
+     * Named after a digest of the remote directory, which may contain anything a local file
+     * name cannot.
+     */
+    private String indexFileName(String remoteDirectory) {
+
+        try {
+            return hex(MessageDigest.getInstance(DIGEST_ALGORITHM).digest(remoteDirectory.getBytes(UTF_8)))
+                    + INDEX_FILE_SUFFIX;
+        } catch (NoSuchAlgorithmException e) {
+            throw new FtpException("Unable to name the upload index.", e);
+        }
+    }
+
+    static String digest(InputStream inputStream) throws IOException, NoSuchAlgorithmException {
+
+        MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        BufferPool pool = BufferPool.getDefault();
+        byte[] buffer = pool.acquire(BUFFER_SIZE);
+
+        try {
+
+            int read;
+
+            while ((read = inputStream.read(buffer)) != -1)
+                digest.update(buffer, 0, read);
+
+        } finally {
+            pool.release(buffer);
+        }
+
+        return hex(digest.digest());
+    }
+
+    private static String hex(byte[] bytes) {
+
+        char[] hex = new char[bytes.length * 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+
+        return new String(hex);
+    }
+
+    private static class LocalFile {
+
+        private final String path;
+        private final long size;
+        private final String digest;
+
+        LocalFile(String path, long size, String digest) {
+            this.path = path;
+            this.size = size;
+            this.digest = digest;
+        }
+    }
+}
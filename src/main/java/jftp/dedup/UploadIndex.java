@@ -0,0 +1,175 @@
+package jftp.dedup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import jftp.exception.FtpException;
+
+/**
+ * What is known of the files uploaded to one remote directory: the digest of each local file,
+ * with the size and modification time it had when hashed, and the size, modification time and
+ * digest of each remote file as it was left by its last upload.
+ *
+ * Kept between runs in a text file of one tab separated line per file, the path last.
+ */
+public class UploadIndex {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String LOCAL_FILE = "L";
+    private static final String REMOTE_FILE = "R";
+    private static final String SEPARATOR = "\t";
+    private static final int FIELDS = 5;
+
+    private final Path indexFile;
+
+    private final Map<String, Entry> localFiles = new HashMap<String, Entry>();
+    private final Map<String, Entry> remoteFiles = new HashMap<String, Entry>();
+
+    UploadIndex(Path indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Reads the index, or starts an empty one if the file does not exist. Lines that cannot be
+     * read are dropped, costing only a hash or an upload.
+     */
+    public static UploadIndex load(Path indexFile) throws FtpException {
+
+        UploadIndex index = new UploadIndex(indexFile);
+
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, UTF_8)) {
+
+            String line;
+
+            while (null != (line = reader.readLine()))
+                index.read(line);
+
+        } catch (NoSuchFileException e) {
+
+            return index;
+
+        } catch (IOException e) {
+
+            throw new FtpException("Unable to read upload index " + indexFile, e);
+        }
+
+        return index;
+    }
+
+    /**
+     * @return
+     * The digest recorded for the local file, or null if it has not been hashed at this size
+     * and modification time.
+     */
+    public synchronized String localDigest(String localFilePath, long size, long lastModifiedMillis) {
+
+        Entry entry = localFiles.get(localFilePath);
+
+        return null != entry && entry.matches(size, lastModifiedMillis) ? entry.digest : null;
+    }
+
+    public synchronized void putLocal(String localFilePath, long size, long lastModifiedMillis, String digest) {
+        localFiles.put(localFilePath, new Entry(size, lastModifiedMillis, digest));
+    }
+
+    /**
+     * @return
+     * true if the remote file is as the upload of content with the given digest left it.
+     */
+    public synchronized boolean isUnchangedSince(String remoteFilePath, long size, long lastModifiedMillis,
+            String digest) {
+
+        Entry entry = remoteFiles.get(remoteFilePath);
+
+        return null != entry && entry.matches(size, lastModifiedMillis) && entry.digest.equals(digest);
+    }
+
+    public synchronized void putRemote(String remoteFilePath, long size, long lastModifiedMillis, String digest) {
+        remoteFiles.put(remoteFilePath, new Entry(size, lastModifiedMillis, digest));
+    }
+
+    /**
+     * Writes the index to a temporary file first, then moves it into place, so a failed save
+     * leaves the previous index intact.
+     */
+    public synchronized void save() throws FtpException {
+
+        Path temporaryFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+
+        try {
+
+            try (Writer writer = Files.newBufferedWriter(temporaryFile, UTF_8)) {
+                write(writer, LOCAL_FILE, localFiles);
+                write(writer, REMOTE_FILE, remoteFiles);
+            }
+
+            Files.move(temporaryFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (IOException e) {
+
+            throw new FtpException("Unable to save upload index " + indexFile, e);
+        }
+    }
+
+    private void read(String line) {
+
+        String[] fields = line.split(SEPARATOR, FIELDS);
+
+        if (fields.length < FIELDS)
+            return;
+
+        Entry entry;
+
+        try {
+            entry = new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]);
+        } catch (NumberFormatException e) {
+            return;
+        }
+
+        if (fields[0].equals(LOCAL_FILE))
+            localFiles.put(fields[4], entry);
+        else if (fields[0].equals(REMOTE_FILE))
+            remoteFiles.put(fields[4], entry);
+    }
+
+    private void write(Writer writer, String kind, Map<String, Entry> entries) throws IOException {
+
+        for (Map.Entry<String, Entry> file : entries.entrySet()) {
+
+            // A line break in a name would split its line; such files are simply not indexed.
+            if (file.getKey().indexOf('\n') != -1 || file.getKey().indexOf('\r') != -1)
+                continue;
+
+            Entry entry = file.getValue();
+
+            writer.write(kind + SEPARATOR + entry.size + SEPARATOR + entry.lastModifiedMillis + SEPARATOR
+                    + entry.digest + SEPARATOR + file.getKey() + "\n");
+        }
+    }
+
+    private static class Entry {
+
+        private final long size;
+        private final long lastModifiedMillis;
+        private final String digest;
+
+        Entry(long size, long lastModifiedMillis, String digest) {
+            this.size = size;
+            this.lastModifiedMillis = lastModifiedMillis;
+            this.digest = digest;
+        }
+
+        boolean matches(long size, long lastModifiedMillis) {
+            return this.size == size && this.lastModifiedMillis == lastModifiedMillis;
+        }
+    }
+}
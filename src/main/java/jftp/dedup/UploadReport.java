@@ -0,0 +1,43 @@
+package jftp.dedup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Which files an upload sent and which it skipped, their content already being on the server.
+ */
+public class UploadReport {
+
+    private final List<String> uploadedFiles = new ArrayList<String>();
+    private final List<String> skippedFiles = new ArrayList<String>();
+
+    private long uploadedBytes;
+    private long skippedBytes;
+
+    public List<String> getUploadedFiles() {
+        return Collections.unmodifiableList(uploadedFiles);
+    }
+
+    public List<String> getSkippedFiles() {
+        return Collections.unmodifiableList(skippedFiles);
+    }
+
+    public long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    public long getSkippedBytes() {
+        return skippedBytes;
+    }
+
+    void uploaded(String localFilePath, long size) {
+        uploadedFiles.add(localFilePath);
+        uploadedBytes += size;
+    }
+
+    void skipped(String localFilePath, long size) {
+        skippedFiles.add(localFilePath);
+        skippedBytes += size;
+    }
+}
@@ -3,11 +3,35 @@ package jftp.exception;
 @SuppressWarnings("serial")
 public class FtpException extends RuntimeException {
 
+    public static final int NO_REPLY_CODE = -1;
+
+    private final int replyCode;
+
     public FtpException(String message) {
-        super(message);
+        this(message, NO_REPLY_CODE);
     }
     
     public FtpException(String message, Exception cause) {
         super(message, cause);
+        this.replyCode = NO_REPLY_CODE;
+    }
+
+    public FtpException(String message, int replyCode) {
+        super(message);
+        this.replyCode = replyCode;
+    }
+
+    public FtpException(String message, int replyCode, Exception cause) {
+        super(message, cause);
+        this.replyCode = replyCode;
+    }
+
+    /**
+     * @return
+     * The reply code the FTP server failed the command with, or {@link #NO_REPLY_CODE} when
+     * the failure didn't come from an FTP reply.
+     */
+    public int getReplyCode() {
+        return replyCode;
     }
 }
@@ -0,0 +1,44 @@
+package jftp.replica;
+
+import java.util.Arrays;
+
+/**
+ * Holds the most recent latency samples so percentiles can be taken over them.
+ */
+class LatencyWindow {
+
+    private final long[] samples;
+
+    private int next;
+    private int count;
+
+    LatencyWindow(int capacity) {
+        this.samples = new long[capacity];
+    }
+
+    synchronized void add(long millis) {
+
+        samples[next] = millis;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    /**
+     * @param percentile
+     * Between 0 and 1, e.g. 0.95 for the 95th percentile.
+     * @return
+     * The sample at the given percentile, or -1 if no samples have been recorded.
+     */
+    synchronized long percentile(double percentile) {
+
+        if (count == 0)
+            return -1;
+
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+
+        int index = (int) Math.ceil(percentile * count) - 1;
+
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+}
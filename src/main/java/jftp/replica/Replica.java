@@ -0,0 +1,67 @@
+package jftp.replica;
+
+import jftp.connection.Connection;
+
+/**
+ * One host in a {@link ReplicaSet}, along with exponentially weighted averages of how quickly
+ * it starts sending a file and how fast it sends it once started.
+ */
+class Replica {
+
+    private static final double SMOOTHING = 0.3;
+
+    private final String name;
+    private final Connection connection;
+
+    private double firstByteMillis = Double.NaN;
+    private double bytesPerMilli = Double.NaN;
+
+    Replica(String name, Connection connection) {
+        this.name = name;
+        this.connection = connection;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    synchronized void recordLatency(long millis) {
+        firstByteMillis = smooth(firstByteMillis, millis);
+    }
+
+    synchronized void recordTransfer(long firstByteMillis, long bytes, long totalMillis) {
+
+        recordLatency(firstByteMillis);
+
+        if (bytes > 0)
+            bytesPerMilli = smooth(bytesPerMilli, (double) bytes / Math.max(1, totalMillis - firstByteMillis));
+    }
+
+    /**
+     * @return
+     * Expected time in milliseconds to download a file of the given size. Replicas which have
+     * not been measured yet are estimated at zero, so each is tried at least once.
+     */
+    synchronized double estimateMillis(double bytes) {
+
+        if (Double.isNaN(firstByteMillis))
+            return 0;
+
+        if (Double.isNaN(bytesPerMilli))
+            return firstByteMillis;
+
+        return firstByteMillis + bytes / bytesPerMilli;
+    }
+
+    private double smooth(double average, double sample) {
+
+        if (Double.isNaN(average))
+            return sample;
+
+        return average + SMOOTHING * (sample - average);
+    }
+}
@@ -0,0 +1,492 @@
+package jftp.replica;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jftp.connection.Connection;
+import jftp.exception.FtpException;
+import jftp.util.DaemonThreadFactory;
+import jftp.util.FileStreamFactory;
+import jftp.util.SharedScheduler;
+
+/**
+ * Downloads files published identically to several hosts. Every download is timed, and each
+ * is sent to the replica expected to complete it soonest given how quickly each replica has
+ * started and sustained previous transfers. Should the chosen replica fail, the next best is
+ * tried.
+ *
+ * With hedging enabled, a replica that has not sent its first byte within the configured
+ * percentile of recent first byte latencies gets company: the same file is requested from the
+ * next best replica, the first to finish wins and the other is aborted. This relies on an
+ * aborted connection staying usable, as FTP and SFTP connections both do; an SFTP connection
+ * reopens its channel for the next download.
+ *
+ * Replicas may also be probed for their round trip time, once or periodically, so that the
+ * ranking follows replicas which have sped up or slowed down since they were last used.
+ * Periodic probes are triggered by the shared scheduler, run on the executor, and are skipped
+ * while a download is running, which would otherwise be timed along with them.
+ *
+ * Like a single Connection, a ReplicaSet serves one download at a time.
+ */
+public class ReplicaSet {
+
+    private static final double SMOOTHING = 0.3;
+    private static final int LATENCY_SAMPLES = 256;
+
+    private static final long DEFAULT_HEDGE_DELAY_MILLIS = 1000;
+    private static final double DEFAULT_HEDGE_PERCENTILE = 0.95;
+    private static final long FAILURE_PENALTY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final String FILE_SEPARATOR = "/";
+    private static final String PARTIAL_FILE_SUFFIX = ".%s.part";
+
+    private final List<Replica> replicas = new CopyOnWriteArrayList<Replica>();
+    private final LatencyWindow latencies = new LatencyWindow(LATENCY_SAMPLES);
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler;
+
+    // Held by downloads and probes, so that neither times the other.
+    private final ReentrantLock activityLock = new ReentrantLock();
+
+    private FileStreamFactory fileStreamFactory = new FileStreamFactory();
+
+    private boolean hedging;
+    private double hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+    private long minimumHedgeDelayMillis;
+
+    private volatile double expectedFileSize;
+
+    private ScheduledFuture<?> probing;
+
+    public ReplicaSet() {
+        this(Executors.newCachedThreadPool(new DaemonThreadFactory("jftp-replica-%d")));
+    }
+
+    /**
+     * @param executor
+     * Runs the downloads, at most two at a time per call to download.
+     */
+    public ReplicaSet(ExecutorService executor) {
+        this(executor, SharedScheduler.getInstance());
+    }
+
+    ReplicaSet(ExecutorService executor, ScheduledExecutorService scheduler) {
+        this.executor = executor;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @param name
+     * Identifies the replica in partial file names and error messages, typically its host.
+     */
+    public void addReplica(String name, Connection connection) {
+        replicas.add(new Replica(name, connection));
+    }
+
+    public void setHedging(boolean hedging) {
+        this.hedging = hedging;
+    }
+
+    /**
+     * Percentile of recent first byte latencies after which a download is hedged, between 0
+     * and 1. Defaults to 0.95.
+     */
+    public void setHedgePercentile(double hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    /**
+     * Lower bound on the hedge delay, so that a run of very fast responses does not make every
+     * download go out twice. Defaults to 0.
+     */
+    public void setMinimumHedgeDelay(long minimumHedgeDelayMillis) {
+        this.minimumHedgeDelayMillis = minimumHedgeDelayMillis;
+    }
+
+    /**
+     * Measures the round trip time to each replica. Useful to rank replicas before the first
+     * download rather than learning their speed from it. Waits for a running download.
+     */
+    public void probe() {
+
+        activityLock.lock();
+
+        try {
+            probeReplicas();
+        } finally {
+            activityLock.unlock();
+        }
+    }
+
+    /**
+     * Probes the replicas now and then every given interval, until stopped, skipping any probe
+     * falling due during a download.
+     */
+    public synchronized void startProbing(long intervalMillis) {
+
+        if (null != probing)
+            return;
+
+        probing = scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                triggerProbe();
+            }
+
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopProbing() {
+
+        if (null != probing) {
+            probing.cancel(false);
+            probing = null;
+        }
+    }
+
+    /**
+     * Downloads a file from the fastest replica into the local directory. The file only appears
+     * under its own name once complete; until then it is written under a name suffixed with the
+     * replica it is coming from.
+     *
+     * @throws FtpException
+     * The failure of the last replica tried, once no replicas are left to try.
+     */
+    public void download(String remoteFilePath, String localDirectory) throws FtpException {
+
+        activityLock.lock();
+
+        try {
+            downloadFromReplicas(remoteFilePath, localDirectory);
+        } finally {
+            activityLock.unlock();
+        }
+    }
+
+    private void downloadFromReplicas(String remoteFilePath, String localDirectory) throws FtpException {
+
+        Deque<Replica> candidates = new ArrayDeque<Replica>(rankReplicas());
+
+        if (candidates.isEmpty())
+            throw new FtpException("No replicas have been added.");
+
+        String localFilePath = localDirectory + FILE_SEPARATOR + determineFileName(remoteFilePath);
+
+        CompletionService<Attempt> completions = new ExecutorCompletionService<Attempt>(executor);
+        List<Attempt> running = new ArrayList<Attempt>();
+
+        Attempt primary = start(candidates.poll(), remoteFilePath, localFilePath, completions);
+        running.add(primary);
+
+        boolean hedgeDecided = !hedging;
+        FtpException lastFailure = null;
+
+        while (!running.isEmpty()) {
+
+            Future<Attempt> completed;
+
+            if (hedgeDecided) {
+
+                completed = take(completions);
+
+            } else {
+
+                completed = poll(completions, hedgeDelayMillis());
+
+                if (null == completed) {
+
+                    hedgeDecided = true;
+
+                    if (!primary.hasReceivedBytes() && !candidates.isEmpty())
+                        running.add(start(candidates.poll(), remoteFilePath, localFilePath, completions));
+
+                    continue;
+                }
+            }
+
+            Attempt attempt = result(completed);
+            running.remove(attempt);
+
+            if (attempt.hasSucceeded()) {
+
+                for (Attempt loser : running)
+                    loser.discard();
+
+                attempt.complete(localFilePath);
+
+                return;
+            }
+
+            attempt.discard();
+            lastFailure = attempt.getFailure();
+
+            if (running.isEmpty() && !candidates.isEmpty()) {
+
+                primary = start(candidates.poll(), remoteFilePath, localFilePath, completions);
+                running.add(primary);
+            }
+        }
+
+        throw lastFailure;
+    }
+
+    /**
+     * Hands the probe over to the executor, keeping the scheduler's threads free.
+     */
+    private void triggerProbe() {
+
+        try {
+
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    if (!activityLock.tryLock())
+                        return;
+
+                    try {
+                        probeReplicas();
+                    } finally {
+                        activityLock.unlock();
+                    }
+                }
+            });
+
+        } catch (RejectedExecutionException e) {
+            // The executor has been shut down; the probes stop with it.
+        }
+    }
+
+    private void probeReplicas() {
+
+        for (Replica replica : replicas) {
+
+            long start = System.nanoTime();
+
+            try {
+
+                replica.getConnection().printWorkingDirectory();
+                replica.recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+            } catch (FtpException e) {
+
+                replica.recordLatency(FAILURE_PENALTY_MILLIS);
+            }
+        }
+    }
+
+    private List<Replica> rankReplicas() {
+
+        final double bytes = expectedFileSize;
+        List<Replica> ranked = new ArrayList<Replica>(replicas);
+
+        Collections.sort(ranked, new Comparator<Replica>() {
+
+            @Override
+            public int compare(Replica first, Replica second) {
+                return Double.compare(first.estimateMillis(bytes), second.estimateMillis(bytes));
+            }
+        });
+
+        return ranked;
+    }
+
+    private long hedgeDelayMillis() {
+
+        long percentile = latencies.percentile(hedgePercentile);
+
+        if (percentile == -1)
+            return Math.max(minimumHedgeDelayMillis, DEFAULT_HEDGE_DELAY_MILLIS);
+
+        return Math.max(minimumHedgeDelayMillis, percentile);
+    }
+
+    private Attempt start(Replica replica, String remoteFilePath, String localFilePath,
+            CompletionService<Attempt> completions) {
+
+        Attempt attempt = new Attempt(replica, remoteFilePath,
+                localFilePath + String.format(PARTIAL_FILE_SUFFIX, replica.getName()));
+
+        completions.submit(attempt);
+
+        return attempt;
+    }
+
+    private Future<Attempt> take(CompletionService<Attempt> completions) throws FtpException {
+
+        try {
+            return completions.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FtpException("Interrupted while waiting for the download to complete.", e);
+        }
+    }
+
+    private Future<Attempt> poll(CompletionService<Attempt> completions, long timeoutMillis) throws FtpException {
+
+        try {
+            return completions.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FtpException("Interrupted while waiting for the download to complete.", e);
+        }
+    }
+
+    private Attempt result(Future<Attempt> completed) {
+
+        try {
+            return completed.get();
+        } catch (InterruptedException | ExecutionException e) {
+            // Attempts record their own failures and are only collected once complete.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String determineFileName(String remoteFilePath) {
+        return remoteFilePath.substring(remoteFilePath.lastIndexOf(FILE_SEPARATOR) + 1);
+    }
+
+    /**
+     * A download of the file from one replica into its own partial file.
+     */
+    private class Attempt implements Callable<Attempt> {
+
+        private final Replica replica;
+        private final String remoteFilePath;
+        private final String partialFilePath;
+
+        private volatile TimedOutputStream outputStream;
+        private volatile FtpException failure;
+
+        private boolean finished;
+        private boolean discarded;
+
+        Attempt(Replica replica, String remoteFilePath, String partialFilePath) {
+            this.replica = replica;
+            this.remoteFilePath = remoteFilePath;
+            this.partialFilePath = partialFilePath;
+        }
+
+        @Override
+        public Attempt call() {
+
+            try (TimedOutputStream timedOutputStream = new TimedOutputStream(
+                    fileStreamFactory.createOutputStream(partialFilePath))) {
+
+                outputStream = timedOutputStream;
+                replica.getConnection().download(remoteFilePath, timedOutputStream);
+
+            } catch (IOException e) {
+
+                failure = new FtpException(String.format("Unable to write the download from %s to %s",
+                        replica.getName(), partialFilePath), e);
+
+            } catch (FtpException e) {
+
+                failure = e;
+            }
+
+            finish();
+
+            return this;
+        }
+
+        boolean hasReceivedBytes() {
+
+            TimedOutputStream current = outputStream;
+
+            return null != current && current.hasReceivedBytes();
+        }
+
+        boolean hasSucceeded() {
+            return null == failure;
+        }
+
+        FtpException getFailure() {
+            return failure;
+        }
+
+        /**
+         * Moves the finished download into place and learns from how long it took.
+         */
+        void complete(String localFilePath) throws FtpException {
+
+            replica.recordTransfer(outputStream.getFirstByteMillis(), outputStream.getBytes(),
+                    outputStream.getElapsedMillis());
+            latencies.add(outputStream.getFirstByteMillis());
+            expectedFileSize += SMOOTHING * (outputStream.getBytes() - expectedFileSize);
+
+            try {
+
+                Files.move(new File(partialFilePath).toPath(), new File(localFilePath).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+
+            } catch (IOException e) {
+
+                throw new FtpException(String.format("Unable to move %s to %s", partialFilePath, localFilePath), e);
+            }
+        }
+
+        /**
+         * Gives up on this attempt, aborting it if still running. Its partial file is removed
+         * as soon as the download has stopped.
+         */
+        void discard() {
+
+            TimedOutputStream current = outputStream;
+
+            if (null != failure)
+                replica.recordLatency(FAILURE_PENALTY_MILLIS);
+            else if (null != current)
+                replica.recordLatency(current.getFirstByteMillis());
+
+            boolean canDelete;
+
+            synchronized (this) {
+                discarded = true;
+                canDelete = finished;
+            }
+
+            if (canDelete)
+                new File(partialFilePath).delete();
+            else
+                replica.getConnection().abort();
+        }
+
+        private void finish() {
+
+            boolean canDelete;
+
+            synchronized (this) {
+                finished = true;
+                canDelete = discarded;
+            }
+
+            if (canDelete)
+                new File(partialFilePath).delete();
+        }
+    }
+}
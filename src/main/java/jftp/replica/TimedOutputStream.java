@@ -0,0 +1,66 @@
+package jftp.replica;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes passing through and notes when the first of them arrived.
+ */
+class TimedOutputStream extends FilterOutputStream {
+
+    private final long startNanos = System.nanoTime();
+
+    private volatile long firstByteNanos = -1;
+    private volatile long bytes;
+
+    TimedOutputStream(OutputStream outputStream) {
+        super(outputStream);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+
+        received(1);
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] source, int offset, int length) throws IOException {
+
+        received(length);
+        out.write(source, offset, length);
+    }
+
+    boolean hasReceivedBytes() {
+        return firstByteNanos != -1;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return
+     * Milliseconds from creation until the first byte arrived, or until now if none has yet.
+     */
+    long getFirstByteMillis() {
+        return toMillis((hasReceivedBytes() ? firstByteNanos : System.nanoTime()) - startNanos);
+    }
+
+    long getElapsedMillis() {
+        return toMillis(System.nanoTime() - startNanos);
+    }
+
+    private void received(int length) {
+
+        if (firstByteNanos == -1)
+            firstByteNanos = System.nanoTime();
+
+        bytes += length;
+    }
+
+    private long toMillis(long nanos) {
+        return nanos / 1000000;
+    }
+}
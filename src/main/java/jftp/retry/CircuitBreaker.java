@@ -0,0 +1,110 @@
+package jftp.retry;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import jftp.exception.FtpException;
+
+/**
+ * Fails fast while a host is known to be down. After a run of consecutive failures the
+ * breaker opens and rejects calls immediately; once the open period has passed a single
+ * trial call is let through, closing the breaker again if it succeeds. Should the trial's outcome
+ * never be recorded, another trial is let through once the open period has passed again, so
+ * that the breaker cannot stay half open for good.
+ */
+public class CircuitBreaker {
+
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final long DEFAULT_OPEN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final String CIRCUIT_OPEN_MESSAGE = "Host %s is unavailable, not attempting to connect.";
+
+    private static final String HOST_KEY = "%s:%d";
+
+    private static final ConcurrentMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String host;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    public CircuitBreaker(String host) {
+        this(host, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+    }
+
+    public CircuitBreaker(String host, int failureThreshold, long openMillis) {
+        this.host = host;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @return
+     * The breaker shared by every client talking to the given host and port.
+     */
+    public static CircuitBreaker forHost(String host, int port) {
+
+        String key = String.format(HOST_KEY, host, port);
+        CircuitBreaker breaker = BREAKERS.get(key);
+
+        if (null != breaker)
+            return breaker;
+
+        CircuitBreaker created = new CircuitBreaker(key);
+        CircuitBreaker existing = BREAKERS.putIfAbsent(key, created);
+
+        return null == existing ? created : existing;
+    }
+
+    /**
+     * @throws FtpException
+     * if the host is currently considered down.
+     */
+    public synchronized void ensureClosed() throws FtpException {
+
+        if (state == State.CLOSED)
+            return;
+
+        long now = currentTimeMillis();
+
+        if (state != State.CLOSED && now - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            openedAt = now;
+            return;
+        }
+
+        throw new FtpException(String.format(CIRCUIT_OPEN_MESSAGE, host));
+    }
+
+    public synchronized void recordSuccess() {
+
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    public synchronized void recordFailure() {
+
+        consecutiveFailures++;
+
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = currentTimeMillis();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,142 @@
+package jftp.retry;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+import jftp.exception.FtpException;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * Retries operations that fail for transient reasons, backing off exponentially with full
+ * jitter between attempts so that many clients recovering at once don't retry in lockstep.
+ */
+public class RetryPolicy {
+
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 200;
+    private static final long DEFAULT_MAX_BACKOFF_MILLIS = 10000;
+    private static final double DEFAULT_MULTIPLIER = 2.0;
+
+    private static final String INTERRUPTED_MESSAGE = "Interrupted while waiting to retry.";
+
+    public interface Operation<T> {
+
+        /**
+         * @param attempt
+         * The attempt number, starting at 1.
+         */
+        T run(int attempt) throws FtpException;
+    }
+
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+    private long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+    private double multiplier = DEFAULT_MULTIPLIER;
+
+    private Random random = new Random();
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setInitialBackoffMillis(long initialBackoffMillis) {
+        this.initialBackoffMillis = initialBackoffMillis;
+    }
+
+    public void setMaxBackoffMillis(long maxBackoffMillis) {
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    public void setMultiplier(double multiplier) {
+        this.multiplier = multiplier;
+    }
+
+    public <T> T execute(Operation<T> operation) throws FtpException {
+
+        for (int attempt = 1;; attempt++) {
+
+            try {
+
+                return operation.run(attempt);
+
+            } catch (FtpException e) {
+
+                if (attempt >= maxAttempts || !isRetryable(e))
+                    throw e;
+
+                sleep(backoffMillis(attempt));
+            }
+        }
+    }
+
+    /**
+     * Failures caused by the network or by a transient (4xx) FTP reply are retryable. Missing
+     * files, permission problems, unknown hosts and other permanent failures are not.
+     */
+    public boolean isRetryable(FtpException exception) {
+
+        int replyCode = exception.getReplyCode();
+
+        if (replyCode != FtpException.NO_REPLY_CODE)
+            return replyCode >= 400 && replyCode < 500;
+
+        for (Throwable cause = exception.getCause(); null != cause; cause = cause.getCause()) {
+
+            if (cause instanceof SftpException)
+                return isRetryable((SftpException) cause);
+
+            if (cause instanceof UnknownHostException || cause instanceof FileNotFoundException)
+                return false;
+
+            if (cause instanceof IOException || cause instanceof JSchException)
+                return true;
+        }
+
+        return false;
+    }
+
+    long backoffMillis(int attempt) {
+
+        double ceiling = Math.min(maxBackoffMillis, initialBackoffMillis * Math.pow(multiplier, attempt - 1));
+
+        return (long) (random.nextDouble() * ceiling);
+    }
+
+    void setRandom(Random random) {
+        this.random = random;
+    }
+
+    private boolean isRetryable(SftpException exception) {
+
+        switch (exception.id) {
+        case ChannelSftp.SSH_FX_NO_CONNECTION:
+        case ChannelSftp.SSH_FX_CONNECTION_LOST:
+            return true;
+        case ChannelSftp.SSH_FX_FAILURE:
+            return exception.getCause() instanceof IOException;
+        default:
+            return false;
+        }
+    }
+
+    private void sleep(long millis) {
+
+        if (millis <= 0)
+            return;
+
+        try {
+
+            Thread.sleep(millis);
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw new FtpException(INTERRUPTED_MESSAGE, e);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package jftp.retry;
+
+import jftp.client.Client;
+import jftp.client.auth.UserCredentials;
+import jftp.connection.Connection;
+import jftp.exception.FtpException;
+
+/**
+ * Wraps another client so that connecting, and every operation on the resulting connection,
+ * is retried according to a {@link RetryPolicy} and fails fast through the host's
+ * {@link CircuitBreaker} while the host is down.
+ */
+public class RetryingClient extends Client {
+
+    private final Client delegate;
+    private final RetryPolicy retryPolicy;
+
+    private RetryingConnection connection;
+
+    public RetryingClient(Client delegate, RetryPolicy retryPolicy) {
+        this.delegate = delegate;
+        this.retryPolicy = retryPolicy;
+    }
+
+    @Override
+    public void setCredentials(UserCredentials userCredentials) {
+        super.setCredentials(userCredentials);
+        delegate.setCredentials(userCredentials);
+    }
+
+    @Override
+    public void setHost(String host) {
+        super.setHost(host);
+        delegate.setHost(host);
+    }
+
+    @Override
+    public void setPort(int port) {
+        super.setPort(port);
+        delegate.setPort(port);
+    }
+
+    @Override
+    public void setConnectTimeout(int connectTimeoutMillis) {
+        super.setConnectTimeout(connectTimeoutMillis);
+        delegate.setConnectTimeout(connectTimeoutMillis);
+    }
+
+    @Override
+    public void setReadTimeout(int readTimeoutMillis) {
+        super.setReadTimeout(readTimeoutMillis);
+        delegate.setReadTimeout(readTimeoutMillis);
+    }
+
+    @Override
+    public Connection connect() {
+
+        final CircuitBreaker circuitBreaker = circuitBreaker();
+
+        Connection delegateConnection = retryPolicy.execute(new RetryPolicy.Operation<Connection>() {
+
+            @Override
+            public Connection run(int attempt) {
+
+                circuitBreaker.ensureClosed();
+
+                boolean failed = true;
+
+                try {
+
+                    Connection connected = delegate.connect();
+                    failed = false;
+
+                    return connected;
+
+                } catch (FtpException e) {
+
+                    failed = retryPolicy.isRetryable(e);
+                    throw e;
+
+                } finally {
+
+                    if (failed)
+                        circuitBreaker.recordFailure();
+                    else
+                        circuitBreaker.recordSuccess();
+                }
+            }
+        });
+
+        if (null == connection)
+            connection = new RetryingConnection(delegateConnection, delegate, retryPolicy, circuitBreaker);
+
+        return connection;
+    }
+
+    @Override
+    public void disconnect() {
+        delegate.disconnect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return delegate.isConnected();
+    }
+
+    @Override
+    public boolean keepAlive(long idleMillis) {
+        return delegate.keepAlive(idleMillis);
+    }
+
+    CircuitBreaker circuitBreaker() {
+        return CircuitBreaker.forHost(host, port);
+    }
+}
@@ -0,0 +1,300 @@
+package jftp.retry;
+
+import java.util.List;
+
+import jftp.client.Client;
+import jftp.connection.Connection;
+import jftp.connection.ForwardingConnection;
+import jftp.connection.FtpFile;
+import jftp.exception.FtpException;
+
+/**
+ * Retries failed operations according to a {@link RetryPolicy}, reconnecting the client
+ * between attempts when the connection has dropped and resuming interrupted downloads rather
+ * than starting them again. Every attempt is guarded by the host's {@link CircuitBreaker}.
+ */
+public class RetryingConnection extends ForwardingConnection {
+
+    private final Client client;
+    private final RetryPolicy retryPolicy;
+    private final CircuitBreaker circuitBreaker;
+
+    public RetryingConnection(Connection delegate, Client client, RetryPolicy retryPolicy, CircuitBreaker circuitBreaker) {
+
+        super(delegate);
+
+        this.client = client;
+        this.retryPolicy = retryPolicy;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public void changeDirectory(final String directory) throws FtpException {
+
+        execute(new RetryPolicy.Operation<Void>() {
+
+            @Override
+            public Void run(int attempt) {
+                delegate.changeDirectory(directory);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void download(final String remoteFilePath, final String localDirectory) throws FtpException {
+
+        execute(new RetryPolicy.Operation<Void>() {
+
+            @Override
+            public Void run(int attempt) {
+
+                if (attempt == 1)
+                    delegate.download(remoteFilePath, localDirectory);
+                else
+                    delegate.resumeDownload(remoteFilePath, localDirectory);
+
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void resumeDownload(final String remoteFilePath, final String localDirectory) throws FtpException {
+
+        execute(new RetryPolicy.Operation<Void>() {
+
+            @Override
+            public Void run(int attempt) {
+                delegate.resumeDownload(remoteFilePath, localDirectory);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public List<FtpFile> listFiles() throws FtpException {
+
+        return execute(new RetryPolicy.Operation<List<FtpFile>>() {
+
+            @Override
+            public List<FtpFile> run(int attempt) {
+                return delegate.listFiles();
+            }
+        });
+    }
+
+    @Override
+    public List<FtpFile> listFiles(final String path) throws FtpException {
+
+        return execute(new RetryPolicy.Operation<List<FtpFile>>() {
+
+            @Override
+            public List<FtpFile> run(int attempt) {
+                return delegate.listFiles(path);
+            }
+        });
+    }
+
+    @Override
+    public List<FtpFile> listFilesRecursively(final String path) throws FtpException {
+
+        return execute(new RetryPolicy.Operation<List<FtpFile>>() {
+
+            @Override
+            public List<FtpFile> run(int attempt) {
+                return delegate.listFilesRecursively(path);
+            }
+        });
+    }
+
+    @Override
+    public String printWorkingDirectory() throws FtpException {
+
+        return execute(new RetryPolicy.Operation<String>() {
+
+            @Override
+            public String run(int attempt) {
+                return delegate.printWorkingDirectory();
+            }
+        });
+    }
+
+    @Override
+    public FtpFile stat(final String remotePath) throws FtpException {
+
+        return execute(new RetryPolicy.Operation<FtpFile>() {
+
+            @Override
+            public FtpFile run(int attempt) {
+                return delegate.stat(remotePath);
+            }
+        });
+    }
+
+    @Override
+    public boolean exists(final String remotePath) throws FtpException {
+
+        return execute(new RetryPolicy.Operation<Boolean>() {
+
+            @Override
+            public Boolean run(int attempt) {
+                return delegate.exists(remotePath);
+            }
+        });
+    }
+
+    /**
+     * A retry failing because the directory exists means an earlier attempt created it before
+     * its reply was lost.
+     */
+    @Override
+    public void createDirectory(final String remotePath) throws FtpException {
+
+        execute(new RetryPolicy.Operation<Void>() {
+
+            @Override
+            public Void run(int attempt) {
+
+                try {
+
+                    delegate.createDirectory(remotePath);
+
+                } catch (FtpException e) {
+
+                    FtpFile existing = attempt == 1 ? null : delegate.stat(remotePath);
+
+                    if (null == existing || !existing.isDirectory())
+                        throw e;
+                }
+
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void createDirectories(final String remotePath) throws FtpException {
+
+        execute(new RetryPolicy.Operation<Void>() {
+
+            @Override
+            public Void run(int attempt) {
+                delegate.createDirectories(remotePath);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * A retry failing because the file has gone means an earlier attempt deleted it before its
+     * reply was lost.
+     */
+    @Override
+    public void delete(final String remoteFilePath) throws FtpException {
+
+        execute(new RetryPolicy.Operation<Void>() {
+
+            @Override
+            public Void run(int attempt) {
+
+                try {
+
+                    delegate.delete(remoteFilePath);
+
+                } catch (FtpException e) {
+
+                    if (attempt == 1 || delegate.exists(remoteFilePath))
+                        throw e;
+                }
+
+                return null;
+            }
+        });
+    }
+
+    /**
+     * A retry failing because the source has gone and the target exists means an earlier
+     * attempt renamed it before its reply was lost.
+     */
+    @Override
+    public void rename(final String fromRemotePath, final String toRemotePath) throws FtpException {
+
+        execute(new RetryPolicy.Operation<Void>() {
+
+            @Override
+            public Void run(int attempt) {
+
+                try {
+
+                    delegate.rename(fromRemotePath, toRemotePath);
+
+                } catch (FtpException e) {
+
+                    if (attempt == 1 || delegate.exists(fromRemotePath) || !delegate.exists(toRemotePath))
+                        throw e;
+                }
+
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void upload(final String localFilePath, final String remoteDirectory) throws FtpException {
+
+        execute(new RetryPolicy.Operation<Void>() {
+
+            @Override
+            public Void run(int attempt) {
+                delegate.upload(localFilePath, remoteDirectory);
+                return null;
+            }
+        });
+    }
+
+    private <T> T execute(RetryPolicy.Operation<T> operation) {
+
+        return retryPolicy.execute(new GuardedOperation<T>(operation));
+    }
+
+    private class GuardedOperation<T> implements RetryPolicy.Operation<T> {
+
+        private final RetryPolicy.Operation<T> operation;
+
+        GuardedOperation(RetryPolicy.Operation<T> operation) {
+            this.operation = operation;
+        }
+
+        @Override
+        public T run(int attempt) {
+
+            circuitBreaker.ensureClosed();
+
+            boolean failed = true;
+
+            try {
+
+                if (attempt > 1 && (!client.isConnected() || !client.keepAlive(0)))
+                    client.reconnect();
+
+                T result = operation.run(attempt);
+                failed = false;
+
+                return result;
+
+            } catch (FtpException e) {
+
+                failed = retryPolicy.isRetryable(e);
+                throw e;
+
+            } finally {
+
+                if (failed)
+                    circuitBreaker.recordFailure();
+                else
+                    circuitBreaker.recordSuccess();
+            }
+        }
+    }
+}
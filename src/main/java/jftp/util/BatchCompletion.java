@@ -0,0 +1,72 @@
+package jftp.util;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import jftp.exception.FtpException;
+
+/**
+ * Brings a batch of items run in parallel to an end. Every item of a batch is attempted even
+ * if some fail, and the failures are then reported together, as one exception naming how many
+ * failed and the first of them, caused by that one's failure.
+ */
+public class BatchCompletion {
+
+    private static final String BATCH_FAILURE_MESSAGE = "Unable to %s %d of %d %s, the first being %s";
+
+    /**
+     * Waits for every worker of the batch to finish.
+     */
+    public static void awaitAll(List<? extends Future<?>> workers) throws FtpException {
+
+        for (Future<?> worker : workers) {
+
+            try {
+
+                worker.get();
+
+            } catch (InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+                throw new FtpException("Interrupted while waiting for the batch to complete.", e);
+
+            } catch (ExecutionException e) {
+
+                throw new FtpException("The batch failed unexpectedly.", e);
+            }
+        }
+    }
+
+    /**
+     * @param action
+     * What was done to each item, as in "Unable to download 2 of 5 files".
+     * @param itemKind
+     * What the items are, in the plural.
+     * @param names
+     * The name of each item, in the order of the batch.
+     * @param failures
+     * The failure of each item, or null where it succeeded.
+     */
+    public static void checkFailures(String action, String itemKind, List<String> names, FtpException[] failures)
+            throws FtpException {
+
+        int count = 0;
+        int first = -1;
+
+        for (int i = 0; i < failures.length; i++) {
+
+            if (null != failures[i]) {
+
+                count++;
+
+                if (first == -1)
+                    first = i;
+            }
+        }
+
+        if (count > 0)
+            throw new FtpException(String.format(BATCH_FAILURE_MESSAGE, action, count, names.size(), itemKind,
+                    names.get(first)), failures[first]);
+    }
+}
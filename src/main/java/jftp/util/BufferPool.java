@@ -0,0 +1,373 @@
+package jftp.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jftp.exception.FtpException;
+
+/**
+ * Hands out transfer buffers from a pool shared by every transfer, so that once warmed up,
+ * transfers reuse buffers rather than allocating their own. Buffers come in power of two size
+ * classes, from 4KB up, and are at least as large as asked for.
+ *
+ * The buffers in use and those kept for reuse together never exceed the pool's capacity. A
+ * transfer needing a buffer when the pool is full first displaces idle buffers of other sizes,
+ * then waits for one to be released, so that many transfers at once slow down rather than
+ * exhaust the heap.
+ *
+ * Waiting is only safe for a caller holding no other buffer, as callers each holding one and
+ * waiting for another would wait on each other for ever: a server to server relay holds its
+ * buffer while the transfers either side of it take copy buffers, and a record reader holds its
+ * buffer while growing it. Copy buffers and grown buffers are therefore taken without waiting,
+ * and when the pool is full are allocated past its capacity and dropped on release rather than
+ * kept, each counted as an overflow.
+ *
+ * Whole file SFTP transfers take nothing from the pool, as JSch copies them through the packet
+ * buffers of the channel, which it allocates once per channel rather than per transfer.
+ *
+ * Every buffer acquired must be released exactly once, and not used after.
+ */
+public class BufferPool {
+
+    private static final int MIN_SIZE_CLASS = 12;
+    private static final int SIZE_CLASSES = 31;
+    private static final int MAX_SIZE = 1 << (SIZE_CLASSES - 1);
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final long DEFAULT_CAPACITY = 256L * 1024 * 1024;
+
+    private static volatile BufferPool defaultPool;
+
+    private final long capacityBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final List<ArrayDeque<byte[]>> idleBuffers = new ArrayList<ArrayDeque<byte[]>>(SIZE_CLASSES);
+
+    // Only changed while locked; volatile so that they can be read for metrics without it.
+    private volatile long bytesInUse;
+    private volatile long bytesIdle;
+    private volatile long peakBytesInUse;
+    private volatile long acquisitions;
+    private volatile long allocations;
+    private volatile long waits;
+    private volatile long overflows;
+
+    // Buffers allocated past the capacity, dropped on release; only used while locked.
+    private final Set<byte[]> overflowBuffers = Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+
+    public BufferPool(long capacityBytes) {
+
+        this.capacityBytes = capacityBytes;
+
+        for (int i = 0; i < SIZE_CLASSES; i++)
+            idleBuffers.add(new ArrayDeque<byte[]>());
+    }
+
+    /**
+     * The pool used by jftp's own transfers, which unless replaced holds up to 256MB or a
+     * quarter of the maximum heap, whichever is less.
+     */
+    public static BufferPool getDefault() {
+
+        if (null == defaultPool) {
+
+            synchronized (BufferPool.class) {
+
+                if (null == defaultPool)
+                    defaultPool = new BufferPool(Math.min(DEFAULT_CAPACITY, Runtime.getRuntime().maxMemory() / 4));
+            }
+        }
+
+        return defaultPool;
+    }
+
+    /**
+     * Replaces the pool used by jftp's own transfers. Buffers acquired from the previous pool
+     * are still released to it.
+     */
+    public static void setDefault(BufferPool pool) {
+        defaultPool = pool;
+    }
+
+    /**
+     * Takes a buffer of at least the given size, waiting if the pool is at capacity. The
+     * largest buffer given out is 1GB.
+     *
+     * Only for callers holding no other buffer from the pool, see
+     * {@link #acquireWithoutWaiting(int)} otherwise.
+     */
+    public byte[] acquire(int minimumSize) throws FtpException {
+        return acquire(minimumSize, true);
+    }
+
+    /**
+     * Takes a buffer of at least the given size, allocating one past the pool's capacity if it
+     * is full rather than waiting, for callers that may already hold a buffer from the pool.
+     */
+    public byte[] acquireWithoutWaiting(int minimumSize) throws FtpException {
+        return acquire(minimumSize, false);
+    }
+
+    private byte[] acquire(int minimumSize, boolean wait) throws FtpException {
+
+        if (minimumSize > MAX_SIZE)
+            throw new FtpException(String.format("A buffer of %d bytes exceeds the largest pooled size of %d bytes.",
+                    minimumSize, MAX_SIZE));
+
+        int sizeClass = sizeClassOf(minimumSize);
+        int size = 1 << sizeClass;
+
+        if (size > capacityBytes)
+            throw new FtpException(String.format("A buffer of %d bytes exceeds the pool's capacity of %d bytes.",
+                    size, capacityBytes));
+
+        lock.lock();
+
+        try {
+
+            acquisitions++;
+
+            byte[] buffer = idleBuffers.get(sizeClass).pollFirst();
+
+            if (null != buffer)
+                bytesIdle -= size;
+            else
+                buffer = allocate(sizeClass, size, wait);
+
+            if (null == buffer) {
+
+                overflows++;
+                buffer = new byte[size];
+                overflowBuffers.add(buffer);
+
+                return buffer;
+            }
+
+            bytesInUse += size;
+            peakBytesInUse = Math.max(peakBytesInUse, bytesInUse);
+
+            return buffer;
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(byte[] buffer) {
+
+        int sizeClass = Integer.numberOfTrailingZeros(buffer.length);
+
+        if (buffer.length != 1 << sizeClass || sizeClass < MIN_SIZE_CLASS)
+            throw new IllegalArgumentException("Not a pooled buffer: " + buffer.length + " bytes.");
+
+        lock.lock();
+
+        try {
+
+            if (overflowBuffers.remove(buffer))
+                return;
+
+            bytesInUse -= buffer.length;
+            bytesIdle += buffer.length;
+            idleBuffers.get(sizeClass).addFirst(buffer);
+
+            released.signalAll();
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copies everything from one stream to the other through a pooled buffer, leaving both
+     * open. Never waits for the buffer, so may be called while holding another.
+     * 
+     * @return
+     * The number of bytes copied.
+     */
+    public long copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+
+        byte[] buffer = acquireWithoutWaiting(COPY_BUFFER_SIZE);
+
+        try {
+
+            long copied = 0;
+            int read;
+
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+                copied += read;
+            }
+
+            return copied;
+
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Copies up to the given number of bytes through a pooled buffer, leaving both streams
+     * open.
+     * 
+     * @return
+     * The number of bytes copied, fewer than asked for only if the input ends first.
+     */
+    public long copy(InputStream inputStream, OutputStream outputStream, long length) throws IOException {
+
+        byte[] buffer = acquireWithoutWaiting((int) Math.min(COPY_BUFFER_SIZE, Math.max(length, 1)));
+
+        try {
+
+            long copied = 0;
+
+            while (copied < length) {
+
+                int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, length - copied));
+
+                if (read == -1)
+                    break;
+
+                outputStream.write(buffer, 0, read);
+                copied += read;
+            }
+
+            return copied;
+
+        } finally {
+            release(buffer);
+        }
+    }
+
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    public long getBytesInUse() {
+        return bytesInUse;
+    }
+
+    /**
+     * Bytes held in buffers released and kept for reuse.
+     */
+    public long getBytesIdle() {
+        return bytesIdle;
+    }
+
+    public long getPeakBytesInUse() {
+        return peakBytesInUse;
+    }
+
+    public long getAcquisitions() {
+        return acquisitions;
+    }
+
+    /**
+     * Buffers created because none of the size asked for was idle. Stops growing once the
+     * pool has warmed up to the transfers' needs.
+     */
+    public long getAllocations() {
+        return allocations;
+    }
+
+    /**
+     * Acquisitions that had to wait for a buffer to be released.
+     */
+    public long getWaits() {
+        return waits;
+    }
+
+    /**
+     * Buffers allocated past the capacity because the pool was full when taken without
+     * waiting. Growing steadily means the capacity is too small for the transfers run at once.
+     */
+    public long getOverflows() {
+        return overflows;
+    }
+
+    /**
+     * The fraction of the capacity in use by transfers, from 0 to 1.
+     */
+    public double getUtilisation() {
+        return (double) bytesInUse / capacityBytes;
+    }
+
+    /**
+     * Makes room by first dropping idle buffers of any size, then waiting for buffers in use
+     * to be released, which may also bring one of the size wanted.
+     *
+     * @return
+     * The buffer, or null if there is no room and the caller will not wait.
+     */
+    private byte[] allocate(int sizeClass, int size, boolean wait) throws FtpException {
+
+        boolean hasWaited = false;
+
+        while (bytesInUse + bytesIdle + size > capacityBytes) {
+
+            if (bytesIdle > 0) {
+                dropIdleBuffer();
+                continue;
+            }
+
+            if (!wait)
+                return null;
+
+            if (!hasWaited) {
+                waits++;
+                hasWaited = true;
+            }
+
+            try {
+
+                released.await();
+
+            } catch (InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+                throw new FtpException("Interrupted while waiting for a transfer buffer.", e);
+            }
+
+            byte[] buffer = idleBuffers.get(sizeClass).pollFirst();
+
+            if (null != buffer) {
+                bytesIdle -= size;
+                return buffer;
+            }
+        }
+
+        allocations++;
+
+        return new byte[size];
+    }
+
+    private void dropIdleBuffer() {
+
+        for (int i = SIZE_CLASSES - 1; i >= 0; i--) {
+
+            byte[] buffer = idleBuffers.get(i).pollLast();
+
+            if (null != buffer) {
+                bytesIdle -= buffer.length;
+                return;
+            }
+        }
+    }
+
+    private static int sizeClassOf(int size) {
+
+        if (size <= 1 << MIN_SIZE_CLASS)
+            return MIN_SIZE_CLASS;
+
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+}
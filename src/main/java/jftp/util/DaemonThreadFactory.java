@@ -0,0 +1,31 @@
+package jftp.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads, so that background work started by jftp never keeps the JVM
+ * alive on its own.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+    private final String nameFormat;
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * @param nameFormat
+     * Format for thread names, given the thread's sequence number, e.g. "jftp-worker-%d".
+     */
+    public DaemonThreadFactory(String nameFormat) {
+        this.nameFormat = nameFormat;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+
+        Thread thread = new Thread(runnable, String.format(nameFormat, count.incrementAndGet()));
+        thread.setDaemon(true);
+
+        return thread;
+    }
+}
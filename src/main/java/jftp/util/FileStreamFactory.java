@@ -14,4 +14,16 @@ public class FileStreamFactory {
     public FileOutputStream createOutputStream(String filePath) throws FileNotFoundException {
         return new FileOutputStream(new File(filePath));
     }
+
+    public FileOutputStream createOutputStream(String filePath, boolean append) throws FileNotFoundException {
+        return new FileOutputStream(new File(filePath), append);
+    }
+
+    public long length(String filePath) {
+        return new File(filePath).length();
+    }
+
+    public long lastModified(String filePath) {
+        return new File(filePath).lastModified();
+    }
 }
@@ -0,0 +1,219 @@
+package jftp.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed size in-memory buffer connecting one writing thread to one reading thread. Writers
+ * block while the buffer is full, readers block while it is empty, so a fast producer is
+ * throttled to the pace of the consumer without buffering the whole stream.
+ */
+public class RingBuffer {
+
+    private static final String READER_CLOSED_MESSAGE = "The reading side of the buffer has been closed.";
+    private static final String WRITER_FAILED_MESSAGE = "The writing side of the buffer failed.";
+
+    private final byte[] buffer;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private int readPosition;
+    private int count;
+
+    private boolean writerClosed;
+    private boolean readerClosed;
+    private Exception writerFailure;
+
+    private final InputStream inputStream = new RingBufferInputStream();
+    private final OutputStream outputStream = new RingBufferOutputStream();
+
+    public RingBuffer(int capacity) {
+        this(new byte[capacity]);
+    }
+
+    /**
+     * Uses the given array as the buffer, its length being the capacity. Both sides should be
+     * closed before the array is put to other use.
+     */
+    public RingBuffer(byte[] buffer) {
+        this.buffer = buffer;
+    }
+
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * Marks the stream as broken. The reader sees an IOException rather than a normal end of
+     * stream, so a truncated stream is never mistaken for a complete one.
+     */
+    public void fail(Exception cause) {
+
+        lock.lock();
+
+        try {
+            writerFailure = cause;
+            writerClosed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int read(byte[] destination, int offset, int length) throws IOException {
+
+        lock.lock();
+
+        try {
+
+            while (count == 0) {
+
+                if (null != writerFailure)
+                    throw new IOException(WRITER_FAILED_MESSAGE, writerFailure);
+
+                if (writerClosed)
+                    return -1;
+
+                await(notEmpty);
+            }
+
+            int toRead = Math.min(length, count);
+            int firstChunk = Math.min(toRead, buffer.length - readPosition);
+
+            System.arraycopy(buffer, readPosition, destination, offset, firstChunk);
+            System.arraycopy(buffer, 0, destination, offset + firstChunk, toRead - firstChunk);
+
+            readPosition = (readPosition + toRead) % buffer.length;
+            count -= toRead;
+
+            notFull.signalAll();
+
+            return toRead;
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(byte[] source, int offset, int length) throws IOException {
+
+        lock.lock();
+
+        try {
+
+            while (length > 0) {
+
+                while (count == buffer.length && !readerClosed)
+                    await(notFull);
+
+                if (readerClosed)
+                    throw new IOException(READER_CLOSED_MESSAGE);
+
+                int writePosition = (readPosition + count) % buffer.length;
+                int toWrite = Math.min(length, buffer.length - count);
+                int firstChunk = Math.min(toWrite, buffer.length - writePosition);
+
+                System.arraycopy(source, offset, buffer, writePosition, firstChunk);
+                System.arraycopy(source, offset + firstChunk, buffer, 0, toWrite - firstChunk);
+
+                count += toWrite;
+                offset += toWrite;
+                length -= toWrite;
+
+                notEmpty.signalAll();
+            }
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closeWriter() {
+
+        lock.lock();
+
+        try {
+            writerClosed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closeReader() {
+
+        lock.lock();
+
+        try {
+            readerClosed = true;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void await(Condition condition) throws IOException {
+
+        try {
+
+            condition.await();
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private class RingBufferInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+
+            byte[] single = new byte[1];
+
+            return RingBuffer.this.read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] destination, int offset, int length) throws IOException {
+
+            if (length == 0)
+                return 0;
+
+            return RingBuffer.this.read(destination, offset, length);
+        }
+
+        @Override
+        public void close() {
+            closeReader();
+        }
+    }
+
+    private class RingBufferOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            RingBuffer.this.write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] source, int offset, int length) throws IOException {
+            RingBuffer.this.write(source, offset, length);
+        }
+
+        @Override
+        public void close() {
+            closeWriter();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package jftp.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * A small pool of daemon threads shared by all background housekeeping in jftp, so that
+ * periodic work never costs a thread per connection and never keeps the JVM alive.
+ *
+ * The scheduler's threads time connections and keep them alive, so anything which may wait on
+ * the network, such as polling a remote directory, is only triggered by the scheduler and run
+ * on the worker pool, whose daemon threads come and go as needed.
+ */
+public class SharedScheduler {
+
+    private static final int THREADS = 2;
+    private static final String THREAD_NAME = "jftp-scheduler-%d";
+    private static final String WORKER_THREAD_NAME = "jftp-worker-%d";
+
+    private static final ScheduledExecutorService INSTANCE = Executors.newScheduledThreadPool(THREADS,
+            new DaemonThreadFactory(THREAD_NAME));
+
+    private static final Executor WORKERS = Executors.newCachedThreadPool(new DaemonThreadFactory(WORKER_THREAD_NAME));
+
+    public static ScheduledExecutorService getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The pool which scheduled work that may block runs on.
+     */
+    public static Executor getWorkers() {
+        return WORKERS;
+    }
+}
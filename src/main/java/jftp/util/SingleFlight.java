@@ -0,0 +1,163 @@
+package jftp.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import jftp.exception.FtpException;
+
+/**
+ * Lets concurrent callers asking for the same thing share one operation. The first caller for
+ * a key runs it; callers arriving while it runs wait for its result. Should it fail, each of
+ * them is thrown an {@link FtpException} of its own, with the same message and reply code and
+ * the failure as its cause, so no two threads throw the same instance. Errors are rethrown as
+ * they are. A caller arriving after it has finished runs it afresh.
+ *
+ * Waiting is not interruptible, as with any other blocking call on a connection; an
+ * interrupted waiter keeps its interrupt status.
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, Flight<V>> flights = new HashMap<K, Flight<V>>();
+
+    public V execute(K key, Operation<V> operation) {
+
+        Flight<V> flight;
+        boolean isFollower;
+
+        synchronized (flights) {
+
+            flight = flights.get(key);
+            isFollower = null != flight;
+
+            if (isFollower) {
+                flight.followers++;
+            } else {
+                flight = new Flight<V>();
+                flights.put(key, flight);
+            }
+        }
+
+        return isFollower ? flight.await() : lead(key, flight, operation);
+    }
+
+    /**
+     * @return
+     * How many callers have so far joined the operation running for the key, 0 if none is
+     * running. More may join until it finishes.
+     */
+    public int followers(K key) {
+
+        synchronized (flights) {
+
+            Flight<V> flight = flights.get(key);
+
+            return null == flight ? 0 : flight.followers;
+        }
+    }
+
+    /**
+     * Called by the caller that ran the operation once no more can join, before any of those
+     * waiting are given the result. Does nothing unless overridden.
+     * 
+     * @param followers
+     * How many callers will be given the result besides the one that ran the operation.
+     */
+    protected void shared(V result, int followers) {
+    }
+
+    private V lead(K key, Flight<V> flight, Operation<V> operation) {
+
+        V result;
+
+        try {
+
+            result = operation.run();
+
+        } catch (RuntimeException | Error e) {
+
+            close(key);
+            flight.fail(e);
+
+            throw e;
+        }
+
+        shared(result, close(key));
+        flight.succeed(result);
+
+        return result;
+    }
+
+    /**
+     * @return
+     * The number of followers, which is now final.
+     */
+    private int close(K key) {
+
+        synchronized (flights) {
+            return flights.remove(key).followers;
+        }
+    }
+
+    public interface Operation<V> {
+
+        V run();
+    }
+
+    private static class Flight<V> {
+
+        // Guarded by the map of flights rather than the flight.
+        private int followers;
+
+        private boolean done;
+        private V result;
+        private Throwable failure;
+
+        synchronized void succeed(V result) {
+
+            this.result = result;
+            done = true;
+            notifyAll();
+        }
+
+        synchronized void fail(Throwable failure) {
+
+            this.failure = failure;
+            done = true;
+            notifyAll();
+        }
+
+        synchronized V await() {
+
+            boolean interrupted = false;
+
+            while (!done) {
+
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted)
+                Thread.currentThread().interrupt();
+
+            if (failure instanceof RuntimeException)
+                throw new FtpException(failure.getMessage(), replyCode(failure),
+                        (RuntimeException) failure);
+
+            if (failure instanceof Error)
+                throw (Error) failure;
+
+            return result;
+        }
+
+        private static int replyCode(Throwable failure) {
+
+            if (failure instanceof FtpException)
+                return ((FtpException) failure).getReplyCode();
+
+            return FtpException.NO_REPLY_CODE;
+        }
+    }
+}
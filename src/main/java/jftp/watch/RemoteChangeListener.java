@@ -0,0 +1,26 @@
+package jftp.watch;
+
+import jftp.connection.FtpFile;
+import jftp.exception.FtpException;
+
+/**
+ * Receives the changes a {@link RemoteWatcher} finds, on the watcher's polling thread.
+ */
+public interface RemoteChangeListener {
+
+	void created(FtpFile file);
+
+	void modified(FtpFile file);
+
+	/**
+	 * @param file
+	 * The file as it was last seen.
+	 */
+	void deleted(FtpFile file);
+
+	/**
+	 * A poll failed. Watching carries on and the next successful poll reports whatever changed
+	 * in the meantime.
+	 */
+	void failed(FtpException exception);
+}
@@ -0,0 +1,297 @@
+package jftp.watch;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import jftp.connection.Connection;
+import jftp.connection.FtpFile;
+import jftp.connection.RangedDownload;
+import jftp.exception.FtpException;
+import jftp.util.SharedScheduler;
+
+/**
+ * Follows a remote file as it grows, as tail -f does, handing what is added to a listener.
+ * Each poll looks up the file's size and, if it has grown past the offset read up to, fetches
+ * only the new bytes with a ranged download: REST and RETR on FTP, a read from an offset on
+ * SFTP. The poll interval doubles each time nothing has been added, up to a maximum, and drops
+ * back to the minimum as soon as something is.
+ *
+ * A file shorter than the offset has been truncated or replaced. A replacement at least as
+ * long is caught by reading a few bytes before the offset along with the new ones and checking
+ * they are the same as were read last time. Either way the listener is told and the file read
+ * again from its beginning. A file missing altogether, as during a rotation, is waited for.
+ *
+ * Polls are triggered by the shared scheduler but run on its worker pool, or the executor given,
+ * so that a slow server never holds up the scheduler's timers. They use the connection given,
+ * which must implement {@link RangedDownload} and should not be used for anything else
+ * meanwhile.
+ */
+public class RemoteFileFollower {
+
+    private static final long DEFAULT_MINIMUM_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    private static final long DEFAULT_MAXIMUM_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final int DEFAULT_MAXIMUM_READ_BYTES = 1024 * 1024;
+    private static final int DEFAULT_VERIFICATION_BYTES = 64;
+    private static final long NOT_STARTED = -1;
+
+    private final Connection connection;
+    private final String remoteFilePath;
+    private final TailListener listener;
+    private final ScheduledExecutorService scheduler;
+    private final Executor pollExecutor;
+
+    private long minimumIntervalMillis = DEFAULT_MINIMUM_INTERVAL_MILLIS;
+    private long maximumIntervalMillis = DEFAULT_MAXIMUM_INTERVAL_MILLIS;
+    private int maximumReadBytes = DEFAULT_MAXIMUM_READ_BYTES;
+    private int verificationBytes = DEFAULT_VERIFICATION_BYTES;
+
+    private long offset = NOT_STARTED;
+    private byte[] lastRead = new byte[0];
+    private boolean behind;
+    private long intervalMillis;
+
+    private ScheduledFuture<?> nextPoll;
+
+    public RemoteFileFollower(Connection connection, String remoteFilePath, TailListener listener) {
+        this(connection, remoteFilePath, listener, SharedScheduler.getWorkers());
+    }
+
+    /**
+     * @param pollExecutor
+     * Runs the polls, which the shared scheduler only triggers.
+     */
+    public RemoteFileFollower(Connection connection, String remoteFilePath, TailListener listener,
+            Executor pollExecutor) {
+        this(connection, remoteFilePath, listener, SharedScheduler.getInstance(), pollExecutor);
+    }
+
+    RemoteFileFollower(Connection connection, String remoteFilePath, TailListener listener,
+            ScheduledExecutorService scheduler, Executor pollExecutor) {
+
+        if (!(connection instanceof RangedDownload))
+            throw new FtpException("Following a file needs a connection able to download part of it.");
+
+        this.connection = connection;
+        this.remoteFilePath = remoteFilePath;
+        this.listener = listener;
+        this.scheduler = scheduler;
+        this.pollExecutor = pollExecutor;
+    }
+
+    /**
+     * The interval between polls is kept between these bounds, starting from the minimum.
+     * Defaults to 1 second and 30 seconds.
+     */
+    public void setPollInterval(long minimumIntervalMillis, long maximumIntervalMillis) {
+        this.minimumIntervalMillis = minimumIntervalMillis;
+        this.maximumIntervalMillis = maximumIntervalMillis;
+    }
+
+    /**
+     * Most bytes read in one poll. A file further ahead than this is caught up on by polling
+     * again straight away. Defaults to 1MB.
+     */
+    public void setMaximumReadBytes(int maximumReadBytes) {
+        this.maximumReadBytes = maximumReadBytes;
+    }
+
+    /**
+     * How many of the bytes last read are read again and compared to tell a replaced file from
+     * a grown one. Defaults to 64; 0 relies on the file's size alone.
+     */
+    public void setVerificationBytes(int verificationBytes) {
+        this.verificationBytes = verificationBytes;
+    }
+
+    /**
+     * Where in the file to start reading, such as an offset given to the listener by an earlier
+     * follower. Defaults to the file's size when first polled, so only what is added afterwards
+     * is read.
+     */
+    public synchronized void setStartOffset(long offset) {
+        this.offset = offset;
+        this.lastRead = new byte[0];
+    }
+
+    /**
+     * @return
+     * The offset read up to, or -1 before the first poll.
+     */
+    public synchronized long getOffset() {
+        return offset;
+    }
+
+    public synchronized void start() {
+
+        if (null != nextPoll)
+            return;
+
+        intervalMillis = minimumIntervalMillis;
+        schedule(0);
+    }
+
+    public synchronized void stop() {
+
+        if (null != nextPoll) {
+            nextPoll.cancel(false);
+            nextPoll = null;
+        }
+    }
+
+    /**
+     * Reads whatever has been added since the last poll, up to the maximum. The offset only
+     * moves on once the listener has taken the content, so content the listener throws on is
+     * read again next time.
+     *
+     * @return
+     * true if anything was read or the file was found truncated.
+     */
+    synchronized boolean poll() throws FtpException {
+
+        FtpFile file = connection.stat(remoteFilePath);
+        behind = false;
+
+        if (null == file || file.isDirectory())
+            return false;
+
+        long size = file.getSize();
+
+        if (offset == NOT_STARTED)
+            offset = size;
+
+        if (size == offset)
+            return false;
+
+        byte[] content = size > offset ? readAfterLastRead(size) : null;
+
+        if (null == content) {
+
+            offset = 0;
+            lastRead = new byte[0];
+            listener.truncated(file);
+
+            content = read(0, Math.min(size, maximumReadBytes));
+        }
+
+        if (content.length > 0) {
+
+            listener.appended(content, offset);
+
+            offset += content.length;
+            remember(content);
+        }
+
+        behind = offset < size;
+
+        return true;
+    }
+
+    /**
+     * @return
+     * The bytes after the offset, or null if those before it are not the ones last read.
+     */
+    private byte[] readAfterLastRead(long size) throws FtpException {
+
+        long from = offset - lastRead.length;
+        byte[] bytes = read(from, Math.min(size - from, (long) lastRead.length + maximumReadBytes));
+
+        if (bytes.length < lastRead.length || !Arrays.equals(lastRead, Arrays.copyOf(bytes, lastRead.length)))
+            return null;
+
+        return Arrays.copyOfRange(bytes, lastRead.length, bytes.length);
+    }
+
+    private byte[] read(long from, long length) throws FtpException {
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream((int) length);
+        ((RangedDownload) connection).downloadRange(remoteFilePath, from, length, outputStream);
+
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Keeps the last of the bytes read, drawing on those kept before if the content is short.
+     * Straight after starting nothing before the offset has been read, so the first content
+     * is taken on trust.
+     */
+    private void remember(byte[] content) {
+
+        int fromContent = Math.min(verificationBytes, content.length);
+        int fromBefore = Math.min(verificationBytes - fromContent, lastRead.length);
+
+        byte[] remembered = new byte[fromBefore + fromContent];
+
+        System.arraycopy(lastRead, lastRead.length - fromBefore, remembered, 0, fromBefore);
+        System.arraycopy(content, content.length - fromContent, remembered, fromBefore, fromContent);
+
+        lastRead = remembered;
+    }
+
+    private synchronized void schedule(long delayMillis) {
+
+        nextPoll = scheduler.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                triggerPoll();
+            }
+
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Hands the poll over to the poll executor, keeping the scheduler's threads free for the
+     * timers and keepalives which share them.
+     */
+    private void triggerPoll() {
+
+        try {
+
+            pollExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    pollAndReschedule();
+                }
+            });
+
+        } catch (RejectedExecutionException e) {
+
+            listener.failed(new FtpException("Unable to follow " + remoteFilePath + ", the poll executor refused it", e));
+        }
+    }
+
+    private synchronized void pollAndReschedule() {
+
+        if (null == nextPoll)
+            return;
+
+        try {
+
+            if (poll())
+                intervalMillis = minimumIntervalMillis;
+            else
+                intervalMillis = Math.min(maximumIntervalMillis, intervalMillis * 2);
+
+        } catch (FtpException e) {
+
+            listener.failed(e);
+
+        } catch (RuntimeException e) {
+
+            listener.failed(new FtpException("Unable to follow " + remoteFilePath, e));
+
+        } finally {
+
+            // Whatever went wrong, including in the listener, the next poll still happens
+            // unless the listener stopped the follower.
+            if (null != nextPoll)
+                schedule(behind ? 0 : intervalMillis);
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package jftp.watch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import jftp.connection.CompactFileListing;
+import jftp.connection.Connection;
+import jftp.connection.FtpFile;
+import jftp.exception.FtpException;
+import jftp.util.SharedScheduler;
+
+/**
+ * Polls a remote directory, or a whole tree, and reports files created, modified and deleted
+ * since the previous poll. Each listing is compared with the last by name hash and a
+ * fingerprint of size and modification time, so unchanged entries cost a table lookup.
+ *
+ * Created and modified files are only reported once they have looked the same for a number of
+ * consecutive polls, so that a file still being written is not picked up half finished. The
+ * poll interval doubles each time nothing has changed, up to a maximum, and drops back to the
+ * minimum as soon as something does.
+ *
+ * Directories are reported when created or deleted but not when modified, as that only
+ * reflects changes to their contents, which are reported in their own right. The contents a
+ * tree has on the first poll are taken as the starting point and not reported.
+ *
+ * Polls are triggered by the shared scheduler but run on its worker pool, or the executor given,
+ * so that a slow server never holds up the scheduler's timers. They use the connection given,
+ * which should not be used for anything else meanwhile.
+ */
+public class RemoteWatcher {
+
+    private static final long DEFAULT_MINIMUM_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    private static final long DEFAULT_MAXIMUM_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final int DEFAULT_STABILITY_POLLS = 1;
+
+    private static final long CURRENT_DIRECTORY_HASH = Snapshot.hash(".");
+    private static final long PARENT_DIRECTORY_HASH = Snapshot.hash("..");
+
+    private final Connection connection;
+    private final String directory;
+    private final RemoteChangeListener listener;
+    private final ScheduledExecutorService scheduler;
+    private final Executor pollExecutor;
+
+    private boolean recursive;
+    private long minimumIntervalMillis = DEFAULT_MINIMUM_INTERVAL_MILLIS;
+    private long maximumIntervalMillis = DEFAULT_MAXIMUM_INTERVAL_MILLIS;
+    private int stabilityPolls = DEFAULT_STABILITY_POLLS;
+
+    private final Map<String, DirectoryState> directories = new HashMap<String, DirectoryState>();
+    private boolean hasBaseline;
+    private long intervalMillis;
+
+    private ScheduledFuture<?> nextPoll;
+
+    public RemoteWatcher(Connection connection, String directory, RemoteChangeListener listener) {
+        this(connection, directory, listener, SharedScheduler.getWorkers());
+    }
+
+    /**
+     * @param pollExecutor
+     * Runs the polls, which the shared scheduler only triggers.
+     */
+    public RemoteWatcher(Connection connection, String directory, RemoteChangeListener listener,
+            Executor pollExecutor) {
+        this(connection, directory, listener, SharedScheduler.getInstance(), pollExecutor);
+    }
+
+    RemoteWatcher(Connection connection, String directory, RemoteChangeListener listener,
+            ScheduledExecutorService scheduler, Executor pollExecutor) {
+
+        this.connection = connection;
+        this.directory = directory;
+        this.listener = listener;
+        this.scheduler = scheduler;
+        this.pollExecutor = pollExecutor;
+    }
+
+    /**
+     * Watches subdirectories as well, listing each one per poll. Defaults to false.
+     */
+    public void setRecursive(boolean recursive) {
+        this.recursive = recursive;
+    }
+
+    /**
+     * The interval between polls is kept between these bounds, starting from the minimum.
+     * Defaults to 5 seconds and 1 minute.
+     */
+    public void setPollInterval(long minimumIntervalMillis, long maximumIntervalMillis) {
+        this.minimumIntervalMillis = minimumIntervalMillis;
+        this.maximumIntervalMillis = maximumIntervalMillis;
+    }
+
+    /**
+     * Number of further polls a created or modified file must look the same for before it is
+     * reported. 0 reports changes as soon as they are seen. Defaults to 1.
+     */
+    public void setStabilityPolls(int stabilityPolls) {
+        this.stabilityPolls = stabilityPolls;
+    }
+
+    public synchronized void start() {
+
+        if (null != nextPoll)
+            return;
+
+        intervalMillis = minimumIntervalMillis;
+        schedule(0);
+    }
+
+    public synchronized void stop() {
+
+        if (null != nextPoll) {
+            nextPoll.cancel(false);
+            nextPoll = null;
+        }
+    }
+
+    /**
+     * Takes one snapshot and reports the changes since the last.
+     *
+     * @return
+     * true if anything changed or is still waiting to settle.
+     */
+    synchronized boolean poll() throws FtpException {
+
+        Set<String> visited = new HashSet<String>();
+        boolean changed = scan(directory, visited);
+
+        Iterator<Map.Entry<String, DirectoryState>> states = directories.entrySet().iterator();
+
+        while (states.hasNext()) {
+
+            Map.Entry<String, DirectoryState> state = states.next();
+
+            if (!visited.contains(state.getKey())) {
+
+                state.getValue().vanish();
+                states.remove();
+                changed = true;
+            }
+        }
+
+        hasBaseline = true;
+
+        return changed;
+    }
+
+    private boolean scan(String path, Set<String> visited) {
+
+        visited.add(path);
+
+        Snapshot snapshot = new Snapshot(withoutDotEntries(connection.listFiles(path)));
+        DirectoryState state = directories.get(path);
+
+        boolean changed = false;
+
+        if (null == state) {
+
+            state = new DirectoryState(snapshot);
+            directories.put(path, state);
+
+            // A directory appearing after the first poll has all its contents reported.
+            if (hasBaseline)
+                changed = state.reportAllAsCreated();
+
+        } else {
+
+            changed = state.update(snapshot);
+        }
+
+        if (recursive) {
+
+            for (int i = 0; i < snapshot.size(); i++) {
+
+                if (!snapshot.isDirectory(i))
+                    continue;
+
+                String child = snapshot.file(i).getFullPath();
+
+                // A directory reached twice, through a link back up the tree, is scanned once.
+                if (!visited.contains(child))
+                    changed |= scan(child, visited);
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Drops the "." and ".." entries SFTP servers list, which are neither changes worth
+     * reporting nor directories to descend into.
+     */
+    private List<FtpFile> withoutDotEntries(List<FtpFile> files) {
+
+        for (int i = 0; i < files.size(); i++) {
+
+            if (isDotEntry(files, i)) {
+
+                List<FtpFile> filtered = new ArrayList<FtpFile>(files.size());
+
+                for (FtpFile file : files)
+                    if (!file.isDotEntry())
+                        filtered.add(file);
+
+                return filtered;
+            }
+        }
+
+        return files;
+    }
+
+    /**
+     * Compact listings are checked by name hash first, so that no entry is built for names
+     * which cannot match.
+     */
+    private boolean isDotEntry(List<FtpFile> files, int index) {
+
+        if (files instanceof CompactFileListing) {
+
+            long nameHash = ((CompactFileListing) files).getNameHash(index);
+
+            if (nameHash != CURRENT_DIRECTORY_HASH && nameHash != PARENT_DIRECTORY_HASH)
+                return false;
+        }
+
+        return files.get(index).isDotEntry();
+    }
+
+    private synchronized void schedule(long delayMillis) {
+
+        nextPoll = scheduler.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                triggerPoll();
+            }
+
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Hands the poll over to the poll executor, keeping the scheduler's threads free for the
+     * timers and keepalives which share them.
+     */
+    private void triggerPoll() {
+
+        try {
+
+            pollExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    pollAndReschedule();
+                }
+            });
+
+        } catch (RejectedExecutionException e) {
+
+            listener.failed(new FtpException("Unable to poll " + directory + ", the poll executor refused it", e));
+        }
+    }
+
+    private synchronized void pollAndReschedule() {
+
+        if (null == nextPoll)
+            return;
+
+        try {
+
+            if (poll())
+                intervalMillis = minimumIntervalMillis;
+            else
+                intervalMillis = Math.min(maximumIntervalMillis, intervalMillis * 2);
+
+        } catch (FtpException e) {
+
+            listener.failed(e);
+
+        } catch (RuntimeException e) {
+
+            listener.failed(new FtpException("Unable to poll " + directory, e));
+
+        } finally {
+
+            // Whatever went wrong, including in the listener, the next poll still happens
+            // unless the listener stopped the watcher.
+            if (null != nextPoll)
+                schedule(intervalMillis);
+        }
+    }
+
+    private void reportSettled(Snapshot snapshot, int index, boolean created) {
+
+        if (created)
+            listener.created(snapshot.file(index));
+        else if (!snapshot.isDirectory(index))
+            listener.modified(snapshot.file(index));
+    }
+
+    /**
+     * The last listing of one directory and the changes in it still waiting to settle, keyed
+     * by name hash.
+     */
+    private class DirectoryState {
+
+        private Snapshot snapshot;
+        private final Map<Long, PendingChange> pending = new HashMap<Long, PendingChange>();
+
+        DirectoryState(Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        boolean reportAllAsCreated() {
+
+            for (int i = 0; i < snapshot.size(); i++)
+                changed(snapshot, i, true);
+
+            return snapshot.size() > 0;
+        }
+
+        boolean update(Snapshot current) {
+
+            boolean changed = false;
+            boolean[] matched = new boolean[snapshot.size()];
+
+            for (int i = 0; i < current.size(); i++) {
+
+                long nameHash = current.nameHash(i);
+                int previous = snapshot.indexOf(nameHash);
+
+                if (previous == -1) {
+
+                    changed(current, i, true);
+                    changed = true;
+
+                    continue;
+                }
+
+                matched[previous] = true;
+
+                if (snapshot.fingerprint(previous) != current.fingerprint(i)) {
+
+                    PendingChange change = pending.get(nameHash);
+                    changed(current, i, null != change && change.created);
+                    changed = true;
+
+                } else if (pending.containsKey(nameHash)) {
+
+                    settle(current, i);
+                    changed = true;
+                }
+            }
+
+            for (int i = 0; i < matched.length; i++) {
+
+                if (!matched[i]) {
+
+                    PendingChange change = pending.remove(snapshot.nameHash(i));
+
+                    // A file which came and went before it settled was never reported.
+                    if (null == change || !change.created)
+                        listener.deleted(snapshot.file(i));
+
+                    changed = true;
+                }
+            }
+
+            snapshot = current;
+
+            return changed;
+        }
+
+        /**
+         * Reports the deletion of everything in a directory which has itself disappeared.
+         */
+        void vanish() {
+
+            for (int i = 0; i < snapshot.size(); i++) {
+
+                PendingChange change = pending.get(snapshot.nameHash(i));
+
+                if (null == change || !change.created)
+                    listener.deleted(snapshot.file(i));
+            }
+        }
+
+        private void changed(Snapshot current, int index, boolean created) {
+
+            if (stabilityPolls == 0) {
+                reportSettled(current, index, created);
+                return;
+            }
+
+            pending.put(current.nameHash(index), new PendingChange(created));
+        }
+
+        private void settle(Snapshot current, int index) {
+
+            long nameHash = current.nameHash(index);
+            PendingChange change = pending.get(nameHash);
+
+            if (++change.stablePolls < stabilityPolls)
+                return;
+
+            pending.remove(nameHash);
+            reportSettled(current, index, change.created);
+        }
+    }
+
+    private static class PendingChange {
+
+        private final boolean created;
+        private int stablePolls;
+
+        PendingChange(boolean created) {
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package jftp.watch;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+import jftp.connection.CompactFileListing;
+import jftp.connection.FtpFile;
+
+/**
+ * One listing of a directory reduced to a 64-bit hash of each name and a fingerprint of each
+ * size and modification time, indexed by name hash in an open addressing table so entries can
+ * be matched against the next listing without building strings or map entries.
+ */
+class Snapshot {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long GOLDEN_RATIO = 0x9e3779b97f4a7c15L;
+
+    private final List<FtpFile> files;
+
+    private final long[] nameHashes;
+    private final long[] fingerprints;
+
+    private final long[] tableHashes;
+    private final int[] tableIndexes;
+    private final int mask;
+
+    Snapshot(List<FtpFile> files) {
+
+        this.files = files;
+
+        int size = files.size();
+
+        nameHashes = new long[size];
+        fingerprints = new long[size];
+
+        CompactFileListing compact = files instanceof CompactFileListing ? (CompactFileListing) files : null;
+
+        for (int i = 0; i < size; i++) {
+
+            if (null != compact) {
+
+                nameHashes[i] = compact.getNameHash(i);
+                fingerprints[i] = fingerprint(compact.getSize(i), compact.getLastModifiedMillis(i));
+
+            } else {
+
+                FtpFile file = files.get(i);
+                nameHashes[i] = hash(file.getName());
+                fingerprints[i] = fingerprint(file.getSize(), file.getLastModifiedMillis());
+            }
+        }
+
+        int capacity = Integer.highestOneBit(Math.max(2, size * 2 - 1)) << 1;
+
+        tableHashes = new long[capacity];
+        tableIndexes = new int[capacity];
+        mask = capacity - 1;
+
+        for (int i = 0; i < size; i++)
+            insert(i);
+    }
+
+    int size() {
+        return nameHashes.length;
+    }
+
+    FtpFile file(int index) {
+        return files.get(index);
+    }
+
+    boolean isDirectory(int index) {
+
+        if (files instanceof CompactFileListing)
+            return ((CompactFileListing) files).isDirectory(index);
+
+        return files.get(index).isDirectory();
+    }
+
+    long nameHash(int index) {
+        return nameHashes[index];
+    }
+
+    long fingerprint(int index) {
+        return fingerprints[index];
+    }
+
+    /**
+     * @return
+     * Index of the entry with the given name hash, or -1 if there is none.
+     */
+    int indexOf(long nameHash) {
+
+        for (int slot = slot(nameHash); tableIndexes[slot] != 0; slot = (slot + 1) & mask)
+            if (tableHashes[slot] == nameHash)
+                return tableIndexes[slot] - 1;
+
+        return -1;
+    }
+
+    private void insert(int index) {
+
+        int slot = slot(nameHashes[index]);
+
+        while (tableIndexes[slot] != 0)
+            slot = (slot + 1) & mask;
+
+        tableHashes[slot] = nameHashes[index];
+        tableIndexes[slot] = index + 1;
+    }
+
+    private int slot(long nameHash) {
+        return (int) ((nameHash * GOLDEN_RATIO) >>> 32) & mask;
+    }
+
+    private static long fingerprint(long size, long lastModifiedMillis) {
+        return size * GOLDEN_RATIO ^ lastModifiedMillis;
+    }
+
+    /**
+     * The same FNV-1a hash CompactFileListing gives, for listings of any other kind.
+     */
+    static long hash(String name) {
+
+        long hash = FNV_OFFSET_BASIS;
+
+        for (byte b : name.getBytes(UTF_8))
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+
+        return hash;
+    }
+}
@@ -0,0 +1,33 @@
+package jftp.watch;
+
+import jftp.connection.FtpFile;
+import jftp.exception.FtpException;
+
+/**
+ * Receives what a {@link RemoteFileFollower} reads, on the follower's polling thread.
+ */
+public interface TailListener {
+
+	/**
+	 * @param content
+	 * Bytes added to the file since the last call, in order.
+	 * @param offset
+	 * Where in the file the content starts, from which following can later be resumed.
+	 */
+	void appended(byte[] content, long offset);
+
+	/**
+	 * The file was found shorter than what had already been read, or its content no longer
+	 * matched it, as when a log is rotated. Reading starts over from its beginning.
+	 *
+	 * @param file
+	 * The file as it is now.
+	 */
+	void truncated(FtpFile file);
+
+	/**
+	 * A poll failed. Following carries on and the next successful poll picks up from the same
+	 * offset.
+	 */
+	void failed(FtpException exception);
+}
@@ -0,0 +1,270 @@
+package jftp.batch;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jftp.client.Client;
+import jftp.connection.Connection;
+import jftp.exception.FtpException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class AdaptiveTransferBatchTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final AdaptiveTransferBatch batch = new AdaptiveTransferBatch();
+
+    private final List<String> downloaded = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> resumed = Collections.synchronizedList(new ArrayList<String>());
+    private final Set<String> refuseOnce = ConcurrentHashMap.newKeySet();
+    private final Set<String> alwaysFail = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicInteger mostOpen = new AtomicInteger();
+    private final AtomicInteger connects = new AtomicInteger();
+    private final AtomicInteger limitOnceRefused = new AtomicInteger();
+
+    private volatile int acceptedConnections = Integer.MAX_VALUE;
+
+    private String localDirectory;
+
+    @Before
+    public void setUp() {
+        localDirectory = temporaryFolder.getRoot().getAbsolutePath();
+    }
+
+    @Test
+    public void everyFileShouldBeDownloadedOnce() {
+
+        List<String> paths = paths(20);
+
+        batch.downloadAll(new MockClients(), paths, localDirectory);
+
+        assertThat(sorted(downloaded), is(equalTo(sorted(paths))));
+        assertThat(open.get(), is(equalTo(0)));
+    }
+
+    @Test
+    public void refusedConnectionsShouldLowerTheLimitAndTheBatchCarryOn() {
+
+        batch.setInitialConcurrency(8);
+        acceptedConnections = 2;
+
+        List<String> paths = paths(20);
+
+        batch.downloadAll(new MockClients(), paths, localDirectory);
+
+        assertThat(sorted(downloaded), is(equalTo(sorted(paths))));
+        assertThat(mostOpen.get() <= 2, is(true));
+        assertThat(limitOnceRefused.get() <= 4, is(true));
+    }
+
+    @Test
+    public void filesRefusedDuringTransferShouldBeTriedAgain() {
+
+        refuseOnce.add("/remote/file3");
+        refuseOnce.add("/remote/file7");
+
+        List<String> paths = paths(10);
+
+        batch.downloadAll(new MockClients(), paths, localDirectory);
+
+        assertThat(sorted(downloaded), is(equalTo(sorted(paths))));
+    }
+
+    @Test
+    public void failuresShouldBeReportedTogetherAfterEveryFileIsAttempted() {
+
+        alwaysFail.add("/remote/file1");
+        alwaysFail.add("/remote/file4");
+
+        try {
+            batch.downloadAll(new MockClients(), paths(5), localDirectory);
+            fail();
+        } catch (FtpException e) {
+            assertThat(e.getMessage(), is(equalTo("Unable to download 2 of 5 files, the first being /remote/file1")));
+        }
+
+        assertThat(downloaded.size(), is(equalTo(3)));
+    }
+
+    @Test
+    public void aHostRefusingEveryConnectionShouldFailTheBatch() {
+
+        acceptedConnections = 0;
+
+        try {
+            batch.downloadAll(new MockClients(), paths(5), localDirectory);
+            fail();
+        } catch (FtpException e) {
+            assertThat(e.getReplyCode(), is(equalTo(421)));
+        }
+    }
+
+    @Test
+    public void theLimitLearnedShouldCarryOverToTheNextBatch() {
+
+        ConcurrencyLimit limit = batch.getLimit("host:21");
+
+        batch.downloadAll(new MockClients(), paths(4), localDirectory);
+
+        assertThat(batch.getLimit("host:21"), is(sameInstance(limit)));
+    }
+
+    @Test
+    public void aJournalShouldSkipCompletedFilesAndResumeThoseInProgress() {
+
+        TransferJournal journal = TransferJournal.open(temporaryFolder.getRoot().toPath().resolve("job.journal"));
+
+        try {
+
+            journal.completed("/remote/file0", 10);
+            journal.progress("/remote/file1", 5);
+
+            batch.setJournal(journal);
+            batch.downloadAll(new MockClients(), paths(4), localDirectory);
+
+            assertThat(sorted(downloaded), is(equalTo(Arrays.asList("/remote/file2", "/remote/file3"))));
+            assertThat(resumed, is(equalTo(Arrays.asList("/remote/file1"))));
+            assertThat(journal.getUnfinished().isEmpty(), is(true));
+
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Holds the accepted connections until the batch has backed off from a refusal, as
+     * otherwise instant transfers may free them before any other is asked for. Nothing has
+     * completed by then, so only refusals can have moved the limit.
+     */
+    private void awaitRefusal() throws InterruptedException {
+
+        ConcurrencyLimit limit = batch.getLimit("host:21");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        while (limit.getLimit() == 8 && System.nanoTime() < deadline)
+            Thread.sleep(1);
+
+        limitOnceRefused.compareAndSet(0, limit.getLimit());
+    }
+
+    private List<String> paths(int count) {
+
+        List<String> paths = new ArrayList<String>();
+
+        for (int i = 0; i < count; i++)
+            paths.add("/remote/file" + i);
+
+        return paths;
+    }
+
+    private List<String> sorted(List<String> paths) {
+
+        List<String> sorted = new ArrayList<String>(paths);
+        Collections.sort(sorted);
+
+        return sorted;
+    }
+
+    private class MockClients implements AdaptiveTransferBatch.ClientSupplier {
+
+        @Override
+        public Client newClient() {
+
+            Client client = mock(Client.class);
+
+            when(client.getHost()).thenReturn("host");
+            when(client.getPort()).thenReturn(21);
+
+            final Connection connection = mock(Connection.class);
+
+            doAnswer(new Answer<Connection>() {
+
+                @Override
+                public Connection answer(InvocationOnMock invocation) {
+
+                    connects.incrementAndGet();
+
+                    synchronized (open) {
+
+                        if (open.get() >= acceptedConnections)
+                            throw new FtpException("Too many connections", 421);
+
+                        mostOpen.set(Math.max(mostOpen.get(), open.incrementAndGet()));
+                    }
+
+                    return connection;
+                }
+
+            }).when(client).connect();
+
+            doAnswer(new Answer<Void>() {
+
+                @Override
+                public Void answer(InvocationOnMock invocation) {
+                    open.decrementAndGet();
+                    return null;
+                }
+
+            }).when(client).disconnect();
+
+            doAnswer(new Answer<Void>() {
+
+                @Override
+                public Void answer(InvocationOnMock invocation) throws InterruptedException {
+
+                    String path = (String) invocation.getArguments()[0];
+
+                    if (acceptedConnections != Integer.MAX_VALUE)
+                        awaitRefusal();
+
+                    if (refuseOnce.remove(path))
+                        throw new FtpException("Service not available", 421);
+
+                    if (alwaysFail.contains(path))
+                        throw new FtpException("No such file", 550);
+
+                    downloaded.add(path);
+
+                    return null;
+                }
+
+            }).when(connection).download(anyString(), anyString());
+
+            doAnswer(new Answer<Void>() {
+
+                @Override
+                public Void answer(InvocationOnMock invocation) {
+                    resumed.add((String) invocation.getArguments()[0]);
+                    return null;
+                }
+
+            }).when(connection).resumeDownload(anyString(), anyString());
+
+            return client;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package jftp.batch;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ConcurrencyLimitTest {
+
+    private ConcurrencyLimit limit = new ConcurrencyLimit(2, 1, 16);
+
+    private long nowNanos;
+
+    @Test
+    public void theFirstMeasurementShouldBeFollowedByAProbeUpwards() {
+
+        start();
+        window(1000);
+
+        assertThat(limit.getLimit(), is(equalTo(3)));
+        assertThat(limit.getThroughput(), is(equalTo(1000.0)));
+    }
+
+    @Test
+    public void theLimitShouldKeepGrowingWhileThroughputImproves() {
+
+        start();
+        window(1000);
+        window(2000);
+        window(3000);
+
+        assertThat(limit.getLimit(), is(equalTo(5)));
+    }
+
+    @Test
+    public void aProbeWithoutGainShouldBeUndoneAndHeldUntilTheNextProbe() {
+
+        start();
+        window(1000);
+        window(1050);
+
+        assertThat(limit.getLimit(), is(equalTo(2)));
+
+        for (int i = 0; i < 7; i++)
+            window(1000);
+
+        assertThat(limit.getLimit(), is(equalTo(2)));
+
+        window(1000);
+
+        assertThat(limit.getLimit(), is(equalTo(3)));
+    }
+
+    @Test
+    public void collapsingThroughputShouldCutTheLimitByAQuarter() {
+
+        limit = new ConcurrencyLimit(8, 1, 8);
+
+        start();
+        window(1000);
+        window(800);
+
+        assertThat(limit.getLimit(), is(equalTo(6)));
+        assertThat(limit.getThroughput(), is(equalTo(-1.0)));
+    }
+
+    @Test
+    public void refusalsShouldHalveTheLimitDownToTheMinimum() {
+
+        limit = new ConcurrencyLimit(8, 1, 16);
+
+        limit.onRefused();
+        assertThat(limit.getLimit(), is(equalTo(4)));
+
+        limit.onRefused();
+        limit.onRefused();
+        limit.onRefused();
+        assertThat(limit.getLimit(), is(equalTo(1)));
+    }
+
+    @Test
+    public void refusalsOfConnectionsAlreadyOverTheLoweredLimitShouldNotLowerItAgain() {
+
+        limit = new ConcurrencyLimit(8, 1, 16);
+
+        // Six of eight connections opened at once are refused one after another.
+        for (int i = 0; i < 6; i++)
+            limit.onRefused(0, 10 + i);
+
+        assertThat(limit.getLimit(), is(equalTo(4)));
+
+        // A connection opened after that is refused again.
+        limit.onRefused(20, 30);
+        assertThat(limit.getLimit(), is(equalTo(2)));
+    }
+
+    @Test
+    public void theLimitShouldNotExceedTheMaximum() {
+
+        limit = new ConcurrencyLimit(2, 1, 3);
+
+        start();
+
+        for (int i = 1; i <= 5; i++)
+            window(1000 * i);
+
+        assertThat(limit.getLimit(), is(equalTo(3)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void anInitialLimitOutsideTheRangeShouldBeRejected() {
+        new ConcurrencyLimit(5, 1, 4);
+    }
+
+    private void start() {
+        limit.onSuccess(0, nowNanos);
+    }
+
+    /**
+     * Completes one transfer per allowed connection, spread over a second, at the given total
+     * throughput.
+     */
+    private void window(long bytesPerSecond) {
+
+        int completions = limit.getLimit();
+
+        for (int i = 0; i < completions; i++) {
+            nowNanos += TimeUnit.SECONDS.toNanos(1) / completions;
+            limit.onSuccess(bytesPerSecond / completions, nowNanos);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package jftp.batch;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jftp.batch.TransferJournal.State;
+import jftp.exception.FtpException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TransferJournalTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path file;
+    private TransferJournal journal;
+
+    @Before
+    public void setUp() {
+
+        file = temporaryFolder.getRoot().toPath().resolve("job.journal");
+        journal = TransferJournal.open(file);
+    }
+
+    @After
+    public void tearDown() {
+        journal.close();
+    }
+
+    @Test
+    public void theStateOfEachTransferShouldSurviveReopening() {
+
+        journal.queued("/data/a");
+        journal.queued("/data/b");
+        journal.queued("/data/c");
+        journal.progress("/data/b", 4096);
+        journal.completed("/data/c", 100);
+
+        reopen();
+
+        assertThat(journal.getState("/data/a"), is(equalTo(State.QUEUED)));
+        assertThat(journal.getState("/data/b"), is(equalTo(State.IN_PROGRESS)));
+        assertThat(journal.getOffset("/data/b"), is(equalTo(4096L)));
+        assertThat(journal.getState("/data/c"), is(equalTo(State.COMPLETED)));
+        assertThat(journal.getState("/data/d"), is(nullValue()));
+        assertThat(journal.getUnfinished(), is(equalTo(Arrays.asList("/data/a", "/data/b"))));
+    }
+
+    @Test
+    public void aRecordCutShortByACrashShouldBeIgnored() throws Exception {
+
+        journal.queued("/data/a");
+        journal.completed("/data/b", 10);
+        journal.close();
+
+        byte[] content = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(content, content.length - 3));
+
+        journal = TransferJournal.open(file);
+
+        assertThat(journal.getState("/data/a"), is(equalTo(State.QUEUED)));
+        assertThat(journal.getState("/data/b"), is(equalTo(State.QUEUED)));
+
+        journal.completed("/data/b", 10);
+        reopen();
+
+        assertThat(journal.getState("/data/b"), is(equalTo(State.COMPLETED)));
+    }
+
+    @Test
+    public void aCorruptedRecordShouldEndTheJournal() throws Exception {
+
+        journal.queued("/data/a");
+        journal.completed("/data/a", 10);
+        journal.close();
+
+        byte[] content = Files.readAllBytes(file);
+        content[content.length - 6] ^= 1;
+        Files.write(file, content);
+
+        journal = TransferJournal.open(file);
+
+        assertThat(journal.getState("/data/a"), is(equalTo(State.QUEUED)));
+    }
+
+    @Test
+    public void reopeningShouldKeepOnlyTheLatestStateOfEachTransfer() throws Exception {
+
+        journal.queued("/data/a");
+
+        for (int i = 1; i <= 1000; i++)
+            journal.progress("/data/a", i);
+
+        journal.sync();
+
+        long sizeBefore = Files.size(file);
+
+        reopen();
+
+        assertThat(Files.size(file) < sizeBefore / 100, is(true));
+        assertThat(journal.getOffset("/data/a"), is(equalTo(1000L)));
+    }
+
+    @Test
+    public void synchronisedRecordsShouldBeOnDiskWithoutClosing() {
+
+        journal.queued("/data/a");
+        journal.completed("/data/a", 1);
+        journal.sync();
+
+        TransferJournal copy = TransferJournal.open(copyOfFile());
+
+        try {
+            assertThat(copy.getState("/data/a"), is(equalTo(State.COMPLETED)));
+        } finally {
+            copy.close();
+        }
+    }
+
+    @Test
+    public void manyThreadsShouldBeAbleToRecordAtOnce() throws Exception {
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Void>> writers = new ArrayList<Future<Void>>();
+
+        try {
+
+            for (int t = 0; t < 4; t++) {
+
+                final int thread = t;
+
+                writers.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() {
+
+                        for (int i = 0; i < 5000; i++) {
+
+                            String path = "/data/" + thread + "/" + i;
+
+                            journal.queued(path);
+                            journal.progress(path, 0);
+                            journal.completed(path, i);
+
+                            if (i % 1000 == 0)
+                                journal.sync();
+                        }
+
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> writer : writers)
+                writer.get();
+
+        } finally {
+            executor.shutdownNow();
+        }
+
+        reopen();
+
+        assertThat(journal.getUnfinished().isEmpty(), is(true));
+        assertThat(journal.getOffset("/data/3/4999"), is(equalTo(4999L)));
+    }
+
+    @Test(expected = FtpException.class)
+    public void aFileThatIsNotAJournalShouldBeRefused() throws Exception {
+
+        Path other = temporaryFolder.newFile("other").toPath();
+        Files.write(other, "not a journal".getBytes(), StandardOpenOption.TRUNCATE_EXISTING);
+
+        TransferJournal.open(other);
+    }
+
+    private void reopen() {
+
+        journal.close();
+        journal = TransferJournal.open(file);
+    }
+
+    private Path copyOfFile() {
+
+        try {
+
+            Path copy = temporaryFolder.getRoot().toPath().resolve("copy.journal");
+            Files.copy(file, copy);
+
+            return copy;
+
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package jftp.batch;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.withSettings;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jftp.batch.TransferPlan.Part;
+import jftp.connection.Connection;
+import jftp.connection.FtpFile;
+import jftp.connection.RangedDownload;
+import jftp.exception.FtpException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TransferPlannerTest {
+
+    private static final byte[] CONTENT = "abcdefghijklmnopqrstuvwxyz".getBytes();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final TransferPlanner planner = new TransferPlanner();
+
+    @Before
+    public void setUp() {
+
+        planner.setBytesPerSecond(1000);
+        planner.setMillisPerTransfer(0);
+    }
+
+    @Test
+    public void filesShouldGoLargestFirstToTheConnectionFreeSoonest() {
+
+        TransferPlan plan = planner.plan(Arrays.asList(file("a", 3000), file("b", 2000), file("c", 2000),
+                file("d", 1000), file("e", 1000), file("f", 1000)), 2);
+
+        assertThat(names(plan.getParts(0)), is(equalTo(Arrays.asList("a", "d", "e"))));
+        assertThat(names(plan.getParts(1)), is(equalTo(Arrays.asList("b", "c", "f"))));
+        assertThat(plan.getEstimatedMillis(0), is(equalTo(5000L)));
+        assertThat(plan.getEstimatedMillis(1), is(equalTo(5000L)));
+        assertThat(plan.getEstimatedMillis(), is(equalTo(5000L)));
+    }
+
+    @Test
+    public void directoriesShouldBeLeftOut() {
+
+        TransferPlan plan = planner.plan(Arrays.asList(file("a", 1000), new FtpFile("dir", 0, "/dir", 0, true)), 2);
+
+        assertThat(plan.getParts(0).size() + plan.getParts(1).size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void aHugeFileShouldNotBeSplitUnlessSegmentingIsEnabled() {
+
+        TransferPlan plan = planner.plan(Arrays.asList(file("huge", 20000), file("small", 1000)), 4);
+
+        assertThat(plan.getEstimatedMillis(), is(equalTo(20000L)));
+    }
+
+    @Test
+    public void aHugeFileShouldBeSplitIntoSegmentsAcrossConnections() {
+
+        planner.setMinimumSegmentSize(1000);
+
+        TransferPlan plan = planner.plan(Arrays.asList(file("huge", 20000), file("small", 1000)), 4);
+
+        int segments = 0;
+
+        for (int i = 0; i < 4; i++) {
+
+            for (Part part : plan.getParts(i)) {
+
+                if (part.isSegment())
+                    segments++;
+            }
+        }
+
+        assertThat(segments, is(equalTo(4)));
+        assertThat(plan.getEstimatedMillis(), is(equalTo(6000L)));
+    }
+
+    @Test
+    public void segmentsShouldBeNoSmallerThanTheMinimum() {
+
+        planner.setMinimumSegmentSize(10000);
+
+        TransferPlan plan = planner.plan(Arrays.asList(file("huge", 20000), file("small", 1000)), 4);
+
+        assertThat(plan.getEstimatedMillis(), is(equalTo(10000L)));
+    }
+
+    @Test
+    public void everyPartShouldBeDownloadedAndReportedAgainstTheEstimate() throws IOException {
+
+        planner.setMinimumSegmentSize(4);
+
+        String localDirectory = temporaryFolder.getRoot().getAbsolutePath();
+        List<Connection> connections = Arrays.asList(rangedConnection(), rangedConnection(), rangedConnection());
+
+        TransferPlan plan = planner.plan(Arrays.asList(file("letters", CONTENT.length), file("tiny", 1)), 3);
+        PlanReport report = planner.download(plan, connections, localDirectory);
+
+        byte[] downloaded = Files.readAllBytes(temporaryFolder.getRoot().toPath().resolve("letters"));
+
+        assertThat(new String(downloaded), is(equalTo(new String(CONTENT))));
+        assertThat(report.getBytes(), is(equalTo((long) CONTENT.length + 1)));
+        assertThat(report.getEstimatedMillis(), is(equalTo(plan.getEstimatedMillis())));
+        assertThat(report.getActualMillis() >= 0, is(true));
+
+        boolean tinyDownloaded = false;
+
+        for (Connection connection : connections) {
+
+            try {
+                verify(connection).download("/remote/tiny", localDirectory);
+                tinyDownloaded = true;
+            } catch (AssertionError e) {
+                // Downloaded over another connection.
+            }
+        }
+
+        assertThat(tinyDownloaded, is(true));
+    }
+
+    @Test
+    public void segmentsShouldNotBePlannedOntoConnectionsUnableToDownloadRanges() {
+
+        planner.setMinimumSegmentSize(4);
+
+        TransferPlan plan = planner.plan(Arrays.asList(file("letters", CONTENT.length)), 2);
+
+        try {
+            planner.download(plan, Arrays.asList(mock(Connection.class), mock(Connection.class)),
+                    temporaryFolder.getRoot().getAbsolutePath());
+            fail();
+        } catch (FtpException e) {
+            assertThat(e.getMessage(), is(equalTo("Files can only be split over connections able to download part of a file.")));
+        }
+    }
+
+    private Connection rangedConnection() {
+
+        Connection connection = mock(Connection.class, withSettings().extraInterfaces(RangedDownload.class));
+
+        doAnswer(new Answer<Long>() {
+
+            @Override
+            public Long answer(InvocationOnMock invocation) throws IOException {
+
+                int offset = (int) (long) (Long) invocation.getArguments()[1];
+                int length = (int) (long) (Long) invocation.getArguments()[2];
+
+                ((OutputStream) invocation.getArguments()[3]).write(CONTENT, offset, length);
+
+                return (long) length;
+            }
+
+        }).when((RangedDownload) connection).downloadRange(anyString(), anyLong(), anyLong(), any(OutputStream.class));
+
+        return connection;
+    }
+
+    private FtpFile file(String name, long size) {
+        return new FtpFile(name, size, "/remote/" + name, 0, false);
+    }
+
+    private List<String> names(List<Part> parts) {
+
+        List<String> names = new ArrayList<String>();
+
+        for (Part part : parts)
+            names.add(part.getRemoteFilePath().substring("/remote/".length()));
+
+        return names;
+    }
+}
@@ -0,0 +1,99 @@
+package jftp.cache;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import jftp.connection.Connection;
+import jftp.connection.FtpFile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class CachingConnectionTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String REMOTE_FILE_PATH = "/reference/rates.csv";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Connection delegate;
+    private CachingConnection connection;
+    private Path localDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+
+        delegate = mock(Connection.class);
+
+        when(delegate.printWorkingDirectory()).thenReturn("/reference");
+        when(delegate.stat(REMOTE_FILE_PATH)).thenReturn(remoteFile(1000));
+
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws IOException {
+                ((OutputStream) invocation.getArguments()[1]).write("1.25".getBytes(UTF_8));
+                return null;
+            }
+
+        }).when(delegate).download(eq(REMOTE_FILE_PATH), any(OutputStream.class));
+
+        localDirectory = folder.newFolder("downloads").toPath();
+        connection = new CachingConnection(delegate, new DiskCache(folder.newFolder("cache").toPath(), 1024),
+                "sftp.example.com");
+    }
+
+    @Test
+    public void repeatedDownloadsShouldBeServedFromTheCache() throws IOException {
+
+        connection.download("rates.csv", localDirectory.toString());
+        connection.download(REMOTE_FILE_PATH, localDirectory.toString());
+
+        verify(delegate, times(1)).download(eq(REMOTE_FILE_PATH), any(OutputStream.class));
+        assertThat(new String(Files.readAllBytes(localDirectory.resolve("rates.csv")), UTF_8), is(equalTo("1.25")));
+    }
+
+    @Test
+    public void filesChangedOnTheServerShouldBeDownloadedAgain() {
+
+        connection.download(REMOTE_FILE_PATH, new ByteArrayOutputStream());
+
+        when(delegate.stat(REMOTE_FILE_PATH)).thenReturn(remoteFile(2000));
+
+        connection.download(REMOTE_FILE_PATH, new ByteArrayOutputStream());
+
+        verify(delegate, times(2)).download(eq(REMOTE_FILE_PATH), any(OutputStream.class));
+    }
+
+    @Test
+    public void pathsNotFoundShouldBeLeftToTheDelegateToReport() {
+
+        connection.download("/reference/missing.csv", localDirectory.toString());
+
+        verify(delegate).download("/reference/missing.csv", localDirectory.toString());
+    }
+
+    private FtpFile remoteFile(long lastModifiedMillis) {
+        return new FtpFile("rates.csv", 4, REMOTE_FILE_PATH, lastModifiedMillis, false);
+    }
+}
@@ -0,0 +1,245 @@
+package jftp.cache;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jftp.exception.FtpException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DiskCacheTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path cacheDirectory;
+    private Path targetDirectory;
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+
+        cacheDirectory = folder.newFolder("cache").toPath();
+        targetDirectory = folder.newFolder("target").toPath();
+    }
+
+    @Test
+    public void entriesShouldBeLoadedOnceAndThenServedFromDisk() throws IOException {
+
+        DiskCache cache = new DiskCache(cacheDirectory, 1024);
+
+        cache.get("report", targetDirectory.resolve("first.csv"), loader("a,b,c"));
+        cache.get("report", targetDirectory.resolve("second.csv"), loader("a,b,c"));
+
+        assertThat(loads.get(), is(equalTo(1)));
+        assertThat(read(targetDirectory.resolve("second.csv")), is(equalTo("a,b,c")));
+    }
+
+    @Test
+    public void entriesShouldBeWrittenToStreams() {
+
+        DiskCache cache = new DiskCache(cacheDirectory, 1024);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        cache.get("report", new ByteArrayOutputStream(), loader("a,b,c"));
+        cache.get("report", outputStream, loader("a,b,c"));
+
+        assertThat(loads.get(), is(equalTo(1)));
+        assertThat(new String(outputStream.toByteArray(), UTF_8), is(equalTo("a,b,c")));
+    }
+
+    @Test
+    public void existingTargetsShouldBeReplaced() throws IOException {
+
+        Path target = targetDirectory.resolve("report.csv");
+        Files.write(target, "old".getBytes(UTF_8));
+
+        new DiskCache(cacheDirectory, 1024).get("report", target, loader("new"));
+
+        assertThat(read(target), is(equalTo("new")));
+    }
+
+    @Test
+    public void changingACopyGivenOutShouldLeaveTheEntryAsItWas() throws IOException {
+
+        DiskCache cache = new DiskCache(cacheDirectory, 1024);
+        Path first = targetDirectory.resolve("first.csv");
+
+        cache.get("report", first, loader("a,b,c"));
+        Files.write(first, ",d".getBytes(UTF_8), StandardOpenOption.APPEND);
+
+        cache.get("report", targetDirectory.resolve("second.csv"), loader("a,b,c"));
+
+        assertThat(read(targetDirectory.resolve("second.csv")), is(equalTo("a,b,c")));
+    }
+
+    @Test
+    public void entriesShouldBeGivenOutAsHardLinksWhenAskedFor() throws IOException {
+
+        DiskCache cache = new DiskCache(cacheDirectory, 1024);
+        cache.setHardLinks(true);
+
+        cache.get("report", targetDirectory.resolve("first.csv"), loader("a,b,c"));
+        cache.get("report", targetDirectory.resolve("second.csv"), loader("a,b,c"));
+
+        assertThat(Files.isSameFile(targetDirectory.resolve("first.csv"), targetDirectory.resolve("second.csv")),
+                is(true));
+    }
+
+    @Test
+    public void callersAfterTheSameEntryShouldWaitForASingleLoad() throws Exception {
+
+        final DiskCache cache = new DiskCache(cacheDirectory, 1024);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        List<Future<Void>> callers = new ArrayList<Future<Void>>();
+
+        for (int i = 0; i < 8; i++) {
+
+            final Path target = targetDirectory.resolve("report" + i + ".csv");
+
+            callers.add(executor.submit(new Callable<Void>() {
+
+                @Override
+                public Void call() {
+                    cache.get("report", target, slowLoader("a,b,c"));
+                    return null;
+                }
+            }));
+        }
+
+        for (Future<Void> caller : callers)
+            caller.get();
+
+        executor.shutdown();
+
+        assertThat(loads.get(), is(equalTo(1)));
+        assertThat(read(targetDirectory.resolve("report7.csv")), is(equalTo("a,b,c")));
+    }
+
+    @Test
+    public void theLeastRecentlyUsedEntriesShouldBeEvictedOnceOverTheLimit() throws IOException {
+
+        DiskCache cache = new DiskCache(cacheDirectory, 10);
+
+        cache.get("first", new ByteArrayOutputStream(), loader("12345"));
+        cache.get("second", new ByteArrayOutputStream(), loader("12345"));
+        ageAllEntries();
+
+        // Using the first makes the second the least recently used.
+        cache.get("first", new ByteArrayOutputStream(), loader("12345"));
+        cache.get("third", new ByteArrayOutputStream(), loader("12345"));
+
+        assertThat(cache.contains("first"), is(equalTo(true)));
+        assertThat(cache.contains("second"), is(equalTo(false)));
+        assertThat(cache.contains("third"), is(equalTo(true)));
+
+        int lockFiles = 0;
+
+        // Another process may still be waiting on the evicted entry's lock.
+        for (Path path : Files.newDirectoryStream(cacheDirectory))
+            if (path.toString().endsWith(".lock") && !path.endsWith("eviction.lock"))
+                lockFiles++;
+
+        assertThat(lockFiles, is(equalTo(3)));
+    }
+
+    @Test
+    public void failedLoadsShouldLeaveNothingBehind() throws IOException {
+
+        DiskCache cache = new DiskCache(cacheDirectory, 1024);
+
+        try {
+
+            cache.get("report", new ByteArrayOutputStream(), new DiskCache.Loader() {
+
+                @Override
+                public void load(OutputStream outputStream) {
+                    throw new FtpException("Unable to download file report.csv");
+                }
+            });
+
+            fail();
+
+        } catch (FtpException e) {
+            assertThat(e.getMessage(), is(equalTo("Unable to download file report.csv")));
+        }
+
+        assertThat(cache.contains("report"), is(equalTo(false)));
+
+        for (Path path : Files.newDirectoryStream(cacheDirectory))
+            assertThat(path.toString().endsWith(".part"), is(equalTo(false)));
+    }
+
+    private void ageAllEntries() throws IOException {
+
+        for (Path path : Files.newDirectoryStream(cacheDirectory))
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+    }
+
+    private DiskCache.Loader loader(final String content) {
+
+        return new DiskCache.Loader() {
+
+            @Override
+            public void load(OutputStream outputStream) {
+
+                loads.incrementAndGet();
+
+                try {
+                    outputStream.write(content.getBytes(UTF_8));
+                } catch (IOException e) {
+                    throw new FtpException("Unable to write", e);
+                }
+            }
+        };
+    }
+
+    private DiskCache.Loader slowLoader(final String content) {
+
+        final DiskCache.Loader loader = loader(content);
+
+        return new DiskCache.Loader() {
+
+            @Override
+            public void load(OutputStream outputStream) {
+
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                loader.load(outputStream);
+            }
+        };
+    }
+
+    private String read(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), UTF_8);
+    }
+}
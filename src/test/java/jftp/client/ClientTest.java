@@ -29,5 +29,15 @@ public class ClientTest {
         public void disconnect() {
             
         }
+
+        @Override
+        public boolean isConnected() {
+            return false;
+        }
+
+        @Override
+        public boolean keepAlive(long idleMillis) {
+            return false;
+        }
     }
 }
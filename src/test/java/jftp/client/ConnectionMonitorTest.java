@@ -0,0 +1,131 @@
+package jftp.client;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import jftp.exception.FtpException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionMonitorTest {
+
+    private static final long INTERVAL = 1000;
+
+    private ScheduledExecutorService mockScheduler;
+    private ScheduledFuture<?> mockTask;
+
+    private ConnectionMonitor monitor;
+
+    private Client mockClient;
+
+    @Before
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void setUp() {
+
+        mockScheduler = mock(ScheduledExecutorService.class);
+        mockTask = mock(ScheduledFuture.class);
+
+        when(mockScheduler.scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class)))
+                .thenReturn((ScheduledFuture) mockTask);
+
+        monitor = new ConnectionMonitor(INTERVAL, mockScheduler);
+
+        mockClient = createClient(true, true);
+    }
+
+    @Test
+    public void monitoringClientsShouldScheduleASingleSharedCheck() {
+
+        monitor.monitor(mockClient);
+        monitor.monitor(createClient(true, true));
+
+        verify(mockScheduler, times(1)).scheduleWithFixedDelay(any(Runnable.class), eq(INTERVAL), eq(INTERVAL),
+                eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void theScheduledCheckShouldBeCancelledOnceNoClientsRemain() {
+
+        monitor.monitor(mockClient);
+        monitor.stopMonitoring(mockClient);
+
+        verify(mockTask).cancel(false);
+    }
+
+    @Test
+    public void healthyClientsShouldBeSentAKeepAliveButNotReconnected() {
+
+        monitor.monitor(mockClient);
+        monitor.checkClients();
+
+        verify(mockClient).keepAlive(INTERVAL);
+        verify(mockClient, never()).reconnect();
+    }
+
+    @Test
+    public void clientsFailingTheirKeepAliveShouldBeReconnected() {
+
+        when(mockClient.keepAlive(INTERVAL)).thenReturn(false);
+
+        monitor.monitor(mockClient);
+        monitor.checkClients();
+
+        verify(mockClient).reconnect();
+    }
+
+    @Test
+    public void clientsThatHaveAlreadyDroppedShouldBeReconnectedWithoutAKeepAlive() {
+
+        when(mockClient.isConnected()).thenReturn(false);
+
+        monitor.monitor(mockClient);
+        monitor.checkClients();
+
+        verify(mockClient, never()).keepAlive(INTERVAL);
+        verify(mockClient).reconnect();
+    }
+
+    @Test
+    public void aFailedReconnectShouldNotStopOtherClientsFromBeingChecked() {
+
+        Client deadClient = createClient(false, false);
+        when(deadClient.reconnect()).thenThrow(new FtpException("unreachable"));
+
+        monitor.monitor(deadClient);
+        monitor.monitor(mockClient);
+        monitor.checkClients();
+
+        verify(mockClient).keepAlive(INTERVAL);
+    }
+
+    @Test
+    public void clientsNoLongerMonitoredShouldNotBeChecked() {
+
+        monitor.monitor(mockClient);
+        monitor.stopMonitoring(mockClient);
+        monitor.checkClients();
+
+        verify(mockClient, never()).keepAlive(INTERVAL);
+    }
+
+    private Client createClient(boolean connected, boolean alive) {
+
+        Client client = mock(Client.class);
+
+        when(client.isConnected()).thenReturn(connected);
+        when(client.keepAlive(INTERVAL)).thenReturn(alive);
+
+        return client;
+    }
+}
@@ -3,7 +3,9 @@ package jftp.client;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -21,6 +23,7 @@ import jftp.connection.FtpConnection;
 import jftp.exception.FtpException;
 
 import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPConnectionClosedException;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -81,6 +84,22 @@ public class FtpClientTest {
         verify(mockFtpClient).connect(hostname, port);
     }
 
+    @Test
+    public void timeoutsShouldBeAppliedBeforeConnecting() throws IOException {
+
+        ftpClient.setConnectTimeout(1000);
+        ftpClient.setReadTimeout(2000);
+
+        ftpClient.connect();
+
+        InOrder inOrder = Mockito.inOrder(mockFtpClient);
+
+        inOrder.verify(mockFtpClient).setConnectTimeout(1000);
+        inOrder.verify(mockFtpClient).setDefaultTimeout(2000);
+        inOrder.verify(mockFtpClient).setDataTimeout(2000);
+        inOrder.verify(mockFtpClient).connect(hostname, port);
+    }
+
     @Test
     public void connectMethodShouldEnterPassiveModeLoginToUnderlyingFtpClient() throws IOException {
 
@@ -120,6 +139,36 @@ public class FtpClientTest {
         assertThat(connection, is(instanceOf(FtpConnection.class)));
     }
 
+    @Test
+    public void connectingAgainShouldHandBackTheSameConnection() {
+
+        Connection connection = ftpClient.connect();
+
+        assertThat(ftpClient.reconnect(), is(sameInstance(connection)));
+        verify(mockConnectionFactory, times(1)).createFtpConnection(mockFtpClient);
+    }
+
+    @Test
+    public void keepAliveShouldReportDeadWhenTheUnderlyingClientIsNoLongerConnected() {
+
+        ftpClient.connect();
+
+        when(mockFtpClient.isConnected()).thenReturn(false);
+
+        assertThat(ftpClient.keepAlive(0), is(equalTo(false)));
+    }
+
+    @Test
+    public void keepAliveShouldSendNoOpThroughTheConnection() throws IOException {
+
+        when(mockFtpClient.sendNoOp()).thenReturn(true);
+
+        ftpClient.connect();
+
+        assertThat(ftpClient.keepAlive(0), is(equalTo(true)));
+        verify(mockFtpClient).sendNoOp();
+    }
+
     @Test
     public void disconnectMethodShouldCallOnUnderlyingFtpClientDisconnectMethod() throws IOException {
 
@@ -163,6 +212,20 @@ public class FtpClientTest {
         ftpClient.connect();
     }
 
+    @Test
+    public void aServerRefusingTheConnectionShouldBeReportedWithItsReplyCode() throws IOException {
+
+        doThrow(new FTPConnectionClosedException()).when(mockFtpClient).connect(hostname, port);
+        when(mockFtpClient.getReplyCode()).thenReturn(421);
+
+        try {
+            ftpClient.connect();
+            fail();
+        } catch (FtpException e) {
+            assertThat(e.getReplyCode(), is(equalTo(421)));
+        }
+    }
+
     @Test
     public void ifUnableToLoginToFtpClientThenThrowFtpException() throws IOException {
 
@@ -1,18 +1,94 @@
 package jftp.client;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.IOException;
+
+import jftp.client.auth.UserCredentials;
+import jftp.connection.ConnectionFactory;
 
 import org.apache.commons.net.ftp.FTPSClient;
+import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
 
 public class FtpsClientTest {
 
     private FtpClient client = new FtpsClient();
-    
+
+    @InjectMocks
+    private FtpsClient mockedFtpsClient = new FtpsClient();
+
+    @Mock
+    private FTPSClient mockFtpsClient;
+
+    @Mock
+    private ConnectionFactory mockConnectionFactory;
+
+    @Before
+    public void setUp() throws IOException {
+
+        initMocks(this);
+
+        mockedFtpsClient.setHost("host");
+        mockedFtpsClient.setPort(990);
+        mockedFtpsClient.setCredentials(new UserCredentials("user", "password"));
+
+        when(mockFtpsClient.getReplyCode()).thenReturn(200);
+        when(mockFtpsClient.login("user", "password")).thenReturn(true);
+    }
+
     @Test
     public void newFtpsClientShouldCreateFTPSClientInstance() {
         
         assertThat(client.ftpClient, instanceOf(FTPSClient.class));
     }
+
+    @Test
+    public void sessionReuseShouldOnlyBeReportedActiveWhereTheJvmOpensTheSessionCache() {
+
+        boolean isOpened = Object.class.getModule().isOpen("sun.security.ssl", FtpsClientTest.class.getModule());
+
+        assertThat(new FtpsClient().isSessionReuseActive(), is(equalTo(isOpened)));
+    }
+
+    @Test
+    public void settingProtocolsShouldRestrictTheProtocolsEnabledOnTheUnderlyingClient() {
+
+        mockedFtpsClient.setProtocols("TLSv1.2");
+
+        verify(mockFtpsClient).setEnabledProtocols(new String[] { "TLSv1.2" });
+    }
+
+    @Test
+    public void onceLoggedInTheDataChannelShouldBeProtected() throws IOException {
+
+        mockedFtpsClient.connect();
+
+        InOrder inOrder = Mockito.inOrder(mockFtpsClient);
+
+        inOrder.verify(mockFtpsClient).login("user", "password");
+        inOrder.verify(mockFtpsClient).execPBSZ(0);
+        inOrder.verify(mockFtpsClient).execPROT("P");
+    }
+
+    @Test
+    public void dataChannelShouldBeLeftInTheClearWhenProtectionIsDisabled() throws IOException {
+
+        mockedFtpsClient.setProtectDataChannel(false);
+
+        mockedFtpsClient.connect();
+
+        verify(mockFtpsClient, never()).execPROT("P");
+    }
 }
@@ -0,0 +1,95 @@
+package jftp.client;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import jftp.client.auth.UserCredentials;
+import jftp.connection.Connection;
+
+/**
+ * Manual benchmark comparing SFTP upload throughput for each cipher and MAC pairing against
+ * a live server, typically a local sshd so that the network is not the bottleneck.
+ * 
+ * Usage: SftpCipherBenchmark host port username password remoteDirectory [sizeInMegabytes]
+ */
+public class SftpCipherBenchmark {
+
+    private static final String[] CIPHERS = { "aes128-ctr", "aes192-ctr", "aes256-ctr", "aes128-cbc", "aes256-cbc",
+            "3des-ctr" };
+    private static final String[] MACS = { "hmac-sha2-256", "hmac-sha1", "hmac-md5" };
+
+    private static final int MEGABYTE = 1024 * 1024;
+    private static final int DEFAULT_SIZE_IN_MEGABYTES = 256;
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 5) {
+            System.err.println("Usage: SftpCipherBenchmark host port username password remoteDirectory [sizeInMegabytes]");
+            System.exit(1);
+        }
+
+        int sizeInMegabytes = args.length > 5 ? Integer.parseInt(args[5]) : DEFAULT_SIZE_IN_MEGABYTES;
+        File payload = createPayload(sizeInMegabytes);
+
+        try {
+
+            for (String cipher : CIPHERS)
+                for (String mac : MACS)
+                    report(cipher, mac, sizeInMegabytes, time(args, cipher, mac, payload));
+
+        } finally {
+            payload.delete();
+        }
+    }
+
+    private static long time(String[] args, String cipher, String mac, File payload) {
+
+        SftpClient client = new SftpClient();
+        client.setHost(args[0]);
+        client.setPort(Integer.parseInt(args[1]));
+        client.setCredentials(new UserCredentials(args[2], args[3]));
+        client.setCiphers(cipher);
+        client.setMacs(mac);
+
+        Connection connection = client.connect();
+
+        try {
+
+            long start = System.nanoTime();
+            connection.upload(payload.getAbsolutePath(), args[4]);
+
+            return System.nanoTime() - start;
+
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    private static void report(String cipher, String mac, int sizeInMegabytes, long elapsedNanos) {
+
+        double seconds = elapsedNanos / 1e9;
+
+        System.out.println(String.format("%-12s %-14s %8.1f MB/s", cipher, mac, sizeInMegabytes / seconds));
+    }
+
+    private static File createPayload(int sizeInMegabytes) throws IOException {
+
+        File payload = File.createTempFile("jftp-benchmark", ".bin");
+        byte[] block = new byte[MEGABYTE];
+        new Random().nextBytes(block);
+
+        OutputStream outputStream = new FileOutputStream(payload);
+
+        try {
+            for (int i = 0; i < sizeInMegabytes; i++)
+                outputStream.write(block);
+        } finally {
+            outputStream.close();
+        }
+
+        return payload;
+    }
+}
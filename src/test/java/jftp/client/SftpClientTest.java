@@ -3,9 +3,15 @@ package jftp.client;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -86,6 +92,55 @@ public class SftpClientTest {
 		inOrder.verify(mockSession).connect();
 	}
 
+	@Test
+	public void sessionShouldPreferCounterModeCiphersAndFastMacsByDefault() throws JSchException {
+
+		Session mockSession = mockJsch.getSession("user", "host", 999);
+
+		sftpClient.connect();
+
+		verify(mockSession).setConfig("cipher.c2s", SftpClient.DEFAULT_CIPHERS);
+		verify(mockSession).setConfig("cipher.s2c", SftpClient.DEFAULT_CIPHERS);
+		verify(mockSession).setConfig("mac.c2s", SftpClient.DEFAULT_MACS);
+		verify(mockSession).setConfig("mac.s2c", SftpClient.DEFAULT_MACS);
+	}
+
+	@Test
+	public void configuredAlgorithmsShouldBeOfferedToTheServerInTheGivenOrder() throws JSchException {
+
+		Session mockSession = mockJsch.getSession("user", "host", 999);
+
+		sftpClient.setCiphers("aes256-ctr", "aes128-ctr");
+		sftpClient.setMacs("hmac-sha1");
+		sftpClient.setKeyExchanges("diffie-hellman-group14-sha1");
+
+		sftpClient.connect();
+
+		verify(mockSession).setConfig("cipher.c2s", "aes256-ctr,aes128-ctr");
+		verify(mockSession).setConfig("CheckCiphers", "aes256-ctr,aes128-ctr");
+		verify(mockSession).setConfig("mac.s2c", "hmac-sha1");
+		verify(mockSession).setConfig("kex", "diffie-hellman-group14-sha1");
+	}
+
+	@Test
+	public void keyExchangeShouldBeLeftToJschWhenNotConfigured() throws JSchException {
+
+		Session mockSession = mockJsch.getSession("user", "host", 999);
+
+		sftpClient.connect();
+
+		verify(mockSession, never()).setConfig(eq("kex"), anyString());
+	}
+
+	@Test
+	public void settingAnEmptyAlgorithmListShouldThrowFtpException() {
+
+		expectedException.expect(FtpException.class);
+		expectedException.expectMessage(is(equalTo("At least one algorithm must be given.")));
+
+		sftpClient.setCiphers();
+	}
+
 	@Test
 	public void returnedSessionObjectShouldSetChannelToSftpAndOpen() throws JSchException {
 
@@ -140,6 +195,87 @@ public class SftpClientTest {
 		verify(mockChannel).disconnect();
 	}
 	
+	@Test
+	public void serverAliveIntervalShouldBeAppliedToTheSessionWhenConfigured() throws JSchException {
+
+		Session mockSession = mockJsch.getSession("user", "host", 999);
+
+		sftpClient.setServerAliveInterval(15000);
+		sftpClient.connect();
+
+		verify(mockSession).setServerAliveInterval(15000);
+		verify(mockSession).setServerAliveCountMax(3);
+	}
+
+	@Test
+	public void sessionShouldUseTheConnectTimeoutWhileConnectingAndTheReadTimeoutAfterwards() throws JSchException {
+
+		Session mockSession = mockJsch.getSession("user", "host", 999);
+
+		sftpClient.setConnectTimeout(1000);
+		sftpClient.setReadTimeout(2000);
+		sftpClient.connect();
+
+		InOrder inOrder = Mockito.inOrder(mockSession);
+
+		inOrder.verify(mockSession).setTimeout(1000);
+		inOrder.verify(mockSession).connect();
+		inOrder.verify(mockSession).setTimeout(2000);
+	}
+
+	@Test
+	public void serverAliveProbingShouldTakeThePlaceOfTheReadTimeout() throws JSchException {
+
+		Session mockSession = mockJsch.getSession("user", "host", 999);
+
+		sftpClient.setReadTimeout(2000);
+		sftpClient.setServerAliveInterval(15000);
+		sftpClient.connect();
+
+		verify(mockSession, never()).setTimeout(2000);
+	}
+
+	@Test
+	public void keepAliveShouldBeLeftToTheConnection() throws Exception {
+
+		Session mockSession = mockJsch.getSession("user", "host", 999);
+		Channel mockChannel = mockSession.openChannel(SFTP);
+		SftpConnection mockConnection = mock(SftpConnection.class);
+
+		when(mockSession.isConnected()).thenReturn(true);
+		when(mockChannel.isConnected()).thenReturn(true);
+		when(mockConnectionFactory.createSftpConnection(any(Channel.class))).thenReturn(mockConnection);
+		when(mockConnection.keepAlive(1000)).thenReturn(false);
+
+		sftpClient.connect();
+
+		assertThat(sftpClient.keepAlive(1000), is(equalTo(false)));
+	}
+
+	@Test
+	public void keepAliveShouldReportDeadWhenTheSessionHasDropped() throws JSchException {
+
+		Session mockSession = mockJsch.getSession("user", "host", 999);
+
+		when(mockSession.isConnected()).thenReturn(false);
+
+		sftpClient.connect();
+
+		assertThat(sftpClient.keepAlive(0), is(equalTo(false)));
+	}
+
+	@Test
+	public void reconnectingShouldPointTheExistingConnectionAtTheNewChannel() throws JSchException {
+
+		Session mockSession = mockJsch.getSession("user", "host", 999);
+		when(mockSession.openChannel(SFTP)).thenReturn(mock(ChannelSftp.class));
+
+		Connection connection = sftpClient.connect();
+
+		assertThat(sftpClient.reconnect(), is(sameInstance(connection)));
+		verify(mockConnectionFactory, times(1)).createSftpConnection(any(Channel.class));
+	}
+
 	@Test
 	public void disconnectMethodShouldThrowExceptionWhenNotInitiallyConnected() {
 		
@@ -149,4 +285,15 @@ public class SftpClientTest {
 		sftpClient.disconnect();
 		
 	}
+
+	@Test
+	public void connectSharedShouldOpenFurtherChannelsOnTheSameSession() throws JSchException {
+
+		Session mockSession = mockJsch.getSession("user", "host", 999);
+
+		sftpClient.connectShared(3);
+
+		verify(mockSession, times(3)).openChannel(SFTP);
+		verify(mockConnectionFactory, times(3)).createSftpConnection(any(Channel.class));
+	}
 }
@@ -0,0 +1,47 @@
+package jftp.client;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import jftp.exception.FtpException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class SslContextCacheTest {
+
+    private SslContextCache cache = new SslContextCache();
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void theSameContextShouldBeReturnedForRepeatedRequestsForAProtocol() {
+
+        assertThat(cache.getContext("TLS"), is(sameInstance(cache.getContext("TLS"))));
+    }
+
+    @Test
+    public void differentProtocolsShouldHaveTheirOwnContext() {
+
+        assertThat(cache.getContext("TLS"), is(not(sameInstance(cache.getContext("TLSv1.2")))));
+    }
+
+    @Test
+    public void returnedContextShouldUseTheRequestedProtocol() {
+
+        assertThat(cache.getContext("TLSv1.2").getProtocol(), is(equalTo("TLSv1.2")));
+    }
+
+    @Test
+    public void unknownProtocolsShouldBeRethrownAsFtpException() {
+
+        expectedException.expect(FtpException.class);
+        expectedException.expectMessage(is(equalTo("Unable to create an SSL context for protocol NOPE")));
+
+        cache.getContext("NOPE");
+    }
+}
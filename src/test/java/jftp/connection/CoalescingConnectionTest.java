@@ -0,0 +1,248 @@
+package jftp.connection;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class CoalescingConnectionTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String REMOTE_FILE_PATH = "/reference/rates.csv";
+    private static final int CALLERS = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Connection delegate;
+    private CoalescingConnection connection;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+
+        delegate = mock(Connection.class);
+        connection = new CoalescingConnection(delegate);
+
+        when(delegate.printWorkingDirectory()).thenReturn("/reference");
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentListingsOfTheSameDirectoryShouldShareOneRequest() throws Exception {
+
+        final List<FtpFile> files = new ArrayList<FtpFile>();
+        files.add(new FtpFile("prices.csv", 10, "/reference/daily/prices.csv", 0, false));
+
+        when(delegate.listFiles(anyString())).thenAnswer(new Answer<List<FtpFile>>() {
+
+            @Override
+            public List<FtpFile> answer(InvocationOnMock invocation) throws InterruptedException {
+                release.await(5, TimeUnit.SECONDS);
+                return files;
+            }
+        });
+
+        List<Future<List<FtpFile>>> callers = new ArrayList<Future<List<FtpFile>>>();
+
+        for (int i = 0; i < CALLERS; i++) {
+
+            final String path = i % 2 == 0 ? "/reference/daily" : "daily";
+
+            callers.add(executor.submit(new Callable<List<FtpFile>>() {
+
+                @Override
+                public List<FtpFile> call() {
+                    return connection.listFiles(path);
+                }
+            }));
+        }
+
+        letCallersJoin();
+
+        // Each caller gets a copy of its own to change as it likes.
+        for (Future<List<FtpFile>> caller : callers) {
+            assertThat(caller.get(), is(equalTo(files)));
+            assertThat(caller.get(), is(not(sameInstance(files))));
+        }
+
+        verify(delegate, times(1)).listFiles("/reference/daily");
+    }
+
+    @Test
+    public void streamsJoiningADownloadShouldEachBeGivenTheWholeContent() throws Exception {
+
+        List<Future<String>> callers = downloadFromCallers(CALLERS);
+
+        letCallersJoin();
+
+        for (Future<String> caller : callers)
+            assertThat(caller.get(), is(equalTo("1.25,1.30")));
+
+        verify(delegate, times(1)).download(anyString(), any(OutputStream.class));
+    }
+
+    @Test
+    public void streamsJoiningADownloadLargerThanTheMemoryKeptShouldEachBeGivenTheWholeContent() throws Exception {
+
+        connection = new CoalescingConnection(delegate, 6);
+
+        List<Future<String>> callers = downloadFromCallers(CALLERS);
+
+        letCallersJoin();
+
+        for (Future<String> caller : callers)
+            assertThat(caller.get(), is(equalTo("1.25,1.30")));
+
+        verify(delegate, times(1)).download(anyString(), any(OutputStream.class));
+    }
+
+    @Test
+    public void streamsJoiningOnlyOnceADownloadHasOutgrownTheMemoryKeptShouldDownloadItAgain() throws Exception {
+
+        connection = new CoalescingConnection(delegate, 4);
+
+        List<Future<String>> callers = downloadFromCallers(2);
+
+        letCallersJoin();
+
+        for (Future<String> caller : callers)
+            assertThat(caller.get(), is(equalTo("1.25,1.30")));
+
+        verify(delegate, times(2)).download(anyString(), any(OutputStream.class));
+    }
+
+    @Test
+    public void downloadsIntoOtherDirectoriesShouldBeGivenACopy() throws Exception {
+
+        final Path firstDirectory = folder.newFolder("first").toPath();
+        final Path secondDirectory = folder.newFolder("second").toPath();
+
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Exception {
+
+                release.await(5, TimeUnit.SECONDS);
+                Files.write(firstDirectory.resolve("rates.csv"), "1.25".getBytes(UTF_8));
+
+                return null;
+            }
+
+        }).when(delegate).download(REMOTE_FILE_PATH, firstDirectory.toString());
+
+        Future<Void> first = executor.submit(download(firstDirectory));
+        Thread.sleep(100);
+        Future<Void> second = executor.submit(download(secondDirectory));
+
+        letCallersJoin();
+
+        first.get();
+        second.get();
+
+        assertThat(new String(Files.readAllBytes(secondDirectory.resolve("rates.csv")), UTF_8), is(equalTo("1.25")));
+        verify(delegate, times(1)).download(anyString(), anyString());
+    }
+
+    /**
+     * Starts callers downloading a file of which the server sends the first part at once and
+     * the rest once the callers have joined.
+     */
+    private List<Future<String>> downloadFromCallers(int count) throws InterruptedException {
+
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Exception {
+
+                OutputStream outputStream = (OutputStream) invocation.getArguments()[1];
+
+                outputStream.write("1.25,".getBytes(UTF_8));
+                release.await(5, TimeUnit.SECONDS);
+                outputStream.write("1.30".getBytes(UTF_8));
+
+                return null;
+            }
+
+        }).when(delegate).download(eq(REMOTE_FILE_PATH), any(OutputStream.class));
+
+        List<Future<String>> callers = new ArrayList<Future<String>>();
+
+        for (int i = 0; i < count; i++) {
+
+            callers.add(executor.submit(new Callable<String>() {
+
+                @Override
+                public String call() {
+
+                    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                    connection.download("rates.csv", outputStream);
+
+                    return new String(outputStream.toByteArray(), UTF_8);
+                }
+            }));
+
+            // The first caller starts the download before the others join.
+            if (i == 0)
+                Thread.sleep(100);
+        }
+
+        return callers;
+    }
+
+    private Callable<Void> download(final Path localDirectory) {
+
+        return new Callable<Void>() {
+
+            @Override
+            public Void call() {
+                connection.download(REMOTE_FILE_PATH, localDirectory.toString());
+                return null;
+            }
+        };
+    }
+
+    private void letCallersJoin() throws InterruptedException {
+
+        Thread.sleep(200);
+        release.countDown();
+    }
+}
@@ -0,0 +1,123 @@
+package jftp.connection;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Collections;
+import java.util.Comparator;
+
+import org.joda.time.DateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class CompactFileListingTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private CompactFileListing listing = new CompactFileListing("/data");
+
+    @Test
+    public void entriesShouldBeExposedAsFtpFilesUnderTheParentPath() {
+
+        listing.add("report.csv", 1024, 1394525265000l, false);
+        listing.add("archive", 4096, 1394652161000l, true);
+
+        FtpFile file = listing.get(0);
+
+        assertThat(file.getName(), is(equalTo("report.csv")));
+        assertThat(file.getSize(), is(equalTo(1024l)));
+        assertThat(file.getFullPath(), is(equalTo("/data/report.csv")));
+        assertThat(file.getLastModified(), is(equalTo(new DateTime(1394525265000l))));
+        assertThat(file.isDirectory(), is(equalTo(false)));
+
+        assertThat(listing.get(1).getFullPath(), is(equalTo("/data/archive")));
+        assertThat(listing.get(1).isDirectory(), is(equalTo(true)));
+    }
+
+    @Test
+    public void namesOutsideAsciiShouldSurviveTheBytePool() {
+
+        listing.add("r\u00e9sum\u00e9.txt", 1, 0, false);
+        listing.add("\u6587\u4ef6", 2, 0, false);
+
+        assertThat(listing.getName(0), is(equalTo("r\u00e9sum\u00e9.txt")));
+        assertThat(listing.getName(1), is(equalTo("\u6587\u4ef6")));
+    }
+
+    @Test
+    public void encodedNamesShouldBeCopiedStraightIntoThePool() {
+
+        byte[] line = "-rw-r--r-- 1 ftp ftp 10 notes.txt".getBytes();
+
+        listing.add(line, 24, 9, 10, 0, false);
+
+        assertThat(listing.getName(0), is(equalTo("notes.txt")));
+    }
+
+    @Test
+    public void theListingShouldGrowBeyondItsInitialCapacityAndSurviveTrimming() {
+
+        for (int i = 0; i < 1000; i++)
+            listing.add("file" + i, i, i * 1000l, i % 3 == 0);
+
+        listing.trimToSize();
+        listing.add("last", 1000, 0, false);
+
+        assertThat(listing.size(), is(equalTo(1001)));
+        assertThat(listing.getName(999), is(equalTo("file999")));
+        assertThat(listing.getSize(999), is(equalTo(999l)));
+        assertThat(listing.getLastModifiedMillis(999), is(equalTo(999000l)));
+        assertThat(listing.isDirectory(999), is(equalTo(true)));
+        assertThat(listing.getName(1000), is(equalTo("last")));
+    }
+
+    @Test
+    public void nameHashesShouldDependOnlyOnTheName() {
+
+        listing.add("same", 1, 0, false);
+        listing.add("same", 2, 5, true);
+        listing.add("other", 1, 0, false);
+
+        assertThat(listing.getNameHash(0), is(equalTo(listing.getNameHash(1))));
+        assertThat(listing.getNameHash(0), is(not(equalTo(listing.getNameHash(2)))));
+    }
+
+    @Test
+    public void theListingShouldBeModifiableAndSortableLikeAnyOtherList() {
+
+        listing.add("b.txt", 2, 0, false);
+        listing.add("c.txt", 3, 0, false);
+        listing.add("a.txt", 1, 0, false);
+
+        listing.remove(1);
+        listing.add(new FtpFile("d.txt", 4, "/elsewhere/d.txt", 0, false));
+
+        Collections.sort(listing, new Comparator<FtpFile>() {
+
+            @Override
+            public int compare(FtpFile first, FtpFile second) {
+                return first.getName().compareTo(second.getName());
+            }
+        });
+
+        assertThat(listing.size(), is(equalTo(3)));
+        assertThat(listing.getName(0), is(equalTo("a.txt")));
+        assertThat(listing.getSize(1), is(equalTo(2l)));
+        assertThat(listing.get(2).getFullPath(), is(equalTo("/elsewhere/d.txt")));
+        assertThat(listing.getNameHash(0), is(not(equalTo(listing.getNameHash(1)))));
+    }
+
+    @Test
+    public void indexesOutsideTheListingShouldBeRejected() {
+
+        expectedException.expect(IndexOutOfBoundsException.class);
+
+        listing.add("only", 1, 0, false);
+
+        listing.getSize(1);
+    }
+}
@@ -0,0 +1,261 @@
+package jftp.connection;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jftp.exception.FtpException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class ContentPublisherTest {
+
+    private static final String FILE_PATH = "/data/report.csv";
+    private static final int CHUNK_SIZE = 4;
+
+    private Connection connection;
+    private ExecutorService executor;
+
+    private final AtomicInteger chunksWritten = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+
+        connection = mock(Connection.class);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void chunksShouldOnlyBeDownloadedAsTheSubscriberAsksForThem() throws Exception {
+
+        serve("abcdefghijklmnopqrst");
+
+        RecordingSubscriber<ByteBuffer> subscriber = new RecordingSubscriber<ByteBuffer>(1);
+        new ContentPublisher(connection, FILE_PATH, CHUNK_SIZE, executor).subscribe(subscriber);
+
+        subscriber.awaitItems(1);
+        Thread.sleep(100);
+
+        assertThat(subscriber.items.size(), is(equalTo(1)));
+        assertThat(chunksWritten.get(), is(equalTo(1)));
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        subscriber.awaitDone();
+
+        assertThat(subscriber.isComplete, is(equalTo(true)));
+        assertThat(content(subscriber.items), is(equalTo("abcdefghijklmnopqrst")));
+        assertThat(subscriber.items.size(), is(equalTo(5)));
+    }
+
+    @Test
+    public void theLastChunkShouldHoldWhateverIsLeft() throws Exception {
+
+        serve("abcdefghij");
+
+        RecordingSubscriber<ByteBuffer> subscriber = new RecordingSubscriber<ByteBuffer>(Long.MAX_VALUE);
+        new ContentPublisher(connection, FILE_PATH, CHUNK_SIZE, executor).subscribe(subscriber);
+
+        subscriber.awaitDone();
+
+        assertThat(subscriber.items.size(), is(equalTo(3)));
+        assertThat(subscriber.items.get(2).remaining(), is(equalTo(2)));
+        assertThat(content(subscriber.items), is(equalTo("abcdefghij")));
+    }
+
+    @Test
+    public void cancellingShouldAbortTheDownloadWithoutFurtherSignals() throws Exception {
+
+        serve("abcdefghijklmnopqrst");
+
+        RecordingSubscriber<ByteBuffer> subscriber = new RecordingSubscriber<ByteBuffer>(1);
+        new ContentPublisher(connection, FILE_PATH, CHUNK_SIZE, executor).subscribe(subscriber);
+
+        subscriber.awaitItems(1);
+        subscriber.subscription.cancel();
+
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+
+        verify(connection).abort();
+        assertThat(subscriber.items.size(), is(equalTo(1)));
+        assertThat(subscriber.isComplete, is(equalTo(false)));
+        assertThat(subscriber.error, is(nullValue()));
+    }
+
+    @Test
+    public void aSubscriberThatStopsAskingShouldBeFailedAndTheDownloadAborted() throws Exception {
+
+        serve("abcdefghijklmnopqrst");
+
+        RecordingSubscriber<ByteBuffer> subscriber = new RecordingSubscriber<ByteBuffer>(1);
+        new ContentPublisher(connection, FILE_PATH, CHUNK_SIZE, executor, 50).subscribe(subscriber);
+
+        subscriber.awaitDone();
+
+        verify(connection).abort();
+        assertThat(subscriber.items.size(), is(equalTo(1)));
+        assertThat(subscriber.error, is(instanceOf(FtpException.class)));
+    }
+
+    @Test
+    public void downloadFailuresShouldBeSignalledAsErrors() throws Exception {
+
+        FtpException failure = new FtpException("Unable to download file " + FILE_PATH);
+
+        doThrow(failure).when(connection).download(eq(FILE_PATH), any(OutputStream.class));
+
+        RecordingSubscriber<ByteBuffer> subscriber = new RecordingSubscriber<ByteBuffer>(1);
+        new ContentPublisher(connection, FILE_PATH, CHUNK_SIZE, executor).subscribe(subscriber);
+
+        subscriber.awaitDone();
+
+        assertThat(subscriber.error, is(sameInstance((Throwable) failure)));
+    }
+
+    @Test
+    public void requestsForNoItemsShouldBeSignalledAsErrors() throws Exception {
+
+        serve("abcdefgh");
+
+        RecordingSubscriber<ByteBuffer> subscriber = new RecordingSubscriber<ByteBuffer>(0);
+        new ContentPublisher(connection, FILE_PATH, CHUNK_SIZE, executor).subscribe(subscriber);
+
+        subscriber.awaitDone();
+
+        assertThat(subscriber.error, is(instanceOf(IllegalArgumentException.class)));
+        assertThat(subscriber.items.isEmpty(), is(equalTo(true)));
+    }
+
+    /**
+     * Writes the content a chunk at a time, failing as a real connection would once the
+     * stream refuses a write.
+     */
+    private void serve(final String content) {
+
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+
+                OutputStream outputStream = (OutputStream) invocation.getArguments()[1];
+                byte[] bytes = content.getBytes();
+
+                try {
+
+                    for (int offset = 0; offset < bytes.length; offset += CHUNK_SIZE) {
+                        outputStream.write(bytes, offset, Math.min(CHUNK_SIZE, bytes.length - offset));
+                        chunksWritten.incrementAndGet();
+                    }
+
+                } catch (IOException e) {
+                    throw new FtpException("Unable to download file " + FILE_PATH, e);
+                }
+
+                return null;
+            }
+
+        }).when(connection).download(eq(FILE_PATH), any(OutputStream.class));
+    }
+
+    private String content(List<ByteBuffer> chunks) {
+
+        StringBuilder content = new StringBuilder();
+
+        for (ByteBuffer chunk : chunks) {
+
+            byte[] bytes = new byte[chunk.remaining()];
+            chunk.duplicate().get(bytes);
+            content.append(new String(bytes));
+        }
+
+        return content.toString();
+    }
+
+    /**
+     * Records every signal, asking for the given number of items on subscribing.
+     */
+    static class RecordingSubscriber<T> implements Flow.Subscriber<T> {
+
+        final List<T> items = Collections.synchronizedList(new ArrayList<T>());
+
+        volatile Flow.Subscription subscription;
+        volatile Throwable error;
+        volatile boolean isComplete;
+
+        private final long initialRequest;
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        RecordingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+
+            this.subscription = subscription;
+            subscription.request(initialRequest);
+        }
+
+        @Override
+        public void onNext(T item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+
+            this.error = error;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+
+            isComplete = true;
+            done.countDown();
+        }
+
+        void awaitItems(int count) throws InterruptedException {
+
+            long deadline = System.currentTimeMillis() + 5000;
+
+            while (items.size() < count && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+        }
+
+        void awaitDone() throws InterruptedException {
+            done.await(5, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package jftp.connection;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import jftp.exception.FtpException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class DeadlineConnectionTest {
+
+    private Connection mockConnection;
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Before
+    public void setUp() {
+
+        mockConnection = mock(Connection.class);
+    }
+
+    @Test
+    public void operationsFinishingWithinTheDeadlineShouldNotBeAborted() {
+
+        List<FtpFile> files = new ArrayList<FtpFile>();
+        when(mockConnection.listFiles("path")).thenReturn(files);
+
+        DeadlineConnection connection = new DeadlineConnection(mockConnection, 10000);
+
+        assertThat(connection.listFiles("path"), is(equalTo(files)));
+        verify(mockConnection, never()).abort();
+    }
+
+    @Test
+    public void operationsStillRunningAtTheirDeadlineShouldBeAbortedAndFail() {
+
+        expectedException.expect(FtpException.class);
+        expectedException.expectMessage(is(equalTo("Operation did not complete within 50 ms.")));
+
+        final CountDownLatch aborted = new CountDownLatch(1);
+
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                aborted.countDown();
+                return null;
+            }
+        }).when(mockConnection).abort();
+
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws InterruptedException {
+                aborted.await(5, TimeUnit.SECONDS);
+                throw new FtpException("Transfer of remote.txt was aborted.");
+            }
+        }).when(mockConnection).download("remote.txt", "local");
+
+        new DeadlineConnection(mockConnection, 50).download("remote.txt", "local");
+    }
+
+    @Test
+    public void aDeadlineFiringAfterTheOperationReturnedShouldNotAbortTheConnection() {
+
+        ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+        ScheduledFuture<?> deadline = mock(ScheduledFuture.class);
+
+        ArgumentCaptor<Runnable> deadlines = ArgumentCaptor.forClass(Runnable.class);
+        doReturn(deadline).when(scheduler).schedule(deadlines.capture(), eq(10000l), eq(TimeUnit.MILLISECONDS));
+
+        new DeadlineConnection(mockConnection, 10000, scheduler).stat("remote.txt");
+        deadlines.getValue().run();
+
+        verify(deadline).cancel(false);
+        verify(mockConnection, never()).abort();
+    }
+
+    @Test
+    public void failuresBeforeTheDeadlineShouldBeRethrownUnchanged() {
+
+        expectedException.expect(FtpException.class);
+        expectedException.expectMessage(is(equalTo("Upload failed.")));
+
+        doThrow(new FtpException("Upload failed.")).when(mockConnection).upload("local.txt", "remote");
+
+        new DeadlineConnection(mockConnection, 10000).upload("local.txt", "remote");
+    }
+}
@@ -0,0 +1,131 @@
+package jftp.connection;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import jftp.exception.FtpException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+public class DirectoryCacheTest {
+
+    private Connection connection;
+    private DirectoryCache directoryCache;
+
+    @Before
+    public void setUp() {
+
+        connection = mock(Connection.class);
+        directoryCache = new DirectoryCache();
+    }
+
+    @Test
+    public void aDirectoryWhoseParentExistsShouldTakeOneRequest() {
+
+        directoryCache.createDirectories(connection, "/a/b/c");
+
+        verify(connection).createDirectory("/a/b/c");
+        verify(connection, times(1)).createDirectory(Mockito.anyString());
+    }
+
+    @Test
+    public void missingParentsShouldBeCreatedFromTheTopDown() {
+
+        doThrow(new FtpException("No such directory", 550)).doNothing().when(connection).createDirectory("/a/b/c");
+
+        directoryCache.createDirectories(connection, "/a/b/c");
+
+        InOrder inOrder = Mockito.inOrder(connection);
+        inOrder.verify(connection).createDirectory("/a/b/c");
+        inOrder.verify(connection).createDirectory("/a");
+        inOrder.verify(connection).createDirectory("/a/b");
+        inOrder.verify(connection).createDirectory("/a/b/c");
+    }
+
+    @Test
+    public void creatingTheSameTreeAgainShouldCostNoRequests() {
+
+        directoryCache.createDirectories(connection, "/a/b/c");
+        directoryCache.createDirectories(connection, "/a/b/c/");
+
+        verify(connection, times(1)).createDirectory("/a/b/c");
+    }
+
+    @Test
+    public void parentsShouldOnlyBeCreatedBeneathTheDeepestOneKnownToExist() {
+
+        directoryCache.createDirectories(connection, "/a/b");
+
+        doThrow(new FtpException("No such directory", 550)).doNothing().when(connection).createDirectory("/a/b/c/d");
+
+        directoryCache.createDirectories(connection, "/a/b/c/d");
+
+        verify(connection, never()).createDirectory("/a");
+        verify(connection).createDirectory("/a/b/c");
+    }
+
+    @Test
+    public void aDirectoryWhichAlreadyExistsShouldNotBeAFailure() {
+
+        doThrow(new FtpException("File exists", 550)).when(connection).createDirectory("/a");
+        when(connection.stat("/a")).thenReturn(new FtpFile("a", 0, "/a", 0, true));
+
+        directoryCache.createDirectories(connection, "/a");
+
+        assertThat(directoryCache.contains("/a"), is(equalTo(true)));
+    }
+
+    @Test(expected = FtpException.class)
+    public void aFileInTheWayShouldBeAFailure() {
+
+        doThrow(new FtpException("File exists", 550)).when(connection).createDirectory("/a");
+        when(connection.stat("/a")).thenReturn(new FtpFile("a", 10, "/a", 0, false));
+
+        directoryCache.createDirectories(connection, "/a");
+    }
+
+    @Test
+    public void relativePathsShouldBeRememberedByTheirAbsolutePath() {
+
+        when(connection.printWorkingDirectory()).thenReturn("/home/user");
+
+        directoryCache.createDirectories(connection, "uploads");
+
+        assertThat(directoryCache.contains("/home/user/uploads"), is(equalTo(true)));
+    }
+
+    @Test
+    public void forgettingADirectoryShouldForgetEverythingBeneathIt() {
+
+        directoryCache.createDirectories(connection, "/a/b");
+        directoryCache.createDirectories(connection, "/ab");
+
+        directoryCache.forget("/a");
+
+        assertThat(directoryCache.contains("/a/b"), is(equalTo(false)));
+        assertThat(directoryCache.contains("/ab"), is(equalTo(true)));
+    }
+
+    @Test
+    public void theLeastRecentlyUsedDirectoriesShouldBeForgottenBeyondTheCapacity() {
+
+        directoryCache = new DirectoryCache(2);
+
+        directoryCache.createDirectories(connection, "/a");
+        directoryCache.createDirectories(connection, "/b");
+        directoryCache.createDirectories(connection, "/c");
+
+        assertThat(directoryCache.contains("/a"), is(equalTo(false)));
+        assertThat(directoryCache.contains("/c"), is(equalTo(true)));
+    }
+}
@@ -0,0 +1,56 @@
+package jftp.connection;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FindOutputParserTest {
+
+    @Test
+    public void entriesShouldBeGroupedByDirectoryWithTheTopDirectoryFirst() throws IOException {
+
+        TreeListing tree = parse("d 4096 1394525265.0000000000 /data/reports\0"
+                + "f 100 1394525266.5230000000 /data/reports/march.csv\0"
+                + "f 42 1394525267 /data/readme\0"
+                + "d 4096 1394525268.0 /data/empty\0");
+
+        List<List<FtpFile>> directories = tree.getDirectories();
+
+        assertThat(directories.size(), is(equalTo(3)));
+        assertThat(directories.get(0).size(), is(equalTo(3)));
+        assertThat(directories.get(1).get(0).getFullPath(), is(equalTo("/data/reports/march.csv")));
+        assertThat(directories.get(2).size(), is(equalTo(0)));
+
+        FtpFile march = directories.get(1).get(0);
+        assertThat(march.getSize(), is(equalTo(100l)));
+        assertThat(march.getLastModifiedMillis(), is(equalTo(1394525266523l)));
+        assertThat(directories.get(0).get(0).isDirectory(), is(equalTo(true)));
+        assertThat(tree.isComplete(), is(equalTo(true)));
+    }
+
+    @Test
+    public void namesWithSpacesAndNewlinesShouldSurvive() throws IOException {
+
+        TreeListing tree = parse("f 1 1394525265.0 /data/a file\nwith a newline\0");
+
+        assertThat(tree.get(0).getName(), is(equalTo("a file\nwith a newline")));
+    }
+
+    @Test
+    public void malformedRecordsShouldBeSkipped() throws IOException {
+
+        TreeListing tree = parse("find: unknown predicate\0f 1\0");
+
+        assertThat(tree.size(), is(equalTo(0)));
+    }
+
+    private TreeListing parse(String output) throws IOException {
+        return new FindOutputParser("/data").parse(new ByteArrayInputStream(output.getBytes("UTF-8")));
+    }
+}
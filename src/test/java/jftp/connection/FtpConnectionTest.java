@@ -2,21 +2,37 @@ package jftp.connection;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import jftp.exception.FtpException;
 import jftp.util.FileStreamFactory;
@@ -31,6 +47,8 @@ import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 public class FtpConnectionTest {
 
@@ -61,7 +79,9 @@ public class FtpConnectionTest {
 
         when(mockFtpClient.changeWorkingDirectory(anyString())).thenReturn(true);
         when(mockFtpClient.printWorkingDirectory()).thenReturn(DIRECTORY_PATH);
-        when(mockFtpClient.retrieveFile(anyString(), any(OutputStream.class))).thenReturn(true);
+        when(mockFtpClient.retrieveFileStream(anyString())).thenReturn(new ByteArrayInputStream(new byte[0]));
+        when(mockFtpClient.storeFileStream(anyString())).thenReturn(new ByteArrayOutputStream());
+        when(mockFtpClient.completePendingCommand()).thenReturn(true);
 
         FTPFile[] files = createRemoteFTPFiles();
 
@@ -74,7 +94,7 @@ public class FtpConnectionTest {
         when(mockFileStreamFactory.createInputStream(anyString())).thenReturn(mockFileInputStream);
         when(mockFileStreamFactory.createOutputStream(anyString())).thenReturn(mockFileOutputStream);
 
-        when(mockFtpClient.storeFile("remote/directory/path.txt", mockFileInputStream)).thenReturn(true);
+        when(mockFileInputStream.read(any(byte[].class), anyInt(), anyInt())).thenReturn(-1);
     }
 
     @Test
@@ -179,11 +199,14 @@ public class FtpConnectionTest {
     }
 
     @Test
-    public void downloadMethodShouldCallOnFtpClientRetrieveFilesMethodWithRemoteFilename() throws IOException {
+    public void downloadMethodShouldCallOnFtpClientRetrieveFileStreamMethodWithRemoteFilename() throws IOException {
+
+        when(mockFtpClient.retrieveFileStream("path/to/remote.file")).thenReturn(new ByteArrayInputStream("a,b,c".getBytes()));
 
         ftpConnection.download("path/to/remote.file", LOCAL_DIRECTORY);
 
-        verify(mockFtpClient).retrieveFile("path/to/remote.file", mockFileOutputStream);
+        verify(mockFtpClient).retrieveFileStream("path/to/remote.file");
+        verify(mockFileOutputStream).write(any(byte[].class), eq(0), eq(5));
     }
 
     @Test
@@ -193,7 +216,7 @@ public class FtpConnectionTest {
         expectedException
                 .expectMessage(is(equalTo("Unable to write to local directory " + LOCAL_DIRECTORY + "/remote.file")));
 
-        when(mockFtpClient.retrieveFile("path/to/remote.file", mockFileOutputStream)).thenThrow(new FileNotFoundException());
+        when(mockFileStreamFactory.createOutputStream(LOCAL_DIRECTORY + "/remote.file")).thenThrow(new FileNotFoundException());
 
         ftpConnection.download("path/to/remote.file", LOCAL_DIRECTORY);
     }
@@ -205,7 +228,7 @@ public class FtpConnectionTest {
         expectedException.expect(FtpException.class);
         expectedException.expectMessage(is(equalTo("Unable to download file path/to/remote.file")));
 
-        when(mockFtpClient.retrieveFile("path/to/remote.file", mockFileOutputStream)).thenThrow(new IOException());
+        when(mockFtpClient.retrieveFileStream("path/to/remote.file")).thenThrow(new IOException());
 
         ftpConnection.download("path/to/remote.file", LOCAL_DIRECTORY);
     }
@@ -216,7 +239,7 @@ public class FtpConnectionTest {
         expectedException.expect(FtpException.class);
         expectedException.expectMessage(is(equalTo("Server returned failure while downloading.")));
 
-        when(mockFtpClient.retrieveFile("path/to/remote.file", mockFileOutputStream)).thenReturn(false);
+        when(mockFtpClient.retrieveFileStream("path/to/remote.file")).thenReturn(null);
 
         ftpConnection.download("path/to/remote.file", LOCAL_DIRECTORY);
     }
@@ -226,7 +249,7 @@ public class FtpConnectionTest {
 
         ftpConnection.upload("local/file/path.txt", "remote/directory");
 
-        verify(mockFtpClient).storeFile("remote/directory/path.txt", mockFileInputStream);
+        verify(mockFtpClient).storeFileStream("remote/directory/path.txt");
     }
 
     @Test
@@ -235,7 +258,7 @@ public class FtpConnectionTest {
         expectedException.expect(FtpException.class);
         expectedException.expectMessage(is(equalTo("Upload failed.")));
 
-        when(mockFtpClient.storeFile("remote/directory/path.txt", mockFileInputStream)).thenReturn(false);
+        when(mockFtpClient.storeFileStream("remote/directory/path.txt")).thenReturn(null);
 
         ftpConnection.upload("local/file/path.txt", "remote/directory");
     }
@@ -245,7 +268,7 @@ public class FtpConnectionTest {
         
         ftpConnection.upload("local/file/path.txt", "remote/directory/");
 
-        verify(mockFtpClient).storeFile("remote/directory/path.txt", mockFileInputStream);
+        verify(mockFtpClient).storeFileStream("remote/directory/path.txt");
     }
 
     @Test
@@ -255,7 +278,7 @@ public class FtpConnectionTest {
 
         InOrder inOrder = Mockito.inOrder(mockFtpClient, mockFileInputStream);
 
-        inOrder.verify(mockFtpClient).storeFile("remote/directory/path.txt", mockFileInputStream);
+        inOrder.verify(mockFtpClient).storeFileStream("remote/directory/path.txt");
         inOrder.verify(mockFileInputStream).close();
     }
     
@@ -276,7 +299,7 @@ public class FtpConnectionTest {
         expectedException.expect(FtpException.class);
         expectedException.expectMessage(is(equalTo("Upload may not have completed.")));
         
-        when(mockFtpClient.storeFile("remote/directory/upload.txt", mockFileInputStream)).thenThrow(new IOException());
+        when(mockFtpClient.storeFileStream("remote/directory/upload.txt")).thenThrow(new IOException());
         
         ftpConnection.upload("local/file/to/upload.txt", "remote/directory");
     }
@@ -323,6 +346,506 @@ public class FtpConnectionTest {
         inOrder.verify(mockFtpClient).changeWorkingDirectory("initial/directory");
     }
     
+    @Test
+    public void resumingADownloadShouldRestartFromTheEndOfThePartialLocalFile() throws IOException {
+
+        when(mockFileStreamFactory.length("./file.txt")).thenReturn(512l);
+        when(mockFileStreamFactory.createOutputStream("./file.txt", true)).thenReturn(mockFileOutputStream);
+
+        ftpConnection.resumeDownload("remote/file.txt", LOCAL_DIRECTORY);
+
+        InOrder inOrder = Mockito.inOrder(mockFtpClient);
+
+        inOrder.verify(mockFtpClient).setRestartOffset(512l);
+        inOrder.verify(mockFtpClient).retrieveFileStream("remote/file.txt");
+    }
+
+    @Test
+    public void resumingADownloadWithNoPartialLocalFileShouldDownloadFromTheStart() throws IOException {
+
+        ftpConnection.resumeDownload("remote/file.txt", LOCAL_DIRECTORY);
+
+        verify(mockFileStreamFactory).createOutputStream("./file.txt");
+        verify(mockFtpClient).setRestartOffset(0);
+    }
+
+    @Test
+    public void failuresReportedByTheServerShouldCarryTheReplyCode() throws IOException {
+
+        when(mockFtpClient.retrieveFileStream(anyString())).thenReturn(null);
+        when(mockFtpClient.getReplyCode()).thenReturn(550);
+
+        try {
+            ftpConnection.download("remote/file.txt", LOCAL_DIRECTORY);
+            fail();
+        } catch (FtpException e) {
+            assertThat(e.getReplyCode(), is(equalTo(550)));
+        }
+    }
+
+    @Test
+    public void abortingADownloadShouldStopTheTransferAndConsumeTheServersReply() throws IOException {
+
+        when(mockFtpClient.retrieveFileStream(anyString())).thenAnswer(new Answer<InputStream>() {
+
+            @Override
+            public InputStream answer(InvocationOnMock invocation) {
+                ftpConnection.abort();
+                return new ByteArrayInputStream(new byte[1024]);
+            }
+        });
+
+        try {
+            ftpConnection.download("path/to/remote.file", LOCAL_DIRECTORY);
+            fail();
+        } catch (FtpException e) {
+            assertThat(e.getMessage(), is(equalTo("Transfer of path/to/remote.file was aborted.")));
+        }
+
+        verify(mockFtpClient).completePendingCommand();
+        verify(mockFileOutputStream).close();
+    }
+
+    @Test
+    public void abortingShouldCloseTheDataConnectionOfAStalledTransferAndSendAbor() throws IOException {
+
+        final AtomicBoolean closed = new AtomicBoolean();
+
+        when(mockFtpClient.retrieveFileStream(anyString())).thenReturn(new InputStream() {
+
+            @Override
+            public int read() throws IOException {
+
+                // Stands for a read blocked on the socket until it is closed.
+                ftpConnection.abort();
+
+                if (closed.get())
+                    throw new SocketException("Socket closed");
+
+                return 0;
+            }
+
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        });
+
+        try {
+            ftpConnection.download("path/to/remote.file", LOCAL_DIRECTORY);
+            fail();
+        } catch (FtpException e) {
+            assertThat(e.getMessage(), is(equalTo("Transfer of path/to/remote.file was aborted.")));
+        }
+
+        assertThat(closed.get(), is(true));
+
+        InOrder inOrder = Mockito.inOrder(mockFtpClient);
+        inOrder.verify(mockFtpClient).abort();
+        inOrder.verify(mockFtpClient).completePendingCommand();
+    }
+
+    @Test
+    public void anAbortRequestedBeforeATransferStartsShouldNotAffectIt() throws IOException {
+
+        when(mockFtpClient.retrieveFileStream(anyString())).thenReturn(new ByteArrayInputStream(new byte[1024]));
+
+        ftpConnection.abort();
+        ftpConnection.download("path/to/remote.file", LOCAL_DIRECTORY);
+    }
+
+    @Test
+    public void downloadingToAStreamShouldRetrieveTheRemoteFileIntoIt() throws IOException {
+
+        when(mockFtpClient.retrieveFileStream("path/to/remote.file")).thenReturn(new ByteArrayInputStream("a,b,c".getBytes()));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        ftpConnection.download("path/to/remote.file", outputStream);
+
+        assertThat(outputStream.toString(), is(equalTo("a,b,c")));
+        verify(mockFtpClient).completePendingCommand();
+    }
+
+    @Test
+    public void aRangeShouldBeReadFromTheRestartOffsetUpToItsLength() throws IOException {
+
+        when(mockFtpClient.retrieveFileStream("remote.file")).thenReturn(new ByteArrayInputStream("0123456789".getBytes()));
+        when(mockFtpClient.completePendingCommand()).thenReturn(false);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        long downloaded = ftpConnection.downloadRange("remote.file", 4, 6, outputStream);
+
+        assertThat(downloaded, is(equalTo(6L)));
+        assertThat(outputStream.toString(), is(equalTo("012345")));
+
+        InOrder inOrder = Mockito.inOrder(mockFtpClient);
+        inOrder.verify(mockFtpClient).setRestartOffset(4);
+        inOrder.verify(mockFtpClient).retrieveFileStream("remote.file");
+        inOrder.verify(mockFtpClient).completePendingCommand();
+    }
+
+    @Test
+    public void aRangeCutShortByAFailedTransferShouldBeReported() throws IOException {
+
+        when(mockFtpClient.retrieveFileStream("remote.file")).thenReturn(new ByteArrayInputStream("0123".getBytes()));
+        when(mockFtpClient.completePendingCommand()).thenReturn(false);
+        when(mockFtpClient.getReplyCode()).thenReturn(426);
+
+        try {
+            ftpConnection.downloadRange("remote.file", 0, 6, new ByteArrayOutputStream());
+            fail();
+        } catch (FtpException e) {
+            assertThat(e.getReplyCode(), is(equalTo(426)));
+        }
+    }
+
+    @Test
+    public void appendingShouldSendAppe() throws IOException {
+
+        ByteArrayOutputStream remoteFile = new ByteArrayOutputStream();
+        when(mockFtpClient.appendFileStream("remote/file.log")).thenReturn(remoteFile);
+
+        ftpConnection.append(new ByteArrayInputStream("line".getBytes()), "remote/file.log");
+
+        assertThat(remoteFile.toString(), is(equalTo("line")));
+    }
+
+    @Test
+    public void aFailedAppendShouldLeaveTheRemoteFileInPlace() throws IOException {
+
+        InputStream inputStream = new ByteArrayInputStream("line".getBytes());
+        when(mockFtpClient.appendFileStream("remote/file.log")).thenThrow(new IOException());
+
+        try {
+            ftpConnection.append(inputStream, "remote/file.log");
+            fail();
+        } catch (FtpException e) {
+            assertThat(e.getMessage(), is(equalTo("Upload may not have completed.")));
+        }
+
+        verify(mockFtpClient).completePendingCommand();
+        verify(mockFtpClient, never()).deleteFile("remote/file.log");
+    }
+
+    @Test
+    public void uploadingFromAStreamShouldStoreItAtTheRemotePath() throws IOException {
+
+        ByteArrayOutputStream remoteFile = new ByteArrayOutputStream();
+        when(mockFtpClient.storeFileStream("remote/file.txt")).thenReturn(remoteFile);
+
+        ftpConnection.upload(new ByteArrayInputStream("a,b,c".getBytes()), "remote/file.txt");
+
+        assertThat(remoteFile.toString(), is(equalTo("a,b,c")));
+    }
+
+    @Test
+    public void ifReadingTheStreamFailsDuringUploadThenThePartialRemoteFileShouldBeRemoved() throws IOException {
+
+        InputStream inputStream = mock(InputStream.class);
+        when(inputStream.read(any(byte[].class), anyInt(), anyInt())).thenThrow(new IOException());
+
+        try {
+            ftpConnection.upload(inputStream, "remote/file.txt");
+            fail();
+        } catch (FtpException e) {
+            assertThat(e.getMessage(), is(equalTo("Upload may not have completed.")));
+        }
+
+        InOrder inOrder = Mockito.inOrder(mockFtpClient);
+        inOrder.verify(mockFtpClient).completePendingCommand();
+        inOrder.verify(mockFtpClient).deleteFile("remote/file.txt");
+    }
+
+    @Test
+    public void serverToServerTransferShouldConnectTheSourceToTheTargetsPassivePort() throws IOException {
+
+        FTPClient targetClient = mock(FTPClient.class);
+        FtpConnection target = new FtpConnection(targetClient);
+
+        when(targetClient.enterRemotePassiveMode()).thenReturn(true);
+        when(targetClient.getPassiveHost()).thenReturn("127.0.0.1");
+        when(targetClient.getPassivePort()).thenReturn(2121);
+        when(targetClient.remoteStore("target/file.txt")).thenReturn(true);
+        when(targetClient.completePendingCommand()).thenReturn(true);
+        when(mockFtpClient.enterRemoteActiveMode(InetAddress.getByName("127.0.0.1"), 2121)).thenReturn(true);
+        when(mockFtpClient.remoteRetrieve("source/file.txt")).thenReturn(true);
+        when(mockFtpClient.completePendingCommand()).thenReturn(true);
+
+        assertThat(ftpConnection.transferTo(target, "source/file.txt", "target/file.txt"), is(equalTo(true)));
+
+        InOrder inOrder = Mockito.inOrder(targetClient, mockFtpClient);
+        inOrder.verify(targetClient).remoteStore("target/file.txt");
+        inOrder.verify(mockFtpClient).remoteRetrieve("source/file.txt");
+
+        verify(mockFtpClient).enterLocalPassiveMode();
+        verify(targetClient).enterLocalPassiveMode();
+    }
+
+    @Test
+    public void serverToServerTransferShouldReportWhenTheTargetRefusesPassiveMode() throws IOException {
+
+        FTPClient targetClient = mock(FTPClient.class);
+
+        assertThat(ftpConnection.transferTo(new FtpConnection(targetClient), "source/file.txt", "target/file.txt"),
+                is(equalTo(false)));
+
+        verify(mockFtpClient, never()).remoteRetrieve(anyString());
+    }
+
+    @Test
+    public void ifTheSourceCannotSendTheFileThenTheTargetShouldBeAborted() throws IOException {
+
+        FTPClient targetClient = mock(FTPClient.class);
+
+        when(targetClient.enterRemotePassiveMode()).thenReturn(true);
+        when(targetClient.getPassiveHost()).thenReturn("127.0.0.1");
+        when(targetClient.remoteStore(anyString())).thenReturn(true);
+        when(mockFtpClient.enterRemoteActiveMode(any(InetAddress.class), anyInt())).thenReturn(true);
+        when(mockFtpClient.getReplyCode()).thenReturn(550);
+
+        try {
+            ftpConnection.transferTo(new FtpConnection(targetClient), "source/file.txt", "target/file.txt");
+            fail();
+        } catch (FtpException e) {
+            assertThat(e.getReplyCode(), is(equalTo(550)));
+        }
+
+        verify(targetClient).abort();
+    }
+
+    @Test
+    public void listingsShouldBeReadStraightFromTheDataConnectionUsingMlsdWhereSupported() throws IOException {
+
+        RawListingFtpClient rawClient = spy(new RawListingFtpClient(
+                "type=dir;modify=20140311080745; reports\r\ntype=file;size=42;modify=20140311080745; data.csv\r\n"));
+
+        doReturn(true).when(rawClient).changeWorkingDirectory(anyString());
+        doReturn(DIRECTORY_PATH).when(rawClient).printWorkingDirectory();
+        doReturn(true).when(rawClient).hasFeature("MLST");
+        doReturn(true).when(rawClient).completePendingCommand();
+
+        List<FtpFile> files = new FtpConnection(rawClient).listFiles();
+
+        assertThat(rawClient.command, is(equalTo("MLSD")));
+        assertThat(rawClient.argument, is(equalTo(DIRECTORY_PATH)));
+
+        assertThat(files.size(), is(equalTo(2)));
+        assertThat(files.get(0).isDirectory(), is(equalTo(true)));
+        assertThat(files.get(1).getFullPath(), is(equalTo(DIRECTORY_PATH + "/data.csv")));
+        assertThat(files.get(1).getSize(), is(equalTo(42l)));
+
+        verify(rawClient, never()).listFiles(anyString());
+    }
+
+    @Test
+    public void listingsShouldFallBackToListWhenMlsdIsNotSupported() throws IOException {
+
+        RawListingFtpClient rawClient = spy(new RawListingFtpClient(
+                "-rw-r--r-- 1 owner group 42 Mar 11  2014 data.csv\r\n"));
+
+        doReturn(true).when(rawClient).changeWorkingDirectory(anyString());
+        doReturn(DIRECTORY_PATH).when(rawClient).printWorkingDirectory();
+        doReturn(false).when(rawClient).hasFeature("MLST");
+        doReturn(true).when(rawClient).completePendingCommand();
+
+        List<FtpFile> files = new FtpConnection(rawClient).listFiles();
+
+        assertThat(rawClient.command, is(equalTo("LIST")));
+        assertThat(files.get(0).getName(), is(equalTo("data.csv")));
+    }
+
+    @Test
+    public void serverSideHashesShouldBeRequestedOnceSha256IsSelected() throws IOException {
+
+        when(mockFtpClient.hasFeature("HASH")).thenReturn(true);
+        when(mockFtpClient.sendCommand("OPTS", "HASH SHA-256")).thenReturn(200);
+        when(mockFtpClient.sendCommand("HASH", "data/report.csv")).thenReturn(213);
+        when(mockFtpClient.getReplyString()).thenReturn(
+                "213 SHA-256 0-5 9F86D081884C7D659A2FEAA0C55AD015A3BF4F1B2B0B822CD15D6C15B0F00A08 report.csv\r\n");
+
+        assertThat(ftpConnection.sha256("data/report.csv"),
+                is(equalTo("9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08")));
+
+        ftpConnection.sha256("data/report.csv");
+
+        verify(mockFtpClient, times(1)).sendCommand("OPTS", "HASH SHA-256");
+    }
+
+    @Test
+    public void serversWithoutTheHashCommandShouldGiveNoHash() throws IOException {
+
+        when(mockFtpClient.hasFeature("HASH")).thenReturn(false);
+
+        assertThat(ftpConnection.sha256("data/report.csv"), is(nullValue()));
+        verify(mockFtpClient, never()).sendCommand(eq("HASH"), anyString());
+    }
+
+    @Test
+    public void streamedListingsShouldStopReadingWhenTheHandlerRefusesAnEntry() throws IOException {
+
+        RawListingFtpClient rawClient = spy(new RawListingFtpClient(
+                "type=file;size=1; first.csv\r\ntype=file;size=2; second.csv\r\n"));
+
+        doReturn(true).when(rawClient).changeWorkingDirectory(anyString());
+        doReturn(DIRECTORY_PATH).when(rawClient).printWorkingDirectory();
+        doReturn(true).when(rawClient).hasFeature("MLST");
+        doReturn(false).when(rawClient).completePendingCommand();
+
+        final List<FtpFile> files = new ArrayList<FtpFile>();
+
+        new FtpConnection(rawClient).listFiles(DIRECTORY_PATH, new ListingSource.EntryHandler() {
+
+            @Override
+            public boolean entry(FtpFile file) {
+                files.add(file);
+                return false;
+            }
+        });
+
+        assertThat(files.size(), is(equalTo(1)));
+        assertThat(files.get(0).getFullPath(), is(equalTo(DIRECTORY_PATH + "/first.csv")));
+        verify(rawClient).completePendingCommand();
+        verify(rawClient, never()).listFiles(anyString());
+    }
+
+    @Test
+    public void recursiveListingsShouldBeRequestedFromTheServerInOneList() throws IOException {
+
+        RawListingFtpClient rawClient = spy(new RawListingFtpClient(".:\r\n"
+                + "drwxr-xr-x 2 owner group 4096 Mar 11  2014 reports\r\n\r\n"
+                + "./reports:\r\n"
+                + "-rw-r--r-- 1 owner group 42 Mar 11  2014 data.csv\r\n"));
+
+        doReturn(true).when(rawClient).changeWorkingDirectory(anyString());
+        doReturn(DIRECTORY_PATH).when(rawClient).printWorkingDirectory();
+        doReturn(true).when(rawClient).completePendingCommand();
+
+        List<FtpFile> files = new FtpConnection(rawClient).listFilesRecursively(DIRECTORY_PATH);
+
+        assertThat(rawClient.command, is(equalTo("LIST")));
+        assertThat(rawClient.argument, is(equalTo("-R " + DIRECTORY_PATH)));
+
+        assertThat(files.size(), is(equalTo(2)));
+        assertThat(files.get(1).getFullPath(), is(equalTo(DIRECTORY_PATH + "/reports/data.csv")));
+    }
+
+    @Test
+    public void statShouldUseMlstWhereSupported() throws IOException {
+
+        FTPFile remoteFile = new FTPFile();
+        remoteFile.setSize(42);
+        remoteFile.setType(FTPFile.FILE_TYPE);
+
+        when(mockFtpClient.hasFeature("MLST")).thenReturn(true);
+        when(mockFtpClient.mlistFile("/remote/data.csv")).thenReturn(remoteFile);
+
+        FtpFile file = ftpConnection.stat("/remote/data.csv");
+
+        assertThat(file.getName(), is(equalTo("data.csv")));
+        assertThat(file.getSize(), is(equalTo(42l)));
+        verify(mockFtpClient, never()).listFiles(anyString());
+    }
+
+    @Test
+    public void statShouldReturnNullWhenMlstFindsNothing() throws IOException {
+
+        when(mockFtpClient.hasFeature("MLST")).thenReturn(true);
+        when(mockFtpClient.getReplyCode()).thenReturn(550);
+
+        assertThat(ftpConnection.exists("/remote/missing.csv"), is(equalTo(false)));
+    }
+
+    @Test
+    public void statShouldFallBackToSizeAndMdtmWithoutMlst() throws IOException {
+
+        when(mockFtpClient.sendCommand("SIZE", "/remote/data.csv")).thenReturn(213);
+        when(mockFtpClient.getReplyString()).thenReturn("213 42\r\n");
+        when(mockFtpClient.getModificationTime("/remote/data.csv")).thenReturn("213 20140311080745\r\n");
+
+        FtpFile file = ftpConnection.stat("/remote/data.csv");
+
+        assertThat(file.getSize(), is(equalTo(42l)));
+        assertThat(file.getLastModifiedMillis(), is(equalTo(1394525265000l)));
+        assertThat(file.isDirectory(), is(equalTo(false)));
+    }
+
+    @Test
+    public void statShouldRecogniseADirectoryByChangingIntoIt() throws IOException {
+
+        when(mockFtpClient.sendCommand("SIZE", "/remote/reports")).thenReturn(550);
+
+        FtpFile file = ftpConnection.stat("/remote/reports");
+
+        assertThat(file.isDirectory(), is(equalTo(true)));
+        verify(mockFtpClient).changeWorkingDirectory(DIRECTORY_PATH);
+    }
+
+    @Test
+    public void statShouldReturnNullWhenNothingAnswersForThePath() throws IOException {
+
+        when(mockFtpClient.sendCommand("SIZE", "/remote/missing")).thenReturn(550);
+        when(mockFtpClient.changeWorkingDirectory("/remote/missing")).thenReturn(false);
+
+        assertThat(ftpConnection.stat("/remote/missing"), is(nullValue()));
+    }
+
+    @Test
+    public void aDirectoryTheServerRefusesToCreateShouldFailWithItsReplyCode() throws IOException {
+
+        when(mockFtpClient.makeDirectory("/remote/reports")).thenReturn(false);
+        when(mockFtpClient.getReplyCode()).thenReturn(550);
+
+        try {
+            ftpConnection.createDirectory("/remote/reports");
+            fail();
+        } catch (FtpException e) {
+            assertThat(e.getReplyCode(), is(equalTo(550)));
+        }
+    }
+
+    @Test
+    public void deleteAndRenameShouldUseDeleAndRnfrRnto() throws IOException {
+
+        when(mockFtpClient.deleteFile("/remote/old.csv")).thenReturn(true);
+        when(mockFtpClient.rename("/remote/new.part", "/remote/new.csv")).thenReturn(true);
+
+        ftpConnection.delete("/remote/old.csv");
+        ftpConnection.rename("/remote/new.part", "/remote/new.csv");
+
+        verify(mockFtpClient).deleteFile("/remote/old.csv");
+        verify(mockFtpClient).rename("/remote/new.part", "/remote/new.csv");
+    }
+
+    @Test
+    public void keepAliveShouldSendNoOpOnceTheControlConnectionHasBeenIdleLongEnough() throws IOException {
+
+        when(mockFtpClient.sendNoOp()).thenReturn(true);
+
+        assertThat(ftpConnection.keepAlive(0), is(equalTo(true)));
+
+        verify(mockFtpClient).sendNoOp();
+    }
+
+    @Test
+    public void keepAliveShouldNotSendNoOpWhenTheControlConnectionWasRecentlyUsed() throws IOException {
+
+        ftpConnection.printWorkingDirectory();
+
+        assertThat(ftpConnection.keepAlive(60000), is(equalTo(true)));
+
+        verify(mockFtpClient, never()).sendNoOp();
+    }
+
+    @Test
+    public void keepAliveShouldReportTheConnectionAsDeadWhenNoOpFails() throws IOException {
+
+        when(mockFtpClient.sendNoOp()).thenThrow(new IOException());
+
+        assertThat(ftpConnection.keepAlive(0), is(equalTo(false)));
+    }
+
     private FTPFile[] createRemoteFTPFiles() {
 
         Calendar calendar = Calendar.getInstance();
@@ -348,4 +871,34 @@ public class FtpConnectionTest {
     private boolean setTrueIfNumberIsEven(int i) {
         return (i + 1) % 2 == 0 ? true : false;
     }
+
+    /**
+     * Serves a canned listing over a fake data connection.
+     */
+    static class RawListingFtpClient extends FTPClient {
+
+        private final byte[] listing;
+
+        String command;
+        String argument;
+
+        RawListingFtpClient(String listing) {
+            this.listing = listing.getBytes();
+        }
+
+        @Override
+        protected Socket _openDataConnection_(String command, String argument) {
+
+            this.command = command;
+            this.argument = argument;
+
+            return new Socket() {
+
+                @Override
+                public InputStream getInputStream() {
+                    return new ByteArrayInputStream(listing);
+                }
+            };
+        }
+    }
 }
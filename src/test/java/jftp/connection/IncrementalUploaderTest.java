@@ -0,0 +1,168 @@
+package jftp.connection;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import jftp.connection.IncrementalUploader.Outcome;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class IncrementalUploaderTest {
+
+    private static final String REMOTE_FILE = "/logs/app.log";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Connection connection;
+    private IncrementalUploader uploader;
+    private String localFilePath;
+
+    private byte[] remoteContent;
+    private final ByteArrayOutputStream appended = new ByteArrayOutputStream();
+
+    @Before
+    public void setUp() throws IOException {
+
+        connection = mock(Connection.class, withSettings().extraInterfaces(AppendingUpload.class, RangedDownload.class));
+        uploader = new IncrementalUploader(connection);
+
+        File localFile = temporaryFolder.newFile("app.log");
+        Files.write(localFile.toPath(), "line one\nline two\nline three\n".getBytes());
+        localFilePath = localFile.getAbsolutePath();
+
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws IOException {
+
+                InputStream inputStream = (InputStream) invocation.getArguments()[0];
+                int b;
+
+                while ((b = inputStream.read()) != -1)
+                    appended.write(b);
+
+                return null;
+            }
+
+        }).when((AppendingUpload) connection).append(any(InputStream.class), eq(REMOTE_FILE));
+
+        doAnswer(new Answer<Long>() {
+
+            @Override
+            public Long answer(InvocationOnMock invocation) throws IOException {
+
+                int offset = (int) (long) (Long) invocation.getArguments()[1];
+                int length = (int) Math.min((Long) invocation.getArguments()[2], remoteContent.length - offset);
+
+                ((OutputStream) invocation.getArguments()[3]).write(remoteContent, offset, length);
+
+                return (long) length;
+            }
+
+        }).when((RangedDownload) connection).downloadRange(eq(REMOTE_FILE), anyLong(), anyLong(),
+                any(OutputStream.class));
+    }
+
+    @Test
+    public void aFileMissingFromTheServerShouldBeUploadedInFull() {
+
+        assertThat(uploader.upload(localFilePath, "/logs"), is(equalTo(Outcome.UPLOADED)));
+
+        verify(connection).upload(localFilePath, "/logs");
+    }
+
+    @Test
+    public void onlyTheNewTailShouldBeAppended() {
+
+        remote("line one\nline two\n");
+
+        assertThat(uploader.upload(localFilePath, "/logs/"), is(equalTo(Outcome.APPENDED)));
+
+        assertThat(appended.toString(), is(equalTo("line three\n")));
+        verify(connection, never()).upload(anyString(), anyString());
+    }
+
+    @Test
+    public void aRemoteFileAlreadyUpToDateShouldBeLeftAlone() {
+
+        remote("line one\nline two\nline three\n");
+
+        assertThat(uploader.upload(localFilePath, "/logs"), is(equalTo(Outcome.UNCHANGED)));
+
+        assertThat(appended.size(), is(equalTo(0)));
+        verify(connection, never()).upload(anyString(), anyString());
+    }
+
+    @Test
+    public void aLocalFileShorterThanTheRemoteOneShouldBeUploadedInFull() {
+
+        remote("line one\nline two\nline three\nline four\n");
+
+        assertThat(uploader.upload(localFilePath, "/logs"), is(equalTo(Outcome.UPLOADED)));
+
+        verify(connection).upload(localFilePath, "/logs");
+    }
+
+    @Test
+    public void aRotatedLocalFileShouldBeDetectedByItsTailAndUploadedInFull() {
+
+        remote("LINE ONE\nline two\n");
+
+        assertThat(uploader.upload(localFilePath, "/logs"), is(equalTo(Outcome.UPLOADED)));
+
+        assertThat(appended.size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void theTailShouldNotBeCheckedWhenVerificationIsOff() throws IOException {
+
+        uploader.setTailVerificationBytes(0);
+        remote("LINE ONE\nline two\n");
+
+        assertThat(uploader.upload(localFilePath, "/logs"), is(equalTo(Outcome.APPENDED)));
+
+        verify((RangedDownload) connection, never()).downloadRange(anyString(), anyLong(), anyLong(),
+                any(OutputStream.class));
+    }
+
+    @Test
+    public void aConnectionUnableToAppendShouldUploadInFull() {
+
+        connection = mock(Connection.class);
+        uploader = new IncrementalUploader(connection);
+        remote("line one\n");
+
+        assertThat(uploader.upload(localFilePath, "/logs"), is(equalTo(Outcome.UPLOADED)));
+    }
+
+    private void remote(String content) {
+
+        remoteContent = content.getBytes();
+
+        when(connection.stat(REMOTE_FILE)).thenReturn(new FtpFile("app.log", remoteContent.length, REMOTE_FILE, 0, false));
+    }
+}
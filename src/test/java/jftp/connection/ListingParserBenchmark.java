@@ -0,0 +1,110 @@
+package jftp.connection;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPFileEntryParser;
+import org.apache.commons.net.ftp.FTPListParseEngine;
+import org.apache.commons.net.ftp.parser.MLSxEntryParser;
+import org.apache.commons.net.ftp.parser.UnixFTPEntryParser;
+
+/**
+ * Manual benchmark comparing ListingParser against the commons-net parsers on a generated
+ * listing held in memory, so only parsing and conversion into FtpFile data is measured.
+ * 
+ * Usage: ListingParserBenchmark [lines] [rounds]
+ */
+public class ListingParserBenchmark {
+
+    private static final int DEFAULT_LINES = 2000000;
+    private static final int DEFAULT_ROUNDS = 5;
+
+    private static final Charset ENCODING = Charset.forName("ISO-8859-1");
+
+    public static void main(String[] args) throws IOException {
+
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_LINES;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+
+        byte[] unixListing = createUnixListing(lines);
+        byte[] mlsdListing = createMlsdListing(lines);
+
+        for (int round = 1; round <= rounds; round++) {
+
+            report("LIST  commons-net ", round, lines, timeCommonsNet(unixListing, new UnixFTPEntryParser()));
+            report("LIST  ListingParser", round, lines, timeListingParser(unixListing, false));
+            report("MLSD  commons-net ", round, lines, timeCommonsNet(mlsdListing, new MLSxEntryParser()));
+            report("MLSD  ListingParser", round, lines, timeListingParser(mlsdListing, true));
+        }
+    }
+
+    private static long timeCommonsNet(byte[] listing, FTPFileEntryParser parser)
+            throws IOException {
+
+        long start = System.nanoTime();
+
+        FTPListParseEngine engine = new FTPListParseEngine(parser);
+        engine.readServerList(new ByteArrayInputStream(listing), ENCODING.name());
+
+        CompactFileListing files = new CompactFileListing("/benchmark");
+
+        for (FTPFile file : engine.getFiles())
+            files.add(file.getName(), file.getSize(), file.getTimestamp().getTimeInMillis(), file.isDirectory());
+
+        return System.nanoTime() - start;
+    }
+
+    private static long timeListingParser(byte[] listing, boolean isMlsd) throws IOException {
+
+        long start = System.nanoTime();
+
+        ListingParser parser = new ListingParser(ENCODING, TimeZone.getDefault(), System.currentTimeMillis());
+        parser.parse(new ByteArrayInputStream(listing), new CompactFileListing("/benchmark"), isMlsd);
+
+        return System.nanoTime() - start;
+    }
+
+    private static byte[] createUnixListing(int lines) {
+
+        String[] months = { "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec" };
+        ByteArrayOutputStream listing = new ByteArrayOutputStream();
+
+        for (int i = 0; i < lines; i++) {
+
+            String line = String.format(Locale.ROOT, "%srw-r--r--   1 owner    group    %10d %s %2d  %4d file-%d.dat\r\n",
+                    i % 10 == 0 ? "d" : "-", i * 31l, months[i % 12], i % 28 + 1, 2000 + i % 14, i);
+
+            listing.write(line.getBytes(ENCODING), 0, line.length());
+        }
+
+        return listing.toByteArray();
+    }
+
+    private static byte[] createMlsdListing(int lines) {
+
+        ByteArrayOutputStream listing = new ByteArrayOutputStream();
+
+        for (int i = 0; i < lines; i++) {
+
+            String line = String.format(Locale.ROOT, "type=%s;size=%d;modify=20%02d%02d%02d120000;perm=r; file-%d.dat\r\n",
+                    i % 10 == 0 ? "dir" : "file", i * 31l, i % 14, i % 12 + 1, i % 28 + 1, i);
+
+            listing.write(line.getBytes(ENCODING), 0, line.length());
+        }
+
+        return listing.toByteArray();
+    }
+
+    private static void report(String parser, int round, int lines, long nanos) {
+
+        double millis = nanos / 1e6;
+
+        System.out.println(String.format(Locale.ROOT, "%s round %d: %8.1f ms, %6.0f ns/line", parser, round, millis,
+                (double) nanos / lines));
+    }
+}
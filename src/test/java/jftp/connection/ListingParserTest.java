@@ -0,0 +1,241 @@
+package jftp.connection;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+public class ListingParserTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final long NOW = new DateTime(2014, 6, 15, 12, 0, DateTimeZone.UTC).getMillis();
+
+    private ListingParser parser = new ListingParser(UTF_8, UTC, NOW);
+    private CompactFileListing listing = new CompactFileListing("/data");
+
+    @Test
+    public void mlsdFactsShouldBeReadIntoTheListing() throws IOException {
+
+        parse(true, "type=file;size=1024;modify=20140311080745;perm=r; report.csv\r\n"
+                + "Type=dir;Modify=20140102030405.250; archive\r\n");
+
+        assertThat(listing.size(), is(equalTo(2)));
+        assertEntry(0, "report.csv", 1024, new DateTime(2014, 3, 11, 8, 7, 45, DateTimeZone.UTC), false);
+        assertEntry(1, "archive", 0, new DateTime(2014, 1, 2, 3, 4, 5, 250, DateTimeZone.UTC), true);
+    }
+
+    @Test
+    public void mlsdEntriesForTheDirectoryItselfAndItsParentShouldBeSkipped() throws IOException {
+
+        parse(true, "type=cdir;modify=20140311080745; .\r\ntype=pdir;modify=20140311080745; ..\r\n"
+                + "type=file;size=1; a file with spaces\r\n");
+
+        assertThat(listing.size(), is(equalTo(1)));
+        assertThat(listing.getName(0), is(equalTo("a file with spaces")));
+    }
+
+    @Test
+    public void unixListingsShouldBeParsedWithOrWithoutAGroupColumn() throws IOException {
+
+        parse(false, "total 12\r\n"
+                + "-rw-r--r--   1 owner group     123456 Mar 11  2013 old file.txt\r\n"
+                + "drwxr-xr-x   2 owner         4096 Jan  2 03:04 recent\r\n");
+
+        assertThat(listing.size(), is(equalTo(2)));
+        assertEntry(0, "old file.txt", 123456, new DateTime(2013, 3, 11, 0, 0, DateTimeZone.UTC), false);
+        assertEntry(1, "recent", 4096, new DateTime(2014, 1, 2, 3, 4, DateTimeZone.UTC), true);
+    }
+
+    @Test
+    public void recentUnixDatesLaterInTheYearThanNowShouldBelongToLastYear() throws IOException {
+
+        parse(false, "-rw-r--r-- 1 owner group 10 Dec 24 18:30 christmas.txt\n");
+
+        assertThat(listing.getLastModifiedMillis(0),
+                is(equalTo(new DateTime(2013, 12, 24, 18, 30, DateTimeZone.UTC).getMillis())));
+    }
+
+    @Test
+    public void symbolicLinksShouldBeListedUnderTheirOwnName() throws IOException {
+
+        parse(false, "lrwxrwxrwx 1 owner group 7 Mar 11  2013 latest -> v2.0.1\n");
+
+        assertThat(listing.getName(0), is(equalTo("latest")));
+        assertThat(listing.isDirectory(0), is(equalTo(false)));
+    }
+
+    @Test
+    public void windowsListingsShouldBeParsed() throws IOException {
+
+        parse(false, "03-11-14  08:07PM       <DIR>          Program Files\r\n"
+                + "12-01-1999  11:15AM              2048 setup.exe\r\n");
+
+        assertEntry(0, "Program Files", 0, new DateTime(2014, 3, 11, 20, 7, DateTimeZone.UTC), true);
+        assertEntry(1, "setup.exe", 2048, new DateTime(1999, 12, 1, 11, 15, DateTimeZone.UTC), false);
+    }
+
+    @Test
+    public void serverLocalTimesShouldBeConvertedFromTheServersZone() throws IOException {
+
+        TimeZone newYork = TimeZone.getTimeZone("America/New_York");
+        parser = new ListingParser(UTF_8, newYork, NOW);
+
+        parse(false, "-rw-r--r-- 1 owner group 10 Jul  4  2013 summer.txt\n");
+
+        assertThat(listing.getLastModifiedMillis(0),
+                is(equalTo(new DateTime(2013, 7, 4, 0, 0, DateTimeZone.forID("America/New_York")).getMillis())));
+    }
+
+    @Test
+    public void unrecognisedLinesShouldBeSkipped() throws IOException {
+
+        parse(false, "this is not a listing line\n-rw-r--r-- 1 owner group ten Mar 11 2013 broken\n\n");
+
+        assertThat(listing.size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void namesShouldBeDecodedFromTheControlEncoding() throws IOException {
+
+        Charset latin1 = Charset.forName("ISO-8859-1");
+        parser = new ListingParser(latin1, UTC, NOW);
+
+        parser.parse(new ByteArrayInputStream("type=file;size=1; caf\u00e9\r\n".getBytes(latin1)), listing, true);
+
+        assertThat(listing.getName(0), is(equalTo("caf\u00e9")));
+    }
+
+    @Test
+    public void linesSpanningReadsAndLongerThanTheBufferShouldBeParsedWhole() throws IOException {
+
+        StringBuilder longName = new StringBuilder();
+
+        for (int i = 0; i < 70000; i++)
+            longName.append('x');
+
+        String content = "type=file;size=1; first\r\ntype=file;size=2; " + longName + "\r\ntype=file;size=3; last";
+
+        parser.parse(new TrickleInputStream(content.getBytes(UTF_8), 1000), listing, true);
+
+        assertThat(listing.size(), is(equalTo(3)));
+        assertThat(listing.getName(1), is(equalTo(longName.toString())));
+        assertThat(listing.getName(2), is(equalTo("last")));
+    }
+
+    @Test
+    public void pagedListingsShouldHandOverEveryEntryUntilTheHandlerStops() throws IOException {
+
+        StringBuilder lines = new StringBuilder();
+
+        for (int i = 0; i < 100; i++)
+            lines.append("type=file;size=").append(i).append("; file").append(i).append("\r\n");
+
+        final List<FtpFile> files = new ArrayList<FtpFile>();
+
+        ListingSource.EntryHandler handler = new ListingSource.EntryHandler() {
+
+            @Override
+            public boolean entry(FtpFile file) {
+                files.add(file);
+                return files.size() < 70;
+            }
+        };
+
+        boolean isComplete = parser.parse(new ByteArrayInputStream(lines.toString().getBytes(UTF_8)), "/data", true,
+                handler);
+
+        assertThat(isComplete, is(equalTo(false)));
+        assertThat(files.size(), is(equalTo(70)));
+        assertThat(files.get(69).getFullPath(), is(equalTo("/data/file69")));
+        assertThat(files.get(69).getSize(), is(equalTo(69l)));
+    }
+
+    @Test
+    public void recursiveListingsShouldBeSplitIntoOneListingPerDirectory() throws IOException {
+
+        String output = ".:\r\n"
+                + "drwxr-xr-x 2 owner group 4096 Mar 11  2013 reports\r\n"
+                + "-rw-r--r-- 1 owner group 10 Mar 11  2013 readme\r\n"
+                + "\r\n"
+                + "./reports:\r\n"
+                + "total 1\r\n"
+                + "-rw-r--r-- 1 owner group 20 Mar 11  2013 march.csv\r\n"
+                + "\r\n"
+                + "/data/reports/empty:\r\n";
+
+        TreeListing tree = parser.parseRecursive(new ByteArrayInputStream(output.getBytes(UTF_8)), "/data");
+
+        assertThat(tree.getDirectories().size(), is(equalTo(3)));
+        assertThat(tree.get(0).getFullPath(), is(equalTo("/data/reports")));
+        assertThat(tree.get(2).getFullPath(), is(equalTo("/data/reports/march.csv")));
+        assertThat(((CompactFileListing) tree.getDirectories().get(2)).getParentPath(),
+                is(equalTo("/data/reports/empty")));
+    }
+
+    @Test
+    public void entriesForTheDirectoryItselfAndItsParentShouldBeSkipped() throws IOException {
+
+        parse(false, "drwxr-xr-x 2 owner group 4096 Mar 11  2013 .\n"
+                + "drwxr-xr-x 2 owner group 4096 Mar 11  2013 ..\n"
+                + "drwxr-xr-x 2 owner group 4096 Mar 11  2013 ...\n");
+
+        assertThat(listing.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void epochDaysShouldMatchTheCalendar() {
+
+        assertThat(ListingParser.epochDay(1970, 1, 1), is(equalTo(0l)));
+        assertThat(ListingParser.epochDay(2000, 2, 29), is(equalTo(11016l)));
+        assertThat(ListingParser.epochDay(1969, 12, 31), is(equalTo(-1l)));
+    }
+
+    private void parse(boolean isMlsd, String content) throws IOException {
+        parser.parse(new ByteArrayInputStream(content.getBytes(UTF_8)), listing, isMlsd);
+    }
+
+    private void assertEntry(int index, String name, long size, DateTime lastModified, boolean isDirectory) {
+
+        assertThat(listing.getName(index), is(equalTo(name)));
+        assertThat(listing.getSize(index), is(equalTo(size)));
+        assertThat(listing.getLastModifiedMillis(index), is(equalTo(lastModified.getMillis())));
+        assertThat(listing.isDirectory(index), is(equalTo(isDirectory)));
+    }
+
+    /**
+     * Hands out at most a few bytes per read, as a slow data connection would.
+     */
+    private static class TrickleInputStream extends InputStream {
+
+        private final ByteArrayInputStream content;
+        private final int maxRead;
+
+        TrickleInputStream(byte[] content, int maxRead) {
+            this.content = new ByteArrayInputStream(content);
+            this.maxRead = maxRead;
+        }
+
+        @Override
+        public int read() {
+            return content.read();
+        }
+
+        @Override
+        public int read(byte[] destination, int offset, int length) {
+            return content.read(destination, offset, Math.min(length, maxRead));
+        }
+    }
+}
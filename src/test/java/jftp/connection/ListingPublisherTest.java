@@ -0,0 +1,122 @@
+package jftp.connection;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jftp.connection.ContentPublisherTest.RecordingSubscriber;
+import jftp.exception.FtpException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class ListingPublisherTest {
+
+    private static final String DIRECTORY_PATH = "/data";
+
+    private ListingSource source;
+    private ExecutorService executor;
+
+    private final AtomicInteger entriesTaken = new AtomicInteger();
+    private final AtomicBoolean wasStopped = new AtomicBoolean();
+
+    @Before
+    public void setUp() {
+
+        source = mock(ListingSource.class);
+        executor = Executors.newSingleThreadExecutor();
+
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+
+                ListingSource.EntryHandler handler = (ListingSource.EntryHandler) invocation.getArguments()[1];
+
+                for (int i = 0; i < 3; i++) {
+
+                    if (!handler.entry(new FtpFile("file" + i, i, DIRECTORY_PATH + "/file" + i, 0, false))) {
+                        wasStopped.set(true);
+                        return null;
+                    }
+
+                    entriesTaken.incrementAndGet();
+                }
+
+                return null;
+            }
+
+        }).when(source).listFiles(eq(DIRECTORY_PATH), any(ListingSource.EntryHandler.class));
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void entriesShouldBeListedOnlyAsFastAsTheyAreRequested() throws Exception {
+
+        RecordingSubscriber<FtpFile> subscriber = new RecordingSubscriber<FtpFile>(2);
+        new ListingPublisher(source, DIRECTORY_PATH, executor).subscribe(subscriber);
+
+        subscriber.awaitItems(2);
+        Thread.sleep(100);
+
+        assertThat(entriesTaken.get(), is(equalTo(2)));
+        assertThat(subscriber.isComplete, is(equalTo(false)));
+
+        subscriber.subscription.request(1);
+        subscriber.awaitDone();
+
+        assertThat(subscriber.isComplete, is(equalTo(true)));
+        assertThat(subscriber.items.size(), is(equalTo(3)));
+        assertThat(subscriber.items.get(2).getFullPath(), is(equalTo(DIRECTORY_PATH + "/file2")));
+    }
+
+    @Test
+    public void cancellingShouldStopTheListing() throws Exception {
+
+        RecordingSubscriber<FtpFile> subscriber = new RecordingSubscriber<FtpFile>(1);
+        new ListingPublisher(source, DIRECTORY_PATH, executor).subscribe(subscriber);
+
+        subscriber.awaitItems(1);
+        subscriber.subscription.cancel();
+
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+
+        assertThat(wasStopped.get(), is(equalTo(true)));
+        assertThat(subscriber.items.size(), is(equalTo(1)));
+        assertThat(subscriber.isComplete, is(equalTo(false)));
+        assertThat(subscriber.error, is(nullValue()));
+    }
+
+    @Test
+    public void aSubscriberThatStopsAskingShouldBeFailedAndTheListingStopped() throws Exception {
+
+        RecordingSubscriber<FtpFile> subscriber = new RecordingSubscriber<FtpFile>(1);
+        new ListingPublisher(source, DIRECTORY_PATH, executor, 50).subscribe(subscriber);
+
+        subscriber.awaitDone();
+
+        assertThat(wasStopped.get(), is(equalTo(true)));
+        assertThat(subscriber.items.size(), is(equalTo(1)));
+        assertThat(subscriber.error, is(instanceOf(FtpException.class)));
+    }
+}
@@ -0,0 +1,125 @@
+package jftp.connection;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import jftp.exception.FtpException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class MetadataBatchTest {
+
+    private Connection first;
+    private Connection second;
+
+    private MetadataBatch batch;
+
+    @Before
+    public void setUp() {
+
+        first = mock(Connection.class);
+        second = mock(Connection.class);
+
+        batch = new MetadataBatch(Arrays.asList(first, second));
+    }
+
+    @Test
+    public void theConnectionsShouldWorkThroughTheBatchAtTheSameTime() throws InterruptedException {
+
+        final CountDownLatch bothBusy = new CountDownLatch(2);
+
+        Answer<FtpFile> awaitTheOther = new Answer<FtpFile>() {
+
+            @Override
+            public FtpFile answer(InvocationOnMock invocation) throws InterruptedException {
+
+                bothBusy.countDown();
+                bothBusy.await(5, TimeUnit.SECONDS);
+
+                String path = (String) invocation.getArguments()[0];
+
+                return new FtpFile(path.substring(1), 1, path, 0, false);
+            }
+        };
+
+        when(first.stat(anyString())).thenAnswer(awaitTheOther);
+        when(second.stat(anyString())).thenAnswer(awaitTheOther);
+
+        List<FtpFile> files = batch.statAll(Arrays.asList("/a", "/b", "/c", "/d"));
+
+        assertThat(bothBusy.getCount(), is(equalTo(0l)));
+        assertThat(files.get(0).getName(), is(equalTo("a")));
+        assertThat(files.get(3).getName(), is(equalTo("d")));
+    }
+
+    @Test
+    public void missingPathsShouldBeNullInTheResults() {
+
+        when(first.stat(anyString())).thenReturn(null);
+        when(second.stat(anyString())).thenReturn(null);
+
+        assertThat(batch.statAll(Arrays.asList("/a")).get(0), is(nullValue()));
+    }
+
+    @Test
+    public void everyPathShouldBeAttemptedAndTheFailuresReportedTogether() {
+
+        batch = new MetadataBatch(Arrays.asList(first));
+
+        doThrow(new FtpException("Permission denied", 550)).when(first).delete("/b");
+
+        try {
+            batch.deleteAll(Arrays.asList("/a", "/b", "/c"));
+            fail();
+        } catch (FtpException e) {
+            assertThat(e.getMessage(), is(equalTo("Unable to delete 1 of 3 paths, the first being /b")));
+        }
+
+        verify(first).delete("/a");
+        verify(first).delete("/c");
+    }
+
+    @Test
+    public void sharedParentsShouldOnlyBeCreatedOnceAcrossTheBatch() {
+
+        batch = new MetadataBatch(Arrays.asList(first));
+
+        batch.createDirectories(Arrays.asList("/a/b", "/a/b"));
+
+        verify(first, times(1)).createDirectory("/a/b");
+    }
+
+    @Test
+    public void renamesShouldEachBeMade() {
+
+        batch = new MetadataBatch(Arrays.asList(first));
+
+        Map<String, String> renames = new LinkedHashMap<String, String>();
+        renames.put("/a.part", "/a");
+        renames.put("/b.part", "/b");
+
+        batch.renameAll(renames);
+
+        verify(first).rename("/a.part", "/a");
+        verify(first).rename("/b.part", "/b");
+    }
+}
@@ -0,0 +1,172 @@
+package jftp.connection;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import jftp.exception.FtpException;
+import jftp.util.BufferPool;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class ServerToServerTransferTest {
+
+    private static final byte[] CONTENT = "the file content".getBytes();
+
+    private Connection source;
+    private Connection target;
+
+    private ServerToServerTransfer transfer = new ServerToServerTransfer();
+
+    @Before
+    public void setUp() {
+
+        source = mock(Connection.class);
+        target = mock(Connection.class);
+
+        transfer.setBufferSize(4);
+    }
+
+    @Test
+    public void theFileShouldBeStreamedFromTheSourceIntoTheTargetDirectory() {
+
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws IOException {
+                ((OutputStream) invocation.getArguments()[1]).write(CONTENT);
+                return null;
+            }
+
+        }).when(source).download(eq("source/dir/file.txt"), any(OutputStream.class));
+
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws IOException {
+
+                InputStream inputStream = (InputStream) invocation.getArguments()[0];
+                int b;
+
+                while ((b = inputStream.read()) != -1)
+                    received.write(b);
+
+                return null;
+            }
+
+        }).when(target).upload(any(InputStream.class), eq("target/dir/file.txt"));
+
+        transfer.transfer(source, "source/dir/file.txt", target, "target/dir");
+
+        assertThat(received.toByteArray(), is(equalTo(CONTENT)));
+    }
+
+    @Test
+    public void aFailingSourceShouldBeReportedInsteadOfTheResultingUploadFailure() {
+
+        FtpException sourceFailure = new FtpException("Unable to download file");
+
+        doThrow(sourceFailure).when(source).download(anyString(), any(OutputStream.class));
+
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+
+                try {
+                    while (((InputStream) invocation.getArguments()[0]).read() != -1);
+                } catch (IOException e) {
+                    throw new FtpException("Upload may not have completed.", e);
+                }
+
+                return null;
+            }
+
+        }).when(target).upload(any(InputStream.class), anyString());
+
+        try {
+            transfer.transfer(source, "file.txt", target, "/");
+            fail();
+        } catch (FtpException e) {
+            assertThat(e, is(sameInstance(sourceFailure)));
+        }
+
+        verify(source, never()).abort();
+    }
+
+    @Test
+    public void theRelayBufferShouldBeReturnedToThePoolWhetherOrNotTheTransferSucceeds() {
+
+        BufferPool pool = new BufferPool(1024 * 1024);
+        transfer.setBufferPool(pool);
+
+        doThrow(new FtpException("Unable to download file")).when(source).download(eq("broken.txt"),
+                any(OutputStream.class));
+
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+
+                try {
+                    while (((InputStream) invocation.getArguments()[0]).read() != -1);
+                } catch (IOException e) {
+                    throw new FtpException("Upload may not have completed.", e);
+                }
+
+                return null;
+            }
+
+        }).when(target).upload(any(InputStream.class), anyString());
+
+        transfer.transfer(source, "file.txt", target, "/");
+
+        try {
+            transfer.transfer(source, "broken.txt", target, "/");
+            fail();
+        } catch (FtpException e) {
+            // Expected.
+        }
+
+        assertThat(pool.getBytesInUse(), is(equalTo(0L)));
+        assertThat(pool.getAcquisitions(), is(equalTo(2L)));
+        assertThat(pool.getAllocations(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void aFailingTargetShouldAbortTheSource() {
+
+        FtpException targetFailure = new FtpException("Upload failed to complete.");
+
+        doThrow(targetFailure).when(target).upload(any(InputStream.class), anyString());
+
+        try {
+            transfer.transfer(source, "file.txt", target, "/");
+            fail();
+        } catch (FtpException e) {
+            assertThat(e, is(sameInstance(targetFailure)));
+        }
+
+        verify(source).abort();
+    }
+}
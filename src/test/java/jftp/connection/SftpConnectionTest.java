@@ -2,18 +2,32 @@ package jftp.connection;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Vector;
 
@@ -24,13 +38,22 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.ChannelSubsystem;
 import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.ChannelSftp.LsEntrySelector;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
 import com.jcraft.jsch.SftpATTRS;
 import com.jcraft.jsch.SftpException;
 
@@ -60,9 +83,25 @@ public class SftpConnectionTest {
 
         mockChannel = mock(ChannelSftp.class);
 
-        Vector<LsEntry> lsEntries = createEntries();
-        
-        when(mockChannel.ls(anyString())).thenReturn(lsEntries);
+        final Vector<LsEntry> lsEntries = createEntries();
+
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+
+                LsEntrySelector selector = (LsEntrySelector) invocation.getArguments()[1];
+
+                for (LsEntry entry : lsEntries) {
+
+                    if (selector.select(entry) == LsEntrySelector.BREAK)
+                        break;
+                }
+
+                return null;
+            }
+
+        }).when(mockChannel).ls(anyString(), any(LsEntrySelector.class));
         when(mockChannel.pwd()).thenReturn(DIRECTORY);
 
         sftpConnection = new SftpConnection(mockChannel);
@@ -101,7 +140,7 @@ public class SftpConnectionTest {
 
         sftpConnection.listFiles();
 
-        verify(mockChannel).ls(DIRECTORY);
+        verify(mockChannel).ls(eq(DIRECTORY), any(LsEntrySelector.class));
     }
 
     @Test
@@ -111,7 +150,7 @@ public class SftpConnectionTest {
         
         sftpConnection.listFiles("some/other/path");
 
-        verify(mockChannel).ls(DIRECTORY + "/some/other/path");
+        verify(mockChannel).ls(eq(DIRECTORY + "/some/other/path"), any(LsEntrySelector.class));
     }
     
     @Test
@@ -120,7 +159,7 @@ public class SftpConnectionTest {
         expectedException.expect(FtpException.class);
         expectedException.expectMessage(is(equalTo("Unable to list files in directory " + DIRECTORY)));
         
-        when(mockChannel.ls(DIRECTORY)).thenThrow(new SftpException(0, ""));
+        doThrow(new SftpException(0, "")).when(mockChannel).ls(eq(DIRECTORY), any(LsEntrySelector.class));
         
         sftpConnection.listFiles();
     }
@@ -138,7 +177,7 @@ public class SftpConnectionTest {
         inOrder.verify(mockChannel).pwd();
         inOrder.verify(mockChannel).cd("another/path");
         inOrder.verify(mockChannel).pwd();
-        inOrder.verify(mockChannel).ls("another/path");
+        inOrder.verify(mockChannel).ls(eq("another/path"), any(LsEntrySelector.class));
         inOrder.verify(mockChannel).cd("initial/directory");
     }
 
@@ -165,6 +204,25 @@ public class SftpConnectionTest {
         assertThat(files.get(2).isDirectory(), is(equalTo(true)));
     }
 
+    @Test
+    public void streamedListingsShouldStopWhenTheHandlerRefusesAnEntry() {
+
+        final List<FtpFile> files = new ArrayList<FtpFile>();
+
+        sftpConnection.listFiles(DIRECTORY, new ListingSource.EntryHandler() {
+
+            @Override
+            public boolean entry(FtpFile file) {
+                files.add(file);
+                return files.size() < 2;
+            }
+        });
+
+        assertThat(files.size(), is(equalTo(2)));
+        assertThat(files.get(1).getFullPath(), is(equalTo(DIRECTORY + "/File 2")));
+        assertThat(files.get(1).getLastModified().toString("dd/MM/yyyy HH:mm:ss"), is(equalTo("12/03/2014 19:22:41")));
+    }
+
     @Test
     public void returnedFtpFilesShouldHaveCorrectModifiedDateTimesAgainstThem() {
 
@@ -194,6 +252,124 @@ public class SftpConnectionTest {
         sftpConnection.download("path/to/file.txt", "some/directory");
     }
 
+    @Test
+    public void resumingADownloadShouldAskTheChannelToResume() throws SftpException {
+
+        sftpConnection.resumeDownload("path/to/file.txt", "some/directory");
+
+        verify(mockChannel).get("path/to/file.txt", "some/directory", null, ChannelSftp.RESUME);
+    }
+
+    @Test
+    public void aRangeShouldBeReadFromTheOffsetUpToItsLength() throws SftpException {
+
+        when(mockChannel.get("remote/file.txt", null, 4L)).thenReturn(new ByteArrayInputStream("456789".getBytes()));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        long downloaded = sftpConnection.downloadRange("remote/file.txt", 4, 3, outputStream);
+
+        assertThat(downloaded, is(equalTo(3L)));
+        assertThat(outputStream.toString(), is(equalTo("456")));
+    }
+
+    @Test
+    public void appendingShouldPutInAppendMode() throws SftpException {
+
+        InputStream inputStream = mock(InputStream.class);
+
+        sftpConnection.append(inputStream, "remote/file.log");
+
+        verify(mockChannel).put(inputStream, "remote/file.log", ChannelSftp.APPEND);
+    }
+
+    @Test
+    public void abortingShouldCloseTheChannel() {
+
+        sftpConnection.abort();
+
+        verify(mockChannel).disconnect();
+    }
+
+    @Test
+    public void theOperationAfterAnAbortShouldRunOnAFreshChannelInTheSameDirectory() throws Exception {
+
+        Session session = mock(Session.class);
+        ChannelSftp freshChannel = mock(ChannelSftp.class);
+
+        when(mockChannel.getSession()).thenReturn(session);
+        when(mockChannel.pwd()).thenReturn("/home/user/logs");
+        when(session.openChannel("sftp")).thenReturn(freshChannel);
+
+        sftpConnection.abort();
+        sftpConnection.changeDirectory("archive");
+        sftpConnection.changeDirectory("older");
+
+        InOrder inOrder = Mockito.inOrder(freshChannel);
+        inOrder.verify(freshChannel).connect();
+        inOrder.verify(freshChannel).cd("/home/user/logs");
+        inOrder.verify(freshChannel).cd("archive");
+        inOrder.verify(freshChannel).cd("older");
+
+        verify(session).openChannel("sftp");
+    }
+
+    @Test
+    public void keepAliveShouldOpenAndCloseAChannelTheServerMustConfirmOnceIdle() throws JSchException {
+
+        Session session = mock(Session.class);
+        Channel probe = mock(Channel.class);
+
+        when(mockChannel.getSession()).thenReturn(session);
+        when(session.openChannel("sftp")).thenReturn(probe);
+
+        assertThat(sftpConnection.keepAlive(0), is(equalTo(true)));
+
+        verify(probe).connect(anyInt());
+        verify(probe).disconnect();
+    }
+
+    @Test
+    public void keepAliveShouldReportDeadWhenTheServerDoesNotConfirmTheChannel() throws JSchException {
+
+        Session session = mock(Session.class);
+        Channel probe = mock(Channel.class);
+
+        when(mockChannel.getSession()).thenReturn(session);
+        when(session.openChannel("sftp")).thenReturn(probe);
+        doThrow(new JSchException("timeout")).when(probe).connect(anyInt());
+
+        assertThat(sftpConnection.keepAlive(0), is(equalTo(false)));
+    }
+
+    @Test
+    public void keepAliveShouldLeaveAConnectionUsedRecentlyAlone() throws JSchException {
+
+        sftpConnection.changeDirectory("archive");
+
+        assertThat(sftpConnection.keepAlive(60000), is(equalTo(true)));
+
+        verify(mockChannel, never()).getSession();
+    }
+
+    @Test
+    public void aTransferFailingBecauseItWasAbortedShouldSayItWasAborted() throws SftpException {
+
+        expectedException.expect(FtpException.class);
+        expectedException.expectMessage(is(equalTo("Transfer of path/to/file.txt was aborted.")));
+
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws SftpException {
+                sftpConnection.abort();
+                throw new SftpException(ChannelSftp.SSH_FX_FAILURE, "closed");
+            }
+        }).when(mockChannel).get("path/to/file.txt", "some/directory");
+
+        sftpConnection.download("path/to/file.txt", "some/directory");
+    }
+
     @Test
     public void uploadingShouldCallUnderlyingChannelToBeginUploadUsingCreatedFileInputStream() throws SftpException {
         
@@ -271,10 +447,337 @@ public class SftpConnectionTest {
         sftpConnection.printWorkingDirectory();
     }
     
+    @Test
+    public void downloadingToAStreamShouldGetTheRemoteFileIntoIt() throws SftpException {
+
+        OutputStream outputStream = mock(OutputStream.class);
+
+        sftpConnection.download("remote/file.txt", outputStream);
+
+        verify(mockChannel).get("remote/file.txt", outputStream);
+    }
+
+    @Test
+    public void ifUploadingFromAStreamFailsThenThePartialRemoteFileShouldBeRemoved() throws SftpException {
+
+        InputStream inputStream = mock(InputStream.class);
+        doThrow(new SftpException(ChannelSftp.SSH_FX_FAILURE, "")).when(mockChannel).put(inputStream, "remote/file.txt");
+
+        try {
+            sftpConnection.upload(inputStream, "remote/file.txt");
+            fail();
+        } catch (FtpException e) {
+            assertThat(e.getMessage(), is(equalTo("Upload failed to complete.")));
+        }
+
+        verify(mockChannel).rm("remote/file.txt");
+    }
+
+    @Test
+    public void recursiveListingsShouldBeReadFromFindRunOverTheSameSession() throws Exception {
+
+        Session session = mock(Session.class);
+        ChannelExec exec = mock(ChannelExec.class);
+
+        when(mockChannel.getSession()).thenReturn(session);
+        when(session.openChannel("exec")).thenReturn(exec);
+        when(exec.getInputStream()).thenReturn(new ByteArrayInputStream(
+                ("d 4096 1394525265.0 " + DIRECTORY + "/sub\0f 42 1394525265.0 " + DIRECTORY + "/sub/data.csv\0").getBytes("UTF-8")));
+        when(exec.isClosed()).thenReturn(true);
+        when(exec.getExitStatus()).thenReturn(0);
+
+        List<FtpFile> files = sftpConnection.listFilesRecursively(DIRECTORY);
+
+        ArgumentCaptor<String> command = ArgumentCaptor.forClass(String.class);
+        verify(exec).setCommand(command.capture());
+        verify(exec).disconnect();
+
+        assertThat(command.getValue().startsWith("find '" + DIRECTORY + "' -mindepth 1 -printf"), is(equalTo(true)));
+        assertThat(files.size(), is(equalTo(2)));
+        assertThat(files.get(1).getFullPath(), is(equalTo(DIRECTORY + "/sub/data.csv")));
+    }
+
+    @Test
+    public void recursiveListingsShouldFallBackToWalkingTheTreeWhenFindFails() throws Exception {
+
+        final Vector<LsEntry> entries = new Vector<LsEntry>();
+        entries.add(createSingleEntry("data.csv", 42l, 1394525265, false));
+
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+
+                ((LsEntrySelector) invocation.getArguments()[1]).select(entries.get(0));
+
+                return null;
+            }
+
+        }).when(mockChannel).ls(anyString(), any(LsEntrySelector.class));
+        when(mockChannel.getSession()).thenThrow(new JSchException("exec not permitted"));
+
+        List<FtpFile> files = sftpConnection.listFilesRecursively(DIRECTORY);
+
+        assertThat(files.size(), is(equalTo(1)));
+        assertThat(files.get(0).getName(), is(equalTo("data.csv")));
+    }
+
+    @Test(timeout = 5000)
+    public void walkingTheTreeShouldNeitherListNorDescendIntoDotEntries() throws Exception {
+
+        final String[] workingDirectory = { DIRECTORY };
+
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+
+                workingDirectory[0] = (String) invocation.getArguments()[0];
+
+                return null;
+            }
+
+        }).when(mockChannel).cd(anyString());
+        doAnswer(new Answer<String>() {
+
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                return workingDirectory[0];
+            }
+
+        }).when(mockChannel).pwd();
+
+        final Vector<LsEntry> top = new Vector<LsEntry>();
+        top.add(createSingleEntry(".", 4096l, 1394525265, true));
+        top.add(createSingleEntry("..", 4096l, 1394525265, true));
+        top.add(createSingleEntry("sub", 4096l, 1394525265, true));
+        top.add(createSingleEntry("data.csv", 42l, 1394525265, false));
+
+        final Vector<LsEntry> sub = new Vector<LsEntry>();
+        sub.add(createSingleEntry(".", 4096l, 1394525265, true));
+        sub.add(createSingleEntry("..", 4096l, 1394525265, true));
+        sub.add(createSingleEntry("nested.csv", 7l, 1394525265, false));
+
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+
+                Vector<LsEntry> entries = DIRECTORY.equals(invocation.getArguments()[0]) ? top : sub;
+
+                for (LsEntry entry : entries)
+                    ((LsEntrySelector) invocation.getArguments()[1]).select(entry);
+
+                return null;
+            }
+
+        }).when(mockChannel).ls(anyString(), any(LsEntrySelector.class));
+        when(mockChannel.getSession()).thenThrow(new JSchException("exec not permitted"));
+
+        List<FtpFile> files = sftpConnection.listFilesRecursively(DIRECTORY);
+
+        assertThat(files.size(), is(equalTo(3)));
+        assertThat(files.get(0).getName(), is(equalTo("sub")));
+        assertThat(files.get(1).getName(), is(equalTo("data.csv")));
+        assertThat(files.get(2).getFullPath(), is(equalTo(DIRECTORY + "/sub/nested.csv")));
+    }
+
+    @Test
+    public void bulkUploadsShouldStreamATarArchiveIntoTarOnTheServer() throws Exception {
+
+        ChannelExec exec = mockExec(0);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        when(exec.getOutputStream()).thenReturn(archive);
+
+        sftpConnection.uploadAll(Arrays.asList("local/first.csv", "local/second.csv"), "remote");
+
+        verify(exec).setCommand("tar -x -f - -C '" + DIRECTORY + "/remote'");
+
+        TarReader reader = new TarReader(new ByteArrayInputStream(archive.toByteArray()));
+
+        assertThat(reader.next(), is(equalTo(true)));
+        assertThat(reader.getName(), is(equalTo("first.csv")));
+        assertThat(reader.next(), is(equalTo(true)));
+        assertThat(reader.getName(), is(equalTo("second.csv")));
+        assertThat(reader.next(), is(equalTo(false)));
+    }
+
+    @Test
+    public void bulkUploadsShouldFailWhenTarOnTheServerFails() throws Exception {
+
+        ChannelExec exec = mockExec(2);
+        when(exec.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+
+        expectedException.expect(FtpException.class);
+        expectedException.expectMessage("Bulk transfer failed with exit status 2");
+
+        sftpConnection.uploadAll(Arrays.asList("local/first.csv"), "/remote");
+    }
+
+    @Test
+    public void bulkDownloadsShouldExtractTheArchiveTarSendsBack() throws Exception {
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        TarWriter writer = new TarWriter(archive);
+        writer.writeFile("remote/first.csv", 0, 0, new ByteArrayInputStream(new byte[0]));
+        writer.finish();
+
+        ChannelExec exec = mockExec(0);
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        when(exec.getInputStream()).thenReturn(new ByteArrayInputStream(archive.toByteArray()));
+        when(exec.getOutputStream()).thenReturn(names);
+
+        sftpConnection.downloadAll(Arrays.asList("/remote/first.csv"), "local");
+
+        verify(exec).setCommand("tar -c -f - --null -T -");
+        verify(mockFileStreamFactory).createOutputStream("local/first.csv");
+
+        assertThat(new String(names.toByteArray(), "UTF-8"), is(equalTo("/remote/first.csv\0")));
+    }
+
+    @Test
+    public void statAllShouldReturnNullForPathsWhichDoNotExist() throws Exception {
+
+        ByteArrayOutputStream attributes = new ByteArrayOutputStream();
+        DataOutputStream reply = new DataOutputStream(attributes);
+        reply.writeByte(105);
+        reply.writeInt(0);
+        reply.writeInt(0x01);
+        reply.writeLong(42);
+
+        mockPipeline(SftpPipelineTest.frame(attributes.toByteArray()), SftpPipelineTest.status(1, 2));
+
+        List<FtpFile> files = sftpConnection.statAll(Arrays.asList("/remote/data.csv", "missing.csv"));
+
+        assertThat(files.get(0).getName(), is(equalTo("data.csv")));
+        assertThat(files.get(0).getSize(), is(equalTo(42l)));
+        assertThat(files.get(1), is(nullValue()));
+    }
+
+    @Test
+    public void batchFailuresShouldBeReportedOnceEveryRequestHasBeenAnswered() throws Exception {
+
+        mockPipeline(SftpPipelineTest.status(0, 0), SftpPipelineTest.status(1, 3), SftpPipelineTest.status(2, 3));
+
+        expectedException.expect(FtpException.class);
+        expectedException.expectMessage("Unable to delete 2 of 3 paths, the first being /b: status 3");
+
+        sftpConnection.deleteAll(Arrays.asList("/a", "/b", "/c"));
+    }
+
+    @Test
+    public void theSftpSubsystemChannelShouldBeOpenedOnceAndReused() throws Exception {
+
+        Session session = mockPipeline(SftpPipelineTest.status(0, 0), SftpPipelineTest.status(0, 0));
+
+        sftpConnection.makeDirectories(Arrays.asList("/a"));
+        sftpConnection.makeDirectories(Arrays.asList("/b"));
+
+        verify(session).openChannel("subsystem");
+    }
+
+    @Test
+    public void statShouldDescribeTheFileWithoutListingItsParent() throws SftpException {
+
+        SftpATTRS attributes = mock(SftpATTRS.class);
+        when(attributes.getSize()).thenReturn(42l);
+        when(attributes.getMTime()).thenReturn(1394525265);
+        when(mockChannel.stat("/remote/data.csv")).thenReturn(attributes);
+
+        FtpFile file = sftpConnection.stat("/remote/data.csv");
+
+        assertThat(file.getName(), is(equalTo("data.csv")));
+        assertThat(file.getSize(), is(equalTo(42l)));
+        assertThat(file.getLastModifiedMillis(), is(equalTo(1394525265000l)));
+        verify(mockChannel, Mockito.never()).ls(anyString(), any(LsEntrySelector.class));
+    }
+
+    @Test
+    public void statShouldReturnNullWhenNothingExistsAtThePath() throws SftpException {
+
+        when(mockChannel.stat("/missing")).thenThrow(new SftpException(ChannelSftp.SSH_FX_NO_SUCH_FILE, "No such file"));
+
+        assertThat(sftpConnection.exists("/missing"), is(equalTo(false)));
+    }
+
+    @Test
+    public void createDirectoriesShouldRememberDirectoriesItHasCreated() throws SftpException {
+
+        sftpConnection.createDirectories("/remote/a");
+        sftpConnection.createDirectories("/remote/a");
+
+        verify(mockChannel, Mockito.times(1)).mkdir("/remote/a");
+    }
+
+    @Test
+    public void aFailedRenameShouldThrowAnFtpException() throws SftpException {
+
+        doThrow(new SftpException(ChannelSftp.SSH_FX_FAILURE, "Failure")).when(mockChannel).rename("/a", "/b");
+
+        expectedException.expect(FtpException.class);
+        expectedException.expectMessage("Unable to rename /a to /b");
+
+        sftpConnection.rename("/a", "/b");
+    }
+
+    private Session mockPipeline(byte[]... replies) throws Exception {
+
+        ByteArrayOutputStream version = new ByteArrayOutputStream();
+        new DataOutputStream(version).writeByte(2);
+        new DataOutputStream(version).writeInt(3);
+
+        Session session = mock(Session.class);
+        ChannelSubsystem subsystem = mock(ChannelSubsystem.class);
+
+        when(mockChannel.getSession()).thenReturn(session);
+        when(session.openChannel("subsystem")).thenReturn(subsystem);
+        when(subsystem.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        when(subsystem.getInputStream()).thenReturn(new ByteArrayInputStream(SftpPipelineTest.concat(
+                SftpPipelineTest.frame(version.toByteArray()), SftpPipelineTest.concat(replies))));
+
+        return session;
+    }
+
+    @Test
+    public void serverSideHashesShouldBeTakenFromSha256sumRunOverTheSameSession() throws Exception {
+
+        ChannelExec exec = mockExec(0);
+        when(exec.getInputStream()).thenReturn(new ByteArrayInputStream(
+                "\\9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08 *a\\nb.csv\n".getBytes()));
+
+        assertThat(sftpConnection.sha256("a\nb.csv"),
+                is(equalTo("9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08")));
+        verify(exec).setCommand("sha256sum -b -- '" + DIRECTORY + "/a\nb.csv'");
+    }
+
+    @Test
+    public void aFailedSha256sumShouldGiveNoHash() throws Exception {
+
+        ChannelExec exec = mockExec(127);
+        when(exec.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+
+        assertThat(sftpConnection.sha256("/data/report.csv"), is(nullValue()));
+    }
+
+    private ChannelExec mockExec(int exitStatus) throws JSchException {
+
+        Session session = mock(Session.class);
+        ChannelExec exec = mock(ChannelExec.class);
+
+        when(mockChannel.getSession()).thenReturn(session);
+        when(session.openChannel("exec")).thenReturn(exec);
+        when(exec.isClosed()).thenReturn(true);
+        when(exec.getExitStatus()).thenReturn(exitStatus);
+
+        return exec;
+    }
+
     private Vector<LsEntry> createEntries() {
 
         Vector<LsEntry> vector = new Vector<LsEntry>();
 
+        vector.add(createSingleEntry(".", 4096l, 1394525265, true));
+        vector.add(createSingleEntry("..", 4096l, 1394525265, true));
         vector.add(createSingleEntry("File 1", 123l, 1394525265, true));
         vector.add(createSingleEntry("File 2", 456l, 1394652161, false));
         vector.add(createSingleEntry("File 3", 789l, 1391879364, true));
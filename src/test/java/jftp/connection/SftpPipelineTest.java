@@ -0,0 +1,155 @@
+package jftp.connection;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SftpPipelineTest {
+
+    private static final Closeable NO_CHANNEL = new Closeable() {
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private final ByteArrayOutputStream requests = new ByteArrayOutputStream();
+
+    @Test
+    public void noMoreThanTheWindowShouldBeInFlightWhenTheFirstReplyIsAwaited() throws IOException {
+
+        final List<Integer> sentBeforeFirstRead = new ArrayList<Integer>();
+        final byte[] replies = concat(status(0, 0), status(1, 0), status(2, 0), status(3, 0), status(4, 0));
+
+        InputStream server = new ByteArrayInputStream(replies) {
+
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int length) {
+
+                if (sentBeforeFirstRead.isEmpty())
+                    sentBeforeFirstRead.add(requests.size());
+
+                return super.read(buffer, offset, length);
+            }
+        };
+
+        SftpPipeline pipeline = new SftpPipeline(server, requests, NO_CHANNEL);
+        List<SftpPipeline.Request> batch = new ArrayList<SftpPipeline.Request>();
+
+        for (int i = 0; i < 5; i++)
+            batch.add(SftpPipeline.remove("/f" + i));
+
+        pipeline.execute(batch, 2);
+
+        // Each remove of a three character path is 4 + 1 + 4 + 4 + 3 bytes.
+        assertThat(sentBeforeFirstRead.get(0), is(equalTo(2 * 16)));
+        assertThat(requests.size(), is(equalTo(5 * 16)));
+    }
+
+    @Test
+    public void repliesShouldBeMatchedToRequestsByIdWhateverOrderTheyArriveIn() throws IOException {
+
+        SftpPipeline pipeline = pipeline(status(1, 2), status(0, 0));
+
+        List<SftpPipeline.Response> responses = pipeline.execute(
+                Arrays.asList(SftpPipeline.remove("/a"), SftpPipeline.remove("/b")), 10);
+
+        assertThat(responses.get(0).isOk(), is(equalTo(true)));
+        assertThat(responses.get(1).isOk(), is(equalTo(false)));
+        assertThat(responses.get(1).getStatus(), is(equalTo(2)));
+        assertThat(responses.get(1).getMessage(), is(equalTo("status 2")));
+    }
+
+    @Test
+    public void attributesShouldBeDecoded() throws IOException {
+
+        ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        DataOutputStream reply = new DataOutputStream(packet);
+
+        reply.writeByte(105);
+        reply.writeInt(0);
+        reply.writeInt(0x01 | 0x02 | 0x04 | 0x08);
+        reply.writeLong(5000000000l);
+        reply.writeInt(1000);
+        reply.writeInt(1000);
+        reply.writeInt(040755);
+        reply.writeInt(0);
+        reply.writeInt(1394525265);
+
+        SftpPipeline.Response response = pipeline(frame(packet.toByteArray()))
+                .execute(Arrays.asList(SftpPipeline.stat("/a")), 1).get(0);
+
+        assertThat(response.getSize(), is(equalTo(5000000000l)));
+        assertThat(response.isDirectory(), is(equalTo(true)));
+        assertThat(response.getLastModifiedMillis(), is(equalTo(1394525265000l)));
+    }
+
+    @Test
+    public void initialisationShouldAcceptTheServersVersionWithExtensions() throws IOException {
+
+        ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        DataOutputStream reply = new DataOutputStream(packet);
+
+        reply.writeByte(2);
+        reply.writeInt(3);
+        reply.writeInt(5);
+        reply.writeBytes("fsync");
+        reply.writeInt(1);
+        reply.writeBytes("1");
+
+        SftpPipeline pipeline = pipeline(frame(packet.toByteArray()), status(0, 0));
+        pipeline.initialise();
+
+        assertThat(pipeline.execute(Arrays.asList(SftpPipeline.remove("/a")), 1).get(0).isOk(), is(equalTo(true)));
+    }
+
+    private SftpPipeline pipeline(byte[]... replies) throws IOException {
+        return new SftpPipeline(new ByteArrayInputStream(concat(replies)), requests, NO_CHANNEL);
+    }
+
+    static byte[] status(int id, int status) throws IOException {
+
+        ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        DataOutputStream reply = new DataOutputStream(packet);
+
+        reply.writeByte(101);
+        reply.writeInt(id);
+        reply.writeInt(status);
+        reply.writeInt(("status " + status).length());
+        reply.writeBytes("status " + status);
+        reply.writeInt(0);
+
+        return frame(packet.toByteArray());
+    }
+
+    static byte[] frame(byte[] packet) throws IOException {
+
+        ByteArrayOutputStream framed = new ByteArrayOutputStream();
+        new DataOutputStream(framed).writeInt(packet.length);
+        framed.write(packet);
+
+        return framed.toByteArray();
+    }
+
+    static byte[] concat(byte[]... packets) throws IOException {
+
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+
+        for (byte[] packet : packets)
+            all.write(packet);
+
+        return all.toByteArray();
+    }
+}
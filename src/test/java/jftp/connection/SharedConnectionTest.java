@@ -0,0 +1,191 @@
+package jftp.connection;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import jftp.exception.FtpException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class SharedConnectionTest {
+
+    private Connection first;
+    private Connection second;
+
+    private SharedConnection sharedConnection;
+
+    @Before
+    public void setUp() {
+
+        first = mock(Connection.class);
+        second = mock(Connection.class);
+
+        when(first.printWorkingDirectory()).thenReturn("/home/user");
+        when(second.printWorkingDirectory()).thenReturn("/home/user");
+
+        sharedConnection = new SharedConnection(Arrays.asList(first, second));
+    }
+
+    @Test
+    public void relativePathsShouldBeResolvedAgainstTheInitialDirectory() {
+
+        sharedConnection = new SharedConnection(Arrays.asList(first));
+
+        sharedConnection.delete("old.csv");
+
+        verify(first).delete("/home/user/old.csv");
+    }
+
+    @Test
+    public void eachThreadShouldKeepItsOwnWorkingDirectory() throws InterruptedException {
+
+        sharedConnection = new SharedConnection(Arrays.asList(first));
+
+        when(first.stat(anyString())).thenReturn(new FtpFile("reports", 0, "/home/user/reports", 0, true));
+
+        sharedConnection.changeDirectory("reports");
+
+        final AtomicReference<String> otherThreadsDirectory = new AtomicReference<String>();
+
+        Thread other = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                otherThreadsDirectory.set(sharedConnection.printWorkingDirectory());
+            }
+        });
+
+        other.start();
+        other.join();
+
+        assertThat(sharedConnection.printWorkingDirectory(), is(equalTo("/home/user/reports")));
+        assertThat(otherThreadsDirectory.get(), is(equalTo("/home/user")));
+        verify(first, never()).changeDirectory(anyString());
+    }
+
+    @Test
+    public void dotSegmentsShouldBeResolvedLocally() {
+
+        sharedConnection = new SharedConnection(Arrays.asList(first));
+
+        when(first.stat(anyString())).thenReturn(new FtpFile("home", 0, "/home", 0, true));
+
+        sharedConnection.changeDirectory("../user/./../");
+
+        assertThat(sharedConnection.printWorkingDirectory(), is(equalTo("/home")));
+    }
+
+    @Test(expected = FtpException.class)
+    public void changingIntoAFileShouldFail() {
+
+        sharedConnection = new SharedConnection(Arrays.asList(first));
+
+        when(first.stat(anyString())).thenReturn(new FtpFile("data.csv", 10, "/home/user/data.csv", 0, false));
+
+        sharedConnection.changeDirectory("data.csv");
+    }
+
+    @Test
+    public void concurrentCallsShouldBeServedByDifferentConnections() throws InterruptedException {
+
+        final CountDownLatch bothBusy = new CountDownLatch(2);
+        final List<Connection> used = new ArrayList<Connection>();
+
+        Answer<List<FtpFile>> awaitTheOther = new Answer<List<FtpFile>>() {
+
+            @Override
+            public List<FtpFile> answer(InvocationOnMock invocation) throws InterruptedException {
+
+                synchronized (used) {
+                    used.add((Connection) invocation.getMock());
+                }
+
+                bothBusy.countDown();
+                bothBusy.await(5, TimeUnit.SECONDS);
+
+                return new ArrayList<FtpFile>();
+            }
+        };
+
+        when(first.listFiles("/data")).thenAnswer(awaitTheOther);
+        when(second.listFiles("/data")).thenAnswer(awaitTheOther);
+
+        Thread other = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                sharedConnection.listFiles("/data");
+            }
+        });
+
+        other.start();
+        sharedConnection.listFiles("/data");
+        other.join();
+
+        assertThat(bothBusy.getCount(), is(equalTo(0l)));
+        assertThat(used.contains(first) && used.contains(second), is(equalTo(true)));
+    }
+
+    @Test
+    public void aSingleConnectionShouldServeCallsWhichResolvePaths() {
+
+        sharedConnection = new SharedConnection(Arrays.asList(first));
+
+        sharedConnection.rename("a.part", "a");
+
+        verify(first).rename("/home/user/a.part", "/home/user/a");
+    }
+
+    @Test
+    public void abortShouldReachTheConnectionsInUse() throws InterruptedException {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch aborted = new CountDownLatch(1);
+
+        when(first.listFiles("/slow")).thenAnswer(new Answer<List<FtpFile>>() {
+
+            @Override
+            public List<FtpFile> answer(InvocationOnMock invocation) throws InterruptedException {
+
+                started.countDown();
+                aborted.await(5, TimeUnit.SECONDS);
+
+                return new ArrayList<FtpFile>();
+            }
+        });
+
+        Thread caller = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                sharedConnection.listFiles("/slow");
+            }
+        });
+
+        caller.start();
+        started.await(5, TimeUnit.SECONDS);
+
+        sharedConnection.abort();
+        aborted.countDown();
+        caller.join();
+
+        verify(first).abort();
+        verify(second, never()).abort();
+    }
+}
@@ -0,0 +1,125 @@
+package jftp.connection;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class TarReaderTest {
+
+    private static final long MARCH_2014 = 1394525265000l;
+
+    @Test
+    public void filesShouldBeReadBackAsWritten() throws IOException {
+
+        TarReader reader = new TarReader(new ByteArrayInputStream(archive("first.csv", "1,2,3\n", "second.csv",
+                "4,5,6\n")));
+
+        assertThat(reader.next(), is(equalTo(true)));
+        assertThat(reader.getName(), is(equalTo("first.csv")));
+        assertThat(reader.getSize(), is(equalTo(6l)));
+        assertThat(reader.getLastModifiedMillis(), is(equalTo(MARCH_2014)));
+        assertThat(reader.isFile(), is(equalTo(true)));
+        assertThat(content(reader), is(equalTo("1,2,3\n")));
+
+        assertThat(reader.next(), is(equalTo(true)));
+        assertThat(content(reader), is(equalTo("4,5,6\n")));
+
+        assertThat(reader.next(), is(equalTo(false)));
+    }
+
+    @Test
+    public void unreadContentShouldBeSkipped() throws IOException {
+
+        TarReader reader = new TarReader(new ByteArrayInputStream(archive("first.csv", "1,2,3\n", "second.csv",
+                "4,5,6\n")));
+
+        reader.next();
+        reader.next();
+
+        assertThat(reader.getName(), is(equalTo("second.csv")));
+    }
+
+    @Test
+    public void gnuLongNamesShouldReplaceTheTruncatedName() throws IOException {
+
+        String name = new String(new char[150]).replace('\0', 'n');
+
+        TarReader reader = new TarReader(new ByteArrayInputStream(archive(name, "x")));
+
+        reader.next();
+
+        assertThat(reader.getName(), is(equalTo(name)));
+        assertThat(content(reader), is(equalTo("x")));
+    }
+
+    @Test
+    public void paxPathsShouldReplaceTheTruncatedName() throws IOException {
+
+        byte[] pax = "31 path=reports/2014/march.csv\n".getBytes("UTF-8");
+        byte[] file = archive("march.csv", "x");
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        archive.write(header("PaxHeaders/march.csv", pax.length, 'x'));
+        archive.write(pax);
+        archive.write(new byte[512 - pax.length]);
+        archive.write(file);
+
+        TarReader reader = new TarReader(new ByteArrayInputStream(archive.toByteArray()));
+
+        reader.next();
+
+        assertThat(reader.getName(), is(equalTo("reports/2014/march.csv")));
+        assertThat(content(reader), is(equalTo("x")));
+    }
+
+    @Test
+    public void directoriesShouldNotBeTakenForFiles() throws IOException {
+
+        TarReader reader = new TarReader(new ByteArrayInputStream(header("reports/", 0, '5')));
+
+        assertThat(reader.next(), is(equalTo(true)));
+        assertThat(reader.isFile(), is(equalTo(false)));
+        assertThat(reader.next(), is(equalTo(false)));
+    }
+
+    private byte[] archive(String... namesAndContents) throws IOException {
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        TarWriter writer = new TarWriter(archive);
+
+        for (int i = 0; i < namesAndContents.length; i += 2) {
+
+            byte[] content = namesAndContents[i + 1].getBytes("UTF-8");
+            writer.writeFile(namesAndContents[i], content.length, MARCH_2014, new ByteArrayInputStream(content));
+        }
+
+        writer.finish();
+
+        return archive.toByteArray();
+    }
+
+    private byte[] header(String name, int size, char type) throws IOException {
+
+        byte[] header = new byte[512];
+
+        System.arraycopy(name.getBytes("UTF-8"), 0, header, 0, name.length());
+        System.arraycopy(String.format("%011o", size).getBytes("UTF-8"), 0, header, 124, 11);
+        header[156] = (byte) type;
+
+        return header;
+    }
+
+    private String content(TarReader reader) throws IOException {
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        reader.copyTo(content);
+
+        return new String(content.toByteArray(), "UTF-8");
+    }
+}
@@ -0,0 +1,85 @@
+package jftp.connection;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class TarWriterTest {
+
+    private static final long MARCH_2014 = 1394525265000l;
+
+    @Test
+    public void headersShouldFollowTheUstarLayout() throws IOException {
+
+        byte[] archive = write("data.csv", "1,2,3\n");
+
+        assertThat(new String(archive, 0, 8, "UTF-8"), is(equalTo("data.csv")));
+        assertThat(new String(archive, 124, 11, "UTF-8"), is(equalTo("00000000006")));
+        assertThat(new String(archive, 257, 5, "UTF-8"), is(equalTo("ustar")));
+        assertThat(archive[156], is(equalTo((byte) '0')));
+        assertThat(new String(archive, 148, 6, "UTF-8"), is(equalTo(checksum(archive))));
+    }
+
+    @Test
+    public void contentShouldBePaddedToWholeBlocksAndTheArchiveEndedWithTwoEmptyOnes() throws IOException {
+
+        byte[] archive = write("data.csv", "1,2,3\n");
+
+        assertThat(archive.length, is(equalTo(512 * 4)));
+        assertThat(new String(archive, 512, 6, "UTF-8"), is(equalTo("1,2,3\n")));
+    }
+
+    @Test
+    public void namesLongerThanTheHeaderAllowsShouldBeWrittenAsGnuLongNames() throws IOException {
+
+        String name = new String(new char[150]).replace('\0', 'n');
+
+        byte[] archive = write(name, "");
+
+        assertThat(new String(archive, 0, 13, "UTF-8"), is(equalTo("././@LongLink")));
+        assertThat(archive[156], is(equalTo((byte) 'L')));
+        assertThat(new String(archive, 512, 150, "UTF-8"), is(equalTo(name)));
+    }
+
+    @Test
+    public void aStreamEndingShortOfTheGivenSizeShouldFail() throws IOException {
+
+        TarWriter writer = new TarWriter(new ByteArrayOutputStream());
+
+        try {
+            writer.writeFile("data.csv", 100, MARCH_2014, new ByteArrayInputStream(new byte[10]));
+            fail();
+        } catch (IOException e) {
+            assertThat(e.getMessage(), is(equalTo("data.csv ended 90 bytes short of its size")));
+        }
+    }
+
+    private byte[] write(String name, String content) throws IOException {
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        byte[] bytes = content.getBytes("UTF-8");
+
+        TarWriter writer = new TarWriter(archive);
+        writer.writeFile(name, bytes.length, MARCH_2014, new ByteArrayInputStream(bytes));
+        writer.finish();
+
+        return archive.toByteArray();
+    }
+
+    private String checksum(byte[] archive) {
+
+        long checksum = 0;
+
+        for (int i = 0; i < 512; i++)
+            checksum += i >= 148 && i < 156 ? ' ' : archive[i] & 0xff;
+
+        return String.format("%06o", checksum);
+    }
+}
@@ -0,0 +1,63 @@
+package jftp.connection;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TreeListingTest {
+
+    @Test
+    public void entriesShouldBeIndexedAcrossDirectoriesIncludingEmptyOnes() {
+
+        TreeListing tree = new TreeListing(Arrays.asList(listing(file("a"), directory("empty"), directory("sub")),
+                listing(), listing(file("b"), file("c"))));
+
+        assertThat(tree.size(), is(equalTo(5)));
+        assertThat(tree.get(0).getName(), is(equalTo("a")));
+        assertThat(tree.get(2).getName(), is(equalTo("sub")));
+        assertThat(tree.get(3).getName(), is(equalTo("b")));
+        assertThat(tree.get(4).getName(), is(equalTo("c")));
+    }
+
+    @Test
+    public void aTreeShouldBeCompleteOnlyWithASectionForEverySubdirectory() {
+
+        assertThat(new TreeListing(Arrays.asList(listing(file("a"), directory("sub")), listing())).isComplete(),
+                is(equalTo(true)));
+        assertThat(new TreeListing(Arrays.asList(listing(file("a"), directory("sub")))).isComplete(),
+                is(equalTo(false)));
+    }
+
+    @Test
+    public void walkingShouldListEveryDirectoryInTheTree() {
+
+        Connection connection = mock(Connection.class);
+        when(connection.listFiles("/top")).thenReturn(listing(directory("sub"), file("a")));
+        when(connection.listFiles("/top/sub")).thenReturn(listing(file("b")));
+
+        TreeListing tree = TreeListing.walk(connection, "/top");
+
+        assertThat(tree.getDirectories().size(), is(equalTo(2)));
+        assertThat(tree.get(2).getFullPath(), is(equalTo("/top/sub/b")));
+    }
+
+    private List<FtpFile> listing(FtpFile... files) {
+        return new ArrayList<FtpFile>(Arrays.asList(files));
+    }
+
+    private FtpFile file(String name) {
+        return new FtpFile(name, 1, "/top/sub/" + name, 0, false);
+    }
+
+    private FtpFile directory(String name) {
+        return new FtpFile(name, 0, "/top/" + name, 0, true);
+    }
+}
@@ -0,0 +1,169 @@
+package jftp.dedup;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import jftp.connection.Connection;
+import jftp.connection.FtpFile;
+import jftp.connection.RemoteHashing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DeduplicatingUploaderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String REMOTE_DIRECTORY = "/data";
+    private static final String REMOTE_FILE_PATH = "/data/report.csv";
+    private static final String CONTENT = "a,b,c\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Connection connection;
+    private ExecutorService hashingExecutor;
+    private File localFile;
+    private FtpFile remoteFile;
+
+    @Before
+    public void setUp() throws IOException {
+
+        connection = mock(Connection.class, withSettings().extraInterfaces(RemoteHashing.class));
+        hashingExecutor = Executors.newFixedThreadPool(2);
+
+        localFile = folder.newFile("report.csv");
+        Files.write(localFile.toPath(), CONTENT.getBytes(UTF_8));
+
+        remoteFile = new FtpFile("report.csv", CONTENT.length(), REMOTE_FILE_PATH, 1400000000000L, false);
+    }
+
+    @After
+    public void tearDown() {
+        hashingExecutor.shutdownNow();
+    }
+
+    @Test
+    public void filesMissingFromTheServerShouldBeUploaded() throws IOException {
+
+        when(connection.stat(REMOTE_FILE_PATH)).thenReturn(null, remoteFile);
+
+        UploadReport report = upload();
+
+        verify(connection).upload(localFile.getAbsolutePath(), REMOTE_DIRECTORY);
+        assertThat(report.getUploadedFiles(), is(equalTo(Arrays.asList(localFile.getAbsolutePath()))));
+        assertThat(report.getUploadedBytes(), is(equalTo((long) CONTENT.length())));
+        assertThat(report.getSkippedBytes(), is(equalTo(0l)));
+    }
+
+    @Test
+    public void filesLeftAsTheLastUploadLeftThemShouldBeSkipped() throws IOException {
+
+        when(connection.stat(REMOTE_FILE_PATH)).thenReturn(null, remoteFile, remoteFile);
+
+        upload();
+        UploadReport report = upload();
+
+        verify(connection, times(1)).upload(anyString(), anyString());
+        verify((RemoteHashing) connection, never()).sha256(anyString());
+        assertThat(report.getSkippedFiles(), is(equalTo(Arrays.asList(localFile.getAbsolutePath()))));
+        assertThat(report.getSkippedBytes(), is(equalTo((long) CONTENT.length())));
+    }
+
+    @Test
+    public void filesChangedOnTheServerSinceTheLastUploadShouldBeUploadedAgain() throws IOException {
+
+        FtpFile touchedRemoteFile = new FtpFile("report.csv", CONTENT.length(), REMOTE_FILE_PATH, 1500000000000L, false);
+
+        when(connection.stat(REMOTE_FILE_PATH)).thenReturn(null, remoteFile, touchedRemoteFile, touchedRemoteFile);
+
+        upload();
+        UploadReport report = upload();
+
+        verify(connection, times(2)).upload(anyString(), anyString());
+        assertThat(report.getUploadedFiles().size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void aMatchingServerSideHashShouldBeTrustedWithoutAnIndexEntry() throws Exception {
+
+        when(connection.stat(REMOTE_FILE_PATH)).thenReturn(remoteFile);
+        when(((RemoteHashing) connection).sha256(REMOTE_FILE_PATH)).thenReturn(digestOf(CONTENT));
+
+        UploadReport report = upload();
+
+        verify(connection, never()).upload(anyString(), anyString());
+        assertThat(report.getSkippedFiles().size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void remoteFilesOfADifferentSizeShouldBeUploadedWithoutBeingHashed() throws IOException {
+
+        when(connection.stat(REMOTE_FILE_PATH)).thenReturn(
+                new FtpFile("report.csv", 1, REMOTE_FILE_PATH, 1400000000000L, false));
+
+        upload();
+
+        verify(connection).upload(localFile.getAbsolutePath(), REMOTE_DIRECTORY);
+        verify((RemoteHashing) connection, never()).sha256(anyString());
+    }
+
+    @Test
+    public void localDigestsShouldBeReusedWhileSizeAndModificationTimeAreUnchanged() throws IOException {
+
+        when(connection.stat(REMOTE_FILE_PATH)).thenReturn(null, remoteFile, remoteFile);
+
+        upload();
+
+        // Same size and time, different content: only rehashing would notice.
+        long lastModified = localFile.lastModified();
+        Files.write(localFile.toPath(), "x,y,z\n".getBytes(UTF_8));
+        localFile.setLastModified(lastModified);
+
+        UploadReport report = upload();
+
+        assertThat(report.getSkippedFiles().size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void relativeDirectoriesShouldBeResolvedAgainstTheWorkingDirectory() throws IOException {
+
+        when(connection.printWorkingDirectory()).thenReturn("/");
+        when(connection.stat(REMOTE_FILE_PATH)).thenReturn(null, remoteFile);
+
+        new DeduplicatingUploader(connection, folder.getRoot().toPath(), hashingExecutor).upload(
+                Arrays.asList(localFile.getPath()), "data/");
+
+        verify(connection).upload(localFile.getAbsolutePath(), REMOTE_DIRECTORY);
+    }
+
+    private UploadReport upload() {
+
+        return new DeduplicatingUploader(connection, folder.getRoot().toPath(), hashingExecutor).upload(
+                Arrays.asList(localFile.getPath()), REMOTE_DIRECTORY);
+    }
+
+    private String digestOf(String content) throws IOException, NoSuchAlgorithmException {
+        return DeduplicatingUploader.digest(new ByteArrayInputStream(content.getBytes(UTF_8)));
+    }
+}
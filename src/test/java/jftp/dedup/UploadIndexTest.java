@@ -0,0 +1,83 @@
+package jftp.dedup;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class UploadIndexTest {
+
+    private static final String DIGEST = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void aMissingIndexFileShouldGiveAnEmptyIndex() throws IOException {
+
+        UploadIndex index = UploadIndex.load(folder.getRoot().toPath().resolve("missing.index"));
+
+        assertThat(index.localDigest("/local/report.csv", 4, 1000), is(nullValue()));
+    }
+
+    @Test
+    public void entriesShouldSurviveBeingSavedAndLoaded() throws IOException {
+
+        Path indexFile = folder.getRoot().toPath().resolve("data.index");
+
+        UploadIndex index = UploadIndex.load(indexFile);
+        index.putLocal("/local/a file\twith a tab.csv", 4, 1000, DIGEST);
+        index.putRemote("/data/report.csv", 4, 2000, DIGEST);
+        index.save();
+
+        UploadIndex loaded = UploadIndex.load(indexFile);
+
+        assertThat(loaded.localDigest("/local/a file\twith a tab.csv", 4, 1000), is(equalTo(DIGEST)));
+        assertThat(loaded.isUnchangedSince("/data/report.csv", 4, 2000, DIGEST), is(equalTo(true)));
+        assertThat(Files.exists(folder.getRoot().toPath().resolve("data.index.tmp")), is(equalTo(false)));
+    }
+
+    @Test
+    public void localDigestsShouldOnlyBeGivenWhileSizeAndModificationTimeAreUnchanged() {
+
+        UploadIndex index = new UploadIndex(folder.getRoot().toPath().resolve("data.index"));
+        index.putLocal("/local/report.csv", 4, 1000, DIGEST);
+
+        assertThat(index.localDigest("/local/report.csv", 4, 1000), is(equalTo(DIGEST)));
+        assertThat(index.localDigest("/local/report.csv", 4, 1001), is(nullValue()));
+        assertThat(index.localDigest("/local/report.csv", 5, 1000), is(nullValue()));
+    }
+
+    @Test
+    public void remoteFilesShouldOnlyMatchTheContentLastUploaded() {
+
+        UploadIndex index = new UploadIndex(folder.getRoot().toPath().resolve("data.index"));
+        index.putRemote("/data/report.csv", 4, 2000, DIGEST);
+
+        assertThat(index.isUnchangedSince("/data/report.csv", 4, 2000, "other"), is(equalTo(false)));
+        assertThat(index.isUnchangedSince("/data/report.csv", 4, 3000, DIGEST), is(equalTo(false)));
+    }
+
+    @Test
+    public void unreadableLinesShouldBeDropped() throws IOException {
+
+        Path indexFile = folder.getRoot().toPath().resolve("data.index");
+
+        Files.write(indexFile, ("L\tfour\t1000\t" + DIGEST + "\t/local/broken.csv\n" + "L\t4\t1000\n" + "L\t4\t1000\t"
+                + DIGEST + "\t/local/report.csv\n").getBytes(Charset.forName("UTF-8")));
+
+        UploadIndex index = UploadIndex.load(indexFile);
+
+        assertThat(index.localDigest("/local/broken.csv", 4, 1000), is(nullValue()));
+        assertThat(index.localDigest("/local/report.csv", 4, 1000), is(equalTo(DIGEST)));
+    }
+}
@@ -0,0 +1,40 @@
+package jftp.replica;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.junit.Test;
+
+public class LatencyWindowTest {
+
+    @Test
+    public void percentilesShouldBeTakenOverTheRecordedSamples() {
+
+        LatencyWindow window = new LatencyWindow(100);
+
+        for (long millis = 100; millis >= 1; millis--)
+            window.add(millis);
+
+        assertThat(window.percentile(0.95), is(equalTo(95L)));
+        assertThat(window.percentile(0.5), is(equalTo(50L)));
+    }
+
+    @Test
+    public void onlyTheMostRecentSamplesShouldBeKept() {
+
+        LatencyWindow window = new LatencyWindow(2);
+
+        window.add(1000);
+        window.add(10);
+        window.add(20);
+
+        assertThat(window.percentile(1), is(equalTo(20L)));
+    }
+
+    @Test
+    public void anEmptyWindowShouldHaveNoPercentile() {
+
+        assertThat(new LatencyWindow(10).percentile(0.95), is(equalTo(-1L)));
+    }
+}
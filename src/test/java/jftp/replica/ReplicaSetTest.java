@@ -0,0 +1,234 @@
+package jftp.replica;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import jftp.connection.Connection;
+import jftp.exception.FtpException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class ReplicaSetTest {
+
+    private static final String REMOTE_FILE = "datasets/file.csv";
+
+    @Rule
+    public TemporaryFolder localDirectory = new TemporaryFolder();
+
+    private Connection first;
+    private Connection second;
+
+    private ReplicaSet replicaSet = new ReplicaSet();
+
+    @Before
+    public void setUp() {
+
+        first = mock(Connection.class);
+        second = mock(Connection.class);
+
+        replicaSet.addReplica("first", first);
+        replicaSet.addReplica("second", second);
+    }
+
+    @Test
+    public void theDownloadedFileShouldOnlyAppearUnderItsOwnName() throws IOException {
+
+        willSend(first, "content", 0);
+
+        replicaSet.download(REMOTE_FILE, localDirectory.getRoot().getPath());
+
+        assertThat(localFileContent(), is(equalTo("content")));
+        assertThat(localDirectory.getRoot().list().length, is(equalTo(1)));
+    }
+
+    @Test
+    public void whenAReplicaFailsTheNextOneShouldBeTried() throws IOException {
+
+        doThrow(new FtpException("Unable to download file")).when(first).download(anyString(), any(OutputStream.class));
+        willSend(second, "content", 0);
+
+        replicaSet.download(REMOTE_FILE, localDirectory.getRoot().getPath());
+
+        assertThat(localFileContent(), is(equalTo("content")));
+        assertThat(localDirectory.getRoot().list().length, is(equalTo(1)));
+    }
+
+    @Test
+    public void whenEveryReplicaFailsTheLastFailureShouldBeThrown() {
+
+        FtpException lastFailure = new FtpException("Unable to download file");
+
+        doThrow(new FtpException("Unable to download file")).when(first).download(anyString(), any(OutputStream.class));
+        doThrow(lastFailure).when(second).download(anyString(), any(OutputStream.class));
+
+        try {
+            replicaSet.download(REMOTE_FILE, localDirectory.getRoot().getPath());
+            fail();
+        } catch (FtpException e) {
+            assertThat(e, is(sameInstance(lastFailure)));
+        }
+    }
+
+    @Test
+    public void oncePerformanceIsKnownDownloadsShouldGoToTheFastestReplica() {
+
+        willSend(first, "content", 100);
+        willSend(second, "content", 0);
+
+        replicaSet.download(REMOTE_FILE, localDirectory.getRoot().getPath());
+        replicaSet.download(REMOTE_FILE, localDirectory.getRoot().getPath());
+        replicaSet.download(REMOTE_FILE, localDirectory.getRoot().getPath());
+
+        verify(first, times(1)).download(anyString(), any(OutputStream.class));
+        verify(second, times(2)).download(anyString(), any(OutputStream.class));
+    }
+
+    @Test
+    public void aReplicaSlowToStartShouldBeHedgedAndTheLoserAborted() throws IOException {
+
+        final CountDownLatch aborted = new CountDownLatch(1);
+
+        willSend(first, "first", 0);
+
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Exception {
+                aborted.await();
+                throw new FtpException("Transfer of " + REMOTE_FILE + " was aborted.");
+            }
+
+        }).when(second).download(anyString(), any(OutputStream.class));
+
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                aborted.countDown();
+                return null;
+            }
+
+        }).when(second).abort();
+
+        replicaSet.setHedging(true);
+        replicaSet.setMinimumHedgeDelay(20);
+
+        // Measures the first replica, leaving the unmeasured second one to be tried next.
+        replicaSet.download(REMOTE_FILE, localDirectory.getRoot().getPath());
+        replicaSet.download(REMOTE_FILE, localDirectory.getRoot().getPath());
+
+        // The first replica may win before the second's download has even been called.
+        verify(second, timeout(1000)).download(anyString(), any(OutputStream.class));
+        verify(second).abort();
+        assertThat(localFileContent(), is(equalTo("first")));
+
+        for (int waited = 0; localDirectory.getRoot().list().length > 1 && waited < 1000; waited += 10)
+            sleep(10);
+
+        assertThat(localDirectory.getRoot().list().length, is(equalTo(1)));
+    }
+
+    @Test
+    public void aReplicaSendingPromptlyShouldNotBeHedged() {
+
+        willSend(first, "content", 0);
+
+        replicaSet.setHedging(true);
+        replicaSet.setMinimumHedgeDelay(1000);
+
+        replicaSet.download(REMOTE_FILE, localDirectory.getRoot().getPath());
+
+        verify(second, never()).download(anyString(), any(OutputStream.class));
+    }
+
+    @Test
+    public void probingShouldBeTriggeredByTheSchedulerUntilStopped() {
+
+        ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+        ScheduledFuture<?> probing = mock(ScheduledFuture.class);
+        ArgumentCaptor<Runnable> probes = ArgumentCaptor.forClass(Runnable.class);
+
+        doReturn(probing).when(scheduler).scheduleWithFixedDelay(probes.capture(), eq(0L), eq(1000L),
+                eq(TimeUnit.MILLISECONDS));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+
+            replicaSet = new ReplicaSet(executor, scheduler);
+            replicaSet.addReplica("first", first);
+
+            replicaSet.startProbing(1000);
+            probes.getValue().run();
+
+            verify(first, timeout(5000)).printWorkingDirectory();
+
+            replicaSet.stopProbing();
+
+            verify(probing).cancel(false);
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void willSend(Connection connection, final String content, final long delayMillis) {
+
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Exception {
+
+                Thread.sleep(delayMillis);
+                ((OutputStream) invocation.getArguments()[1]).write(content.getBytes());
+
+                return null;
+            }
+
+        }).when(connection).download(anyString(), any(OutputStream.class));
+    }
+
+    private void sleep(long millis) {
+
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String localFileContent() throws IOException {
+        return new String(Files.readAllBytes(new File(localDirectory.getRoot(), "file.csv").toPath()));
+    }
+}
@@ -0,0 +1,38 @@
+package jftp.replica;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+
+import jftp.connection.Connection;
+
+import org.junit.Test;
+
+public class ReplicaTest {
+
+    private Replica replica = new Replica("host", mock(Connection.class));
+
+    @Test
+    public void anUnmeasuredReplicaShouldBeEstimatedAsFreeSoThatItGetsTried() {
+
+        assertThat(replica.estimateMillis(1000), is(equalTo(0.0)));
+    }
+
+    @Test
+    public void theEstimateShouldCoverTheFirstByteLatencyAndTheTransferTime() {
+
+        replica.recordTransfer(10, 1000, 110);
+
+        assertThat(replica.estimateMillis(5000), is(equalTo(10.0 + 500.0)));
+    }
+
+    @Test
+    public void laterMeasurementsShouldBeBlendedIntoTheAverage() {
+
+        replica.recordLatency(100);
+        replica.recordLatency(200);
+
+        assertThat(replica.estimateMillis(0), is(equalTo(130.0)));
+    }
+}
@@ -0,0 +1,142 @@
+package jftp.retry;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import jftp.exception.FtpException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class CircuitBreakerTest {
+
+    private TestableCircuitBreaker breaker = new TestableCircuitBreaker();
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void breakerShouldStayClosedBelowTheFailureThreshold() {
+
+        breaker.recordFailure();
+        breaker.recordFailure();
+
+        breaker.ensureClosed();
+
+        assertThat(breaker.getState(), is(equalTo(CircuitBreaker.State.CLOSED)));
+    }
+
+    @Test
+    public void breakerShouldOpenAndFailFastOnceTheThresholdIsReached() {
+
+        expectedException.expect(FtpException.class);
+        expectedException.expectMessage(is(equalTo("Host host:21 is unavailable, not attempting to connect.")));
+
+        openBreaker();
+
+        breaker.ensureClosed();
+    }
+
+    @Test
+    public void aSuccessShouldResetTheFailureCount() {
+
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+
+        assertThat(breaker.getState(), is(equalTo(CircuitBreaker.State.CLOSED)));
+    }
+
+    @Test
+    public void oneTrialCallShouldBeLetThroughOnceTheOpenPeriodHasPassed() {
+
+        openBreaker();
+        breaker.now += 1000;
+
+        breaker.ensureClosed();
+
+        assertThat(breaker.getState(), is(equalTo(CircuitBreaker.State.HALF_OPEN)));
+    }
+
+    @Test
+    public void otherCallsShouldStillFailWhileTheTrialCallIsInFlight() {
+
+        expectedException.expect(FtpException.class);
+
+        openBreaker();
+        breaker.now += 1000;
+
+        breaker.ensureClosed();
+        breaker.ensureClosed();
+    }
+
+    @Test
+    public void aFailedTrialCallShouldReopenTheBreaker() {
+
+        openBreaker();
+        breaker.now += 1000;
+
+        breaker.ensureClosed();
+        breaker.recordFailure();
+
+        assertThat(breaker.getState(), is(equalTo(CircuitBreaker.State.OPEN)));
+    }
+
+    @Test
+    public void aSuccessfulTrialCallShouldCloseTheBreaker() {
+
+        openBreaker();
+        breaker.now += 1000;
+
+        breaker.ensureClosed();
+        breaker.recordSuccess();
+
+        assertThat(breaker.getState(), is(equalTo(CircuitBreaker.State.CLOSED)));
+    }
+
+    @Test
+    public void anotherTrialCallShouldBeLetThroughIfTheFirstIsNeverReported() {
+
+        openBreaker();
+        breaker.now += 1000;
+
+        breaker.ensureClosed();
+        breaker.now += 1000;
+
+        breaker.ensureClosed();
+
+        assertThat(breaker.getState(), is(equalTo(CircuitBreaker.State.HALF_OPEN)));
+    }
+
+    @Test
+    public void clientsOfTheSameHostAndPortShouldShareABreaker() {
+
+        assertThat(CircuitBreaker.forHost("a", 21), is(sameInstance(CircuitBreaker.forHost("a", 21))));
+        assertThat(CircuitBreaker.forHost("a", 21), is(not(sameInstance(CircuitBreaker.forHost("a", 22)))));
+    }
+
+    private void openBreaker() {
+
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordFailure();
+    }
+
+    private static class TestableCircuitBreaker extends CircuitBreaker {
+
+        private long now = 0;
+
+        TestableCircuitBreaker() {
+            super("host:21", 3, 1000);
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return now;
+        }
+    }
+}
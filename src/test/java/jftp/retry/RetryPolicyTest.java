@@ -0,0 +1,157 @@
+package jftp.retry;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+import jftp.exception.FtpException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+
+public class RetryPolicyTest {
+
+    private RetryPolicy retryPolicy = new RetryPolicy();
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Before
+    public void setUp() {
+
+        retryPolicy.setInitialBackoffMillis(0);
+        retryPolicy.setMaxAttempts(3);
+    }
+
+    @Test
+    public void operationShouldBeRetriedUntilItSucceeds() {
+
+        FailingOperation operation = new FailingOperation(2, new FtpException("timeout", new SocketTimeoutException()));
+
+        assertThat(retryPolicy.execute(operation), is(equalTo("done")));
+        assertThat(operation.attempts, is(equalTo(3)));
+    }
+
+    @Test
+    public void lastFailureShouldBeRethrownOnceAttemptsAreExhausted() {
+
+        expectedException.expect(FtpException.class);
+        expectedException.expectMessage(is(equalTo("timeout")));
+
+        retryPolicy.execute(new FailingOperation(3, new FtpException("timeout", new SocketTimeoutException())));
+    }
+
+    @Test
+    public void permanentFailuresShouldNotBeRetried() {
+
+        FailingOperation operation = new FailingOperation(1, new FtpException("missing", new FileNotFoundException()));
+
+        try {
+            retryPolicy.execute(operation);
+        } catch (FtpException e) {
+            // expected
+        }
+
+        assertThat(operation.attempts, is(equalTo(1)));
+    }
+
+    @Test
+    public void networkFailuresShouldBeRetryable() {
+
+        assertThat(retryPolicy.isRetryable(new FtpException("", new IOException())), is(equalTo(true)));
+        assertThat(retryPolicy.isRetryable(new FtpException("", new JSchException())), is(equalTo(true)));
+    }
+
+    @Test
+    public void unknownHostsShouldNotBeRetryable() {
+
+        assertThat(retryPolicy.isRetryable(new FtpException("", new UnknownHostException())), is(equalTo(false)));
+    }
+
+    @Test
+    public void transientFtpRepliesShouldBeRetryableButPermanentOnesShouldNot() {
+
+        assertThat(retryPolicy.isRetryable(new FtpException("", 421)), is(equalTo(true)));
+        assertThat(retryPolicy.isRetryable(new FtpException("", 550)), is(equalTo(false)));
+    }
+
+    @Test
+    public void lostSftpConnectionsShouldBeRetryableButMissingFilesShouldNot() {
+
+        SftpException lost = new SftpException(ChannelSftp.SSH_FX_CONNECTION_LOST, "");
+        SftpException missing = new SftpException(ChannelSftp.SSH_FX_NO_SUCH_FILE, "");
+
+        assertThat(retryPolicy.isRetryable(new FtpException("", lost)), is(equalTo(true)));
+        assertThat(retryPolicy.isRetryable(new FtpException("", missing)), is(equalTo(false)));
+    }
+
+    @Test
+    public void failuresWithNoCauseOrReplyCodeShouldNotBeRetryable() {
+
+        assertThat(retryPolicy.isRetryable(new FtpException("")), is(equalTo(false)));
+    }
+
+    @Test
+    public void backoffShouldGrowExponentiallyUpToTheMaximum() {
+
+        Random alwaysMax = mock(Random.class);
+        when(alwaysMax.nextDouble()).thenReturn(1.0);
+
+        retryPolicy.setRandom(alwaysMax);
+        retryPolicy.setInitialBackoffMillis(100);
+        retryPolicy.setMaxBackoffMillis(1000);
+
+        assertThat(retryPolicy.backoffMillis(1), is(equalTo(100l)));
+        assertThat(retryPolicy.backoffMillis(2), is(equalTo(200l)));
+        assertThat(retryPolicy.backoffMillis(3), is(equalTo(400l)));
+        assertThat(retryPolicy.backoffMillis(10), is(equalTo(1000l)));
+    }
+
+    @Test
+    public void backoffShouldBeJitteredBelowTheCeiling() {
+
+        retryPolicy.setInitialBackoffMillis(100);
+
+        for (int i = 0; i < 100; i++)
+            assertThat(retryPolicy.backoffMillis(2), is(lessThanOrEqualTo(200l)));
+    }
+
+    private static class FailingOperation implements RetryPolicy.Operation<String> {
+
+        private final int failures;
+        private final FtpException failure;
+
+        private int attempts;
+
+        FailingOperation(int failures, FtpException failure) {
+            this.failures = failures;
+            this.failure = failure;
+        }
+
+        @Override
+        public String run(int attempt) {
+
+            attempts = attempt;
+
+            if (attempt <= failures)
+                throw failure;
+
+            return "done";
+        }
+    }
+}
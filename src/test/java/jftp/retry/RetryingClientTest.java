@@ -0,0 +1,147 @@
+package jftp.retry;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+
+import jftp.client.Client;
+import jftp.client.auth.UserCredentials;
+import jftp.connection.Connection;
+import jftp.exception.FtpException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class RetryingClientTest {
+
+    private Client mockClient;
+    private Connection mockConnection;
+
+    private CircuitBreaker circuitBreaker;
+    private RetryingClient retryingClient;
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Before
+    public void setUp() {
+
+        mockClient = mock(Client.class);
+        mockConnection = mock(Connection.class);
+
+        RetryPolicy retryPolicy = new RetryPolicy();
+        retryPolicy.setInitialBackoffMillis(0);
+        retryPolicy.setMaxAttempts(3);
+
+        circuitBreaker = new CircuitBreaker("host:21", 5, 60000);
+
+        retryingClient = new RetryingClient(mockClient, retryPolicy) {
+
+            @Override
+            CircuitBreaker circuitBreaker() {
+                return circuitBreaker;
+            }
+        };
+    }
+
+    @Test
+    public void connectionSettingsShouldBePassedToTheWrappedClient() {
+
+        UserCredentials credentials = new UserCredentials("user", "password");
+
+        retryingClient.setHost("host");
+        retryingClient.setPort(21);
+        retryingClient.setCredentials(credentials);
+        retryingClient.setConnectTimeout(1000);
+        retryingClient.setReadTimeout(2000);
+
+        verify(mockClient).setHost("host");
+        verify(mockClient).setPort(21);
+        verify(mockClient).setCredentials(credentials);
+        verify(mockClient).setConnectTimeout(1000);
+        verify(mockClient).setReadTimeout(2000);
+    }
+
+    @Test
+    public void connectShouldBeRetriedWhenTheHostIsTemporarilyUnreachable() {
+
+        when(mockClient.connect()).thenThrow(new FtpException("refused", new IOException())).thenReturn(mockConnection);
+
+        Connection connection = retryingClient.connect();
+
+        assertThat(connection, is(instanceOf(RetryingConnection.class)));
+        verify(mockClient, times(2)).connect();
+    }
+
+    @Test
+    public void connectingAgainShouldHandBackTheSameConnection() {
+
+        when(mockClient.connect()).thenReturn(mockConnection);
+
+        assertThat(retryingClient.reconnect(), is(sameInstance(retryingClient.connect())));
+    }
+
+    @Test
+    public void repeatedConnectFailuresShouldBeRecordedAgainstTheHostsBreaker() {
+
+        when(mockClient.connect()).thenThrow(new FtpException("refused", new IOException()));
+
+        try {
+            retryingClient.connect();
+        } catch (FtpException e) {
+            // expected
+        }
+
+        try {
+            retryingClient.connect();
+        } catch (FtpException e) {
+            // expected
+        }
+
+        assertThat(circuitBreaker.getState(), is(equalTo(CircuitBreaker.State.OPEN)));
+    }
+
+    @Test
+    public void aTrialConnectFailingUnexpectedlyShouldReopenTheBreaker() {
+
+        circuitBreaker = new CircuitBreaker("host:21", 1, 0);
+        circuitBreaker.recordFailure();
+
+        when(mockClient.connect()).thenThrow(new IllegalStateException());
+
+        try {
+            retryingClient.connect();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        assertThat(circuitBreaker.getState(), is(equalTo(CircuitBreaker.State.OPEN)));
+    }
+
+    @Test
+    public void aTrialConnectRejectedByTheHostShouldCloseTheBreaker() {
+
+        circuitBreaker = new CircuitBreaker("host:21", 1, 0);
+        circuitBreaker.recordFailure();
+
+        when(mockClient.connect()).thenThrow(new FtpException("Login incorrect", 530));
+
+        try {
+            retryingClient.connect();
+        } catch (FtpException e) {
+            // expected
+        }
+
+        assertThat(circuitBreaker.getState(), is(equalTo(CircuitBreaker.State.CLOSED)));
+    }
+}
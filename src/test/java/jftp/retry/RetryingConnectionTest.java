@@ -0,0 +1,178 @@
+package jftp.retry;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import jftp.client.Client;
+import jftp.connection.Connection;
+import jftp.connection.FtpFile;
+import jftp.exception.FtpException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+public class RetryingConnectionTest {
+
+    private Connection mockConnection;
+    private Client mockClient;
+    private CircuitBreaker circuitBreaker;
+
+    private RetryingConnection retryingConnection;
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Before
+    public void setUp() {
+
+        mockConnection = mock(Connection.class);
+        mockClient = mock(Client.class);
+
+        when(mockClient.isConnected()).thenReturn(true);
+        when(mockClient.keepAlive(0)).thenReturn(true);
+
+        RetryPolicy retryPolicy = new RetryPolicy();
+        retryPolicy.setInitialBackoffMillis(0);
+
+        circuitBreaker = new CircuitBreaker("host:21", 2, 60000);
+
+        retryingConnection = new RetryingConnection(mockConnection, mockClient, retryPolicy, circuitBreaker);
+    }
+
+    @Test
+    public void aDownloadInterruptedByTheNetworkShouldBeResumedRatherThanRestarted() {
+
+        doThrow(new FtpException("reset", new IOException())).when(mockConnection).download("remote.txt", "local");
+
+        retryingConnection.download("remote.txt", "local");
+
+        InOrder inOrder = Mockito.inOrder(mockConnection);
+
+        inOrder.verify(mockConnection).download("remote.txt", "local");
+        inOrder.verify(mockConnection).resumeDownload("remote.txt", "local");
+    }
+
+    @Test
+    public void theClientShouldBeReconnectedBeforeRetryingWhenTheConnectionHasDropped() {
+
+        List<FtpFile> files = new ArrayList<FtpFile>();
+
+        when(mockClient.isConnected()).thenReturn(false);
+        when(mockConnection.listFiles()).thenThrow(new FtpException("closed", new IOException())).thenReturn(files);
+
+        assertThat(retryingConnection.listFiles(), is(equalTo(files)));
+
+        verify(mockClient).reconnect();
+    }
+
+    @Test
+    public void theClientShouldNotBeReconnectedWhenItIsStillAlive() {
+
+        when(mockConnection.printWorkingDirectory()).thenThrow(new FtpException("busy", 450)).thenReturn("/");
+
+        retryingConnection.printWorkingDirectory();
+
+        verify(mockClient, never()).reconnect();
+    }
+
+    @Test
+    public void permanentFailuresShouldNotBeRetried() {
+
+        doThrow(new FtpException("Upload failed.", 550)).when(mockConnection).upload("local.txt", "remote");
+
+        try {
+            retryingConnection.upload("local.txt", "remote");
+        } catch (FtpException e) {
+            // expected
+        }
+
+        verify(mockConnection, times(1)).upload("local.txt", "remote");
+    }
+
+    @Test
+    public void permanentFailuresShouldNotCountTowardsOpeningTheCircuit() {
+
+        doThrow(new FtpException("No such directory", 550)).when(mockConnection).changeDirectory("missing");
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                retryingConnection.changeDirectory("missing");
+            } catch (FtpException e) {
+                // expected
+            }
+        }
+
+        assertThat(circuitBreaker.getState(), is(equalTo(CircuitBreaker.State.CLOSED)));
+    }
+
+    @Test
+    public void operationsShouldFailFastOnceTheHostsCircuitIsOpen() {
+
+        expectedException.expect(FtpException.class);
+        expectedException.expectMessage(is(equalTo("Host host:21 is unavailable, not attempting to connect.")));
+
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+
+        try {
+            retryingConnection.listFiles("path");
+        } finally {
+            verify(mockConnection, never()).listFiles("path");
+        }
+    }
+
+    @Test
+    public void aDeleteWhoseReplyWasLostShouldNotFailOnRetryBecauseTheFileHasGone() {
+
+        doThrow(new FtpException("reset", new IOException())).doThrow(new FtpException("No such file", 550))
+                .when(mockConnection).delete("remote.txt");
+        when(mockConnection.exists("remote.txt")).thenReturn(false);
+
+        retryingConnection.delete("remote.txt");
+
+        verify(mockConnection, times(2)).delete("remote.txt");
+    }
+
+    @Test
+    public void aDeleteRefusedOnItsFirstAttemptShouldFailWithoutLookingForTheFile() {
+
+        doThrow(new FtpException("Permission denied", 550)).when(mockConnection).delete("remote.txt");
+
+        expectedException.expect(FtpException.class);
+        expectedException.expectMessage("Permission denied");
+
+        try {
+            retryingConnection.delete("remote.txt");
+        } finally {
+            verify(mockConnection, never()).exists("remote.txt");
+        }
+    }
+
+    @Test
+    public void aRenameWhoseReplyWasLostShouldNotFailOnRetryOnceTheTargetExists() {
+
+        doThrow(new FtpException("reset", new IOException())).doThrow(new FtpException("No such file", 550))
+                .when(mockConnection).rename("from.txt", "to.txt");
+        when(mockConnection.exists("from.txt")).thenReturn(false);
+        when(mockConnection.exists("to.txt")).thenReturn(true);
+
+        retryingConnection.rename("from.txt", "to.txt");
+
+        verify(mockConnection, times(2)).rename("from.txt", "to.txt");
+    }
+}
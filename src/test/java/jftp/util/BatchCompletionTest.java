@@ -0,0 +1,40 @@
+package jftp.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import jftp.exception.FtpException;
+
+import org.junit.Test;
+
+public class BatchCompletionTest {
+
+    private static final List<String> PATHS = Arrays.asList("/a", "/b", "/c");
+
+    @Test
+    public void aBatchWithoutFailuresShouldPass() {
+
+        BatchCompletion.checkFailures("delete", "paths", PATHS, new FtpException[3]);
+    }
+
+    @Test
+    public void failuresShouldBeCountedAndTheFirstInTheBatchReported() {
+
+        FtpException second = new FtpException("Unable to delete /b");
+        FtpException third = new FtpException("Unable to delete /c");
+
+        try {
+            BatchCompletion.checkFailures("delete", "paths", PATHS, new FtpException[] { null, second, third });
+            fail();
+        } catch (FtpException e) {
+            assertThat(e.getMessage(), is(equalTo("Unable to delete 2 of 3 paths, the first being /b")));
+            assertThat(e.getCause(), is(sameInstance((Throwable) second)));
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package jftp.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import jftp.exception.FtpException;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final BufferPool pool = new BufferPool(64 * 1024);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void buffersShouldBeRoundedUpToAPowerOfTwo() {
+
+        assertThat(pool.acquire(1).length, is(equalTo(4096)));
+        assertThat(pool.acquire(5000).length, is(equalTo(8192)));
+        assertThat(pool.acquire(16384).length, is(equalTo(16384)));
+    }
+
+    @Test
+    public void releasedBuffersShouldBeReusedWithoutAllocating() {
+
+        byte[] first = pool.acquire(8192);
+        pool.release(first);
+
+        byte[] second = pool.acquire(8000);
+        pool.release(second);
+
+        assertThat(second, is(sameInstance(first)));
+        assertThat(pool.getAcquisitions(), is(equalTo(2L)));
+        assertThat(pool.getAllocations(), is(equalTo(1L)));
+        assertThat(pool.getBytesIdle(), is(equalTo(8192L)));
+    }
+
+    @Test
+    public void metricsShouldTrackBytesInUse() {
+
+        byte[] first = pool.acquire(16384);
+        byte[] second = pool.acquire(16384);
+
+        assertThat(pool.getBytesInUse(), is(equalTo(32768L)));
+        assertThat(pool.getUtilisation(), is(equalTo(0.5)));
+
+        pool.release(first);
+        pool.release(second);
+
+        assertThat(pool.getBytesInUse(), is(equalTo(0L)));
+        assertThat(pool.getPeakBytesInUse(), is(equalTo(32768L)));
+        assertThat(pool.getCapacityBytes(), is(equalTo(65536L)));
+    }
+
+    @Test
+    public void idleBuffersOfOtherSizesShouldMakeWayWhenAtCapacity() {
+
+        byte[] small = pool.acquire(32768);
+        pool.release(small);
+
+        byte[] large = pool.acquire(65536);
+
+        assertThat(large.length, is(equalTo(65536)));
+        assertThat(pool.getBytesIdle(), is(equalTo(0L)));
+        assertThat(pool.getWaits(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void acquiringAtCapacityShouldWaitForARelease() throws Exception {
+
+        final byte[] held = pool.acquire(65536);
+
+        Future<byte[]> waiting = executor.submit(new Callable<byte[]>() {
+
+            @Override
+            public byte[] call() {
+                return pool.acquire(65536);
+            }
+        });
+
+        while (pool.getWaits() == 0)
+            Thread.sleep(10);
+
+        assertThat(waiting.isDone(), is(false));
+
+        pool.release(held);
+
+        assertThat(waiting.get(5, TimeUnit.SECONDS), is(sameInstance(held)));
+        assertThat(pool.getAllocations(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void acquiringWithoutWaitingAtCapacityShouldAllocatePastIt() {
+
+        byte[] held = pool.acquire(65536);
+        byte[] overflow = pool.acquireWithoutWaiting(32768);
+
+        assertThat(overflow.length, is(equalTo(32768)));
+        assertThat(pool.getOverflows(), is(equalTo(1L)));
+        assertThat(pool.getWaits(), is(equalTo(0L)));
+        assertThat(pool.getBytesInUse(), is(equalTo(65536L)));
+
+        pool.release(overflow);
+
+        assertThat(pool.getBytesInUse(), is(equalTo(65536L)));
+        assertThat(pool.getBytesIdle(), is(equalTo(0L)));
+
+        pool.release(held);
+
+        assertThat(pool.getBytesInUse(), is(equalTo(0L)));
+    }
+
+    @Test(timeout = 5000)
+    public void copyingWhileHoldingTheWholePoolShouldNotWait() throws Exception {
+
+        byte[] held = pool.acquire(65536);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        long copied = pool.copy(new ByteArrayInputStream(new byte[1000]), outputStream);
+
+        assertThat(copied, is(equalTo(1000L)));
+        assertThat(pool.getOverflows(), is(equalTo(1L)));
+
+        pool.release(held);
+    }
+
+    @Test(expected = FtpException.class)
+    public void buffersLargerThanTheCapacityShouldBeRefused() {
+        pool.acquire(65537);
+    }
+
+    @Test(expected = FtpException.class)
+    public void buffersLargerThanTheLargestSizeClassShouldBeRefusedWhateverTheCapacity() {
+        new BufferPool(Long.MAX_VALUE).acquire((1 << 30) + 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void arraysNotFromAPoolShouldBeRefused() {
+        pool.release(new byte[1000]);
+    }
+
+    @Test
+    public void copyShouldReturnItsBufferToThePool() throws Exception {
+
+        byte[] content = new byte[100000];
+        content[99999] = 42;
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        long copied = pool.copy(new ByteArrayInputStream(content), outputStream);
+
+        assertThat(copied, is(equalTo(100000L)));
+        assertThat(outputStream.toByteArray()[99999], is(equalTo((byte) 42)));
+        assertThat(pool.getBytesInUse(), is(equalTo(0L)));
+        assertThat(pool.getBytesIdle(), is(not(equalTo(0L))));
+    }
+
+    @Test
+    public void copyingARangeShouldStopAtItsLength() throws Exception {
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        long copied = pool.copy(new ByteArrayInputStream("0123456789".getBytes()), outputStream, 4);
+
+        assertThat(copied, is(equalTo(4L)));
+        assertThat(outputStream.toString(), is(equalTo("0123")));
+        assertThat(pool.getBytesInUse(), is(equalTo(0L)));
+    }
+}
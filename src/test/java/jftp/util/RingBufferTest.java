@@ -0,0 +1,87 @@
+package jftp.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class RingBufferTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void bytesWrittenShouldBeReadBackInOrderEvenWhenTheyExceedTheCapacity() throws Exception {
+
+        final RingBuffer ringBuffer = new RingBuffer(7);
+        final byte[] data = new byte[10000];
+        new Random(42).nextBytes(data);
+
+        Thread writer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+
+                try (OutputStream outputStream = ringBuffer.getOutputStream()) {
+
+                    for (int offset = 0; offset < data.length; offset += 13)
+                        outputStream.write(data, offset, Math.min(13, data.length - offset));
+
+                } catch (IOException e) {
+                    ringBuffer.fail(e);
+                }
+            }
+        });
+
+        writer.start();
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        InputStream inputStream = ringBuffer.getInputStream();
+        byte[] chunk = new byte[5];
+        int read;
+
+        while ((read = inputStream.read(chunk)) != -1)
+            received.write(chunk, 0, read);
+
+        writer.join();
+
+        assertThat(received.toByteArray(), is(equalTo(data)));
+    }
+
+    @Test
+    public void readingShouldFailRatherThanEndWhenTheWriterFailed() throws IOException {
+
+        expectedException.expect(IOException.class);
+        expectedException.expectMessage("The writing side of the buffer failed.");
+
+        RingBuffer ringBuffer = new RingBuffer(16);
+        ringBuffer.getOutputStream().write(1);
+        ringBuffer.fail(new IOException());
+
+        InputStream inputStream = ringBuffer.getInputStream();
+        assertThat(inputStream.read(), is(equalTo(1)));
+
+        inputStream.read();
+    }
+
+    @Test
+    public void writingShouldFailOnceTheReaderHasGoneAway() throws IOException {
+
+        expectedException.expect(IOException.class);
+        expectedException.expectMessage("The reading side of the buffer has been closed.");
+
+        RingBuffer ringBuffer = new RingBuffer(1);
+        ringBuffer.getInputStream().close();
+
+        ringBuffer.getOutputStream().write(new byte[4]);
+    }
+}
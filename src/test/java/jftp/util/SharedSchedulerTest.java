@@ -0,0 +1,35 @@
+package jftp.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+public class SharedSchedulerTest {
+
+    @Test
+    public void theSameSchedulerShouldBeSharedByAllCallers() {
+
+        assertThat(SharedScheduler.getInstance(), is(sameInstance(SharedScheduler.getInstance())));
+    }
+
+    @Test
+    public void scheduledWorkShouldRunOnDaemonThreadsSoTheJvmCanExit() throws InterruptedException, ExecutionException {
+
+        boolean daemon = SharedScheduler.getInstance().submit(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() {
+                return Thread.currentThread().isDaemon();
+            }
+
+        }).get();
+
+        assertThat(daemon, is(equalTo(true)));
+    }
+}
@@ -0,0 +1,188 @@
+package jftp.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jftp.exception.FtpException;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+    private static final int CALLERS = 4;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+    private final AtomicInteger started = new AtomicInteger();
+    private final AtomicInteger runs = new AtomicInteger();
+    private final AtomicInteger sharedWith = new AtomicInteger(-1);
+
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<String, String>() {
+
+        @Override
+        protected void shared(String result, int followers) {
+            sharedWith.set(followers);
+        }
+    };
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentCallersForTheSameKeyShouldShareOneRun() throws Exception {
+
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<String>> callers = startCallers("/data", release, null);
+
+        awaitFollowers(CALLERS - 1);
+        release.countDown();
+
+        for (Future<String> caller : callers)
+            assertThat(caller.get(), is(equalTo("listing")));
+
+        assertThat(runs.get(), is(equalTo(1)));
+        assertThat(sharedWith.get(), is(equalTo(CALLERS - 1)));
+    }
+
+    @Test
+    public void everyCallerShouldBeThrownAFailureOfItsOwnCausedByTheSameOne() throws Exception {
+
+        FtpException failure = new FtpException("Unable to list files in directory /data", 550);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<String>> callers = startCallers("/data", release, failure);
+
+        awaitFollowers(CALLERS - 1);
+        release.countDown();
+
+        Set<Throwable> thrown = Collections.newSetFromMap(
+                new IdentityHashMap<Throwable, Boolean>());
+        int followers = 0;
+
+        for (Future<String> caller : callers) {
+
+            try {
+                caller.get();
+                fail();
+            } catch (ExecutionException e) {
+
+                FtpException thrownToCaller = (FtpException) e.getCause();
+                thrown.add(thrownToCaller);
+
+                assertThat(thrownToCaller.getMessage(), is(equalTo(failure.getMessage())));
+                assertThat(thrownToCaller.getReplyCode(), is(equalTo(550)));
+
+                if (thrownToCaller != failure) {
+                    followers++;
+                    assertThat(thrownToCaller.getCause(), is(sameInstance((Throwable) failure)));
+                }
+            }
+        }
+
+        assertThat(followers, is(equalTo(CALLERS - 1)));
+        assertThat(thrown.size(), is(equalTo(CALLERS)));
+        assertThat(runs.get(), is(equalTo(1)));
+    }
+
+    @Test
+    public void callersArrivingAfterTheRunShouldStartAnother() {
+
+        singleFlight.execute("/data", operation(new CountDownLatch(0), null));
+        singleFlight.execute("/data", operation(new CountDownLatch(0), null));
+
+        assertThat(runs.get(), is(equalTo(2)));
+        assertThat(sharedWith.get(), is(equalTo(0)));
+    }
+
+    @Test
+    public void differentKeysShouldRunSeparately() throws Exception {
+
+        CountDownLatch release = new CountDownLatch(0);
+
+        Future<String> first = executor.submit(call("/data", release, null));
+        Future<String> second = executor.submit(call("/archive", release, null));
+
+        first.get();
+        second.get();
+
+        assertThat(runs.get(), is(equalTo(2)));
+    }
+
+    private List<Future<String>> startCallers(String key, CountDownLatch release, RuntimeException failure) {
+
+        List<Future<String>> callers = new ArrayList<Future<String>>();
+
+        for (int i = 0; i < CALLERS; i++)
+            callers.add(executor.submit(call(key, release, failure)));
+
+        return callers;
+    }
+
+    /**
+     * Gives every caller time to join before the first is let finish.
+     */
+    private void awaitFollowers(int followers) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (started.get() < followers + 1 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        Thread.sleep(100);
+    }
+
+    private Callable<String> call(final String key, final CountDownLatch release, final RuntimeException failure) {
+
+        return new Callable<String>() {
+
+            @Override
+            public String call() {
+
+                started.incrementAndGet();
+
+                return singleFlight.execute(key, operation(release, failure));
+            }
+        };
+    }
+
+    private SingleFlight.Operation<String> operation(final CountDownLatch release, final RuntimeException failure) {
+
+        return new SingleFlight.Operation<String>() {
+
+            @Override
+            public String run() {
+
+                runs.incrementAndGet();
+
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                if (null != failure)
+                    throw failure;
+
+                return "listing";
+            }
+        };
+    }
+}
@@ -0,0 +1,322 @@
+package jftp.watch;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import jftp.connection.Connection;
+import jftp.connection.FtpFile;
+import jftp.connection.RangedDownload;
+import jftp.exception.FtpException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class RemoteFileFollowerTest {
+
+    private static final String REMOTE_FILE = "/logs/app.log";
+
+    private Connection connection;
+    private TailListener listener;
+    private ScheduledExecutorService scheduler;
+
+    private final Executor pollExecutor = new Executor() {
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private RemoteFileFollower follower;
+
+    private volatile byte[] remoteContent;
+
+    @Before
+    public void setUp() throws IOException {
+
+        connection = mock(Connection.class, withSettings().extraInterfaces(RangedDownload.class));
+        listener = mock(TailListener.class);
+        scheduler = mock(ScheduledExecutorService.class);
+
+        follower = new RemoteFileFollower(connection, REMOTE_FILE, listener, scheduler, pollExecutor);
+
+        when(connection.stat(REMOTE_FILE)).thenAnswer(new Answer<FtpFile>() {
+
+            @Override
+            public FtpFile answer(InvocationOnMock invocation) {
+                return null == remoteContent ? null : new FtpFile("app.log", remoteContent.length, REMOTE_FILE, 0,
+                        false);
+            }
+        });
+
+        doAnswer(new Answer<Long>() {
+
+            @Override
+            public Long answer(InvocationOnMock invocation) throws IOException {
+
+                int offset = (int) (long) (Long) invocation.getArguments()[1];
+                int length = (int) Math.min((Long) invocation.getArguments()[2], remoteContent.length - offset);
+
+                ((OutputStream) invocation.getArguments()[3]).write(remoteContent, offset, length);
+
+                return (long) length;
+            }
+
+        }).when((RangedDownload) connection).downloadRange(eq(REMOTE_FILE), anyLong(), anyLong(),
+                any(OutputStream.class));
+    }
+
+    @Test
+    public void onlyWhatIsAddedAfterTheFirstPollShouldBeRead() throws IOException {
+
+        remote("line one\n");
+        follower.poll();
+
+        remote("line one\nline two\n");
+        follower.poll();
+
+        verify(listener).appended(aryEq(bytes("line two\n")), eq(9l));
+        verify((RangedDownload) connection).downloadRange(eq(REMOTE_FILE), eq(9l), eq(9l), any(OutputStream.class));
+        assertThat(follower.getOffset(), is(equalTo(18l)));
+    }
+
+    @Test
+    public void followingShouldStartFromTheOffsetGiven() {
+
+        remote("line one\nline two\n");
+        follower.setStartOffset(0);
+
+        follower.poll();
+
+        verify(listener).appended(aryEq(bytes("line one\nline two\n")), eq(0l));
+    }
+
+    @Test
+    public void anUnchangedFileShouldNotBeRead() throws IOException {
+
+        remote("line one\n");
+
+        assertThat(follower.poll(), is(false));
+        assertThat(follower.poll(), is(false));
+
+        verifyZeroInteractions(listener);
+        verify((RangedDownload) connection, never()).downloadRange(eq(REMOTE_FILE), anyLong(), anyLong(),
+                any(OutputStream.class));
+    }
+
+    @Test
+    public void theBytesBeforeTheOffsetShouldBeCheckedAlongWithTheNewOnes() throws IOException {
+
+        follower.setStartOffset(0);
+        follower.setVerificationBytes(4);
+
+        remote("line one\n");
+        follower.poll();
+
+        remote("line one\nline two\n");
+        follower.poll();
+
+        verify((RangedDownload) connection).downloadRange(eq(REMOTE_FILE), eq(5l), eq(13l), any(OutputStream.class));
+        verify(listener).appended(aryEq(bytes("line two\n")), eq(9l));
+    }
+
+    @Test
+    public void aTruncatedFileShouldBeReadAgainFromTheStart() {
+
+        remote("line one\nline two\n");
+        follower.poll();
+
+        remote("new\n");
+        follower.poll();
+
+        InOrder inOrder = inOrder(listener);
+        inOrder.verify(listener).truncated(any(FtpFile.class));
+        inOrder.verify(listener).appended(aryEq(bytes("new\n")), eq(0l));
+
+        assertThat(follower.getOffset(), is(equalTo(4l)));
+    }
+
+    @Test
+    public void aFileReplacedByALongerOneShouldBeReadAgainFromTheStart() {
+
+        follower.setStartOffset(0);
+
+        remote("line one\n");
+        follower.poll();
+
+        remote("LINE ONE\nline two\n");
+        follower.poll();
+
+        verify(listener).truncated(any(FtpFile.class));
+        verify(listener).appended(aryEq(bytes("LINE ONE\nline two\n")), eq(0l));
+    }
+
+    @Test
+    public void aMissingFileShouldBeWaitedFor() {
+
+        remote("line one\n");
+        follower.poll();
+
+        remoteContent = null;
+        assertThat(follower.poll(), is(false));
+
+        remote("new\n");
+        follower.poll();
+
+        verify(listener).truncated(any(FtpFile.class));
+        verify(listener).appended(aryEq(bytes("new\n")), eq(0l));
+    }
+
+    @Test
+    public void contentTheListenerRejectsShouldBeReadAgain() {
+
+        follower.setStartOffset(0);
+        remote("line one\n");
+
+        doThrow(new RuntimeException()).doNothing().when(listener).appended(aryEq(bytes("line one\n")), eq(0l));
+
+        try {
+            follower.poll();
+            fail();
+        } catch (RuntimeException e) {
+            // Expected.
+        }
+
+        follower.poll();
+
+        verify(listener, times(2)).appended(aryEq(bytes("line one\n")), eq(0l));
+        assertThat(follower.getOffset(), is(equalTo(9l)));
+    }
+
+    @Test
+    public void aFileFarBehindShouldBeReadInPiecesWithoutWaiting() {
+
+        follower.setStartOffset(0);
+        follower.setMaximumReadBytes(9);
+        follower.setPollInterval(100, 300);
+        remote("line one\nline two\n");
+
+        ArgumentCaptor<Runnable> polls = capturePolls();
+
+        follower.start();
+
+        for (int i = 0; i < 3; i++)
+            polls.getAllValues().get(i).run();
+
+        verify(listener).appended(aryEq(bytes("line one\n")), eq(0l));
+        verify(listener).appended(aryEq(bytes("line two\n")), eq(9l));
+
+        verify(scheduler, times(2)).schedule(any(Runnable.class), eq(0l), eq(TimeUnit.MILLISECONDS));
+        verify(scheduler).schedule(any(Runnable.class), eq(100l), eq(TimeUnit.MILLISECONDS));
+        verify(scheduler).schedule(any(Runnable.class), eq(200l), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void failedPollsShouldBeReportedWithoutStoppingTheFollower() {
+
+        FtpException failure = new FtpException("Unable to stat /logs/app.log");
+        when(connection.stat(REMOTE_FILE)).thenThrow(failure);
+
+        ArgumentCaptor<Runnable> polls = capturePolls();
+
+        follower.start();
+        polls.getValue().run();
+
+        verify(listener).failed(failure);
+        assertThat(polls.getAllValues().size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void aListenerFailingToTakeAFailureShouldNotStopTheFollower() {
+
+        when(connection.stat(REMOTE_FILE)).thenThrow(new FtpException("Unable to stat /logs/app.log"));
+        doThrow(new IllegalStateException()).when(listener).failed(any(FtpException.class));
+
+        ArgumentCaptor<Runnable> polls = capturePolls();
+
+        follower.start();
+
+        try {
+            polls.getValue().run();
+        } catch (IllegalStateException e) {
+            // Thrown on by the poll, as the scheduler would see it.
+        }
+
+        assertThat(polls.getAllValues().size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void aListenerStoppingTheFollowerShouldNotHaveItPollAgain() {
+
+        remote("line one\n");
+        follower.setStartOffset(0);
+
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                follower.stop();
+                return null;
+            }
+
+        }).when(listener).appended(any(byte[].class), anyLong());
+
+        ArgumentCaptor<Runnable> polls = capturePolls();
+
+        follower.start();
+        polls.getValue().run();
+
+        assertThat(polls.getAllValues().size(), is(equalTo(1)));
+    }
+
+    @Test(expected = FtpException.class)
+    public void aConnectionUnableToReadRangesShouldBeRefused() {
+        new RemoteFileFollower(mock(Connection.class), REMOTE_FILE, listener, scheduler, pollExecutor);
+    }
+
+    private ArgumentCaptor<Runnable> capturePolls() {
+
+        ScheduledFuture<?> nextPoll = mock(ScheduledFuture.class);
+        ArgumentCaptor<Runnable> polls = ArgumentCaptor.forClass(Runnable.class);
+
+        doReturn(nextPoll).when(scheduler).schedule(polls.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+
+        return polls;
+    }
+
+    private void remote(String content) {
+        remoteContent = bytes(content);
+    }
+
+    private byte[] bytes(String content) {
+        return content.getBytes();
+    }
+}
@@ -0,0 +1,344 @@
+package jftp.watch;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import jftp.connection.Connection;
+import jftp.connection.FtpFile;
+import jftp.exception.FtpException;
+
+import org.hamcrest.BaseMatcher;
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.mockito.stubbing.OngoingStubbing;
+
+public class RemoteWatcherTest {
+
+    private static final String DIRECTORY = "/drop";
+
+    private Connection connection;
+    private RemoteChangeListener listener;
+    private ScheduledExecutorService scheduler;
+
+    private final Executor pollExecutor = new Executor() {
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private RemoteWatcher watcher;
+
+    @Before
+    public void setUp() {
+
+        connection = mock(Connection.class);
+        listener = mock(RemoteChangeListener.class);
+        scheduler = mock(ScheduledExecutorService.class);
+
+        watcher = new RemoteWatcher(connection, DIRECTORY, listener, scheduler, pollExecutor);
+    }
+
+    @Test
+    public void whatIsThereOnTheFirstPollShouldNotBeReported() {
+
+        listings(DIRECTORY, listing(file("a.csv", 10, 1)));
+
+        watcher.poll();
+
+        verifyZeroInteractions(listener);
+    }
+
+    @Test
+    public void aNewFileShouldOnlyBeReportedOnceItHasStoppedChanging() {
+
+        listings(DIRECTORY, listing(), listing(file("a.csv", 10, 1)), listing(file("a.csv", 20, 2)),
+                listing(file("a.csv", 20, 2)));
+
+        watcher.poll();
+        watcher.poll();
+        watcher.poll();
+
+        verify(listener, never()).created(any(FtpFile.class));
+
+        watcher.poll();
+
+        verify(listener).created(named("a.csv"));
+        verify(listener, never()).modified(any(FtpFile.class));
+    }
+
+    @Test
+    public void aModifiedFileShouldBeReportedOnceSettled() {
+
+        listings(DIRECTORY, listing(file("a.csv", 10, 1)), listing(file("a.csv", 20, 2)),
+                listing(file("a.csv", 20, 2)));
+
+        watcher.poll();
+        watcher.poll();
+        watcher.poll();
+
+        verify(listener).modified(named("a.csv"));
+    }
+
+    @Test
+    public void aDeletedFileShouldBeReportedStraightAway() {
+
+        listings(DIRECTORY, listing(file("a.csv", 10, 1), file("b.csv", 10, 1)), listing(file("b.csv", 10, 1)));
+
+        watcher.poll();
+        watcher.poll();
+
+        verify(listener).deleted(named("a.csv"));
+        verify(listener, never()).deleted(named("b.csv"));
+    }
+
+    @Test
+    public void aFileWhichVanishesBeforeSettlingShouldNotBeReportedAtAll() {
+
+        listings(DIRECTORY, listing(), listing(file("tmp.part", 10, 1)), listing());
+
+        watcher.poll();
+        watcher.poll();
+        watcher.poll();
+
+        verifyZeroInteractions(listener);
+    }
+
+    @Test
+    public void withoutAStabilityCheckChangesShouldBeReportedAsSoonAsTheyAreSeen() {
+
+        listings(DIRECTORY, listing(), listing(file("a.csv", 10, 1)));
+        watcher.setStabilityPolls(0);
+
+        watcher.poll();
+        watcher.poll();
+
+        verify(listener).created(named("a.csv"));
+    }
+
+    @Test
+    public void watchingATreeShouldReportChangesInSubdirectories() {
+
+        watcher.setRecursive(true);
+        watcher.setStabilityPolls(0);
+
+        listings(DIRECTORY, listing(), listing(directory("new")), listing());
+        listings(DIRECTORY + "/new", listing(file("inner.csv", 10, 1)));
+
+        watcher.poll();
+        watcher.poll();
+
+        verify(listener).created(named("new"));
+        verify(listener).created(named("inner.csv"));
+
+        watcher.poll();
+
+        verify(listener).deleted(named("new"));
+        verify(listener).deleted(named("inner.csv"));
+    }
+
+    @Test
+    public void thePollIntervalShouldBackOffWhileNothingChangesAndResetWhenSomethingDoes() {
+
+        listings(DIRECTORY, listing(), listing(), listing(), listing(file("a.csv", 10, 1)));
+        watcher.setPollInterval(100, 300);
+
+        ArgumentCaptor<Runnable> polls = capturePolls();
+
+        watcher.start();
+
+        for (int i = 0; i < 4; i++)
+            polls.getAllValues().get(i).run();
+
+        verify(scheduler).schedule(any(Runnable.class), eq(0l), eq(TimeUnit.MILLISECONDS));
+        verify(scheduler).schedule(any(Runnable.class), eq(200l), eq(TimeUnit.MILLISECONDS));
+        verify(scheduler, times(2)).schedule(any(Runnable.class), eq(300l), eq(TimeUnit.MILLISECONDS));
+        verify(scheduler).schedule(any(Runnable.class), eq(100l), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void theSchedulerShouldOnlyHandThePollToThePollExecutor() {
+
+        Executor executor = mock(Executor.class);
+        watcher = new RemoteWatcher(connection, DIRECTORY, listener, scheduler, executor);
+
+        ArgumentCaptor<Runnable> polls = capturePolls();
+
+        watcher.start();
+        polls.getValue().run();
+
+        ArgumentCaptor<Runnable> handedOver = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).execute(handedOver.capture());
+        verifyZeroInteractions(connection);
+
+        listings(DIRECTORY, listing());
+        handedOver.getValue().run();
+
+        verify(connection).listFiles(DIRECTORY);
+        assertThat(polls.getAllValues().size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void failedPollsShouldBeReportedWithoutStoppingTheWatcher() {
+
+        FtpException failure = new FtpException("Unable to list files in directory /drop");
+        when(connection.listFiles(DIRECTORY)).thenThrow(failure);
+
+        ArgumentCaptor<Runnable> polls = capturePolls();
+
+        watcher.start();
+        polls.getValue().run();
+
+        verify(listener).failed(failure);
+        assertThat(polls.getAllValues().size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void aListenerFailingToTakeAFailureShouldNotStopTheWatcher() {
+
+        when(connection.listFiles(DIRECTORY)).thenThrow(new FtpException("Unable to list files in directory /drop"));
+        doThrow(new IllegalStateException()).when(listener).failed(any(FtpException.class));
+
+        ArgumentCaptor<Runnable> polls = capturePolls();
+
+        watcher.start();
+
+        try {
+            polls.getValue().run();
+        } catch (IllegalStateException e) {
+            // Thrown on by the poll, as the scheduler would see it.
+        }
+
+        assertThat(polls.getAllValues().size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void aListenerStoppingTheWatcherShouldNotHaveItPollAgain() {
+
+        when(connection.listFiles(DIRECTORY)).thenThrow(new FtpException("Unable to list files in directory /drop"));
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                watcher.stop();
+                return null;
+            }
+
+        }).when(listener).failed(any(FtpException.class));
+
+        ArgumentCaptor<Runnable> polls = capturePolls();
+
+        watcher.start();
+        polls.getValue().run();
+
+        assertThat(polls.getAllValues().size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void theDotEntriesSftpServersListShouldBeNeitherReportedNorDescendedInto() {
+
+        watcher.setRecursive(true);
+        watcher.setStabilityPolls(0);
+
+        FtpFile inner = new FtpFile("inner", 0, DIRECTORY + "/inner", 0, true);
+        FtpFile innerFile = new FtpFile("inner.csv", 10, DIRECTORY + "/inner/inner.csv", 1, false);
+
+        listings(DIRECTORY, listing(dotEntry(DIRECTORY, "."), dotEntry(DIRECTORY, "..")),
+                listing(dotEntry(DIRECTORY, "."), dotEntry(DIRECTORY, ".."), inner));
+        listings(DIRECTORY + "/inner", listing(dotEntry(DIRECTORY + "/inner", "."),
+                dotEntry(DIRECTORY + "/inner", ".."), innerFile));
+
+        watcher.poll();
+        watcher.poll();
+
+        verify(listener).created(named("inner"));
+        verify(listener).created(named("inner.csv"));
+        verify(listener, times(2)).created(any(FtpFile.class));
+
+        verify(connection, times(2)).listFiles(DIRECTORY);
+        verify(connection).listFiles(DIRECTORY + "/inner");
+        verify(connection, times(3)).listFiles(anyString());
+    }
+
+    private ArgumentCaptor<Runnable> capturePolls() {
+
+        ScheduledFuture<?> nextPoll = mock(ScheduledFuture.class);
+        ArgumentCaptor<Runnable> polls = ArgumentCaptor.forClass(Runnable.class);
+
+        doReturn(nextPoll).when(scheduler).schedule(polls.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+
+        return polls;
+    }
+
+    @SafeVarargs
+    private final void listings(String path, List<FtpFile> first, List<FtpFile>... rest) {
+
+        OngoingStubbing<List<FtpFile>> stubbing = when(connection.listFiles(path)).thenReturn(first);
+
+        for (List<FtpFile> next : rest)
+            stubbing = stubbing.thenReturn(next);
+    }
+
+    private FtpFile dotEntry(String directory, String name) {
+        return new FtpFile(name, 0, directory + "/" + name, System.currentTimeMillis(), true);
+    }
+
+    private List<FtpFile> listing(FtpFile... files) {
+        return new ArrayList<FtpFile>(Arrays.asList(files));
+    }
+
+    private FtpFile file(String name, long size, long mTime) {
+        return new FtpFile(name, size, DIRECTORY + "/" + name, mTime, false);
+    }
+
+    private FtpFile directory(String name) {
+        return new FtpFile(name, 0, DIRECTORY + "/" + name, 0, true);
+    }
+
+    private FtpFile named(final String name) {
+
+        Matcher<FtpFile> matcher = new BaseMatcher<FtpFile>() {
+
+            @Override
+            public boolean matches(Object item) {
+                return item instanceof FtpFile && ((FtpFile) item).getName().equals(name);
+            }
+
+            @Override
+            public void describeTo(Description description) {
+                description.appendText("a file named " + name);
+            }
+        };
+
+        return argThat(matcher);
+    }
+}
@@ -0,0 +1,58 @@
+package jftp.watch;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jftp.connection.FtpFile;
+
+import org.junit.Test;
+
+public class SnapshotTest {
+
+    @Test
+    public void everyEntryShouldBeFoundByItsNameHash() {
+
+        List<FtpFile> files = new ArrayList<FtpFile>();
+
+        for (int i = 0; i < 1000; i++)
+            files.add(new FtpFile("file" + i, i, "/file" + i, i, false));
+
+        Snapshot snapshot = new Snapshot(files);
+
+        for (int i = 0; i < 1000; i++)
+            assertThat(snapshot.indexOf(snapshot.nameHash(i)), is(equalTo(i)));
+    }
+
+    @Test
+    public void unknownNamesShouldNotBeFound() {
+
+        List<FtpFile> files = new ArrayList<FtpFile>();
+        files.add(new FtpFile("present", 1, "/present", 1, false));
+
+        Snapshot snapshot = new Snapshot(files);
+        Snapshot other = new Snapshot(Collections.singletonList(new FtpFile("absent", 1, "/absent", 1, false)));
+
+        assertThat(snapshot.indexOf(other.nameHash(0)), is(equalTo(-1)));
+        assertThat(new Snapshot(new ArrayList<FtpFile>()).indexOf(other.nameHash(0)), is(equalTo(-1)));
+    }
+
+    @Test
+    public void theFingerprintShouldChangeWithSizeOrModificationTime() {
+
+        List<FtpFile> files = new ArrayList<FtpFile>();
+        files.add(new FtpFile("a", 10, "/a", 1000, false));
+        files.add(new FtpFile("b", 11, "/b", 1000, false));
+        files.add(new FtpFile("c", 10, "/c", 2000, false));
+
+        Snapshot snapshot = new Snapshot(files);
+
+        assertThat(snapshot.fingerprint(0), is(not(equalTo(snapshot.fingerprint(1)))));
+        assertThat(snapshot.fingerprint(0), is(not(equalTo(snapshot.fingerprint(2)))));
+    }
+}